@@ -0,0 +1 @@
+java -jar target/benchmarks.jar %*
@@ -0,0 +1,2 @@
+#!/bin/bash
+java -jar target/benchmarks.jar "$@"
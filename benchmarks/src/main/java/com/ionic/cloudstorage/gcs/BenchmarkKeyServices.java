@@ -0,0 +1,144 @@
+/*
+ * (c) 2017-2021 Ionic Security Inc. By using this code, I agree to the Terms & Conditions
+ * (https://dev.ionic.com/use) and the Privacy Policy (https://www.ionic.com/privacy-notice/).
+ */
+
+package com.ionic.cloudstorage.gcs;
+
+import com.ionic.sdk.agent.data.MetadataMap;
+import com.ionic.sdk.agent.key.KeyAttributesMap;
+import com.ionic.sdk.agent.key.KeyObligationsMap;
+import com.ionic.sdk.agent.request.createkey.CreateKeysRequest;
+import com.ionic.sdk.agent.request.createkey.CreateKeysResponse;
+import com.ionic.sdk.agent.request.getkey.GetKeysRequest;
+import com.ionic.sdk.agent.request.getkey.GetKeysResponse;
+import com.ionic.sdk.agent.request.updatekey.UpdateKeysRequest;
+import com.ionic.sdk.agent.request.updatekey.UpdateKeysResponse;
+import com.ionic.sdk.device.profile.DeviceProfile;
+import com.ionic.sdk.error.AgentErrorModuleConstants;
+import com.ionic.sdk.error.IonicException;
+import com.ionic.sdk.key.KeyServices;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * An in-process key service standing in for IDC, so that benchmarks exercise the library's own
+ * key handling (caches, single flight, batching) without network latency. Keys
+ * are random AES-256 keys held in memory; fetching an unknown key returns a per key error as IDC
+ * does.
+ */
+class BenchmarkKeyServices implements KeyServices {
+
+    private static final String DEVICE_ID = "benchmark.device";
+
+    private final Map<String, GetKeysResponse.Key> keys =
+            new ConcurrentHashMap<String, GetKeysResponse.Key>();
+    private final AtomicLong keyIds = new AtomicLong();
+
+    @Override
+    public DeviceProfile getActiveProfile() {
+        return null;
+    }
+
+    @Override
+    public boolean hasActiveProfile() {
+        return true;
+    }
+
+    @Override
+    public CreateKeysResponse createKeys(CreateKeysRequest request) {
+        CreateKeysResponse response = new CreateKeysResponse();
+        for (CreateKeysRequest.Key requested : request.getKeys()) {
+            for (int i = 0; i < requested.getQuantity(); i++) {
+                byte[] bytes = new byte[32];
+                ThreadLocalRandom.current().nextBytes(bytes);
+                String keyId = "bench" + keyIds.incrementAndGet();
+                KeyAttributesMap attributes = new KeyAttributesMap(requested.getAttributesMap());
+                KeyAttributesMap mutableAttributes =
+                        new KeyAttributesMap(requested.getMutableAttributesMap());
+                keys.put(keyId, new GetKeysResponse.Key(keyId, bytes, DEVICE_ID, attributes,
+                        mutableAttributes, new KeyObligationsMap(), ""));
+                response.add(new CreateKeysResponse.Key(requested.getRefId(), keyId,
+                        bytes.clone(), DEVICE_ID, attributes, mutableAttributes,
+                        new KeyObligationsMap(), ""));
+            }
+        }
+        return response;
+    }
+
+    @Override
+    public CreateKeysResponse createKey(KeyAttributesMap attributes,
+            KeyAttributesMap mutableAttributes, MetadataMap metadata) {
+        CreateKeysRequest request = new CreateKeysRequest();
+        request.add(new CreateKeysRequest.Key("", 1,
+                attributes == null ? new KeyAttributesMap() : attributes,
+                mutableAttributes == null ? new KeyAttributesMap() : mutableAttributes));
+        return createKeys(request);
+    }
+
+    @Override
+    public CreateKeysResponse createKey(KeyAttributesMap attributes,
+            KeyAttributesMap mutableAttributes) {
+        return createKey(attributes, mutableAttributes, null);
+    }
+
+    @Override
+    public CreateKeysResponse createKey(KeyAttributesMap attributes, MetadataMap metadata) {
+        return createKey(attributes, null, metadata);
+    }
+
+    @Override
+    public CreateKeysResponse createKey(KeyAttributesMap attributes) {
+        return createKey(attributes, null, null);
+    }
+
+    @Override
+    public CreateKeysResponse createKey(MetadataMap metadata) {
+        return createKey(null, null, metadata);
+    }
+
+    @Override
+    public CreateKeysResponse createKey() {
+        return createKey(null, null, null);
+    }
+
+    @Override
+    public GetKeysResponse getKeys(GetKeysRequest request) {
+        GetKeysResponse response = new GetKeysResponse();
+        for (String keyId : request.getKeyIds()) {
+            GetKeysResponse.Key key = keys.get(keyId);
+            if (key == null) {
+                response.add(new GetKeysResponse.IonicError(keyId,
+                        AgentErrorModuleConstants.ISAGENT_KEY_DENIED, 0, "Key not found"));
+            } else {
+                response.add(new GetKeysResponse.Key(key));
+            }
+        }
+        return response;
+    }
+
+    @Override
+    public GetKeysResponse getKey(String keyId, MetadataMap metadata) {
+        GetKeysRequest request = new GetKeysRequest();
+        request.add(keyId);
+        return getKeys(request);
+    }
+
+    @Override
+    public GetKeysResponse getKey(String keyId) {
+        return getKey(keyId, null);
+    }
+
+    @Override
+    public UpdateKeysResponse updateKeys(UpdateKeysRequest request) throws IonicException {
+        throw new IonicException(AgentErrorModuleConstants.ISAGENT_NOTIMPLEMENTED);
+    }
+
+    @Override
+    public UpdateKeysResponse updateKey(UpdateKeysRequest.Key key, MetadataMap metadata)
+            throws IonicException {
+        throw new IonicException(AgentErrorModuleConstants.ISAGENT_NOTIMPLEMENTED);
+    }
+}
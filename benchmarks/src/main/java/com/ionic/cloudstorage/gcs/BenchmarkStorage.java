@@ -0,0 +1,121 @@
+/*
+ * (c) 2017-2021 Ionic Security Inc. By using this code, I agree to the Terms & Conditions
+ * (https://dev.ionic.com/use) and the Privacy Policy (https://www.ionic.com/privacy-notice/).
+ */
+
+package com.ionic.cloudstorage.gcs;
+
+import com.google.cloud.NoCredentials;
+import com.google.cloud.storage.BenchmarkBlobs;
+import com.google.cloud.storage.Blob;
+import com.google.cloud.storage.BlobId;
+import com.google.cloud.storage.BlobInfo;
+import com.google.cloud.storage.Storage;
+import com.google.cloud.storage.StorageException;
+import com.google.cloud.storage.StorageOptions;
+import com.ionic.sdk.key.KeyServices;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A GoogleIonicStorage backed by an in-memory {@link Storage} and a {@link BenchmarkKeyServices},
+ * so that benchmarks measure the per-object overhead of the library rather than network latency.
+ * Content is stored as given; the in-memory Storage does not apply the customer-supplied keys.
+ */
+class BenchmarkStorage extends GoogleIonicStorage {
+
+    private final BenchmarkKeyServices keyServices = new BenchmarkKeyServices();
+
+    BenchmarkStorage() {
+        super(InMemoryStorage.create());
+    }
+
+    /**
+     * Implements the getOptions, blob create, get and readAllBytes methods of Storage; every other
+     * method throws UnsupportedOperationException.
+     */
+    private static class InMemoryStorage implements InvocationHandler {
+        private final Map<BlobId, BlobInfo> infos = new ConcurrentHashMap<BlobId, BlobInfo>();
+        private final Map<BlobId, byte[]> contents = new ConcurrentHashMap<BlobId, byte[]>();
+        private final AtomicLong generations = new AtomicLong();
+        private final StorageOptions options = StorageOptions.newBuilder()
+                .setProjectId("benchmark")
+                .setCredentials(NoCredentials.getInstance())
+                .build();
+
+        static Storage create() {
+            return (Storage) Proxy.newProxyInstance(Storage.class.getClassLoader(),
+                    new Class<?>[] {Storage.class}, new InMemoryStorage());
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) {
+            Class<?>[] types = method.getParameterTypes();
+            switch (method.getName()) {
+                case "create":
+                    if (types.length == 3 && types[1] == byte[].class) {
+                        return create((Storage) proxy, (BlobInfo) args[0], (byte[]) args[1]);
+                    }
+                    break;
+                case "get":
+                    if (types.length == 2 && types[0] == BlobId.class) {
+                        return get((Storage) proxy, (BlobId) args[0]);
+                    }
+                    break;
+                case "readAllBytes":
+                    if (types.length == 2 && types[0] == BlobId.class) {
+                        return readAllBytes((BlobId) args[0]);
+                    }
+                    break;
+                case "getOptions":
+                    return options;
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "equals":
+                    return proxy == args[0];
+                case "toString":
+                    return "InMemoryStorage";
+                default:
+                    break;
+            }
+            throw new UnsupportedOperationException(method.toString());
+        }
+
+        private Blob create(Storage storage, BlobInfo blobInfo, byte[] content) {
+            BlobId latest = BlobId.of(blobInfo.getBucket(), blobInfo.getName());
+            BlobInfo info = blobInfo.toBuilder()
+                    .setBlobId(BlobId.of(latest.getBucket(), latest.getName(),
+                            generations.incrementAndGet()))
+                    .build();
+            infos.put(latest, info);
+            contents.put(latest, content);
+            return BenchmarkBlobs.blob(storage, info);
+        }
+
+        private Blob get(Storage storage, BlobId blob) {
+            BlobInfo info = infos.get(BlobId.of(blob.getBucket(), blob.getName()));
+            return info == null ? null : BenchmarkBlobs.blob(storage, info);
+        }
+
+        private byte[] readAllBytes(BlobId blob) {
+            byte[] content = contents.get(BlobId.of(blob.getBucket(), blob.getName()));
+            if (content == null) {
+                throw new StorageException(404, "404 Not Found");
+            }
+            return content;
+        }
+    }
+
+    /**
+     * IDC requests are answered by the in-process key service. Everything above the request,
+     * including the key caches, single flight and batching, runs as it does against IDC.
+     */
+    @Override
+    protected KeyServices keyServices() {
+        return keyServices;
+    }
+}
@@ -0,0 +1,91 @@
+/*
+ * (c) 2017-2021 Ionic Security Inc. By using this code, I agree to the Terms & Conditions
+ * (https://dev.ionic.com/use) and the Privacy Policy (https://www.ionic.com/privacy-notice/).
+ */
+
+package com.ionic.cloudstorage.gcs;
+
+import com.google.cloud.storage.BlobId;
+import com.google.cloud.storage.BlobInfo;
+import com.google.cloud.storage.Storage.BlobSourceOption;
+import com.google.cloud.storage.Storage.BlobTargetOption;
+import com.google.cloud.storage.Storage.BlobWriteOption;
+import com.ionic.sdk.agent.request.createkey.CreateKeysRequest;
+import com.ionic.sdk.agent.request.createkey.CreateKeysResponse;
+import com.ionic.sdk.agent.request.getkey.GetKeysResponse;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the per-object key handling of {@link GoogleIonicStorage}: key creation, building
+ * the encryption and decryption options, and resolving the key of an existing blob.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class KeyBenchmark {
+
+    private BenchmarkStorage ionicStorage;
+    private BlobInfo blobInfo;
+    private BlobId blobId;
+    private CreateKeysRequest.Key key;
+    private CreateKeysResponse.Key createdKey;
+    private GetKeysResponse.Key fetchedKey;
+    private BlobTargetOption[] targetOptions;
+    private BlobWriteOption[] writeOptions;
+    private BlobSourceOption[] sourceOptions;
+
+    @Setup
+    public void setUp() {
+        ionicStorage = new BenchmarkStorage();
+        blobInfo = BlobInfo.newBuilder("bucket", "blob")
+                .setMetadata(Collections.singletonMap("classification", "restricted"))
+                .build();
+        key = new CreateKeysRequest.Key("");
+        ionicStorage.create(blobInfo, new byte[16]);
+        blobId = BlobId.of("bucket", "blob");
+        createdKey = ionicStorage.createIonicKey(key, blobInfo).key;
+        fetchedKey = ionicStorage.ionicKeyFromBlob(blobId);
+        targetOptions = new BlobTargetOption[] {BlobTargetOption.doesNotExist()};
+        writeOptions = new BlobWriteOption[] {BlobWriteOption.doesNotExist()};
+        sourceOptions = new BlobSourceOption[] {BlobSourceOption.generationMatch(1L)};
+    }
+
+    @Benchmark
+    public Object createIonicKey() {
+        return ionicStorage.createIonicKey(key, blobInfo);
+    }
+
+    @Benchmark
+    public Object writeOptionsWithEncrytion() {
+        return ionicStorage.writeOptionsWithEncrytion(createdKey, writeOptions);
+    }
+
+    @Benchmark
+    public Object targetOptionsWithEncrytion() {
+        return ionicStorage.targetOptionsWithEncrytion(createdKey, targetOptions);
+    }
+
+    @Benchmark
+    public Object sourceOptionsWithDecryption() {
+        return ionicStorage.sourceOptionsWithDecryption(fetchedKey, sourceOptions);
+    }
+
+    @Benchmark
+    public Object ionicKeyFromBlob() {
+        return ionicStorage.ionicKeyFromBlob(blobId);
+    }
+}
@@ -0,0 +1,65 @@
+/*
+ * (c) 2017-2021 Ionic Security Inc. By using this code, I agree to the Terms & Conditions
+ * (https://dev.ionic.com/use) and the Privacy Policy (https://www.ionic.com/privacy-notice/).
+ */
+
+package com.ionic.cloudstorage.gcs;
+
+import com.google.cloud.storage.BlobId;
+import com.google.cloud.storage.BlobInfo;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures end to end {@link GoogleIonicStorage#create(BlobInfo, byte[],
+ * com.google.cloud.storage.Storage.BlobTargetOption...)} and
+ * {@link GoogleIonicStorage#readAllBytes(BlobId, com.google.cloud.storage.Storage.BlobSourceOption...)}
+ * for several payload sizes.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class RoundTripBenchmark {
+
+    @Param({"1024", "65536", "1048576", "16777216"})
+    public int payloadSize;
+
+    private BenchmarkStorage ionicStorage;
+    private BlobInfo blobInfo;
+    private BlobId blobId;
+    private byte[] payload;
+
+    @Setup
+    public void setUp() {
+        ionicStorage = new BenchmarkStorage();
+        blobInfo = BlobInfo.newBuilder("bucket", "blob").build();
+        blobId = blobInfo.getBlobId();
+        payload = new byte[payloadSize];
+        ThreadLocalRandom.current().nextBytes(payload);
+        ionicStorage.create(blobInfo, payload);
+    }
+
+    @Benchmark
+    public Object create() {
+        return ionicStorage.create(blobInfo, payload);
+    }
+
+    @Benchmark
+    public byte[] readAllBytes() {
+        return ionicStorage.readAllBytes(blobId);
+    }
+}
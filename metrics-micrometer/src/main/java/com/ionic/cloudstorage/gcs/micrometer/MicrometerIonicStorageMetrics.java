@@ -0,0 +1,107 @@
+/*
+ * (c) 2017-2021 Ionic Security Inc. By using this code, I agree to the Terms & Conditions
+ * (https://dev.ionic.com/use) and the Privacy Policy (https://www.ionic.com/privacy-notice/).
+ */
+
+package com.ionic.cloudstorage.gcs.micrometer;
+
+import com.ionic.cloudstorage.gcs.IonicStorageMetrics;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * An {@link IonicStorageMetrics} that records to a Micrometer {@link MeterRegistry}.
+ *
+ * <p>The following meters are registered, each tagged with the operation or cache:
+ * <ul>
+ * <li>ionic.gcs.idc.requests, a timer of IDC requests tagged with operation and error.</li>
+ * <li>ionic.gcs.idc.keys, a summary of the keys per IDC request tagged with operation.</li>
+ * <li>ionic.gcs.storage.requests, a timer of Google Cloud Storage calls tagged with operation
+ * and error.</li>
+ * <li>ionic.gcs.storage.bytes, a summary of the content bytes per Google Cloud Storage call
+ * tagged with operation.</li>
+ * <li>ionic.gcs.cache.lookups, a counter of key cache, key pool and Agent pool lookups tagged
+ * with cache and result, "hit" or "miss".</li>
+ * </ul>
+ * The error tag is "0" for successful requests and the error code otherwise. Timers publish
+ * percentile histograms so that latency distributions can be aggregated across instances.
+ *
+ * <p>Example of enabling metrics.
+ *
+ * <pre>
+ * {
+ *     ionicStorage.enableMetrics(new MicrometerIonicStorageMetrics(Metrics.globalRegistry));
+ * }
+ * </pre>
+ */
+public class MicrometerIonicStorageMetrics implements IonicStorageMetrics {
+
+    private final MeterRegistry registry;
+    private final ConcurrentMap<String, Timer> timers = new ConcurrentHashMap<String, Timer>();
+    private final ConcurrentMap<String, DistributionSummary> summaries =
+            new ConcurrentHashMap<String, DistributionSummary>();
+    private final ConcurrentMap<String, Counter> counters =
+            new ConcurrentHashMap<String, Counter>();
+
+    /**
+     * MicrometerIonicStorageMetrics() constructor for metrics recorded to registry.
+     *
+     * @param registry a {@link io.micrometer.core.instrument.MeterRegistry}.
+     */
+    public MicrometerIonicStorageMetrics(MeterRegistry registry) {
+        if (registry == null) {
+            throw new NullPointerException("registry must not be null");
+        }
+        this.registry = registry;
+    }
+
+    @Override
+    public void idcRequest(String operation, int keyCount, long nanos, int errorCode) {
+        timer("ionic.gcs.idc.requests", operation, errorCode)
+                .record(nanos, TimeUnit.NANOSECONDS);
+        summary("ionic.gcs.idc.keys", operation, null).record(keyCount);
+    }
+
+    @Override
+    public void storageRequest(String operation, long nanos, long bytes, int errorCode) {
+        timer("ionic.gcs.storage.requests", operation, errorCode)
+                .record(nanos, TimeUnit.NANOSECONDS);
+        if (bytes > 0) {
+            summary("ionic.gcs.storage.bytes", operation, "bytes").record(bytes);
+        }
+    }
+
+    @Override
+    public void cacheLookup(String cache, boolean hit) {
+        String result = hit ? "hit" : "miss";
+        counters.computeIfAbsent(cache + "/" + result, key -> Counter
+                .builder("ionic.gcs.cache.lookups")
+                .tag("cache", cache)
+                .tag("result", result)
+                .register(registry))
+                .increment();
+    }
+
+    private Timer timer(String name, String operation, int errorCode) {
+        String error = Integer.toString(errorCode);
+        return timers.computeIfAbsent(name + "/" + operation + "/" + error, key -> Timer
+                .builder(name)
+                .tag("operation", operation)
+                .tag("error", error)
+                .publishPercentileHistogram()
+                .register(registry));
+    }
+
+    private DistributionSummary summary(String name, String operation, String baseUnit) {
+        return summaries.computeIfAbsent(name + "/" + operation, key -> DistributionSummary
+                .builder(name)
+                .baseUnit(baseUnit)
+                .tag("operation", operation)
+                .register(registry));
+    }
+}
@@ -0,0 +1,264 @@
+/*
+ * (c) 2017-2021 Ionic Security Inc. By using this code, I agree to the Terms & Conditions
+ * (https://dev.ionic.com/use) and the Privacy Policy (https://www.ionic.com/privacy-notice/).
+ */
+
+package com.ionic.cloudstorage.gcs;
+
+import com.google.cloud.WriteChannel;
+import com.google.cloud.storage.Blob;
+import com.google.cloud.storage.BlobId;
+import com.google.cloud.storage.BlobInfo;
+import com.google.cloud.storage.Storage;
+import com.google.cloud.storage.Storage.BlobSourceOption;
+import com.google.cloud.storage.Storage.BlobTargetOption;
+import com.google.cloud.storage.Storage.BlobWriteOption;
+import com.ionic.cloudstorage.gcs.GoogleIonicStorage.IonicKeyBytesPair;
+import com.ionic.cloudstorage.gcs.GoogleIonicStorage.IonicKeyReadChannelPair;
+import com.ionic.sdk.agent.request.createkey.CreateKeysRequest;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * An asynchronous facade over the encrypting and decrypting methods of
+ * {@link GoogleIonicStorage}. Each operation runs as two stages on the supplied
+ * {@link java.util.concurrent.Executor}: an IDC stage that creates or fetches the Ionic Key and a
+ * Google Cloud Storage stage that transfers the blob, so no thread is held across both round
+ * trips.
+ *
+ * <p>Cancelling a returned {@link java.util.concurrent.CompletableFuture} prevents any stage that
+ * has not yet started from running. A stage that is already running is not interrupted.
+ *
+ * <p>Example of reading several blobs concurrently.
+ *
+ * <pre>
+ * {
+ *     ExecutorService executor = Executors.newFixedThreadPool(16);
+ *     AsyncGoogleIonicStorage async = new AsyncGoogleIonicStorage(ionicStorage, executor);
+ *     List&lt;CompletableFuture&lt;byte[]&gt;&gt; reads = new ArrayList&lt;&gt;();
+ *     for (BlobId blobId : blobIds) {
+ *         reads.add(async.readAllBytes(blobId));
+ *     }
+ * }
+ * </pre>
+ */
+public class AsyncGoogleIonicStorage {
+
+    private final GoogleIonicStorage ionicStorage;
+    private final Executor executor;
+
+    /**
+     * AsyncGoogleIonicStorage() constructor that runs the operations of an existing
+     * {@link GoogleIonicStorage} on an {@link java.util.concurrent.Executor}.
+     *
+     * @param ionicStorage the {@link GoogleIonicStorage} performing the operations.
+     * @param executor the {@link java.util.concurrent.Executor} the stages run on.
+     */
+    public AsyncGoogleIonicStorage(GoogleIonicStorage ionicStorage, Executor executor) {
+        if (ionicStorage == null || executor == null) {
+            throw new NullPointerException("ionicStorage and executor must not be null");
+        }
+        this.ionicStorage = ionicStorage;
+        this.executor = executor;
+    }
+
+    /**
+     * getIonicStorage() returns the GoogleIonicStorage backing the class.
+     *
+     * @return a {@link GoogleIonicStorage} object.
+     */
+    public GoogleIonicStorage getIonicStorage() {
+        return this.ionicStorage;
+    }
+
+    /**
+     * getExecutor() returns the Executor the stages run on.
+     *
+     * @return a {@link java.util.concurrent.Executor} object.
+     */
+    public Executor getExecutor() {
+        return this.executor;
+    }
+
+    /**
+     * Asynchronously creates a new Ionic protected blob.
+     *
+     * @param blobInfo a {@link com.google.cloud.storage.BlobInfo}
+     * @param content a byte[] to store
+     * @param options an optional array of
+     *        {@link com.google.cloud.storage.Storage.BlobTargetOption}s
+     * @return a future completed with the {@link com.google.cloud.storage.Blob}
+     * @see GoogleIonicStorage#create(BlobInfo, byte[], Storage.BlobTargetOption...)
+     */
+    public CompletableFuture<Blob> create(BlobInfo blobInfo, byte[] content,
+            BlobTargetOption... options) {
+        return create(blobInfo, content, new CreateKeysRequest.Key(""), options);
+    }
+
+    /**
+     * Asynchronously creates a new Ionic protected blob. Uses a
+     * {@link com.ionic.sdk.agent.request.createkey.CreateKeysRequest.Key} to specify Attributes on
+     * the associated Ionic Key.
+     *
+     * @param blobInfo a {@link com.google.cloud.storage.BlobInfo}
+     * @param content a byte[] to store
+     * @param key a {@link com.ionic.sdk.agent.request.createkey.CreateKeysRequest.Key}
+     * @param options an optional array of
+     *        {@link com.google.cloud.storage.Storage.BlobTargetOption}s
+     * @return a future completed with the {@link com.google.cloud.storage.Blob}
+     * @see GoogleIonicStorage#create(BlobInfo, byte[], CreateKeysRequest.Key,
+     *      Storage.BlobTargetOption...)
+     */
+    public CompletableFuture<Blob> create(BlobInfo blobInfo, byte[] content,
+            CreateKeysRequest.Key key, BlobTargetOption... options) {
+        return chain(() -> ionicStorage.createIonicKey(key, blobInfo),
+            pair -> ionicStorage.createWithKey(pair, content, options));
+    }
+
+    /**
+     * Asynchronously uploads path to an Ionic protected blob.
+     *
+     * @param blobInfo a {@link com.google.cloud.storage.BlobInfo}
+     * @param path an {@link java.nio.file.Path}
+     * @param key a {@link com.ionic.sdk.agent.request.createkey.CreateKeysRequest.Key}
+     * @param options an optional array of
+     *        {@link com.google.cloud.storage.Storage.BlobWriteOption}s
+     * @return a future completed with the {@link com.google.cloud.storage.Blob}
+     * @see GoogleIonicStorage#createFrom(BlobInfo, Path, CreateKeysRequest.Key,
+     *      Storage.BlobWriteOption...)
+     */
+    public CompletableFuture<Blob> createFrom(BlobInfo blobInfo, Path path,
+            CreateKeysRequest.Key key, BlobWriteOption... options) {
+        return chain(() -> ionicStorage.createIonicKey(key, blobInfo), pair -> {
+            try {
+                return ionicStorage.createFromWithKey(pair, path, options);
+            } catch (IOException e) {
+                throw new CompletionException(e);
+            }
+        });
+    }
+
+    /**
+     * Asynchronously creates an Ionic protected blob and returns a channel for writing its
+     * content. When lazy writers are enabled on the GoogleIonicStorage the channel is returned
+     * without waiting for the Ionic Key, as by {@link GoogleIonicStorage#writer(BlobInfo,
+     * CreateKeysRequest.Key, Storage.BlobWriteOption...)}.
+     *
+     * @param blobInfo a {@link com.google.cloud.storage.BlobInfo}
+     * @param key a {@link com.ionic.sdk.agent.request.createkey.CreateKeysRequest.Key}
+     * @param options an optional array of
+     *        {@link com.google.cloud.storage.Storage.BlobWriteOption}s
+     * @return a future completed with the {@link com.google.cloud.WriteChannel}
+     * @see GoogleIonicStorage#writer(BlobInfo, CreateKeysRequest.Key,
+     *      Storage.BlobWriteOption...)
+     */
+    public CompletableFuture<WriteChannel> writer(BlobInfo blobInfo, CreateKeysRequest.Key key,
+            BlobWriteOption... options) {
+        if (ionicStorage.getLazyWriterExecutor() != null) {
+            return stage(() -> ionicStorage.writer(blobInfo, key, options));
+        }
+        return chain(() -> ionicStorage.createIonicKey(key, blobInfo),
+            pair -> ionicStorage.writerWithKey(pair, options));
+    }
+
+    /**
+     * Asynchronously reads all the bytes from an Ionic protected blob.
+     *
+     * @param blobId the {@link com.google.cloud.storage.BlobId} of the blob to read
+     * @param options an optional array of
+     *        {@link com.google.cloud.storage.Storage.BlobSourceOption}s
+     * @return a future completed with the blob's content
+     * @see GoogleIonicStorage#readAllBytes(BlobId, Storage.BlobSourceOption...)
+     */
+    public CompletableFuture<byte[]> readAllBytes(BlobId blobId, BlobSourceOption... options) {
+        return readAllBytesAndKey(blobId, options).thenApply(IonicKeyBytesPair::byteArray);
+    }
+
+    /**
+     * Asynchronously reads all the bytes from an Ionic protected blob along with its Ionic Key.
+     *
+     * @param blobId the {@link com.google.cloud.storage.BlobId} of the blob to read
+     * @param options an optional array of
+     *        {@link com.google.cloud.storage.Storage.BlobSourceOption}s
+     * @return a future completed with a {@link GoogleIonicStorage.IonicKeyBytesPair}
+     * @see GoogleIonicStorage#readAllBytesAndKey(BlobId, Storage.BlobSourceOption...)
+     */
+    public CompletableFuture<IonicKeyBytesPair> readAllBytesAndKey(BlobId blobId,
+            BlobSourceOption... options) {
+        return chain(() -> ionicStorage.readKey(blobId, options),
+            readKey -> ionicStorage.readAllBytesWithKey(blobId, readKey, options));
+    }
+
+    /**
+     * Asynchronously opens a channel for reading an Ionic protected blob's content.
+     *
+     * @param blobId the {@link com.google.cloud.storage.BlobId} of the blob to read
+     * @param options an optional array of
+     *        {@link com.google.cloud.storage.Storage.BlobSourceOption}s
+     * @return a future completed with a {@link GoogleIonicStorage.IonicKeyReadChannelPair}
+     * @see GoogleIonicStorage#readerAndKey(BlobId, Storage.BlobSourceOption...)
+     */
+    public CompletableFuture<IonicKeyReadChannelPair> readerAndKey(BlobId blobId,
+            BlobSourceOption... options) {
+        return chain(() -> ionicStorage.ionicKeyFromBlob(blobId),
+            ionicKey -> ionicStorage.readerWithKey(blobId, ionicKey, options));
+    }
+
+    /**
+     * Runs the IDC stage then the storage stage as separate tasks on the executor. Neither stage
+     * starts once the returned future has been cancelled.
+     */
+    private <K, T> CompletableFuture<T> chain(Supplier<K> ionicStage,
+            Function<K, T> storageStage) {
+        CompletableFuture<T> result = new CompletableFuture<T>();
+        complete(result, CompletableFuture.supplyAsync(() -> {
+            checkNotCancelled(result);
+            return ionicStage.get();
+        }, executor).thenApplyAsync(value -> {
+            checkNotCancelled(result);
+            return storageStage.apply(value);
+        }, executor));
+        return result;
+    }
+
+    /**
+     * Runs a single stage as a task on the executor. The stage does not start once the returned
+     * future has been cancelled.
+     */
+    private <T> CompletableFuture<T> stage(Supplier<T> stage) {
+        CompletableFuture<T> result = new CompletableFuture<T>();
+        complete(result, CompletableFuture.supplyAsync(() -> {
+            checkNotCancelled(result);
+            return stage.get();
+        }, executor));
+        return result;
+    }
+
+    /**
+     * Completes result with the outcome of stages, unwrapping CompletionExceptions.
+     */
+    private static <T> void complete(CompletableFuture<T> result,
+            CompletableFuture<T> stages) {
+        stages.whenComplete((value, throwable) -> {
+            if (throwable == null) {
+                result.complete(value);
+            } else if (throwable instanceof CompletionException && throwable.getCause() != null) {
+                result.completeExceptionally(throwable.getCause());
+            } else {
+                result.completeExceptionally(throwable);
+            }
+        });
+    }
+
+    private static void checkNotCancelled(CompletableFuture<?> result) {
+        if (result.isDone()) {
+            throw new CancellationException();
+        }
+    }
+}
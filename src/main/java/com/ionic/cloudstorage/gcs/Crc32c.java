@@ -0,0 +1,86 @@
+/*
+ * (c) 2017-2021 Ionic Security Inc. By using this code, I agree to the Terms & Conditions
+ * (https://dev.ionic.com/use) and the Privacy Policy (https://www.ionic.com/privacy-notice/).
+ */
+
+package com.ionic.cloudstorage.gcs;
+
+import java.util.Base64;
+
+/**
+ * CRC32C helpers for validating parts of a blob that were transferred independently.
+ */
+final class Crc32c {
+
+    // Reflected Castagnoli polynomial.
+    private static final int POLYNOMIAL = 0x82F63B78;
+
+    private Crc32c() {
+    }
+
+    /**
+     * Returns the CRC32C of the concatenation of two byte sequences given the CRC32C of each and
+     * the length of the second. Uses the zlib crc32_combine method of applying length2 zero bytes
+     * to crc1 with GF(2) matrix squaring, which takes O(log(length2)) time.
+     */
+    static int combine(int crc1, int crc2, long length2) {
+        if (length2 <= 0) {
+            return crc1;
+        }
+        int[] even = new int[32];
+        int[] odd = new int[32];
+
+        // Operator for one zero bit.
+        odd[0] = POLYNOMIAL;
+        int row = 1;
+        for (int n = 1; n < 32; n++) {
+            odd[n] = row;
+            row <<= 1;
+        }
+        square(even, odd); // two zero bits
+        square(odd, even); // four zero bits
+
+        do {
+            square(even, odd);
+            if ((length2 & 1) != 0) {
+                crc1 = times(even, crc1);
+            }
+            length2 >>>= 1;
+            if (length2 == 0) {
+                break;
+            }
+            square(odd, even);
+            if ((length2 & 1) != 0) {
+                crc1 = times(odd, crc1);
+            }
+            length2 >>>= 1;
+        } while (length2 != 0);
+        return crc1 ^ crc2;
+    }
+
+    /**
+     * Decodes a CRC32C in the base64, big-endian format used by
+     * {@link com.google.cloud.storage.BlobInfo#getCrc32c()}.
+     */
+    static int fromBase64(String crc32c) {
+        byte[] bytes = Base64.getDecoder().decode(crc32c);
+        return ((bytes[0] & 0xFF) << 24) | ((bytes[1] & 0xFF) << 16)
+                | ((bytes[2] & 0xFF) << 8) | (bytes[3] & 0xFF);
+    }
+
+    private static int times(int[] matrix, int vector) {
+        int sum = 0;
+        for (int i = 0; vector != 0; i++, vector >>>= 1) {
+            if ((vector & 1) != 0) {
+                sum ^= matrix[i];
+            }
+        }
+        return sum;
+    }
+
+    private static void square(int[] square, int[] matrix) {
+        for (int n = 0; n < 32; n++) {
+            square[n] = times(matrix, matrix[n]);
+        }
+    }
+}
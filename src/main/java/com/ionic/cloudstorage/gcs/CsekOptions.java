@@ -0,0 +1,81 @@
+/*
+ * (c) 2017-2021 Ionic Security Inc. By using this code, I agree to the Terms & Conditions
+ * (https://dev.ionic.com/use) and the Privacy Policy (https://www.ionic.com/privacy-notice/).
+ */
+
+package com.ionic.cloudstorage.gcs;
+
+import com.google.cloud.storage.Storage.BlobGetOption;
+import com.google.cloud.storage.Storage.BlobSourceOption;
+import com.google.cloud.storage.Storage.BlobTargetOption;
+import com.google.cloud.storage.Storage.BlobWriteOption;
+import java.util.Arrays;
+import java.util.Base64;
+
+/**
+ * The customer-supplied encryption key options of one Ionic Key, prepared once so that requests
+ * made with the same key neither re-encode it nor allocate new options.
+ *
+ * <p>Option arrays returned without extra options are shared and must not be modified.
+ */
+final class CsekOptions {
+
+    private final BlobWriteOption[] write;
+    private final BlobTargetOption[] target;
+    private final BlobSourceOption[] source;
+    private final BlobGetOption get;
+
+    CsekOptions(byte[] key) {
+        String encoded = Base64.getEncoder().encodeToString(key);
+        this.write = new BlobWriteOption[] {BlobWriteOption.encryptionKey(encoded)};
+        this.target = new BlobTargetOption[] {BlobTargetOption.encryptionKey(encoded)};
+        this.source = new BlobSourceOption[] {BlobSourceOption.decryptionKey(encoded)};
+        this.get = BlobGetOption.decryptionKey(encoded);
+    }
+
+    BlobWriteOption writeOption() {
+        return write[0];
+    }
+
+    BlobTargetOption targetOption() {
+        return target[0];
+    }
+
+    BlobSourceOption sourceOption() {
+        return source[0];
+    }
+
+    BlobGetOption getOption() {
+        return get;
+    }
+
+    /**
+     * Returns the encryption option followed by options.
+     */
+    BlobWriteOption[] write(BlobWriteOption... options) {
+        return prepend(write, options);
+    }
+
+    /**
+     * Returns the encryption option followed by options.
+     */
+    BlobTargetOption[] target(BlobTargetOption... options) {
+        return prepend(target, options);
+    }
+
+    /**
+     * Returns the decryption option followed by options.
+     */
+    BlobSourceOption[] source(BlobSourceOption... options) {
+        return prepend(source, options);
+    }
+
+    private static <T> T[] prepend(T[] prepared, T[] options) {
+        if (options == null || options.length == 0 || options[0] == null) {
+            return prepared;
+        }
+        T[] newOptions = Arrays.copyOf(prepared, options.length + 1);
+        System.arraycopy(options, 0, newOptions, 1, options.length);
+        return newOptions;
+    }
+}
@@ -0,0 +1,98 @@
+/*
+ * (c) 2017-2021 Ionic Security Inc. By using this code, I agree to the Terms & Conditions
+ * (https://dev.ionic.com/use) and the Privacy Policy (https://www.ionic.com/privacy-notice/).
+ */
+
+package com.ionic.cloudstorage.gcs;
+
+import com.google.api.client.http.HttpHeaders;
+import com.google.api.client.http.HttpRequestInitializer;
+import com.google.api.client.http.HttpTransport;
+import com.google.api.client.json.jackson2.JacksonFactory;
+import com.google.api.services.storage.model.ComposeRequest;
+import com.google.api.services.storage.model.ComposeRequest.SourceObjects;
+import com.google.api.services.storage.model.StorageObject;
+import com.google.cloud.http.HttpTransportOptions;
+import com.google.cloud.storage.BlobId;
+import com.google.cloud.storage.BlobInfo;
+import com.google.cloud.storage.StorageException;
+import com.google.cloud.storage.StorageOptions;
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import javax.crypto.SecretKey;
+
+/**
+ * Composes objects that are encrypted with a customer-supplied encryption key. The compose method
+ * of the google-cloud-storage client does not send the customer-supplied key headers, so this
+ * class issues the JSON API request directly using the transport and credentials of the
+ * {@link com.google.cloud.storage.StorageOptions} it is created with.
+ */
+final class EncryptedComposer {
+
+    private static final String ENCRYPTION_ALGORITHM = "AES256";
+
+    private final com.google.api.services.storage.Storage storage;
+
+    EncryptedComposer(StorageOptions options) {
+        if (!(options.getTransportOptions() instanceof HttpTransportOptions)) {
+            throw new StorageException(0, "Encrypted compose requires an HTTP transport");
+        }
+        HttpTransportOptions transportOptions = (HttpTransportOptions) options.getTransportOptions();
+        HttpTransport transport = transportOptions.getHttpTransportFactory().create();
+        HttpRequestInitializer initializer = transportOptions.getHttpRequestInitializer(options);
+        this.storage = new com.google.api.services.storage.Storage.Builder(transport,
+                JacksonFactory.getDefaultInstance(), initializer)
+                .setRootUrl(options.getHost())
+                .setApplicationName(options.getApplicationName())
+                .build();
+    }
+
+    /**
+     * Composes sources, all in target's bucket, into target and returns the generation of the
+     * composed object.
+     */
+    long compose(BlobInfo target, List<BlobId> sources, SecretKey key) {
+        List<SourceObjects> sourceObjects = new ArrayList<SourceObjects>(sources.size());
+        for (BlobId source : sources) {
+            sourceObjects.add(new SourceObjects().setName(source.getName())
+                    .setGeneration(source.getGeneration()));
+        }
+        StorageObject destination = new StorageObject()
+                .setBucket(target.getBucket())
+                .setName(target.getName())
+                .setMetadata(target.getMetadata())
+                .setContentType(target.getContentType())
+                .setContentEncoding(target.getContentEncoding())
+                .setContentDisposition(target.getContentDisposition())
+                .setContentLanguage(target.getContentLanguage())
+                .setCacheControl(target.getCacheControl());
+        ComposeRequest request = new ComposeRequest().setDestination(destination)
+                .setSourceObjects(sourceObjects);
+        try {
+            com.google.api.services.storage.Storage.Objects.Compose compose = storage.objects()
+                    .compose(target.getBucket(), target.getName(), request)
+                    .setFields("generation");
+            setEncryptionHeaders(compose.getRequestHeaders(), key);
+            return compose.execute().getGeneration();
+        } catch (IOException e) {
+            throw new StorageException(e);
+        }
+    }
+
+    private static void setEncryptionHeaders(HttpHeaders headers, SecretKey key) {
+        byte[] encoded = key.getEncoded();
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(encoded);
+            headers.set("x-goog-encryption-algorithm", ENCRYPTION_ALGORITHM);
+            headers.set("x-goog-encryption-key", Base64.getEncoder().encodeToString(encoded));
+            headers.set("x-goog-encryption-key-sha256",
+                    Base64.getEncoder().encodeToString(digest));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -6,6 +6,7 @@
 package com.ionic.cloudstorage.gcs;
 
 import com.google.api.gax.paging.Page;
+import com.google.cloud.BatchResult;
 import com.google.cloud.Policy;
 import com.google.cloud.ReadChannel;
 import com.google.cloud.WriteChannel;
@@ -27,24 +28,51 @@ import com.google.cloud.storage.Storage;
 import com.google.cloud.storage.StorageBatch;
 import com.google.cloud.storage.StorageException;
 import com.google.cloud.storage.StorageOptions;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.ionic.cloudstorage.gcs.IonicRequestBatcher.Pending;
 import com.ionic.sdk.agent.Agent;
 import com.ionic.sdk.agent.data.MetadataMap;
+import com.ionic.sdk.agent.key.AgentKey;
 import com.ionic.sdk.agent.key.KeyAttributesMap;
 import com.ionic.sdk.agent.request.createkey.CreateKeysRequest;
 import com.ionic.sdk.agent.request.createkey.CreateKeysResponse;
+import com.ionic.sdk.agent.request.getkey.GetKeysRequest;
 import com.ionic.sdk.agent.request.getkey.GetKeysResponse;
 import com.ionic.sdk.device.profile.persistor.DeviceProfilePersistorBase;
+import com.ionic.sdk.error.AgentErrorModuleConstants;
 import com.ionic.sdk.error.IonicException;
+import com.ionic.sdk.key.KeyServices;
 import java.io.IOException;
 import java.io.InputStream;
 import java.lang.UnsupportedOperationException;
 import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 
 
@@ -75,10 +103,36 @@ import java.util.concurrent.TimeUnit;
 public class GoogleIonicStorage implements Storage {
 
     public static final String IONICMETACONSTANT = "ionic-key-id";
-    private Storage googleStorage;
-    private Agent agent = new Agent();
+    public static final String IONICSALTCONSTANT = "ionic-key-salt";
+    private static final int DEFAULT_BULK_PARALLELISM = 8;
+    // Google Cloud Storage accepts at most 100 calls in a single batch request.
+    private static final int MAX_BATCH_SIZE = 100;
+    private static final int MAX_KEYS_PER_REQUEST = 1000;
+    private static final int DOWNLOAD_BUFFER_SIZE = 2 * 1024 * 1024;
+    private static final int UPLOAD_BUFFER_SIZE = 8 * 1024 * 1024;
+    private static final int MAX_COMPOSE_SOURCES = 32;
+    // Parallel uploads and downloads are split into at most this many parts.
+    private static final int MAX_PARTS = 10000;
+    private static final String COMPOSE_PART_INFIX = ".ionic-parts/";
+    private volatile Storage googleStorage;
+    private volatile Agent agent = new Agent();
     private KeyAttributesMap attributes = new KeyAttributesMap();
     private boolean enabledMetadataCapture = false;
+    private volatile IonicKeyPool keyPool = null;
+    private volatile IonicKeyCache keyCache = null;
+    private volatile IonicKeyIdCache keyIdCache = null;
+    private volatile EncryptedComposer encryptedComposer = null;
+    private volatile IonicStorageMetrics metrics = null;
+    private volatile IonicAgentPool agentPool = null;
+    private volatile IonicKeyDerivation keyDerivation = null;
+    private volatile IonicKeyReuse keyReuse = null;
+    private volatile IonicRequestBatcher<CreateKeysRequest.Key, CreateKeysResponse.Key>
+            createBatcher = null;
+    private volatile IonicRequestBatcher<String, GetKeysResponse.Key> fetchBatcher = null;
+    private volatile Executor writerExecutor = null;
+    private volatile IonicUploadRetries uploadRetries = null;
+    private final ConcurrentMap<String, CompletableFuture<GetKeysResponse.Key>> keyFetches =
+            new ConcurrentHashMap<String, CompletableFuture<GetKeysResponse.Key>>();
 
     /**
      * GoogleIonicStorage() constructor for GoogleIonicStorage that takes an existing instance of
@@ -143,6 +197,26 @@ public class GoogleIonicStorage implements Storage {
      */
     public void setAgent(Agent agent) {
         this.agent = agent;
+        IonicAgentPool agents = this.agentPool;
+        if (agents != null) {
+            this.agentPool = new IonicAgentPool(agent, agents.getMaxSize());
+        }
+        IonicKeyPool pool = this.keyPool;
+        if (pool != null) {
+            pool.clear();
+        }
+        IonicKeyCache cache = this.keyCache;
+        if (cache != null) {
+            cache.invalidateAll();
+        }
+        IonicKeyDerivation derivation = this.keyDerivation;
+        if (derivation != null) {
+            derivation.clear();
+        }
+        IonicKeyReuse reuse = this.keyReuse;
+        if (reuse != null) {
+            reuse.clear();
+        }
     }
 
     /**
@@ -154,6 +228,14 @@ public class GoogleIonicStorage implements Storage {
         return this.agent;
     }
 
+    /**
+     * Returns the {@link com.google.cloud.storage.Storage} performing the underlying Storage
+     * operations.
+     */
+    Storage getGoogleStorage() {
+        return this.googleStorage;
+    }
+
     /**
      * setDefaultAttributes() sets the default Attributes to be applied to all Agent.keyCreate()
      * requests
@@ -193,6 +275,429 @@ public class GoogleIonicStorage implements Storage {
         this.enabledMetadataCapture = enabledMetadataCapture;
     }
 
+    /**
+     * enableKeyPool() enables a pool of pre-created Ionic Keys for the upload methods, pooling
+     * keys for up to 16 attribute sets and serving pooled keys for up to 10 minutes. See
+     * {@link #enableKeyPool(int, int, int, long, TimeUnit)}.
+     *
+     * @param lowWatermark the pooled key count at or below which a refill is scheduled.
+     * @param highWatermark the pooled key count a refill tops each pool up to, at most 1000.
+     * @throws IllegalArgumentException if lowWatermark is negative, highWatermark is not greater
+     *     than lowWatermark, or highWatermark is greater than 1000.
+     */
+    public void enableKeyPool(int lowWatermark, int highWatermark) {
+        enableKeyPool(lowWatermark, highWatermark, IonicKeyPool.DEFAULT_MAX_POOLS,
+                IonicKeyPool.DEFAULT_MAX_AGE_MINUTES, TimeUnit.MINUTES);
+    }
+
+    /**
+     * enableKeyPool() enables a pool of pre-created Ionic Keys for the upload methods. Keys are
+     * pooled per attribute set and created in the background with multi-key
+     * {@link com.ionic.sdk.agent.request.createkey.CreateKeysRequest}s. An attribute set is only
+     * pooled once it has been requested twice; from then on a refill is scheduled when its pool
+     * holds lowWatermark keys or fewer and tops it up to highWatermark keys. Uploads fall back to
+     * creating their key synchronously while a pool is empty, and while metadata capture is
+     * enabled, since the captured metadata makes nearly every attribute set unique. Replaces any
+     * previously enabled pool.
+     *
+     * @param lowWatermark the pooled key count at or below which a refill is scheduled.
+     * @param highWatermark the pooled key count a refill tops each pool up to, at most 1000 so
+     *     that a refill fits in one request.
+     * @param maxPools the maximum number of attribute sets pooled; the least recently used is
+     *     discarded beyond it.
+     * @param maxAge how long after its creation a pooled key may be served.
+     * @param unit the {@link java.util.concurrent.TimeUnit} of maxAge.
+     * @throws IllegalArgumentException if lowWatermark is negative, highWatermark is not greater
+     *     than lowWatermark or greater than 1000, or maxPools or maxAge is not positive.
+     */
+    public void enableKeyPool(int lowWatermark, int highWatermark, int maxPools, long maxAge,
+            TimeUnit unit) {
+        IonicKeyPool previous = this.keyPool;
+        this.keyPool = new IonicKeyPool(this, lowWatermark, highWatermark, MAX_KEYS_PER_REQUEST,
+                maxPools, maxAge, unit);
+        if (previous != null) {
+            previous.shutdown();
+        }
+    }
+
+    /**
+     * disableKeyPool() stops the key pool's refill thread and discards any pooled keys. Uploads
+     * create their keys synchronously afterwards.
+     */
+    public void disableKeyPool() {
+        IonicKeyPool previous = this.keyPool;
+        this.keyPool = null;
+        if (previous != null) {
+            previous.shutdown();
+        }
+    }
+
+    /**
+     * getKeyPool() returns the key pool enabled with
+     * {@link #enableKeyPool(int, int, int, long, TimeUnit)}.
+     *
+     * @return an {@link IonicKeyPool} or null if no pool is enabled.
+     */
+    public IonicKeyPool getKeyPool() {
+        return this.keyPool;
+    }
+
+    /**
+     * enableAgentPool() enables a pool of clones of the Agent for IDC requests. Agents are not
+     * thread safe, so each request is made with an Agent of its own; with the pool enabled,
+     * requests reuse idle clones and their connections instead of cloning the Agent every time.
+     * Up to maxSize idle clones are kept. Clones made before the Agent's metadata or profiles
+     * changed are discarded, and {@link #setAgent(Agent)} replaces the pool. Replaces any
+     * previously enabled pool.
+     *
+     * @param maxSize the maximum number of idle Agents to keep.
+     * @throws IllegalArgumentException if maxSize is not positive.
+     */
+    public void enableAgentPool(int maxSize) {
+        this.agentPool = new IonicAgentPool(this.agent, maxSize);
+    }
+
+    /**
+     * disableAgentPool() discards all idle Agents. Every IDC request clones the Agent afterwards.
+     */
+    public void disableAgentPool() {
+        this.agentPool = null;
+    }
+
+    /**
+     * getAgentPool() returns the Agent pool enabled with {@link #enableAgentPool(int)}.
+     *
+     * @return an {@link IonicAgentPool} or null if no pool is enabled.
+     */
+    public IonicAgentPool getAgentPool() {
+        return this.agentPool;
+    }
+
+    /**
+     * enableKeyDerivation() enables per-blob keys derived from shared Ionic Keys. Instead of
+     * creating an Ionic Key for each blob, the upload methods create one Ionic Key per set of
+     * attributes and use it for up to maxUses blobs or until ttl after it was created. Each blob
+     * is encrypted with a distinct key derived with HKDF-SHA256 from the shared Ionic Key and a
+     * random salt, which is stored in the blob's 'ionic-key-salt' metadata entry next to its
+     * 'ionic-key-id'. The download methods derive the blob's key from the Ionic Key whenever a
+     * salt is present, regardless of whether derivation is enabled. Replaces any previously
+     * enabled derivation.
+     *
+     * <p>All blobs protected with keys derived from the same Ionic Key share its attributes and
+     * are subject to the same access decisions.
+     *
+     * @param maxUses the maximum number of blobs protected with keys derived from one Ionic Key.
+     * @param ttl how long an Ionic Key is used for derivation after it was created.
+     * @param unit the {@link java.util.concurrent.TimeUnit} of ttl.
+     * @throws IllegalArgumentException if maxUses or ttl is not positive.
+     */
+    public void enableKeyDerivation(int maxUses, long ttl, TimeUnit unit) {
+        this.keyDerivation = new IonicKeyDerivation(maxUses, ttl, unit);
+    }
+
+    /**
+     * disableKeyDerivation() stops deriving keys. Every upload creates its own Ionic Key
+     * afterwards. Blobs protected with derived keys remain readable.
+     */
+    public void disableKeyDerivation() {
+        this.keyDerivation = null;
+    }
+
+    /**
+     * getKeyDerivation() returns the key derivation enabled with
+     * {@link #enableKeyDerivation(int, long, TimeUnit)}.
+     *
+     * @return an {@link IonicKeyDerivation} or null if derivation is not enabled.
+     */
+    public IonicKeyDerivation getKeyDerivation() {
+        return this.keyDerivation;
+    }
+
+    /**
+     * enableKeyReuse() enables reuse of Ionic Keys by the upload methods. Instead of creating an
+     * Ionic Key for each blob, one Ionic Key is created per bucket, prefix and set of attributes
+     * and is used for up to maxUses blobs or until ttl after it was created. The prefix of a blob
+     * is its name up to and including the last '/'. Blobs are stored as with a key of their own,
+     * so they can be read without reuse enabled. Ignored while key derivation is enabled with
+     * {@link #enableKeyDerivation(int, long, TimeUnit)}, which shares Ionic Keys as well. Replaces
+     * any previously enabled reuse policy.
+     *
+     * <p>All blobs protected with the same Ionic Key share its attributes and are subject to the
+     * same access decisions, and the compromise of one blob's key exposes the others.
+     *
+     * @param maxUses the maximum number of blobs protected with one Ionic Key.
+     * @param ttl how long an Ionic Key is reused after it was created.
+     * @param unit the {@link java.util.concurrent.TimeUnit} of ttl.
+     * @throws IllegalArgumentException if maxUses or ttl is not positive.
+     */
+    public void enableKeyReuse(int maxUses, long ttl, TimeUnit unit) {
+        this.keyReuse = new IonicKeyReuse(maxUses, ttl, unit);
+    }
+
+    /**
+     * disableKeyReuse() stops reusing Ionic Keys. Every upload creates its own Ionic Key
+     * afterwards.
+     */
+    public void disableKeyReuse() {
+        this.keyReuse = null;
+    }
+
+    /**
+     * getKeyReuse() returns the key reuse policy enabled with
+     * {@link #enableKeyReuse(int, long, TimeUnit)}.
+     *
+     * @return an {@link IonicKeyReuse} or null if reuse is not enabled.
+     */
+    public IonicKeyReuse getKeyReuse() {
+        return this.keyReuse;
+    }
+
+    /**
+     * enableKeyCreationBatching() coalesces the key creations of concurrent uploads into
+     * multi-key {@link com.ionic.sdk.agent.request.createkey.CreateKeysRequest}s. The first upload
+     * to need a key waits up to window for others to join it, and the batch is sent once the window
+     * closes or maxKeys uploads have joined. Creations with the same attributes are grouped into a
+     * single entry of the request. Every upload still receives a key of its own. Keys taken from
+     * the key pool are not batched. Replaces any previously enabled batching.
+     *
+     * @param window how long the first upload of a batch waits for others.
+     * @param unit the {@link java.util.concurrent.TimeUnit} of window.
+     * @param maxKeys the maximum number of keys created by one request, at most 1000.
+     * @throws IllegalArgumentException if window is negative or maxKeys is not between 1 and
+     *     1000.
+     */
+    public void enableKeyCreationBatching(long window, TimeUnit unit, int maxKeys) {
+        this.createBatcher = new IonicRequestBatcher<CreateKeysRequest.Key,
+                CreateKeysResponse.Key>(window, unit, maxKeys, MAX_KEYS_PER_REQUEST,
+                        this::sendCreateKeys);
+    }
+
+    /**
+     * disableKeyCreationBatching() stops batching key creations. Every upload creates its key with
+     * a request of its own afterwards.
+     */
+    public void disableKeyCreationBatching() {
+        this.createBatcher = null;
+    }
+
+    /**
+     * getKeyCreationBatcher() returns the batcher enabled with
+     * {@link #enableKeyCreationBatching(long, TimeUnit, int)}.
+     *
+     * @return an {@link IonicRequestBatcher} or null if batching is not enabled.
+     */
+    public IonicRequestBatcher<CreateKeysRequest.Key, CreateKeysResponse.Key>
+            getKeyCreationBatcher() {
+        return this.createBatcher;
+    }
+
+    /**
+     * enableKeyFetchBatching() coalesces the key fetches of concurrent reads into multi-key
+     * {@link com.ionic.sdk.agent.request.getkey.GetKeysRequest}s. The first read to need a key
+     * waits up to window for others to join it, and the batch is sent once the window closes or
+     * maxKeys distinct keys have been requested. Each read receives its own key, or the error
+     * returned for it, such as a denial. Keys found in the key cache are not batched. Replaces
+     * any previously enabled batching.
+     *
+     * @param window how long the first read of a batch waits for others.
+     * @param unit the {@link java.util.concurrent.TimeUnit} of window.
+     * @param maxKeys the maximum number of keys fetched by one request, at most 1000.
+     * @throws IllegalArgumentException if window is negative or maxKeys is not between 1 and
+     *     1000.
+     */
+    public void enableKeyFetchBatching(long window, TimeUnit unit, int maxKeys) {
+        this.fetchBatcher = new IonicRequestBatcher<String, GetKeysResponse.Key>(window, unit,
+                maxKeys, MAX_KEYS_PER_REQUEST, this::sendGetKeys);
+    }
+
+    /**
+     * disableKeyFetchBatching() stops batching key fetches. Every read fetches its key with a
+     * request of its own afterwards.
+     */
+    public void disableKeyFetchBatching() {
+        this.fetchBatcher = null;
+    }
+
+    /**
+     * getKeyFetchBatcher() returns the batcher enabled with
+     * {@link #enableKeyFetchBatching(long, TimeUnit, int)}.
+     *
+     * @return an {@link IonicRequestBatcher} or null if batching is not enabled.
+     */
+    public IonicRequestBatcher<String, GetKeysResponse.Key> getKeyFetchBatcher() {
+        return this.fetchBatcher;
+    }
+
+    /**
+     * enableLazyWriters() makes the writer methods return their channel without waiting for the
+     * Ionic Key. The key is created, and the upload opened, on executor once the first bytes are
+     * written, or when the channel is closed if none are. Writes up to the channel's chunk size are
+     * buffered meanwhile, so producing the first chunk overlaps with the IDC request. A channel
+     * that is abandoned before any write creates no key. Failures to create the key are thrown
+     * from the write or close that waits for it.
+     *
+     * @param executor the {@link java.util.concurrent.Executor} keys are created on.
+     */
+    public void enableLazyWriters(Executor executor) {
+        if (executor == null) {
+            throw new NullPointerException("executor must not be null");
+        }
+        this.writerExecutor = executor;
+    }
+
+    /**
+     * disableLazyWriters() makes the writer methods create the Ionic Key before returning their
+     * channel.
+     */
+    public void disableLazyWriters() {
+        this.writerExecutor = null;
+    }
+
+    /**
+     * getLazyWriterExecutor() returns the Executor enabled with
+     * {@link #enableLazyWriters(Executor)}.
+     *
+     * @return an {@link java.util.concurrent.Executor} or null if lazy writers are not enabled.
+     */
+    public Executor getLazyWriterExecutor() {
+        return this.writerExecutor;
+    }
+
+    /**
+     * enableUploadRetries() makes the upload methods retry uploads that fail with a retryable
+     * StorageException, protecting every attempt with the Ionic Key created for the first, so that
+     * retries make no IDC requests. The create methods taking a byte array or a Path are retried,
+     * and the writer methods retry opening the upload; uploads from an InputStream, which cannot
+     * be replayed, are not. Replaces any previously enabled retries.
+     *
+     * @param maxAttempts the maximum number of attempts made for one upload.
+     * @param initialBackoff the backoff before the first retry, doubled for each further retry.
+     * @param maxBackoff the largest backoff between two attempts.
+     * @param deadline how long after its first attempt an upload may be retried.
+     * @param unit the {@link java.util.concurrent.TimeUnit} of the backoffs and deadline.
+     * @throws IllegalArgumentException if maxAttempts or deadline is not positive or
+     *     initialBackoff is not between 0 and maxBackoff.
+     */
+    public void enableUploadRetries(int maxAttempts, long initialBackoff, long maxBackoff,
+            long deadline, TimeUnit unit) {
+        this.uploadRetries =
+                new IonicUploadRetries(maxAttempts, initialBackoff, maxBackoff, deadline, unit);
+    }
+
+    /**
+     * disableUploadRetries() stops retrying uploads. Failed uploads are thrown to the caller.
+     */
+    public void disableUploadRetries() {
+        this.uploadRetries = null;
+    }
+
+    /**
+     * getUploadRetries() returns the retry policy enabled with
+     * {@link #enableUploadRetries(int, long, long, long, TimeUnit)}.
+     *
+     * @return an {@link IonicUploadRetries} or null if retries are not enabled.
+     */
+    public IonicUploadRetries getUploadRetries() {
+        return this.uploadRetries;
+    }
+
+    /**
+     * enableKeyCache() enables an in-process cache of the Ionic Keys fetched by the download
+     * methods, so that repeated reads of blobs protected by the same key skip the IDC request.
+     * Cached keys expire ttl after they were fetched and the least recently used key is evicted
+     * once maxSize keys are cached. Replaces any previously enabled cache.
+     *
+     * @param maxSize the maximum number of keys to cache.
+     * @param ttl how long a key stays cached after it was fetched.
+     * @param unit the {@link java.util.concurrent.TimeUnit} of ttl.
+     * @throws IllegalArgumentException if maxSize or ttl is not positive.
+     */
+    public void enableKeyCache(int maxSize, long ttl, TimeUnit unit) {
+        this.keyCache = new IonicKeyCache(maxSize, ttl, unit);
+    }
+
+    /**
+     * disableKeyCache() discards all cached keys. Every download fetches its key afterwards.
+     */
+    public void disableKeyCache() {
+        this.keyCache = null;
+    }
+
+    /**
+     * getKeyCache() returns the key cache enabled with
+     * {@link #enableKeyCache(int, long, TimeUnit)}.
+     *
+     * @return an {@link IonicKeyCache} or null if no cache is enabled.
+     */
+    public IonicKeyCache getKeyCache() {
+        return this.keyCache;
+    }
+
+    /**
+     * enableKeyIdCache() enables an in-process cache of the Ionic Key id stored in each blob's
+     * metadata, keyed by bucket, name and generation. The cache is populated by the upload and
+     * download methods. Downloads of a specific generation found in the cache skip the metadata
+     * request entirely. Downloads of the latest generation via
+     * {@link #readAllBytesAndKey(BlobId, Storage.BlobSourceOption...)} without options use the
+     * latest cached generation guarded by a generation match precondition, and fall back to the
+     * metadata request if the blob has been replaced. Replaces any previously enabled cache.
+     *
+     * @param maxSize the maximum number of entries to cache.
+     * @throws IllegalArgumentException if maxSize is not positive.
+     */
+    public void enableKeyIdCache(int maxSize) {
+        this.keyIdCache = new IonicKeyIdCache(maxSize);
+    }
+
+    /**
+     * disableKeyIdCache() discards all cached key ids. Every download requests the blob's metadata
+     * afterwards.
+     */
+    public void disableKeyIdCache() {
+        this.keyIdCache = null;
+    }
+
+    /**
+     * getKeyIdCache() returns the key id cache enabled with {@link #enableKeyIdCache(int)}.
+     *
+     * @return an {@link IonicKeyIdCache} or null if no cache is enabled.
+     */
+    public IonicKeyIdCache getKeyIdCache() {
+        return this.keyIdCache;
+    }
+
+    /**
+     * enableMetrics() reports the IDC requests, Google Cloud Storage calls and key cache lookups
+     * made by this instance to metrics. Replaces any previously enabled metrics.
+     *
+     * @param metrics an {@link IonicStorageMetrics}.
+     */
+    public void enableMetrics(IonicStorageMetrics metrics) {
+        if (metrics == null) {
+            throw new NullPointerException("metrics must not be null");
+        }
+        this.metrics = metrics;
+        this.googleStorage = InstrumentedStorage.wrap(this.googleStorage, metrics);
+    }
+
+    /**
+     * disableMetrics() stops reporting to the metrics enabled with
+     * {@link #enableMetrics(IonicStorageMetrics)}.
+     */
+    public void disableMetrics() {
+        this.metrics = null;
+        this.googleStorage = InstrumentedStorage.unwrap(this.googleStorage);
+    }
+
+    /**
+     * getMetrics() returns the metrics enabled with {@link #enableMetrics(IonicStorageMetrics)}.
+     *
+     * @return an {@link IonicStorageMetrics} or null if metrics are not enabled.
+     */
+    public IonicStorageMetrics getMetrics() {
+        return this.metrics;
+    }
+
     /**
      * setIonicMetadataMap() sets the MetadataMap for IDC interactions
      * Deprecated. Use {@link com.ionic.sdk.agent.Agent#setMetadata(MetadataMap)} on the Agent
@@ -254,9 +759,7 @@ public class GoogleIonicStorage implements Storage {
      */
     public Blob create(BlobInfo blobInfo, byte[] content, CreateKeysRequest.Key key,
             BlobTargetOption... options) {
-        KeyInfoPair pair = createIonicKey(key, blobInfo);
-        return googleStorage.create(pair.info, content,
-                targetOptionsWithEncrytion(pair.key, options));
+        return createWithKey(createIonicKey(key, blobInfo), content, options);
     }
 
     /**
@@ -299,8 +802,8 @@ public class GoogleIonicStorage implements Storage {
     public Blob create(BlobInfo blobInfo, InputStream content, CreateKeysRequest.Key key,
             BlobWriteOption... options) {
         KeyInfoPair pair = createIonicKey(key, blobInfo);
-        return googleStorage.create(pair.info, content,
-                writeOptionsWithEncrytion(pair.key, options));
+        return cacheKeyId(googleStorage.create(pair.info, content,
+                writeOptionsWithEncrytion(pair.key, options)), pair);
     }
 
     /**
@@ -405,9 +908,7 @@ public class GoogleIonicStorage implements Storage {
      */
     public Blob createFrom(BlobInfo blobInfo, Path path, CreateKeysRequest.Key key,
             BlobWriteOption... options) throws IOException {
-        KeyInfoPair pair = createIonicKey(key, blobInfo);
-        return googleStorage.createFrom(pair.info, path,
-                writeOptionsWithEncrytion(pair.key, options));
+        return createFromWithKey(createIonicKey(key, blobInfo), path, options);
     }
 
     /**
@@ -473,9 +974,7 @@ public class GoogleIonicStorage implements Storage {
      */
     public Blob createFrom(BlobInfo blobInfo, Path path, int bufferSize, CreateKeysRequest.Key key,
             BlobWriteOption... options) throws IOException {
-        KeyInfoPair pair = createIonicKey(key, blobInfo);
-        return googleStorage.createFrom(pair.info, path, bufferSize,
-                writeOptionsWithEncrytion(pair.key, options));
+        return createFromWithKey(createIonicKey(key, blobInfo), path, bufferSize, options);
     }
 
     /**
@@ -526,8 +1025,8 @@ public class GoogleIonicStorage implements Storage {
     public Blob createFrom(BlobInfo blobInfo, InputStream content, CreateKeysRequest.Key key,
             BlobWriteOption... options) throws IOException {
         KeyInfoPair pair = createIonicKey(key, blobInfo);
-        return googleStorage.createFrom(pair.info, content,
-                writeOptionsWithEncrytion(pair.key, options));
+        return cacheKeyId(googleStorage.createFrom(pair.info, content,
+                writeOptionsWithEncrytion(pair.key, options)), pair);
     }
 
     /**
@@ -593,10 +1092,176 @@ public class GoogleIonicStorage implements Storage {
     public Blob createFrom(BlobInfo blobInfo, InputStream content, int bufferSize,
             CreateKeysRequest.Key key, BlobWriteOption... options) throws IOException {
         KeyInfoPair pair = createIonicKey(key, blobInfo);
-        return googleStorage.createFrom(pair.info, content, bufferSize,
-                writeOptionsWithEncrytion(pair.key, options));
+        return cacheKeyId(googleStorage.createFrom(pair.info, content, bufferSize,
+                writeOptionsWithEncrytion(pair.key, options)), pair);
+    }
+
+
+    /**
+     * Uploads path to an Ionic protected blob as several parts in parallel, which are then
+     * composed into the blob. Equivalent to
+     * {@link #createFromParallel(BlobInfo, Path, int, long, CreateKeysRequest.Key)} with an empty
+     * {@link com.ionic.sdk.agent.request.createkey.CreateKeysRequest.Key}.
+     *
+     * @param blobInfo a {@link com.google.cloud.storage.BlobInfo}
+     * @param path an {@link java.nio.file.Path}
+     * @param parallelism the maximum number of concurrent part uploads
+     * @param partSize the number of bytes uploaded by each part
+     * @return a {@link com.google.cloud.storage.Blob} with complete information
+     * @throws IllegalArgumentException if parallelism or partSize is less than 1, or the file
+     *     would be split into more than 10000 parts
+     * @throws StorageException upon failure, may wrap an {@link com.ionic.sdk.error.IonicException}
+     * @throws IOException on I/O error
+     */
+    public Blob createFromParallel(BlobInfo blobInfo, Path path, int parallelism, long partSize)
+            throws IOException {
+        return createFromParallel(blobInfo, path, parallelism, partSize,
+                new CreateKeysRequest.Key(""));
+    }
+
+    /**
+     * Uploads path to an Ionic protected blob as several parts in parallel, which are then
+     * composed into the blob. A single Ionic Key protects every part and the composed blob.
+     * Parts are stored as temporary objects named after the blob in the same bucket; when there
+     * are more than 32 parts they are composed in several levels. The temporary objects are
+     * deleted once the upload completes or fails. Uses a
+     * {@link com.ionic.sdk.agent.request.createkey.CreateKeysRequest.Key} to specify Attributes on
+     * the associated Ionic Key.
+     *
+     * <p>The composed blob has a CRC32C but no MD5 hash. Composition requires the
+     * {@link com.google.cloud.storage.Storage} passed to the constructor to use the HTTP transport.
+     *
+     * @param blobInfo a {@link com.google.cloud.storage.BlobInfo}
+     * @param path an {@link java.nio.file.Path}
+     * @param parallelism the maximum number of concurrent part uploads
+     * @param partSize the number of bytes uploaded by each part
+     * @param key a {@link com.ionic.sdk.agent.request.createkey.CreateKeysRequest.Key}
+     * @return a {@link com.google.cloud.storage.Blob} with complete information
+     * @throws IllegalArgumentException if parallelism or partSize is less than 1, or the file
+     *     would be split into more than 10000 parts
+     * @throws StorageException upon failure, may wrap an {@link com.ionic.sdk.error.IonicException}
+     * @throws IOException on I/O error
+     */
+    public Blob createFromParallel(BlobInfo blobInfo, Path path, int parallelism, long partSize,
+            CreateKeysRequest.Key key) throws IOException {
+        if (parallelism < 1 || partSize < 1) {
+            throw new IllegalArgumentException("parallelism and partSize must be at least 1");
+        }
+        long size = Files.size(path);
+        int partCount = Math.max(1, partCount(size, partSize)); // Checked before using a key.
+        KeyInfoPair pair = createIonicKey(key, blobInfo);
+        String prefix = blobInfo.getName() + COMPOSE_PART_INFIX + UUID.randomUUID() + "/";
+        List<BlobId> temporaries = Collections.synchronizedList(new ArrayList<BlobId>());
+
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(parallelism, partCount));
+        try (FileChannel file = FileChannel.open(path, StandardOpenOption.READ)) {
+            List<Future<BlobId>> parts = new ArrayList<Future<BlobId>>(partCount);
+            for (int i = 0; i < partCount; i++) {
+                final BlobInfo partInfo = partInfo(pair, prefix + i);
+                final long offset = i * partSize;
+                final long length = Math.min(partSize, size - offset);
+                parts.add(executor.submit(() -> {
+                    temporaries.add(partInfo.getBlobId());
+                    uploadPart(partInfo, pair.key, file, offset, length);
+                    return partInfo.getBlobId();
+                }));
+            }
+            List<BlobId> sources = awaitAll(parts);
+
+            for (int level = 0; sources.size() > MAX_COMPOSE_SOURCES; level++) {
+                List<Future<BlobId>> composites = new ArrayList<Future<BlobId>>();
+                for (int from = 0; from < sources.size(); from += MAX_COMPOSE_SOURCES) {
+                    final List<BlobId> group = sources.subList(from,
+                            Math.min(sources.size(), from + MAX_COMPOSE_SOURCES));
+                    final BlobInfo composite = partInfo(pair,
+                            prefix + "compose-" + level + "-" + composites.size());
+                    composites.add(executor.submit(() -> {
+                        temporaries.add(composite.getBlobId());
+                        composeEncrypted(composite, group, pair.key);
+                        return composite.getBlobId();
+                    }));
+                }
+                sources = awaitAll(composites);
+            }
+
+            long generation = composeEncrypted(pair.info, sources, pair.key);
+            Blob blob = googleStorage.get(
+                    BlobId.of(blobInfo.getBucket(), blobInfo.getName(), generation));
+            return cacheKeyId(blob, pair);
+        } finally {
+            executor.shutdownNow();
+            try {
+                // Let in-flight uploads finish so that their objects are deleted too.
+                executor.awaitTermination(1, TimeUnit.MINUTES);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            deleteTemporaries(temporaries);
+        }
+    }
+
+    /**
+     * Returns the number of parts of up to partSize bytes that size bytes are split into.
+     *
+     * @throws IllegalArgumentException if there would be more than MAX_PARTS parts.
+     */
+    static int partCount(long size, long partSize) {
+        long count = size / partSize + (size % partSize == 0 ? 0 : 1);
+        if (count > MAX_PARTS) {
+            throw new IllegalArgumentException("partSize " + partSize + " splits " + size
+                    + " bytes into more than " + MAX_PARTS + " parts");
+        }
+        return (int) count;
+    }
+
+    /**
+     * Builds the BlobInfo of a temporary object. The Ionic Key id is recorded so that leftover
+     * temporary objects remain readable.
+     */
+    private BlobInfo partInfo(KeyInfoPair pair, String name) {
+        Map<String, String> metadata = new HashMap<String, String>();
+        metadata.put(IONICMETACONSTANT, pair.key.getId());
+        String salt = pair.info.getMetadata().get(IONICSALTCONSTANT);
+        if (salt != null) {
+            metadata.put(IONICSALTCONSTANT, salt);
+        }
+        return BlobInfo.newBuilder(pair.info.getBucket(), name).setMetadata(metadata).build();
+    }
+
+    private void uploadPart(BlobInfo partInfo, CreateKeysResponse.Key ionicKey,
+            FileChannel file, long offset, long length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate((int) Math.min(length, UPLOAD_BUFFER_SIZE));
+        try (WriteChannel writer = googleStorage.writer(partInfo,
+                csekOptions(ionicKey).writeOption(), BlobWriteOption.doesNotExist())) {
+            writer.setChunkSize(buffer.capacity());
+            long position = offset;
+            long end = offset + length;
+            while (position < end) {
+                buffer.clear();
+                buffer.limit((int) Math.min(buffer.capacity(), end - position));
+                int read = file.read(buffer, position);
+                if (read < 0) {
+                    throw new IOException("Unexpected end of file uploading " + partInfo.getName());
+                }
+                position += read;
+                buffer.flip();
+                while (buffer.hasRemaining()) {
+                    writer.write(buffer);
+                }
+            }
+        }
     }
 
+    private void deleteTemporaries(List<BlobId> temporaries) {
+        if (temporaries.isEmpty()) {
+            return;
+        }
+        try {
+            googleStorage.delete(new ArrayList<BlobId>(temporaries));
+        } catch (StorageException e) {
+            // Best effort; leftover parts are Ionic protected and can be removed later.
+        }
+    }
 
     /**
      * Update a blob.
@@ -631,17 +1296,189 @@ public class GoogleIonicStorage implements Storage {
     }
 
     /**
-     * A container class that holds a pairing of
-     * {@link com.ionic.sdk.agent.request.createkey.CreateKeysResponse.Key} and a byte[] returned by
-     * readAllBytesAndKey() methods.
+     * Creates a new {@link IonicStorageBatch} for grouping blob gets, updates and deletes into
+     * batch requests while preserving each blob's Ionic Key id.
+     *
+     * @return an {@link IonicStorageBatch}
+     * @see com.google.cloud.storage.Storage#batch()
      */
-    public class IonicKeyBytesPair {
-        private GetKeysResponse.Key key;
-        private byte[] byteArray;
+    public IonicStorageBatch ionicBatch() {
+        return new IonicStorageBatch(this);
+    }
 
-        private IonicKeyBytesPair(GetKeysResponse.Key key, byte[] byteArray) {
-            this.key = key;
-            this.byteArray = byteArray;
+    /**
+     * Copies an Ionic protected blob with a server side rewrite, keeping the source blob's Ionic
+     * Key. The source Ionic Key is fetched and supplied as both the source decryption key and the
+     * target encryption key, so the content never passes through this process. The target's
+     * 'ionic-key-id' metadata entry is set to the source blob's key id when copyRequest overrides
+     * the target's information. Blobs that are not Ionic protected are copied as is.
+     *
+     * <p>As with {@link com.google.cloud.storage.Storage#copy(CopyRequest)}, the returned
+     * {@link com.google.cloud.storage.CopyWriter} may not have completed the copy. Progress can
+     * be observed by driving it one chunk at a time.
+     *
+     * <pre>
+     * {
+     *     CopyWriter copyWriter = ionicStorage.copyEncrypted(copyRequest);
+     *     while (!copyWriter.isDone()) {
+     *         copyWriter.copyChunk();
+     *         System.out.println(copyWriter.getTotalBytesCopied() + " of "
+     *                 + copyWriter.getBlobSize());
+     *     }
+     * }
+     * </pre>
+     *
+     * @param copyRequest a {@link com.google.cloud.storage.Storage.CopyRequest}
+     * @return a {@link com.google.cloud.storage.CopyWriter} object
+     * @throws StorageException upon failure, may wrap an {@link com.ionic.sdk.error.IonicException}
+     * @see com.google.cloud.storage.Storage#copy(CopyRequest)
+     */
+    public CopyWriter copyEncrypted(CopyRequest copyRequest) {
+        Blob source = sourceForCopy(copyRequest);
+        Map<String, String> sourceMetadata = source.getMetadata();
+        String keyId = sourceMetadata == null ? null : sourceMetadata.get(IONICMETACONSTANT);
+        String salt = sourceMetadata == null ? null : sourceMetadata.get(IONICSALTCONSTANT);
+        GetKeysResponse.Key ionicKey = ionicKeyFromMetadata(sourceMetadata);
+        CopyRequest.Builder builder = copyRequestBuilder(copyRequest, source, ionicKey);
+        List<BlobTargetOption> targetOptions = copyRequest.getTargetOptions();
+        if (ionicKey != null) {
+            targetOptions = withEncryption(ionicKey, targetOptions);
+        }
+        if (copyRequest.overrideInfo()) {
+            BlobInfo target = copyRequest.getTarget();
+            Map<String, String> metadata = target.getMetadata() == null
+                    ? new HashMap<String, String>()
+                    : new HashMap<String, String>(target.getMetadata());
+            if (keyId == null) {
+                metadata.remove(IONICMETACONSTANT);
+            } else {
+                metadata.put(IONICMETACONSTANT, keyId);
+            }
+            if (keyId == null || salt == null) {
+                metadata.remove(IONICSALTCONSTANT);
+            } else {
+                metadata.put(IONICSALTCONSTANT, salt);
+            }
+            builder.setTarget(target.toBuilder().setMetadata(metadata).build(), targetOptions);
+        } else {
+            builder.setTarget(copyRequest.getTarget().getBlobId(), targetOptions);
+        }
+        return rewrite(builder.build(), copyRequest.getTarget().getBlobId());
+    }
+
+    /**
+     * Copies a blob with a server side rewrite, protecting the target with a new Ionic Key. The
+     * source is decrypted with its own Ionic Key if it is Ionic protected, so this can also be
+     * used to protect an existing unprotected blob. The target keeps the source's content type,
+     * encoding, disposition, language, cache control and metadata unless copyRequest overrides
+     * the target's information. Uses a
+     * {@link com.ionic.sdk.agent.request.createkey.CreateKeysRequest.Key} to specify Attributes on
+     * the new Ionic Key.
+     *
+     * <p>As with {@link com.google.cloud.storage.Storage#copy(CopyRequest)}, the returned
+     * {@link com.google.cloud.storage.CopyWriter} may not have completed the copy.
+     *
+     * @param copyRequest a {@link com.google.cloud.storage.Storage.CopyRequest}
+     * @param key a {@link com.ionic.sdk.agent.request.createkey.CreateKeysRequest.Key}
+     * @return a {@link com.google.cloud.storage.CopyWriter} object
+     * @throws StorageException upon failure, may wrap an {@link com.ionic.sdk.error.IonicException}
+     * @see com.google.cloud.storage.Storage#copy(CopyRequest)
+     */
+    public CopyWriter copyEncrypted(CopyRequest copyRequest, CreateKeysRequest.Key key) {
+        Blob source = sourceForCopy(copyRequest);
+        GetKeysResponse.Key ionicKey = ionicKeyFromMetadata(source.getMetadata());
+        BlobInfo target = copyRequest.overrideInfo() ? copyRequest.getTarget()
+                : copyTargetInfo(source, copyRequest.getTarget().getBlobId());
+        return copyEncrypted(copyRequest, source, ionicKey, createIonicKey(key, target));
+    }
+
+    /**
+     * Starts a rewrite of source, decrypted with sourceKey, to pair.info encrypted with pair.key.
+     */
+    CopyWriter copyEncrypted(CopyRequest copyRequest, Blob source, GetKeysResponse.Key sourceKey,
+            KeyInfoPair pair) {
+        CopyRequest.Builder builder = copyRequestBuilder(copyRequest, source, sourceKey);
+        builder.setTarget(pair.info,
+                withEncryption(pair.key, copyRequest.getTargetOptions()));
+        return rewrite(builder.build(), pair.info.getBlobId());
+    }
+
+    /**
+     * Returns the information of a copy of source at target, keeping the source's content headers
+     * and metadata other than its Ionic Key id.
+     */
+    static BlobInfo copyTargetInfo(BlobInfo source, BlobId target) {
+        Map<String, String> metadata = null;
+        if (source.getMetadata() != null) {
+            metadata = new HashMap<String, String>(source.getMetadata());
+            metadata.remove(IONICMETACONSTANT);
+            metadata.remove(IONICSALTCONSTANT);
+        }
+        return BlobInfo.newBuilder(target)
+                .setContentType(source.getContentType())
+                .setContentEncoding(source.getContentEncoding())
+                .setContentDisposition(source.getContentDisposition())
+                .setContentLanguage(source.getContentLanguage())
+                .setCacheControl(source.getCacheControl())
+                .setMetadata(metadata)
+                .build();
+    }
+
+    private Blob sourceForCopy(CopyRequest copyRequest) {
+        Blob source = googleStorage.get(copyRequest.getSource());
+        if (source == null) {
+            throw new StorageException(404, "404 Not Found");
+        }
+        return source;
+    }
+
+    /**
+     * Starts a CopyRequest with the source's generation pinned, so that the source cannot be
+     * replaced by a blob protected with a different key before the rewrite starts.
+     */
+    private CopyRequest.Builder copyRequestBuilder(CopyRequest copyRequest, Blob source,
+            GetKeysResponse.Key ionicKey) {
+        BlobId sourceId = copyRequest.getSource();
+        if (sourceId.getGeneration() == null && source.getGeneration() != null) {
+            sourceId = BlobId.of(sourceId.getBucket(), sourceId.getName(), source.getGeneration());
+        }
+        List<BlobSourceOption> sourceOptions =
+                new ArrayList<BlobSourceOption>(copyRequest.getSourceOptions());
+        if (ionicKey != null) {
+            sourceOptions.add(0, csekOptions(ionicKey).sourceOption());
+        }
+        return CopyRequest.newBuilder().setSource(sourceId).setSourceOptions(sourceOptions)
+                .setMegabytesCopiedPerChunk(copyRequest.getMegabytesCopiedPerChunk());
+    }
+
+    private List<BlobTargetOption> withEncryption(AgentKey ionicKey,
+            List<BlobTargetOption> options) {
+        List<BlobTargetOption> newOptions = new ArrayList<BlobTargetOption>(options.size() + 1);
+        newOptions.add(csekOptions(ionicKey).targetOption());
+        newOptions.addAll(options);
+        return newOptions;
+    }
+
+    private CopyWriter rewrite(CopyRequest copyRequest, BlobId target) {
+        IonicKeyIdCache cache = this.keyIdCache;
+        if (cache != null) {
+            cache.invalidate(target);
+        }
+        return googleStorage.copy(copyRequest);
+    }
+
+    /**
+     * A container class that holds a pairing of
+     * {@link com.ionic.sdk.agent.request.createkey.CreateKeysResponse.Key} and a byte[] returned by
+     * readAllBytesAndKey() methods.
+     */
+    public class IonicKeyBytesPair {
+        private GetKeysResponse.Key key;
+        private byte[] byteArray;
+
+        IonicKeyBytesPair(GetKeysResponse.Key key, byte[] byteArray) {
+            this.key = key;
+            this.byteArray = byteArray;
         }
 
         /**
@@ -661,6 +1498,22 @@ public class GoogleIonicStorage implements Storage {
         public byte[] getByteArray() {
             return Arrays.copyOf(this.byteArray, this.byteArray.length);
         }
+
+        /**
+         * Returns a read-only view of the content without copying it.
+         *
+         * @return a read-only {@link java.nio.ByteBuffer}
+         */
+        public ByteBuffer getByteBuffer() {
+            return ByteBuffer.wrap(this.byteArray).asReadOnlyBuffer();
+        }
+
+        /**
+         * Returns the content without copying it, for callers that do not expose the pair.
+         */
+        byte[] byteArray() {
+            return this.byteArray;
+        }
     }
 
     /**
@@ -678,7 +1531,7 @@ public class GoogleIonicStorage implements Storage {
      */
     @Override
     public byte[] readAllBytes(String bucketName, String blobName, BlobSourceOption... options) {
-        return readAllBytesAndKey(BlobId.of(bucketName, blobName), options).getByteArray();
+        return readAllBytesAndKey(BlobId.of(bucketName, blobName), options).byteArray();
     }
 
     /**
@@ -716,7 +1569,56 @@ public class GoogleIonicStorage implements Storage {
      */
     @Override
     public byte[] readAllBytes(BlobId blobId, BlobSourceOption... options) {
-        return readAllBytesAndKey(blobId, options).getByteArray();
+        return readAllBytesAndKey(blobId, options).byteArray();
+    }
+
+    /**
+     * Reads the content of an Ionic protected blob into a caller supplied buffer, which may be a
+     * direct buffer, without materializing the whole blob on the heap. The whole blob is
+     * transferred from the decrypting {@link com.google.cloud.ReadChannel} starting at the
+     * buffer's position. The blob's size is checked before any content is read, and the
+     * generation whose size was checked is the one read. Will throw a StorageException if the
+     * {@link com.ionic.sdk.agent.Agent Agent's} active profile does not have permission to fetch
+     * the associated ionicKey.
+     *
+     * @param blobId the {@link com.google.cloud.storage.BlobId} of the blob to be read
+     * @param buffer the {@link java.nio.ByteBuffer} to fill
+     * @param options an optional array of
+     *        {@link com.google.cloud.storage.Storage.BlobSourceOption}s
+     * @return the number of bytes read into buffer, which is the size of the blob
+     * @throws IllegalArgumentException if the buffer has less space remaining than the size of
+     *     the blob
+     * @throws StorageException upon failure
+     * @throws IOException on I/O error
+     * @see #readerAndKey(BlobId, Storage.BlobSourceOption...)
+     */
+    public long readInto(BlobId blobId, ByteBuffer buffer, BlobSourceOption... options)
+            throws IOException {
+        Blob blob = googleStorage.get(blobId,
+                BlobGetOption.fields(BlobField.METADATA, BlobField.SIZE, BlobField.GENERATION));
+        if (blob == null) {
+            throw new StorageException(404, "404 Not Found");
+        }
+        long size = blob.getSize() == null ? 0 : blob.getSize();
+        if (size > buffer.remaining()) {
+            throw new IllegalArgumentException("Blob of " + size + " bytes does not fit in buffer"
+                    + " with " + buffer.remaining() + " bytes remaining");
+        }
+        GetKeysResponse.Key ionicKey = ionicKeyFromMetadata(blob.getMetadata());
+        BlobId source = blob.getGeneration() == null ? blobId
+                : BlobId.of(blobId.getBucket(), blobId.getName(), blob.getGeneration());
+        long total = 0;
+        try (ReadChannel reader =
+                googleStorage.reader(source, sourceOptionsWithDecryption(ionicKey, options))) {
+            while (buffer.hasRemaining()) {
+                int read = reader.read(buffer);
+                if (read < 0) {
+                    break;
+                }
+                total += read;
+            }
+        }
+        return total;
     }
 
     /**
@@ -735,10 +1637,469 @@ public class GoogleIonicStorage implements Storage {
      * @see #readAllBytes(BlobId, Storage.BlobSourceOption...)
      */
     public IonicKeyBytesPair readAllBytesAndKey(BlobId blobId, BlobSourceOption... options) {
-        GetKeysResponse.Key ionicKey = ionicKeyFromBlob(blobId);
-        byte[] bytes =
-                googleStorage.readAllBytes(blobId, sourceOptionsWithDecryption(ionicKey, options));
-        return new IonicKeyBytesPair(ionicKey, bytes);
+        return readAllBytesWithKey(blobId, readKey(blobId, options), options);
+    }
+
+    /**
+     * A container class that holds the outcome of reading one blob with
+     * {@link #readAllBytes(Iterable, int, Storage.BlobSourceOption...)}: either the blob's content
+     * and {@link com.ionic.sdk.agent.request.getkey.GetKeysResponse.Key} or the
+     * {@link com.google.cloud.storage.StorageException} that prevented reading it.
+     */
+    public class IonicKeyBytesResult {
+        private BlobId blobId;
+        private IonicKeyBytesPair pair;
+        private StorageException exception;
+
+        private IonicKeyBytesResult(BlobId blobId, IonicKeyBytesPair pair,
+                StorageException exception) {
+            this.blobId = blobId;
+            this.pair = pair;
+            this.exception = exception;
+        }
+
+        /**
+         * Returns the BlobId that was read.
+         *
+         * @return a {@link com.google.cloud.storage.BlobId}
+         */
+        public BlobId getBlobId() {
+            return this.blobId;
+        }
+
+        /**
+         * Returns true if the blob was read.
+         *
+         * @return a boolean
+         */
+        public boolean isSuccessful() {
+            return this.exception == null;
+        }
+
+        /**
+         * Returns the blob's content and key.
+         *
+         * @return a {@link IonicKeyBytesPair} or null if the read failed
+         */
+        public IonicKeyBytesPair getKeyBytesPair() {
+            return this.pair;
+        }
+
+        /**
+         * Returns the exception that prevented reading the blob.
+         *
+         * @return a {@link com.google.cloud.storage.StorageException} or null if the read succeeded
+         */
+        public StorageException getException() {
+            return this.exception;
+        }
+    }
+
+    /**
+     * Reads all the bytes from many Ionic protected blobs. Equivalent to
+     * {@link #readAllBytes(Iterable, int, Storage.BlobSourceOption...)} with a parallelism of 8.
+     *
+     * @param blobIds the {@link com.google.cloud.storage.BlobId}s of the blobs to read
+     * @param options an optional array of
+     *        {@link com.google.cloud.storage.Storage.BlobSourceOption}s applied to every download
+     * @return a list of {@link IonicKeyBytesResult}s in the iteration order of blobIds
+     * @see #readAllBytes(Iterable, int, Storage.BlobSourceOption...)
+     */
+    public List<IonicKeyBytesResult> readAllBytes(Iterable<BlobId> blobIds,
+            BlobSourceOption... options) {
+        return readAllBytes(blobIds, DEFAULT_BULK_PARALLELISM, options);
+    }
+
+    /**
+     * Reads all the bytes from many Ionic protected blobs. Blob metadata is fetched with batched
+     * {@link com.google.cloud.storage.StorageBatch} requests, the distinct Ionic Keys are fetched
+     * with multi-key {@link com.ionic.sdk.agent.request.getkey.GetKeysRequest}s and the blob
+     * contents are downloaded by up to parallelism threads. Each download reads the generation
+     * whose metadata was fetched, so a blob replaced in between is read as it was. A failure to
+     * read one blob does not prevent reading the others; it is reported in that blob's
+     * {@link IonicKeyBytesResult}. Blobs that are not Ionic protected are read without
+     * decryption.
+     *
+     * <p>The download threads are created for each call and stopped when it returns. Callers
+     * that read in bulk repeatedly can supply their own threads with
+     * {@link #readAllBytes(Iterable, Executor, Storage.BlobSourceOption...)}.
+     *
+     * @param blobIds the {@link com.google.cloud.storage.BlobId}s of the blobs to read
+     * @param parallelism the maximum number of concurrent downloads
+     * @param options an optional array of
+     *        {@link com.google.cloud.storage.Storage.BlobSourceOption}s applied to every download
+     * @return a list of {@link IonicKeyBytesResult}s in the iteration order of blobIds
+     * @throws IllegalArgumentException if parallelism is less than 1
+     * @see #readAllBytesAndKey(BlobId, Storage.BlobSourceOption...)
+     */
+    public List<IonicKeyBytesResult> readAllBytes(Iterable<BlobId> blobIds, int parallelism,
+            BlobSourceOption... options) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("parallelism must be at least 1");
+        }
+        List<BlobId> ids = new ArrayList<BlobId>();
+        for (BlobId blobId : blobIds) {
+            ids.add(blobId);
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(
+                Math.max(1, Math.min(parallelism, ids.size())));
+        try {
+            return readAllBytes(ids, executor, options);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Reads all the bytes from many Ionic protected blobs as
+     * {@link #readAllBytes(Iterable, int, Storage.BlobSourceOption...)} does, downloading the blob
+     * contents on executor instead of on threads created for the call. The number of concurrent
+     * downloads is bounded by executor.
+     *
+     * @param blobIds the {@link com.google.cloud.storage.BlobId}s of the blobs to read
+     * @param executor the {@link java.util.concurrent.Executor} the downloads run on
+     * @param options an optional array of
+     *        {@link com.google.cloud.storage.Storage.BlobSourceOption}s applied to every download
+     * @return a list of {@link IonicKeyBytesResult}s in the iteration order of blobIds
+     * @see #readAllBytes(Iterable, int, Storage.BlobSourceOption...)
+     */
+    public List<IonicKeyBytesResult> readAllBytes(Iterable<BlobId> blobIds, Executor executor,
+            BlobSourceOption... options) {
+        if (executor == null) {
+            throw new NullPointerException("executor must not be null");
+        }
+        List<BlobId> ids = new ArrayList<BlobId>();
+        for (BlobId blobId : blobIds) {
+            ids.add(blobId);
+        }
+        return readAllBytes(ids, executor, options);
+    }
+
+    private List<IonicKeyBytesResult> readAllBytes(List<BlobId> ids, Executor executor,
+            BlobSourceOption... options) {
+        String[] keyIds = new String[ids.size()];
+        String[] salts = new String[ids.size()];
+        Long[] generations = new Long[ids.size()];
+        StorageException[] errors = new StorageException[ids.size()];
+        ionicKeyIdsFromBlobs(ids, keyIds, salts, generations, errors);
+
+        Set<String> distinctKeyIds = new HashSet<String>();
+        for (String keyId : keyIds) {
+            if (keyId != null) {
+                distinctKeyIds.add(keyId);
+            }
+        }
+        Map<String, StorageException> keyErrors = new HashMap<String, StorageException>();
+        Map<String, GetKeysResponse.Key> keys = resolveIonicKeys(distinctKeyIds, keyErrors);
+
+        GetKeysResponse.Key[] blobKeys = new GetKeysResponse.Key[ids.size()];
+        List<IonicKeyBytesResult> results = new ArrayList<IonicKeyBytesResult>(ids.size());
+        List<Future<byte[]>> downloads = new ArrayList<Future<byte[]>>(ids.size());
+        try {
+            for (int i = 0; i < ids.size(); i++) {
+                final BlobId blobId = ids.get(i);
+                final GetKeysResponse.Key parentKey =
+                        keyIds[i] == null ? null : keys.get(keyIds[i]);
+                if (errors[i] == null && keyIds[i] != null && parentKey == null) {
+                    errors[i] = keyErrors.get(keyIds[i]);
+                }
+                if (errors[i] != null) {
+                    downloads.add(null);
+                    continue;
+                }
+                try {
+                    blobKeys[i] = IonicKeyDerivation.blobKey(parentKey, salts[i]);
+                } catch (StorageException e) {
+                    errors[i] = e;
+                    downloads.add(null);
+                    continue;
+                }
+                final GetKeysResponse.Key ionicKey = blobKeys[i];
+                // Pinned to the generation whose key was resolved.
+                final BlobId source = generations[i] == null ? blobId
+                        : BlobId.of(blobId.getBucket(), blobId.getName(), generations[i]);
+                downloads.add(CompletableFuture.supplyAsync(() -> googleStorage.readAllBytes(
+                        source, sourceOptionsWithDecryption(ionicKey, options)), executor));
+            }
+            for (int i = 0; i < ids.size(); i++) {
+                BlobId blobId = ids.get(i);
+                Future<byte[]> download = downloads.get(i);
+                if (download == null) {
+                    results.add(new IonicKeyBytesResult(blobId, null, errors[i]));
+                    continue;
+                }
+                try {
+                    results.add(new IonicKeyBytesResult(blobId,
+                            new IonicKeyBytesPair(blobKeys[i], download.get()), null));
+                } catch (ExecutionException e) {
+                    results.add(new IonicKeyBytesResult(blobId, null, asStorageException(e)));
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            for (Future<byte[]> download : downloads) {
+                if (download != null) {
+                    download.cancel(false);
+                }
+            }
+            throw new StorageException(0, "Interrupted while reading blobs", e);
+        }
+        return results;
+    }
+
+    /**
+     * Lists the blobs of a bucket together with the keys protecting them. Equivalent to
+     * {@link #listWithKeys(String, Executor, Storage.BlobListOption...)} without prefetching.
+     *
+     * @param bucket the name of the bucket
+     * @param options an optional array of
+     *        {@link com.google.cloud.storage.Storage.BlobListOption}s
+     * @return an {@link java.util.Iterator} of {@link IonicBlobKeyResult}s in listing order
+     * @see #listWithKeys(String, Executor, Storage.BlobListOption...)
+     */
+    public Iterator<IonicBlobKeyResult> listWithKeys(String bucket, BlobListOption... options) {
+        return listWithKeys(bucket, null, options);
+    }
+
+    /**
+     * Lists the blobs of a bucket together with the keys protecting them. The Ionic Key ids of
+     * each page of the listing are taken from the listed metadata, and the distinct keys of the
+     * page are fetched with multi-key {@link com.ionic.sdk.agent.request.getkey.GetKeysRequest}s
+     * before its first blob is returned, so that reading a blob with
+     * {@link IonicBlobKeyResult#readAllBytes(Storage.BlobSourceOption...)} costs only its
+     * download. When executor is not null the next page is listed and its keys fetched on it
+     * while the current page is consumed. A failure to resolve the key of one blob is reported in
+     * that blob's {@link IonicBlobKeyResult}; a failure to list blobs is thrown by the iterator.
+     *
+     * <p>If options restrict the listed fields with
+     * {@link com.google.cloud.storage.Storage.BlobListOption#fields(Storage.BlobField...)}, they
+     * must include {@link com.google.cloud.storage.Storage.BlobField#METADATA}.
+     *
+     * @param bucket the name of the bucket
+     * @param executor the {@link java.util.concurrent.Executor} pages are prefetched on, or null
+     * @param options an optional array of
+     *        {@link com.google.cloud.storage.Storage.BlobListOption}s
+     * @return an {@link java.util.Iterator} of {@link IonicBlobKeyResult}s in listing order
+     * @throws StorageException upon failure to list blobs
+     */
+    public Iterator<IonicBlobKeyResult> listWithKeys(String bucket, Executor executor,
+            BlobListOption... options) {
+        return new KeyPrefetchingIterator(this, () -> googleStorage.list(bucket, options),
+                executor);
+    }
+
+    /**
+     * Resolves the keys of blobs, as listed with their metadata, with multi-key requests.
+     */
+    List<IonicBlobKeyResult> keyedBlobs(List<Blob> blobs) {
+        Set<String> keyIds = new HashSet<String>();
+        for (Blob blob : blobs) {
+            String keyId = metadataValue(blob.getMetadata(), IONICMETACONSTANT);
+            if (keyId != null) {
+                keyIds.add(keyId);
+            }
+        }
+        Map<String, StorageException> keyErrors = new HashMap<String, StorageException>();
+        Map<String, GetKeysResponse.Key> keys = resolveIonicKeys(keyIds, keyErrors);
+        List<IonicBlobKeyResult> results = new ArrayList<IonicBlobKeyResult>(blobs.size());
+        for (Blob blob : blobs) {
+            String keyId = metadataValue(blob.getMetadata(), IONICMETACONSTANT);
+            if (keyId == null) {
+                results.add(new IonicBlobKeyResult(blob, null, null));
+            } else if (!keys.containsKey(keyId)) {
+                results.add(new IonicBlobKeyResult(blob, null, keyErrors.get(keyId)));
+            } else {
+                try {
+                    results.add(new IonicBlobKeyResult(blob, IonicKeyDerivation.blobKey(
+                            keys.get(keyId), metadataValue(blob.getMetadata(),
+                                    IONICSALTCONSTANT)), null));
+                } catch (StorageException e) {
+                    results.add(new IonicBlobKeyResult(blob, null, e));
+                }
+            }
+        }
+        return results;
+    }
+
+    /**
+     * A container class that holds one blob returned by
+     * {@link #listWithKeys(String, Executor, Storage.BlobListOption...)}: the listed
+     * {@link com.google.cloud.storage.Blob} and either the
+     * {@link com.ionic.sdk.agent.request.getkey.GetKeysResponse.Key} protecting it or the
+     * {@link com.google.cloud.storage.StorageException} that prevented fetching that key.
+     */
+    public class IonicBlobKeyResult {
+        private Blob blob;
+        private GetKeysResponse.Key key;
+        private StorageException exception;
+
+        private IonicBlobKeyResult(Blob blob, GetKeysResponse.Key key,
+                StorageException exception) {
+            this.blob = blob;
+            this.key = key;
+            this.exception = exception;
+        }
+
+        /**
+         * Returns the listed Blob.
+         *
+         * @return a {@link com.google.cloud.storage.Blob}
+         */
+        public Blob getBlob() {
+            return this.blob;
+        }
+
+        /**
+         * Returns the key protecting the blob.
+         *
+         * @return a {@link com.ionic.sdk.agent.request.getkey.GetKeysResponse.Key} or null if the
+         *         blob is not Ionic protected or its key could not be fetched
+         */
+        public GetKeysResponse.Key getKey() {
+            return this.key;
+        }
+
+        /**
+         * Returns true if the blob can be read, that is it is not Ionic protected or its key was
+         * fetched.
+         *
+         * @return a boolean
+         */
+        public boolean isSuccessful() {
+            return this.exception == null;
+        }
+
+        /**
+         * Returns the exception that prevented fetching the blob's key.
+         *
+         * @return a {@link com.google.cloud.storage.StorageException} or null if the key was
+         *         fetched
+         */
+        public StorageException getException() {
+            return this.exception;
+        }
+
+        /**
+         * Reads all the bytes of the listed generation of the blob, decrypted with its key.
+         *
+         * @param options an optional array of
+         *        {@link com.google.cloud.storage.Storage.BlobSourceOption}s
+         * @return a byte[]
+         * @throws StorageException if the blob's key could not be fetched, or upon failure
+         */
+        public byte[] readAllBytes(BlobSourceOption... options) {
+            if (this.exception != null) {
+                throw new StorageException(this.exception.getCode(),
+                        this.exception.getMessage(), this.exception);
+            }
+            return googleStorage.readAllBytes(this.blob.getBlobId(),
+                    sourceOptionsWithDecryption(this.key, options));
+        }
+    }
+
+    /**
+     * Downloads an Ionic protected blob to a local file using several concurrent ranged reads.
+     * The Ionic Key is fetched once and shared by parallelism decrypting
+     * {@link com.google.cloud.ReadChannel}s, each of which reads a part of up to partSize bytes
+     * and writes it at its offset in the file. All parts read the generation that was current
+     * when the download started. The CRC32C of the downloaded content is checked against the
+     * blob's CRC32C; the file is left in place if the check fails. For best throughput partSize
+     * should be a multiple of 2 MiB.
+     *
+     * @param blobId the {@link com.google.cloud.storage.BlobId} of the blob to download
+     * @param path the {@link java.nio.file.Path} of the file to write, replaced if it exists
+     * @param parallelism the maximum number of concurrent part downloads
+     * @param partSize the number of bytes downloaded by each part
+     * @param options an optional array of
+     *        {@link com.google.cloud.storage.Storage.BlobSourceOption}s applied to every part
+     * @return the {@link com.ionic.sdk.agent.request.getkey.GetKeysResponse.Key} used to decrypt
+     *         the blob, or null if the blob is not Ionic protected
+     * @throws IllegalArgumentException if parallelism or partSize is less than 1, or the blob
+     *     would be split into more than 10000 parts
+     * @throws StorageException upon failure, including a CRC32C mismatch
+     * @throws IOException on I/O error
+     */
+    public GetKeysResponse.Key downloadTo(BlobId blobId, Path path, int parallelism,
+            long partSize, BlobSourceOption... options) throws IOException {
+        if (parallelism < 1 || partSize < 1) {
+            throw new IllegalArgumentException("parallelism and partSize must be at least 1");
+        }
+        Blob blob = googleStorage.get(blobId, BlobGetOption.fields(BlobField.METADATA,
+                BlobField.SIZE, BlobField.CRC32C, BlobField.GENERATION));
+        if (blob == null) {
+            throw new StorageException(404, "404 Not Found");
+        }
+        long size = blob.getSize() == null ? 0 : blob.getSize();
+        int partCount = partCount(size, partSize);
+        Map<String, String> metadata = blob.getMetadata();
+        final GetKeysResponse.Key ionicKey = ionicKeyFromMetadata(metadata);
+        final BlobId source = blob.getGeneration() == null ? blobId
+                : BlobId.of(blobId.getBucket(), blobId.getName(), blob.getGeneration());
+        final BlobSourceOption[] readOptions = sourceOptionsWithDecryption(ionicKey, options);
+        final int[] partCrcs = new int[partCount];
+
+        try (FileChannel file = FileChannel.open(path, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            ExecutorService executor = Executors.newFixedThreadPool(
+                    Math.max(1, Math.min(parallelism, partCount)));
+            try {
+                List<Future<Void>> parts = new ArrayList<Future<Void>>(partCount);
+                for (int i = 0; i < partCount; i++) {
+                    final int index = i;
+                    final long offset = i * partSize;
+                    final long length = Math.min(partSize, size - offset);
+                    parts.add(executor.submit(() -> {
+                        partCrcs[index] = downloadPart(source, file, offset, length, readOptions);
+                        return null;
+                    }));
+                }
+                awaitAll(parts);
+            } finally {
+                executor.shutdownNow();
+            }
+        }
+
+        int crc = 0;
+        for (int i = 0; i < partCount; i++) {
+            crc = Crc32c.combine(crc, partCrcs[i], Math.min(partSize, size - i * partSize));
+        }
+        String expected = blob.getCrc32c();
+        if (expected == null && ionicKey != null) {
+            // Hashes of blobs encrypted with a customer-supplied key require the key to be read.
+            Blob hashes = googleStorage.get(source, BlobGetOption.fields(BlobField.CRC32C),
+                    csekOptions(ionicKey).getOption());
+            expected = hashes == null ? null : hashes.getCrc32c();
+        }
+        if (expected != null && Crc32c.fromBase64(expected) != crc) {
+            throw new StorageException(0, "CRC32C mismatch downloading " + source);
+        }
+        return ionicKey;
+    }
+
+    private int downloadPart(BlobId source, FileChannel file, long offset, long length,
+            BlobSourceOption[] options) throws IOException {
+        Hasher hasher = Hashing.crc32c().newHasher();
+        int bufferSize = (int) Math.min(length, DOWNLOAD_BUFFER_SIZE);
+        ByteBuffer buffer = ByteBuffer.allocate(bufferSize);
+        try (ReadChannel reader = googleStorage.reader(source, options)) {
+            reader.setChunkSize(bufferSize);
+            reader.seek(offset);
+            long position = offset;
+            long end = offset + length;
+            while (position < end) {
+                buffer.clear();
+                buffer.limit((int) Math.min(buffer.capacity(), end - position));
+                if (reader.read(buffer) < 0) {
+                    throw new StorageException(0, "Unexpected end of blob " + source);
+                }
+                buffer.flip();
+                hasher.putBytes(buffer.duplicate());
+                while (buffer.hasRemaining()) {
+                    position += file.write(buffer, position);
+                }
+            }
+        }
+        return hasher.hash().asInt();
     }
 
     /**
@@ -750,7 +2111,7 @@ public class GoogleIonicStorage implements Storage {
         private GetKeysResponse.Key key;
         private ReadChannel reader;
 
-        private IonicKeyReadChannelPair(GetKeysResponse.Key key, ReadChannel reader) {
+        IonicKeyReadChannelPair(GetKeysResponse.Key key, ReadChannel reader) {
             this.key = key;
             this.reader = reader;
         }
@@ -854,10 +2215,7 @@ public class GoogleIonicStorage implements Storage {
      * @see com.google.cloud.storage.Storage#reader(BlobId, BlobSourceOption...)
      */
     public IonicKeyReadChannelPair readerAndKey(BlobId blob, BlobSourceOption... options) {
-        GetKeysResponse.Key ionicKey = ionicKeyFromBlob(blob);
-        ReadChannel reader =
-                googleStorage.reader(blob, sourceOptionsWithDecryption(ionicKey, options));
-        return new IonicKeyReadChannelPair(ionicKey, reader);
+        return readerWithKey(blob, ionicKeyFromBlob(blob), options);
     }
 
     /**
@@ -887,6 +2245,8 @@ public class GoogleIonicStorage implements Storage {
      * Creates an Ionic protected blob and return a channel for writing its content. By default any
      * md5 and crc32c values in the given {@code blobInfo} are ignored unless requested via the
      * {@code BlobWriteOption.md5Match} and {@code BlobWriteOption.crc32cMatch} options.
+     * When lazy writers are enabled with {@link #enableLazyWriters(Executor)} the channel is
+     * returned before the Ionic Key is created.
      *
      * <p>Example of writing a blob's content through a writer.
      *
@@ -925,8 +2285,13 @@ public class GoogleIonicStorage implements Storage {
      */
     public WriteChannel writer(BlobInfo blobInfo, CreateKeysRequest.Key key,
             BlobWriteOption... options) {
-        KeyInfoPair pair = createIonicKey(key, blobInfo);
-        return googleStorage.writer(pair.info, writeOptionsWithEncrytion(pair.key, options));
+        Executor executor = this.writerExecutor;
+        if (executor != null) {
+            BlobWriteOption[] writeOptions = options == null ? null : options.clone();
+            return new LazyWriteChannel(executor,
+                () -> writerWithKey(createIonicKey(key, blobInfo), writeOptions));
+        }
+        return writerWithKey(createIonicKey(key, blobInfo), options);
     }
 
 
@@ -946,19 +2311,225 @@ public class GoogleIonicStorage implements Storage {
     // Internal methods
 
     protected GetKeysResponse.Key ionicKeyFromBlob(BlobId blobId) {
-        Blob sourceBlob = googleStorage.get(blobId, BlobGetOption.fields(BlobField.METADATA));
+        IonicKeyIdCache cache = this.keyIdCache;
+        if (cache != null && blobId.getGeneration() != null) {
+            IonicKeyIdCache.Entry entry = cachedKeyId(cache, blobId);
+            if (entry != null) {
+                return ionicKeyFromEntry(entry);
+            }
+        }
+        Blob sourceBlob = googleStorage.get(blobId,
+                BlobGetOption.fields(BlobField.METADATA, BlobField.GENERATION));
         if (sourceBlob == null) {
             throw new StorageException(404, "404 Not Found");
         }
+        Map<String, String> metadata = sourceBlob.getMetadata();
+        if (cache != null && sourceBlob.getGeneration() != null) {
+            cache.put(blobId, sourceBlob.getGeneration(),
+                    metadataValue(metadata, IONICMETACONSTANT),
+                    metadataValue(metadata, IONICSALTCONSTANT));
+        }
+        return ionicKeyFromMetadata(metadata);
+    }
+
+    /**
+     * Returns the key protecting a blob with the given metadata: its Ionic Key, or the key derived
+     * from it when the metadata holds a key derivation salt.
+     *
+     * @return a key, or null if the blob is not Ionic protected.
+     */
+    protected GetKeysResponse.Key ionicKeyFromMetadata(Map<String, String> metadata) {
+        String keyId = metadataValue(metadata, IONICMETACONSTANT);
+        if (keyId == null) {
+            return null; // Not Ionic protected, so no key is fetched.
+        }
+        return IonicKeyDerivation.blobKey(ionicKeyFromId(keyId),
+                metadataValue(metadata, IONICSALTCONSTANT));
+    }
+
+    private GetKeysResponse.Key ionicKeyFromEntry(IonicKeyIdCache.Entry entry) {
+        return IonicKeyDerivation.blobKey(ionicKeyFromId(entry.getKeyId()), entry.getSalt());
+    }
+
+    static String metadataValue(Map<String, String> metadata, String key) {
+        return metadata == null ? null : metadata.get(key);
+    }
+
+    /**
+     * isIonicProtected() returns whether a blob is protected with an Ionic Key, according to the
+     * metadata of blobInfo.
+     *
+     * @param blobInfo a {@link com.google.cloud.storage.BlobInfo} including its metadata.
+     * @return a boolean.
+     */
+    public static boolean isIonicProtected(BlobInfo blobInfo) {
+        return metadataValue(blobInfo.getMetadata(), IONICMETACONSTANT) != null;
+    }
+
+    protected GetKeysResponse.Key ionicKeyFromId(String keyId) {
+        if (keyId == null) {
+            return null; // Ionic Key not present in blob metadata.
+        }
         try {
-            return getIonicKey(sourceBlob.getMetadata().get(IONICMETACONSTANT));
+            return getIonicKey(keyId);
         } catch (IonicException e) {
             throw new StorageException(e.getReturnCode(), e.getLocalizedMessage());
-        } catch (NullPointerException e) {
-            return null; // Ionic Key not present in blob metadata.
         }
     }
 
+    /**
+     * Records the key id of a blob created with pair in the key id cache, when one is enabled.
+     */
+    protected Blob cacheKeyId(Blob blob, KeyInfoPair pair) {
+        IonicKeyIdCache cache = this.keyIdCache;
+        if (cache != null && blob != null && blob.getGeneration() != null) {
+            cache.put(blob.getBlobId(), blob.getGeneration(), pair.key.getId(),
+                    metadataValue(pair.info.getMetadata(), IONICSALTCONSTANT));
+        }
+        return blob;
+    }
+
+    /**
+     * Fetches the metadata of blobIds with batched requests and stores each blob's Ionic Key id in
+     * keyIds, key derivation salt in salts and generation in generations, or the exception that
+     * prevented fetching them in errors, at the blob's index. Blobs that are not Ionic protected
+     * are left with a null key id and no error.
+     */
+    protected void ionicKeyIdsFromBlobs(List<BlobId> blobIds, String[] keyIds, String[] salts,
+            Long[] generations, StorageException[] errors) {
+        for (int start = 0; start < blobIds.size(); start += MAX_BATCH_SIZE) {
+            final IonicKeyIdCache cache = this.keyIdCache;
+            StorageBatch batch = null;
+            int end = Math.min(blobIds.size(), start + MAX_BATCH_SIZE);
+            for (int i = start; i < end; i++) {
+                final int index = i;
+                final BlobId blobId = blobIds.get(i);
+                if (cache != null && blobId.getGeneration() != null) {
+                    IonicKeyIdCache.Entry entry = cachedKeyId(cache, blobId);
+                    if (entry != null) {
+                        keyIds[index] = entry.getKeyId();
+                        salts[index] = entry.getSalt();
+                        generations[index] = entry.getGeneration();
+                        continue;
+                    }
+                }
+                if (batch == null) {
+                    batch = googleStorage.batch();
+                }
+                batch.get(blobId, BlobGetOption.fields(BlobField.METADATA, BlobField.GENERATION))
+                        .notify(new BatchResult.Callback<Blob, StorageException>() {
+                            @Override
+                            public void success(Blob blob) {
+                                if (blob == null) {
+                                    errors[index] = new StorageException(404, "404 Not Found");
+                                    return;
+                                }
+                                if (blob.getMetadata() != null) {
+                                    keyIds[index] = blob.getMetadata().get(IONICMETACONSTANT);
+                                    salts[index] = blob.getMetadata().get(IONICSALTCONSTANT);
+                                }
+                                generations[index] = blob.getGeneration();
+                                if (cache != null && blob.getGeneration() != null) {
+                                    cache.put(blobId, blob.getGeneration(), keyIds[index],
+                                            salts[index]);
+                                }
+                            }
+
+                            @Override
+                            public void error(StorageException exception) {
+                                errors[index] = exception;
+                            }
+                        });
+            }
+            if (batch != null) {
+                submitBatch(batch);
+            }
+        }
+    }
+
+    /**
+     * Fetches the Ionic Keys with the given ids using multi-key requests, consulting the key
+     * cache first when one is enabled. Ids that could not be fetched are mapped to a
+     * StorageException in errors.
+     */
+    protected Map<String, GetKeysResponse.Key> resolveIonicKeys(Collection<String> keyIds,
+            Map<String, StorageException> errors) {
+        Map<String, GetKeysResponse.Key> keys = new HashMap<String, GetKeysResponse.Key>();
+        IonicKeyCache cache = this.keyCache;
+        List<String> pending = new ArrayList<String>();
+        for (String keyId : keyIds) {
+            GetKeysResponse.Key cached = cache == null ? null : cachedKey(cache, keyId);
+            if (cached != null) {
+                keys.put(keyId, cached);
+            } else {
+                pending.add(keyId);
+            }
+        }
+        for (int start = 0; start < pending.size(); start += MAX_KEYS_PER_REQUEST) {
+            List<String> chunk =
+                    pending.subList(start, Math.min(pending.size(), start + MAX_KEYS_PER_REQUEST));
+            GetKeysRequest request = new GetKeysRequest();
+            for (String keyId : chunk) {
+                request.add(keyId);
+            }
+            try {
+                GetKeysResponse response = getIonicKeys(request);
+                for (GetKeysResponse.Key key : response.getKeys()) {
+                    keys.put(key.getId(), key);
+                    if (cache != null) {
+                        cache.put(key);
+                    }
+                }
+                for (GetKeysResponse.IonicError error : response.getErrors()) {
+                    errors.put(error.getKeyId(), keyError(error));
+                }
+            } catch (IonicException e) {
+                for (String keyId : chunk) {
+                    errors.put(keyId,
+                            new StorageException(e.getReturnCode(), e.getLocalizedMessage()));
+                }
+            }
+            for (String keyId : chunk) {
+                if (!keys.containsKey(keyId) && !errors.containsKey(keyId)) {
+                    errors.put(keyId, new StorageException(
+                            AgentErrorModuleConstants.ISAGENT_KEY_DENIED,
+                            "Ionic Key " + keyId + " was not returned"));
+                }
+            }
+        }
+        return keys;
+    }
+
+    /**
+     * Waits for every future to complete, rethrowing the first failure as an IOException or
+     * StorageException.
+     */
+    static <T> List<T> awaitAll(List<Future<T>> futures) throws IOException {
+        List<T> results = new ArrayList<T>(futures.size());
+        try {
+            for (Future<T> future : futures) {
+                results.add(future.get());
+            }
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw asStorageException(e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new StorageException(0, "Interrupted while transferring blob", e);
+        }
+        return results;
+    }
+
+    private static StorageException asStorageException(ExecutionException e) {
+        Throwable cause = e.getCause();
+        if (cause instanceof StorageException) {
+            return (StorageException) cause;
+        }
+        return new StorageException(0, cause.getLocalizedMessage(), cause);
+    }
+
     protected class KeyInfoPair {
         protected CreateKeysResponse.Key key;
         protected BlobInfo info;
@@ -970,65 +2541,557 @@ public class GoogleIonicStorage implements Storage {
     }
 
     protected KeyInfoPair createIonicKey(CreateKeysRequest.Key key, BlobInfo blobInfoIn) {
-        KeyAttributesMap attributesMap = new KeyAttributesMap();
-        Map<String, String> blobInfoInMetadata = blobInfoIn.getMetadata();
-        HashMap<String, String> blobInfoOutMetadata;
-        if (blobInfoInMetadata != null) {
-            blobInfoOutMetadata = new HashMap<String, String>(blobInfoInMetadata);
-            if (enabledMetadataCapture) {
-                for (Map.Entry<String, String> entry : blobInfoOutMetadata.entrySet()) {
-                    ArrayList<String> collection = new ArrayList<String>();
-                    collection.add(entry.getValue());
-                    attributesMap.put(entry.getKey(), collection);
-                }
-            }
-        } else {
-            blobInfoOutMetadata = new HashMap<String, String>();
+        KeyAttributesMap attributesMap = keyAttributes(key, blobInfoIn);
+        KeyAttributesMap mutableAttributesMap = key.getMutableAttributesMap();
+        IonicKeyDerivation derivation = this.keyDerivation;
+        if (derivation != null) {
+            byte[] salt = IonicKeyDerivation.newSalt();
+            CreateKeysResponse.Key derivedKey = derivation.newKey(attributesMap,
+                    mutableAttributesMap, () -> newIonicKey(attributesMap, mutableAttributesMap),
+                    salt);
+            return keyInfoPair(derivedKey, blobInfoIn, Base64.getEncoder().encodeToString(salt));
+        }
+        IonicKeyReuse reuse = this.keyReuse;
+        if (reuse != null) {
+            return keyInfoPair(reuse.take(blobInfoIn.getBucket(), blobInfoIn.getName(),
+                    attributesMap, mutableAttributesMap,
+                    () -> newIonicKey(attributesMap, mutableAttributesMap)), blobInfoIn, null);
+        }
+        return keyInfoPair(newIonicKey(attributesMap, mutableAttributesMap), blobInfoIn, null);
+    }
+
+    /**
+     * Takes an Ionic Key with the given attributes from the key pool, or creates one if no pool is
+     * enabled, metadata capture is enabled, or the pool is empty.
+     */
+    private CreateKeysResponse.Key newIonicKey(KeyAttributesMap attributesMap,
+            KeyAttributesMap mutableAttributesMap) {
+        CreateKeysResponse.Key ionicKey = null;
+        IonicKeyPool pool = this.keyPool;
+        if (pool != null && !this.enabledMetadataCapture) {
+            ionicKey = pool.take(attributesMap, mutableAttributesMap);
+            recordCacheLookup(IonicStorageMetrics.KEY_POOL, ionicKey != null);
+        }
+        if (ionicKey != null) {
+            return ionicKey;
+        }
+        IonicRequestBatcher<CreateKeysRequest.Key, CreateKeysResponse.Key> batcher =
+                this.createBatcher;
+        if (batcher != null) {
+            return batcher.submit(
+                    new CreateKeysRequest.Key("", 1, attributesMap, mutableAttributesMap));
         }
-        attributesMap.putAll(attributes);
-        attributesMap.putAll(key.getAttributesMap());
-        Agent agent = Agent.clone(this.agent);
-        CreateKeysResponse.Key ionicKey;
         try {
-            ionicKey = agent.createKey(attributesMap, key.getMutableAttributesMap()).getFirstKey();
+            return createIonicKeys(new CreateKeysRequest(new CreateKeysRequest.Key("", 1,
+                    attributesMap, mutableAttributesMap))).getFirstKey();
         } catch (IonicException e) {
             throw new StorageException(e.getReturnCode(), e.getLocalizedMessage());
         }
+    }
+
+    /**
+     * Creates the keys of a batch of single key creations with one request, grouping creations
+     * with the same attributes into one entry of the request.
+     */
+    private void sendCreateKeys(
+            List<Pending<CreateKeysRequest.Key, CreateKeysResponse.Key>> batch) {
+        Map<KeyAttributeSet, List<Integer>> groups =
+                new LinkedHashMap<KeyAttributeSet, List<Integer>>();
+        for (int i = 0; i < batch.size(); i++) {
+            CreateKeysRequest.Key key = batch.get(i).getRequest();
+            groups.computeIfAbsent(
+                    new KeyAttributeSet(key.getAttributesMap(), key.getMutableAttributesMap()),
+                    attributes -> new ArrayList<Integer>()).add(i);
+        }
+        List<List<Integer>> refs = new ArrayList<List<Integer>>(groups.values());
+        CreateKeysRequest request = new CreateKeysRequest();
+        for (int ref = 0; ref < refs.size(); ref++) {
+            CreateKeysRequest.Key key = batch.get(refs.get(ref).get(0)).getRequest();
+            request.add(new CreateKeysRequest.Key(Integer.toString(ref), refs.get(ref).size(),
+                    key.getAttributesMap(), key.getMutableAttributesMap()));
+        }
+        CreateKeysResponse response;
+        try {
+            response = createIonicKeys(request);
+        } catch (IonicException e) {
+            throw new StorageException(e.getReturnCode(), e.getLocalizedMessage());
+        }
+        for (CreateKeysResponse.Key ionicKey : response.getKeys()) {
+            List<Integer> waiting = refs.get(Integer.parseInt(ionicKey.getRefId()));
+            if (!waiting.isEmpty()) {
+                batch.get(waiting.remove(0)).complete(ionicKey);
+            }
+        }
+        for (Pending<CreateKeysRequest.Key, CreateKeysResponse.Key> pending : batch) {
+            pending.fail(new StorageException(AgentErrorModuleConstants.ISAGENT_KEY_DENIED,
+                    "Ionic Key was not created"));
+        }
+    }
+
+    /**
+     * Creates an Ionic Key for each of blobInfos with as few IDC requests as possible. Keys are
+     * not taken from the key pool. Keys are derived or reused instead when key derivation or reuse
+     * is enabled.
+     *
+     * @return a list of KeyInfoPairs in the order of blobInfos.
+     */
+    protected List<KeyInfoPair> createIonicKeys(CreateKeysRequest.Key key,
+            List<? extends BlobInfo> blobInfos) {
+        List<KeyInfoPair> pairs = new ArrayList<KeyInfoPair>(blobInfos.size());
+        if (this.keyDerivation != null || this.keyReuse != null) {
+            for (BlobInfo blobInfo : blobInfos) {
+                pairs.add(createIonicKey(key, blobInfo));
+            }
+            return pairs;
+        }
+        for (int from = 0; from < blobInfos.size(); from += MAX_KEYS_PER_REQUEST) {
+            List<? extends BlobInfo> chunk = blobInfos.subList(from,
+                    Math.min(blobInfos.size(), from + MAX_KEYS_PER_REQUEST));
+            CreateKeysRequest request = new CreateKeysRequest();
+            for (int i = 0; i < chunk.size(); i++) {
+                request.add(new CreateKeysRequest.Key(Integer.toString(i), 1,
+                        keyAttributes(key, chunk.get(i)), key.getMutableAttributesMap()));
+            }
+            CreateKeysResponse response;
+            try {
+                response = createIonicKeys(request);
+            } catch (IonicException e) {
+                throw new StorageException(e.getReturnCode(), e.getLocalizedMessage());
+            }
+            CreateKeysResponse.Key[] keys = new CreateKeysResponse.Key[chunk.size()];
+            for (CreateKeysResponse.Key ionicKey : response.getKeys()) {
+                keys[Integer.parseInt(ionicKey.getRefId())] = ionicKey;
+            }
+            for (int i = 0; i < chunk.size(); i++) {
+                if (keys[i] == null) {
+                    throw new StorageException(AgentErrorModuleConstants.ISAGENT_KEY_DENIED,
+                            "Ionic Key was not created for " + chunk.get(i).getName());
+                }
+                pairs.add(keyInfoPair(keys[i], chunk.get(i), null));
+            }
+        }
+        return pairs;
+    }
+
+    private KeyAttributesMap keyAttributes(CreateKeysRequest.Key key, BlobInfo blobInfo) {
+        KeyAttributesMap attributesMap = new KeyAttributesMap();
+        Map<String, String> metadata = blobInfo.getMetadata();
+        if (metadata != null && enabledMetadataCapture) {
+            for (Map.Entry<String, String> entry : metadata.entrySet()) {
+                ArrayList<String> collection = new ArrayList<String>();
+                collection.add(entry.getValue());
+                attributesMap.put(entry.getKey(), collection);
+            }
+        }
+        attributesMap.putAll(attributes);
+        attributesMap.putAll(key.getAttributesMap());
+        return attributesMap;
+    }
+
+    /**
+     * Pairs ionicKey with blobInfoIn's information, recording the key id and, for derived keys,
+     * the salt in its metadata.
+     */
+    private KeyInfoPair keyInfoPair(CreateKeysResponse.Key ionicKey, BlobInfo blobInfoIn,
+            String salt) {
+        Map<String, String> blobInfoInMetadata = blobInfoIn.getMetadata();
+        HashMap<String, String> blobInfoOutMetadata = blobInfoInMetadata == null
+                ? new HashMap<String, String>()
+                : new HashMap<String, String>(blobInfoInMetadata);
         blobInfoOutMetadata.put(IONICMETACONSTANT, ionicKey.getId());
+        if (salt == null) {
+            blobInfoOutMetadata.remove(IONICSALTCONSTANT);
+        } else {
+            blobInfoOutMetadata.put(IONICSALTCONSTANT, salt);
+        }
         BlobInfo blobInfoOut = blobInfoIn.toBuilder().setMetadata(blobInfoOutMetadata).build();
         return new KeyInfoPair(ionicKey, blobInfoOut);
     }
 
+    /**
+     * Returns the KeyServices used for a single IDC request. Agents are not thread safe, so each
+     * request is made with a clone of the Agent, taken from the Agent pool when one is enabled.
+     * The KeyServices is handed back to {@link #releaseKeyServices(KeyServices)} once the request
+     * completes.
+     */
+    protected KeyServices keyServices() {
+        IonicAgentPool agents = this.agentPool;
+        if (agents == null) {
+            return Agent.clone(this.agent);
+        }
+        Agent pooled = agents.take();
+        recordCacheLookup(IonicStorageMetrics.AGENT_POOL, pooled != null);
+        return pooled != null ? pooled : agents.borrow();
+    }
+
+    /**
+     * Returns a KeyServices obtained from {@link #keyServices()} to the Agent pool, if it is one
+     * of the pool's Agents.
+     */
+    protected void releaseKeyServices(KeyServices services) {
+        IonicAgentPool agents = this.agentPool;
+        if (agents != null && services instanceof Agent) {
+            agents.release((Agent) services);
+        }
+    }
+
+    protected CreateKeysResponse createIonicKeys(CreateKeysRequest request)
+            throws IonicException {
+        int keyCount = 0;
+        for (CreateKeysRequest.Key key : request.getKeys()) {
+            keyCount += key.getQuantity();
+        }
+        return idcRequest(IonicStorageMetrics.CREATE_KEYS, keyCount,
+                services -> services.createKeys(request));
+    }
+
+    protected GetKeysResponse getIonicKeys(GetKeysRequest request) throws IonicException {
+        return idcRequest(IonicStorageMetrics.GET_KEYS, request.getKeyIds().size(),
+                services -> services.getKeys(request));
+    }
+
+    /**
+     * Fetches the Ionic Key with id keyid, from the key cache when one is enabled. Concurrent
+     * fetches of the same key share a single IDC request; its result, or failure, is returned to
+     * every caller.
+     */
     protected GetKeysResponse.Key getIonicKey(String keyid) throws IonicException {
-        return Agent.clone(this.agent).getKey(keyid).getFirstKey();
+        IonicKeyCache cache = this.keyCache;
+        if (cache != null) {
+            GetKeysResponse.Key ionicKey = cachedKey(cache, keyid);
+            if (ionicKey != null) {
+                return ionicKey;
+            }
+        }
+        CompletableFuture<GetKeysResponse.Key> fetch =
+                new CompletableFuture<GetKeysResponse.Key>();
+        CompletableFuture<GetKeysResponse.Key> inFlight = keyFetches.putIfAbsent(keyid, fetch);
+        if (inFlight != null) {
+            return awaitKeyFetch(keyid, inFlight);
+        }
+        try {
+            IonicRequestBatcher<String, GetKeysResponse.Key> batcher = this.fetchBatcher;
+            GetKeysResponse.Key ionicKey = batcher != null ? batcher.submit(keyid)
+                    : idcRequest(IonicStorageMetrics.GET_KEYS, 1,
+                            services -> services.getKey(keyid).getFirstKey());
+            if (cache != null) {
+                cache.put(ionicKey);
+            }
+            fetch.complete(ionicKey);
+            return ionicKey;
+        } catch (IonicException | RuntimeException e) {
+            fetch.completeExceptionally(e);
+            throw e;
+        } finally {
+            keyFetches.remove(keyid, fetch);
+        }
+    }
+
+    /**
+     * Fetches the keys of a batch of single key fetches with one request.
+     */
+    private void sendGetKeys(List<Pending<String, GetKeysResponse.Key>> batch) {
+        Map<String, List<Pending<String, GetKeysResponse.Key>>> waiting =
+                new LinkedHashMap<String, List<Pending<String, GetKeysResponse.Key>>>();
+        for (Pending<String, GetKeysResponse.Key> pending : batch) {
+            waiting.computeIfAbsent(pending.getRequest(),
+                    keyId -> new ArrayList<Pending<String, GetKeysResponse.Key>>()).add(pending);
+        }
+        GetKeysRequest request = new GetKeysRequest();
+        for (String keyId : waiting.keySet()) {
+            request.add(keyId);
+        }
+        GetKeysResponse response;
+        try {
+            response = getIonicKeys(request);
+        } catch (IonicException e) {
+            throw new StorageException(e.getReturnCode(), e.getLocalizedMessage());
+        }
+        for (GetKeysResponse.Key ionicKey : response.getKeys()) {
+            for (Pending<String, GetKeysResponse.Key> pending :
+                    waiting.getOrDefault(ionicKey.getId(), Collections.emptyList())) {
+                pending.complete(ionicKey);
+            }
+        }
+        for (GetKeysResponse.IonicError error : response.getErrors()) {
+            for (Pending<String, GetKeysResponse.Key> pending :
+                    waiting.getOrDefault(error.getKeyId(), Collections.emptyList())) {
+                pending.fail(keyError(error));
+            }
+        }
+        for (Pending<String, GetKeysResponse.Key> pending : batch) {
+            pending.fail(new StorageException(AgentErrorModuleConstants.ISAGENT_KEY_DENIED,
+                    "Ionic Key " + pending.getRequest() + " was not returned"));
+        }
+    }
+
+    private static StorageException keyError(GetKeysResponse.IonicError error) {
+        int code = error.getClientError() != 0 ? error.getClientError() : error.getServerError();
+        return new StorageException(code, error.getServerMessage());
+    }
+
+    private static GetKeysResponse.Key awaitKeyFetch(String keyid,
+            CompletableFuture<GetKeysResponse.Key> fetch) throws IonicException {
+        try {
+            return fetch.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IonicException(AgentErrorModuleConstants.ISAGENT_ERROR,
+                    "Interrupted while fetching Ionic Key " + keyid, e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IonicException) {
+                // A fresh exception so that each caller gets its own stack trace.
+                IonicException ionicException = (IonicException) cause;
+                throw new IonicException(ionicException.getReturnCode(),
+                        ionicException.getMessage(), ionicException);
+            }
+            if (cause instanceof StorageException) {
+                StorageException storageException = (StorageException) cause;
+                throw new StorageException(storageException.getCode(),
+                        storageException.getMessage(), storageException);
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IonicException(AgentErrorModuleConstants.ISAGENT_ERROR,
+                    cause.getMessage(), cause);
+        }
+    }
+
+    /**
+     * Composes sources, which are in target's bucket and encrypted with ionicKey, into target
+     * encrypted with the same key.
+     *
+     * @return the generation of the composed object.
+     */
+    protected long composeEncrypted(BlobInfo target, List<BlobId> sources,
+            CreateKeysResponse.Key ionicKey) {
+        EncryptedComposer composer = this.encryptedComposer;
+        if (composer == null) {
+            synchronized (this) {
+                composer = this.encryptedComposer;
+                if (composer == null) {
+                    composer = new EncryptedComposer(googleStorage.getOptions());
+                    this.encryptedComposer = composer;
+                }
+            }
+        }
+        IonicStorageMetrics metrics = this.metrics;
+        if (metrics == null) {
+            return composer.compose(target, sources, ionicKey.getSecretKey());
+        }
+        // The composer calls the JSON API directly, bypassing the instrumented Storage.
+        long start = System.nanoTime();
+        try {
+            long generation = composer.compose(target, sources, ionicKey.getSecretKey());
+            metrics.storageRequest("compose", System.nanoTime() - start, 0, 0);
+            return generation;
+        } catch (StorageException e) {
+            metrics.storageRequest("compose", System.nanoTime() - start, 0,
+                    InstrumentedStorage.errorCode(e));
+            throw e;
+        }
+    }
+
+    /**
+     * Submits a StorageBatch created from the underlying Storage, reporting it to the enabled
+     * metrics as a "batch" request.
+     */
+    void submitBatch(StorageBatch batch) {
+        IonicStorageMetrics metrics = this.metrics;
+        if (metrics == null) {
+            batch.submit();
+            return;
+        }
+        // A StorageBatch cannot be wrapped by the instrumented Storage, so it is reported here.
+        long start = System.nanoTime();
+        try {
+            batch.submit();
+            metrics.storageRequest("batch", System.nanoTime() - start, 0, 0);
+        } catch (StorageException e) {
+            metrics.storageRequest("batch", System.nanoTime() - start, 0,
+                    InstrumentedStorage.errorCode(e));
+            throw e;
+        }
+    }
+
+    /**
+     * Uploads content to the blob of pair, encrypted with pair's key. Shared by the blocking and
+     * asynchronous upload methods, as are the other uploads with a KeyInfoPair below.
+     */
+    Blob createWithKey(KeyInfoPair pair, byte[] content, BlobTargetOption... options) {
+        return cacheKeyId(upload(() -> googleStorage.create(pair.info, content,
+                targetOptionsWithEncrytion(pair.key, options))), pair);
+    }
+
+    Blob createFromWithKey(KeyInfoPair pair, Path path, BlobWriteOption... options)
+            throws IOException {
+        return cacheKeyId(upload(() -> googleStorage.createFrom(pair.info, path,
+                writeOptionsWithEncrytion(pair.key, options))), pair);
+    }
+
+    Blob createFromWithKey(KeyInfoPair pair, Path path, int bufferSize,
+            BlobWriteOption... options) throws IOException {
+        return cacheKeyId(upload(() -> googleStorage.createFrom(pair.info, path, bufferSize,
+                writeOptionsWithEncrytion(pair.key, options))), pair);
+    }
+
+    WriteChannel writerWithKey(KeyInfoPair pair, BlobWriteOption... options) {
+        return upload(() -> googleStorage.writer(pair.info,
+                writeOptionsWithEncrytion(pair.key, options)));
+    }
+
+    /**
+     * The key to read a blob with, and the generation it belongs to when it was taken from the
+     * key id cache's latest known generation.
+     */
+    static final class ReadKey {
+        private final GetKeysResponse.Key ionicKey;
+        private final Long cachedGeneration;
+
+        private ReadKey(GetKeysResponse.Key ionicKey, Long cachedGeneration) {
+            this.ionicKey = ionicKey;
+            this.cachedGeneration = cachedGeneration;
+        }
+    }
+
+    /**
+     * Resolves the key for reading the latest generation of blobId, or the generation it names.
+     * This is the IDC step of readAllBytesAndKey(), shared by the blocking and asynchronous read
+     * methods, as are the reads with a key below.
+     */
+    ReadKey readKey(BlobId blobId, BlobSourceOption... options) {
+        IonicKeyIdCache cache = this.keyIdCache;
+        if (cache != null && blobId.getGeneration() == null
+                && (options == null || options.length == 0)) {
+            IonicKeyIdCache.Entry entry = cachedKeyId(cache, blobId);
+            if (entry != null) {
+                return new ReadKey(ionicKeyFromEntry(entry), entry.getGeneration());
+            }
+        }
+        return new ReadKey(ionicKeyFromBlob(blobId), null);
+    }
+
+    /**
+     * Reads blobId with readKey. A read with a key from the cache is guarded with a generation
+     * match, and the blob's key is re-resolved when it has since been replaced.
+     */
+    IonicKeyBytesPair readAllBytesWithKey(BlobId blobId, ReadKey readKey,
+            BlobSourceOption... options) {
+        GetKeysResponse.Key ionicKey = readKey.ionicKey;
+        if (readKey.cachedGeneration != null) {
+            try {
+                byte[] bytes = googleStorage.readAllBytes(blobId, sourceOptionsWithDecryption(
+                        ionicKey, BlobSourceOption.generationMatch(readKey.cachedGeneration)));
+                return new IonicKeyBytesPair(ionicKey, bytes);
+            } catch (StorageException e) {
+                IonicKeyIdCache cache = this.keyIdCache;
+                if (e.getCode() != 412 || cache == null) {
+                    throw e;
+                }
+                cache.invalidate(blobId); // Blob was replaced, re-resolve its key.
+                ionicKey = ionicKeyFromBlob(blobId);
+            }
+        }
+        byte[] bytes =
+                googleStorage.readAllBytes(blobId, sourceOptionsWithDecryption(ionicKey, options));
+        return new IonicKeyBytesPair(ionicKey, bytes);
+    }
+
+    IonicKeyReadChannelPair readerWithKey(BlobId blobId, GetKeysResponse.Key ionicKey,
+            BlobSourceOption... options) {
+        ReadChannel reader =
+                googleStorage.reader(blobId, sourceOptionsWithDecryption(ionicKey, options));
+        return new IonicKeyReadChannelPair(ionicKey, reader);
+    }
+
+    /**
+     * Makes an upload attempt, retrying it under the enabled upload retries.
+     */
+    private <T, E extends Exception> T upload(IonicUploadRetries.Attempt<T, E> attempt) throws E {
+        IonicUploadRetries retries = this.uploadRetries;
+        return retries == null ? attempt.run() : retries.run(attempt);
+    }
+
+    private interface IdcCall<T> {
+        T call(KeyServices services) throws IonicException;
+    }
+
+    /**
+     * Makes an IDC request with the KeyServices from {@link #keyServices()}, reporting it to the
+     * enabled metrics.
+     */
+    private <T> T idcRequest(String operation, int keyCount, IdcCall<T> call)
+            throws IonicException {
+        KeyServices services = keyServices();
+        try {
+            return idcRequest(operation, keyCount, services, call);
+        } finally {
+            releaseKeyServices(services);
+        }
+    }
+
+    private <T> T idcRequest(String operation, int keyCount, KeyServices services,
+            IdcCall<T> call) throws IonicException {
+        IonicStorageMetrics metrics = this.metrics;
+        if (metrics == null) {
+            return call.call(services);
+        }
+        long start = System.nanoTime();
+        try {
+            T result = call.call(services);
+            metrics.idcRequest(operation, keyCount, System.nanoTime() - start, 0);
+            return result;
+        } catch (IonicException e) {
+            int code = e.getReturnCode() != 0 ? e.getReturnCode()
+                    : IonicStorageMetrics.UNKNOWN_ERROR;
+            metrics.idcRequest(operation, keyCount, System.nanoTime() - start, code);
+            throw e;
+        } catch (RuntimeException | Error e) {
+            metrics.idcRequest(operation, keyCount, System.nanoTime() - start,
+                    IonicStorageMetrics.UNKNOWN_ERROR);
+            throw e;
+        }
+    }
+
+    void recordCacheLookup(String cache, boolean hit) {
+        IonicStorageMetrics metrics = this.metrics;
+        if (metrics != null) {
+            metrics.cacheLookup(cache, hit);
+        }
+    }
+
+    IonicKeyIdCache.Entry cachedKeyId(IonicKeyIdCache cache, BlobId blobId) {
+        IonicKeyIdCache.Entry entry = cache.get(blobId);
+        recordCacheLookup(IonicStorageMetrics.KEY_ID_CACHE, entry != null);
+        return entry;
+    }
+
+    private GetKeysResponse.Key cachedKey(IonicKeyCache cache, String keyId) {
+        GetKeysResponse.Key key = cache.get(keyId);
+        recordCacheLookup(IonicStorageMetrics.KEY_CACHE, key != null);
+        return key;
+    }
+
+    /**
+     * Returns the prepared encryption key options of ionicKey, reusing those held next to it in
+     * the key cache when it is a cached key.
+     */
+    CsekOptions csekOptions(AgentKey ionicKey) {
+        IonicKeyCache cache = this.keyCache;
+        CsekOptions options = cache == null ? null : cache.options(ionicKey);
+        return options != null ? options : new CsekOptions(ionicKey.getKey());
     }
 
     protected BlobWriteOption[] writeOptionsWithEncrytion(CreateKeysResponse.Key ionicKey,
             BlobWriteOption... options) {
-        BlobWriteOption[] newOptions;
-        BlobWriteOption encBtg = BlobWriteOption.encryptionKey(ionicKey.getSecretKey());
-        if (options == null || options.length == 0 || options[0] == null) {
-            newOptions = new BlobWriteOption[1];
-        } else {
-            newOptions = new BlobWriteOption[options.length + 1];
-            System.arraycopy(options, 0, newOptions, 1, options.length);
-        }
-        newOptions[0] = encBtg;
-        return newOptions;
+        return csekOptions(ionicKey).write(options);
     }
 
     protected BlobTargetOption[] targetOptionsWithEncrytion(CreateKeysResponse.Key ionicKey,
             BlobTargetOption... options) {
-        BlobTargetOption[] newOptions;
-        BlobTargetOption encBtg = BlobTargetOption.encryptionKey(ionicKey.getSecretKey());
-        if (options == null || options.length == 0 || options[0] == null) {
-            newOptions = new BlobTargetOption[1];
-        } else {
-            newOptions = new BlobTargetOption[options.length + 1];
-            System.arraycopy(options, 0, newOptions, 1, options.length);
-        }
-        newOptions[0] = encBtg;
-        return newOptions;
+        return csekOptions(ionicKey).target(options);
     }
 
     protected BlobSourceOption[] sourceOptionsWithDecryption(GetKeysResponse.Key ionicKey,
@@ -1036,16 +3099,7 @@ public class GoogleIonicStorage implements Storage {
         if (ionicKey == null) {
             return options;
         }
-        BlobSourceOption[] newOptions;
-        BlobSourceOption encBtg = BlobSourceOption.decryptionKey(ionicKey.getSecretKey());
-        if (options == null || options.length == 0 || options[0] == null) {
-            newOptions = new BlobSourceOption[1];
-        } else {
-            newOptions = new BlobSourceOption[options.length + 1];
-            System.arraycopy(options, 0, newOptions, 1, options.length);
-        }
-        newOptions[0] = encBtg;
-        return newOptions;
+        return csekOptions(ionicKey).source(options);
     }
 
     // Unaltered Storage methods.
@@ -0,0 +1,56 @@
+/*
+ * (c) 2017-2021 Ionic Security Inc. By using this code, I agree to the Terms & Conditions
+ * (https://dev.ionic.com/use) and the Privacy Policy (https://www.ionic.com/privacy-notice/).
+ */
+
+package com.ionic.cloudstorage.gcs;
+
+import java.security.GeneralSecurityException;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * HMAC-SHA256 based key derivation as specified by RFC 5869.
+ */
+final class Hkdf {
+
+    private static final String ALGORITHM = "HmacSHA256";
+    private static final int HASH_LENGTH = 32;
+
+    private Hkdf() {
+    }
+
+    /**
+     * Derives length bytes of output keying material from the input keying material, salt and
+     * context info.
+     */
+    static byte[] derive(byte[] inputKey, byte[] salt, byte[] info, int length) {
+        if (length <= 0 || length > 255 * HASH_LENGTH) {
+            throw new IllegalArgumentException("length must be between 1 and " + 255 * HASH_LENGTH);
+        }
+        try {
+            Mac mac = Mac.getInstance(ALGORITHM);
+            // Extract: PRK = HMAC(salt, IKM), an empty salt is HASH_LENGTH zero bytes.
+            mac.init(new SecretKeySpec(
+                    salt == null || salt.length == 0 ? new byte[HASH_LENGTH] : salt, ALGORITHM));
+            byte[] pseudoRandomKey = mac.doFinal(inputKey);
+
+            // Expand: T(i) = HMAC(PRK, T(i - 1) | info | i).
+            mac.init(new SecretKeySpec(pseudoRandomKey, ALGORITHM));
+            byte[] output = new byte[length];
+            byte[] block = new byte[0];
+            for (int i = 1, offset = 0; offset < length; i++) {
+                mac.update(block);
+                mac.update(info);
+                mac.update((byte) i);
+                block = mac.doFinal();
+                int count = Math.min(block.length, length - offset);
+                System.arraycopy(block, 0, output, offset, count);
+                offset += count;
+            }
+            return output;
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(ALGORITHM + " is not available", e);
+        }
+    }
+}
@@ -0,0 +1,242 @@
+/*
+ * (c) 2017-2021 Ionic Security Inc. By using this code, I agree to the Terms & Conditions
+ * (https://dev.ionic.com/use) and the Privacy Policy (https://www.ionic.com/privacy-notice/).
+ */
+
+package com.ionic.cloudstorage.gcs;
+
+import com.google.cloud.ReadChannel;
+import com.google.cloud.RestorableState;
+import com.google.cloud.WriteChannel;
+import com.google.cloud.storage.Storage;
+import com.google.cloud.storage.StorageException;
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Wraps a {@link Storage} so that every call made through it is reported to an
+ * {@link IonicStorageMetrics}. Read and write channels are wrapped as well and reported when
+ * closed. A {@link com.google.cloud.storage.StorageBatch} cannot be wrapped, so batches are not
+ * reported here; {@link GoogleIonicStorage} reports those it submits itself.
+ */
+final class InstrumentedStorage implements InvocationHandler {
+
+    // Calls that do not make a request.
+    private static final Set<String> LOCAL_METHODS =
+            new HashSet<String>(Arrays.asList("getOptions", "batch"));
+
+    private final Storage storage;
+    private final IonicStorageMetrics metrics;
+
+    private InstrumentedStorage(Storage storage, IonicStorageMetrics metrics) {
+        this.storage = storage;
+        this.metrics = metrics;
+    }
+
+    static Storage wrap(Storage storage, IonicStorageMetrics metrics) {
+        return (Storage) Proxy.newProxyInstance(Storage.class.getClassLoader(),
+                new Class<?>[] {Storage.class},
+                new InstrumentedStorage(unwrap(storage), metrics));
+    }
+
+    static Storage unwrap(Storage storage) {
+        if (storage != null && Proxy.isProxyClass(storage.getClass())) {
+            InvocationHandler handler = Proxy.getInvocationHandler(storage);
+            if (handler instanceof InstrumentedStorage) {
+                return ((InstrumentedStorage) handler).storage;
+            }
+        }
+        return storage;
+    }
+
+    @Override
+    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+        String name = method.getName();
+        if (method.getDeclaringClass() == Object.class || LOCAL_METHODS.contains(name)) {
+            return call(method, args);
+        }
+        long start = System.nanoTime();
+        Object result;
+        try {
+            result = call(method, args);
+        } catch (Throwable e) {
+            metrics.storageRequest(name, System.nanoTime() - start, 0, errorCode(e));
+            throw e;
+        }
+        if (result instanceof ReadChannel) {
+            return new MeteredReadChannel((ReadChannel) result, name, start);
+        }
+        if (result instanceof WriteChannel) {
+            return new MeteredWriteChannel((WriteChannel) result, name, start);
+        }
+        metrics.storageRequest(name, System.nanoTime() - start, bytes(method, args, result), 0);
+        return result;
+    }
+
+    private Object call(Method method, Object[] args) throws Throwable {
+        try {
+            return method.invoke(storage, args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * Returns the content bytes passed to or returned from a call, which are known for the byte[]
+     * overloads only.
+     */
+    private static long bytes(Method method, Object[] args, Object result) {
+        if (result instanceof byte[]) {
+            return ((byte[]) result).length;
+        }
+        Class<?>[] types = method.getParameterTypes();
+        for (int i = 0; i < types.length; i++) {
+            if (types[i] == byte[].class && args[i] != null) {
+                // create(BlobInfo, byte[], int offset, int length, ...)
+                if (i + 2 < types.length && types[i + 2] == int.class) {
+                    return (Integer) args[i + 2];
+                }
+                return ((byte[]) args[i]).length;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Returns the code of e, or of the StorageException it wraps as channels do.
+     */
+    static int errorCode(Throwable e) {
+        Throwable error = e instanceof StorageException ? e : e.getCause();
+        if (error instanceof StorageException && ((StorageException) error).getCode() != 0) {
+            return ((StorageException) error).getCode();
+        }
+        return IonicStorageMetrics.UNKNOWN_ERROR;
+    }
+
+    private class MeteredReadChannel implements ReadChannel {
+        private final ReadChannel channel;
+        private final String operation;
+        private final long start;
+        private long bytes = 0;
+        private int errorCode = 0;
+        private boolean recorded = false;
+
+        MeteredReadChannel(ReadChannel channel, String operation, long start) {
+            this.channel = channel;
+            this.operation = operation;
+            this.start = start;
+        }
+
+        @Override
+        public int read(ByteBuffer dst) throws IOException {
+            try {
+                int read = channel.read(dst);
+                if (read > 0) {
+                    bytes += read;
+                }
+                return read;
+            } catch (IOException | RuntimeException e) {
+                errorCode = errorCode(e);
+                throw e;
+            }
+        }
+
+        @Override
+        public boolean isOpen() {
+            return channel.isOpen();
+        }
+
+        @Override
+        public void close() {
+            try {
+                channel.close();
+            } finally {
+                if (!recorded) {
+                    recorded = true;
+                    metrics.storageRequest(operation, System.nanoTime() - start, bytes,
+                            errorCode);
+                }
+            }
+        }
+
+        @Override
+        public void seek(long position) throws IOException {
+            channel.seek(position);
+        }
+
+        @Override
+        public void setChunkSize(int chunkSize) {
+            channel.setChunkSize(chunkSize);
+        }
+
+        @Override
+        public RestorableState<ReadChannel> capture() {
+            return channel.capture();
+        }
+    }
+
+    private class MeteredWriteChannel implements WriteChannel {
+        private final WriteChannel channel;
+        private final String operation;
+        private final long start;
+        private long bytes = 0;
+        private int errorCode = 0;
+        private boolean recorded = false;
+
+        MeteredWriteChannel(WriteChannel channel, String operation, long start) {
+            this.channel = channel;
+            this.operation = operation;
+            this.start = start;
+        }
+
+        @Override
+        public int write(ByteBuffer src) throws IOException {
+            try {
+                int written = channel.write(src);
+                bytes += written;
+                return written;
+            } catch (IOException | RuntimeException e) {
+                errorCode = errorCode(e);
+                throw e;
+            }
+        }
+
+        @Override
+        public boolean isOpen() {
+            return channel.isOpen();
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                channel.close();
+            } catch (IOException | RuntimeException e) {
+                errorCode = errorCode(e);
+                throw e;
+            } finally {
+                if (!recorded) {
+                    recorded = true;
+                    metrics.storageRequest(operation, System.nanoTime() - start, bytes,
+                            errorCode);
+                }
+            }
+        }
+
+        @Override
+        public void setChunkSize(int chunkSize) {
+            channel.setChunkSize(chunkSize);
+        }
+
+        @Override
+        public RestorableState<WriteChannel> capture() {
+            return channel.capture();
+        }
+    }
+}
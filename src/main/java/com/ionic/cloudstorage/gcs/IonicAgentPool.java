@@ -0,0 +1,162 @@
+/*
+ * (c) 2017-2021 Ionic Security Inc. By using this code, I agree to the Terms & Conditions
+ * (https://dev.ionic.com/use) and the Privacy Policy (https://www.ionic.com/privacy-notice/).
+ */
+
+package com.ionic.cloudstorage.gcs;
+
+import com.ionic.sdk.agent.Agent;
+import com.ionic.sdk.agent.data.MetadataMap;
+import com.ionic.sdk.device.profile.DeviceProfile;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A bounded pool of clones of the {@link com.ionic.sdk.agent.Agent} backing a
+ * {@link GoogleIonicStorage}. Agents are not thread safe, so every IDC request is made with an
+ * Agent of its own; the pool lets concurrent requests reuse idle clones instead of cloning the
+ * Agent for each request.
+ *
+ * <p>A clone is discarded instead of reused once the metadata, active profile or profiles of the
+ * Agent it was cloned from have changed. Setting a new Agent with
+ * {@link GoogleIonicStorage#setAgent(Agent)} replaces the pool.
+ *
+ * <p>Instances are created with {@link GoogleIonicStorage#enableAgentPool(int)}.
+ */
+public class IonicAgentPool {
+
+    private final Agent agent;
+    private final int maxSize;
+    private final ConcurrentLinkedDeque<Agent> idle = new ConcurrentLinkedDeque<Agent>();
+    private final AtomicInteger idleCount = new AtomicInteger();
+    private final AtomicLong created = new AtomicLong();
+    private final AtomicLong discarded = new AtomicLong();
+
+    IonicAgentPool(Agent agent, int maxSize) {
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("maxSize must be positive");
+        }
+        this.agent = agent;
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * getMaxSize() returns the maximum number of idle Agents held by the pool.
+     *
+     * @return an int.
+     */
+    public int getMaxSize() {
+        return this.maxSize;
+    }
+
+    /**
+     * getIdleCount() returns the number of Agents currently idle in the pool.
+     *
+     * @return an int.
+     */
+    public int getIdleCount() {
+        return this.idleCount.get();
+    }
+
+    /**
+     * getCreatedCount() returns the number of Agents cloned because no idle Agent was available.
+     *
+     * @return a long.
+     */
+    public long getCreatedCount() {
+        return this.created.get();
+    }
+
+    /**
+     * getDiscardedCount() returns the number of Agents dropped because the pool was full or the
+     * Agent they were cloned from had changed.
+     *
+     * @return a long.
+     */
+    public long getDiscardedCount() {
+        return this.discarded.get();
+    }
+
+    /**
+     * clear() discards all idle Agents.
+     */
+    public void clear() {
+        while (poll() != null) {
+            discarded.incrementAndGet();
+        }
+    }
+
+    /**
+     * Returns an idle Agent, or null if none is idle and up to date.
+     */
+    Agent take() {
+        Agent clone;
+        while ((clone = poll()) != null) {
+            if (isCurrent(clone)) {
+                return clone;
+            }
+            discarded.incrementAndGet();
+        }
+        return null;
+    }
+
+    /**
+     * Returns an idle Agent, or a new clone if none is idle.
+     */
+    Agent borrow() {
+        Agent clone = take();
+        if (clone == null) {
+            created.incrementAndGet();
+            clone = Agent.clone(agent);
+        }
+        return clone;
+    }
+
+    /**
+     * Returns a borrowed Agent to the pool once its request has completed.
+     */
+    void release(Agent clone) {
+        if (!isCurrent(clone)) {
+            discarded.incrementAndGet();
+            return;
+        }
+        if (idleCount.incrementAndGet() > maxSize) {
+            idleCount.decrementAndGet();
+            discarded.incrementAndGet();
+            return;
+        }
+        // Last in, first out, so that the most recently used connections are reused.
+        idle.offerFirst(clone);
+    }
+
+    private Agent poll() {
+        Agent clone = idle.pollFirst();
+        if (clone != null) {
+            idleCount.decrementAndGet();
+        }
+        return clone;
+    }
+
+    private boolean isCurrent(Agent clone) {
+        if (clone.isInitialized() != agent.isInitialized()) {
+            return false;
+        }
+        MetadataMap metadata = agent.getMetadata();
+        MetadataMap cloneMetadata = clone.getMetadata();
+        if (metadata == null ? cloneMetadata != null : !metadata.equals(cloneMetadata)) {
+            return false;
+        }
+        List<DeviceProfile> profiles = agent.getAllProfiles();
+        List<DeviceProfile> cloneProfiles = clone.getAllProfiles();
+        if (profiles.size() != cloneProfiles.size()) {
+            return false;
+        }
+        return deviceId(agent.getActiveProfile()).equals(deviceId(clone.getActiveProfile()));
+    }
+
+    private static String deviceId(DeviceProfile profile) {
+        return profile == null || profile.getDeviceId() == null ? "" : profile.getDeviceId();
+    }
+}
@@ -0,0 +1,169 @@
+/*
+ * (c) 2017-2021 Ionic Security Inc. By using this code, I agree to the Terms & Conditions
+ * (https://dev.ionic.com/use) and the Privacy Policy (https://www.ionic.com/privacy-notice/).
+ */
+
+package com.ionic.cloudstorage.gcs;
+
+import com.ionic.sdk.agent.key.AgentKey;
+import com.ionic.sdk.agent.request.getkey.GetKeysResponse;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A bounded, time limited, in-process cache of Ionic Keys fetched by {@link GoogleIonicStorage}
+ * download methods, keyed by Ionic Key id. Entries expire a fixed time after they were fetched and
+ * the least recently used entry is evicted once the cache is full.
+ *
+ * <p>Instances are created with {@link GoogleIonicStorage#enableKeyCache(int, long, TimeUnit)}.
+ */
+public class IonicKeyCache {
+
+    private final int maxSize;
+    private final long ttlNanos;
+    private final LinkedHashMap<String, Entry> entries;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    IonicKeyCache(int maxSize, long ttl, TimeUnit unit) {
+        if (maxSize <= 0 || ttl <= 0) {
+            throw new IllegalArgumentException("maxSize and ttl must be positive");
+        }
+        this.maxSize = maxSize;
+        this.ttlNanos = unit.toNanos(ttl);
+        this.entries = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                if (size() > IonicKeyCache.this.maxSize) {
+                    evictions.incrementAndGet();
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * getMaxSize() returns the maximum number of keys held by the cache.
+     *
+     * @return an int.
+     */
+    public int getMaxSize() {
+        return this.maxSize;
+    }
+
+    /**
+     * getTimeToLive() returns how long a key stays cached after it was fetched.
+     *
+     * @param unit the {@link java.util.concurrent.TimeUnit} of the returned value.
+     * @return a long.
+     */
+    public long getTimeToLive(TimeUnit unit) {
+        return unit.convert(this.ttlNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * getHitCount() returns the number of lookups answered from the cache.
+     *
+     * @return a long.
+     */
+    public long getHitCount() {
+        return this.hits.get();
+    }
+
+    /**
+     * getMissCount() returns the number of lookups that required a key fetch.
+     *
+     * @return a long.
+     */
+    public long getMissCount() {
+        return this.misses.get();
+    }
+
+    /**
+     * getEvictionCount() returns the number of keys removed because the cache was full or the
+     * key had expired.
+     *
+     * @return a long.
+     */
+    public long getEvictionCount() {
+        return this.evictions.get();
+    }
+
+    /**
+     * size() returns the number of keys currently cached, including expired keys that have not
+     * yet been looked up.
+     *
+     * @return an int.
+     */
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * invalidate() removes a key from the cache.
+     *
+     * @param keyId an Ionic Key id.
+     */
+    public synchronized void invalidate(String keyId) {
+        entries.remove(keyId);
+    }
+
+    /**
+     * invalidateAll() removes all keys from the cache.
+     */
+    public synchronized void invalidateAll() {
+        entries.clear();
+    }
+
+    /**
+     * Returns the cached key for keyId, or null if it is absent or expired.
+     */
+    synchronized GetKeysResponse.Key get(String keyId) {
+        Entry entry = entries.get(keyId);
+        if (entry != null && System.nanoTime() - entry.fetched >= ttlNanos) {
+            entries.remove(keyId);
+            evictions.incrementAndGet();
+            entry = null;
+        }
+        if (entry == null) {
+            misses.incrementAndGet();
+            return null;
+        }
+        hits.incrementAndGet();
+        return entry.key;
+    }
+
+    /**
+     * Returns the prepared encryption key options of key, held next to it, or null if key is not
+     * the cached key for its id.
+     */
+    synchronized CsekOptions options(AgentKey key) {
+        Entry entry = entries.get(key.getId());
+        if (entry == null || entry.key != key) {
+            return null;
+        }
+        if (entry.options == null) {
+            entry.options = new CsekOptions(key.getKey());
+        }
+        return entry.options;
+    }
+
+    synchronized void put(GetKeysResponse.Key key) {
+        entries.put(key.getId(), new Entry(key, System.nanoTime()));
+    }
+
+    private static final class Entry {
+        private final GetKeysResponse.Key key;
+        private final long fetched;
+        private CsekOptions options;
+
+        private Entry(GetKeysResponse.Key key, long fetched) {
+            this.key = key;
+            this.fetched = fetched;
+        }
+    }
+}
@@ -0,0 +1,135 @@
+/*
+ * (c) 2017-2021 Ionic Security Inc. By using this code, I agree to the Terms & Conditions
+ * (https://dev.ionic.com/use) and the Privacy Policy (https://www.ionic.com/privacy-notice/).
+ */
+
+package com.ionic.cloudstorage.gcs;
+
+import com.google.cloud.storage.StorageException;
+import com.ionic.sdk.agent.key.KeyAttributesMap;
+import com.ionic.sdk.agent.request.createkey.CreateKeysResponse;
+import com.ionic.sdk.agent.request.getkey.GetKeysResponse;
+import java.nio.charset.StandardCharsets;
+import java.security.SecureRandom;
+import java.util.Base64;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Derives a distinct customer-supplied encryption key for each blob from a shared Ionic Key, so
+ * that many uploads are served by a single IDC request. Each blob's key is derived with HKDF-SHA256
+ * from the shared Ionic Key and a random salt that is stored next to the key id in the blob's
+ * 'ionic-key-salt' metadata entry. Downloads fetch the shared Ionic Key, which the key cache can
+ * hold, and derive the blob's key locally.
+ *
+ * <p>Shared Ionic Keys are scoped by their attributes and mutable attributes. A shared key is
+ * replaced once it has protected maxUses blobs or ttl after it was created, whichever comes first.
+ * Concurrent uploads with the same attributes wait for a single replacement to be created.
+ *
+ * <p>Instances are created with
+ * {@link GoogleIonicStorage#enableKeyDerivation(int, long, TimeUnit)}.
+ */
+public class IonicKeyDerivation {
+
+    // Ties derived keys to their purpose so that they differ from keys derived for other uses.
+    private static final byte[] INFO = "ionic-gcs-csek".getBytes(StandardCharsets.UTF_8);
+    private static final int KEY_LENGTH = 32;
+    private static final int SALT_LENGTH = 16;
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    private final IonicKeyWindows windows;
+
+    IonicKeyDerivation(int maxUses, long ttl, TimeUnit unit) {
+        this.windows = new IonicKeyWindows(maxUses, unit.toNanos(ttl));
+    }
+
+    /**
+     * getMaxUses() returns the number of blobs protected with keys derived from one Ionic Key.
+     *
+     * @return an int.
+     */
+    public int getMaxUses() {
+        return windows.getMaxUses();
+    }
+
+    /**
+     * getTimeToLive() returns how long an Ionic Key is used for derivation after it was created.
+     *
+     * @param unit the {@link java.util.concurrent.TimeUnit} of the returned value.
+     * @return a long.
+     */
+    public long getTimeToLive(TimeUnit unit) {
+        return unit.convert(windows.getTtlNanos(), TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * getParentKeyCount() returns the number of Ionic Keys created for derivation.
+     *
+     * @return a long.
+     */
+    public long getParentKeyCount() {
+        return windows.getCreatedCount();
+    }
+
+    /**
+     * getDerivedKeyCount() returns the number of blob keys derived for uploads.
+     *
+     * @return a long.
+     */
+    public long getDerivedKeyCount() {
+        return windows.getTakenCount();
+    }
+
+    /**
+     * clear() discards the current Ionic Keys, so that the next upload of each attribute set
+     * creates a new one.
+     */
+    public void clear() {
+        windows.clear();
+    }
+
+    /**
+     * Returns the key for one blob, derived with salt from the current Ionic Key for the given
+     * attributes. The Ionic Key is replaced with one from create when it is used up or expired.
+     */
+    CreateKeysResponse.Key newKey(KeyAttributesMap attributes, KeyAttributesMap mutableAttributes,
+            Supplier<CreateKeysResponse.Key> create, byte[] salt) {
+        CreateKeysResponse.Key parent = windows.take(null, attributes, mutableAttributes, create);
+        return new CreateKeysResponse.Key(parent.getRefId(), parent.getId(),
+                derive(parent.getKey(), salt), parent.getDeviceId(), parent.getAttributesMap(),
+                parent.getMutableAttributesMap(), parent.getObligationsMap(), parent.getOrigin());
+    }
+
+    /**
+     * Returns a new random salt.
+     */
+    static byte[] newSalt() {
+        byte[] salt = new byte[SALT_LENGTH];
+        RANDOM.nextBytes(salt);
+        return salt;
+    }
+
+    /**
+     * Returns the key of a blob protected with a key derived from ionicKey and the base64 encoded
+     * salt, or ionicKey itself if the blob has no salt.
+     */
+    static GetKeysResponse.Key blobKey(GetKeysResponse.Key ionicKey, String salt) {
+        if (ionicKey == null || salt == null) {
+            return ionicKey;
+        }
+        byte[] saltBytes;
+        try {
+            saltBytes = Base64.getDecoder().decode(salt);
+        } catch (IllegalArgumentException e) {
+            throw new StorageException(0, "Invalid Ionic Key salt " + salt, e);
+        }
+        return new GetKeysResponse.Key(ionicKey.getId(), derive(ionicKey.getKey(), saltBytes),
+                ionicKey.getDeviceId(), ionicKey.getAttributesMap(),
+                ionicKey.getMutableAttributesMap(), ionicKey.getObligationsMap(),
+                ionicKey.getOrigin());
+    }
+
+    private static byte[] derive(byte[] key, byte[] salt) {
+        return Hkdf.derive(key, salt, INFO, KEY_LENGTH);
+    }
+}
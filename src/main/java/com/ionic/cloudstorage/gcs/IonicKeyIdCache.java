@@ -0,0 +1,161 @@
+/*
+ * (c) 2017-2021 Ionic Security Inc. By using this code, I agree to the Terms & Conditions
+ * (https://dev.ionic.com/use) and the Privacy Policy (https://www.ionic.com/privacy-notice/).
+ */
+
+package com.ionic.cloudstorage.gcs;
+
+import com.google.cloud.storage.BlobId;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A bounded, in-process cache of the Ionic Key id stored in each blob's 'ionic-key-id' metadata
+ * entry, keyed by bucket, name and generation. It lets {@link GoogleIonicStorage} download methods
+ * skip the metadata request that otherwise precedes every read.
+ *
+ * <p>Since a generation's metadata key id cannot change, lookups of a specific generation are
+ * always valid. The cache also remembers the latest known generation of each blob; reads of the
+ * latest generation that use it are guarded with a generation match precondition and re-resolved
+ * when the blob has since been replaced. Blobs without an Ionic Key id are cached as unprotected.
+ *
+ * <p>Instances are created with {@link GoogleIonicStorage#enableKeyIdCache(int)}.
+ */
+public class IonicKeyIdCache {
+
+    private final int maxSize;
+    private final LinkedHashMap<BlobId, Entry> entries;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    IonicKeyIdCache(int maxSize) {
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("maxSize must be positive");
+        }
+        this.maxSize = maxSize;
+        this.entries = new LinkedHashMap<BlobId, Entry>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<BlobId, Entry> eldest) {
+                return size() > IonicKeyIdCache.this.maxSize;
+            }
+        };
+    }
+
+    /**
+     * getMaxSize() returns the maximum number of entries held by the cache.
+     *
+     * @return an int.
+     */
+    public int getMaxSize() {
+        return this.maxSize;
+    }
+
+    /**
+     * getHitCount() returns the number of lookups answered from the cache.
+     *
+     * @return a long.
+     */
+    public long getHitCount() {
+        return this.hits.get();
+    }
+
+    /**
+     * getMissCount() returns the number of lookups that required a metadata request.
+     *
+     * @return a long.
+     */
+    public long getMissCount() {
+        return this.misses.get();
+    }
+
+    /**
+     * size() returns the number of entries currently cached.
+     *
+     * @return an int.
+     */
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * invalidate() removes the latest known generation of a blob from the cache, along with the
+     * given generation if blobId specifies one.
+     *
+     * @param blobId a {@link com.google.cloud.storage.BlobId}.
+     */
+    public synchronized void invalidate(BlobId blobId) {
+        entries.remove(BlobId.of(blobId.getBucket(), blobId.getName()));
+        if (blobId.getGeneration() != null) {
+            entries.remove(blobId);
+        }
+    }
+
+    /**
+     * invalidateAll() removes all entries from the cache.
+     */
+    public synchronized void invalidateAll() {
+        entries.clear();
+    }
+
+    /**
+     * Returns the cached entry for blobId's generation, or for its latest known generation if
+     * blobId does not specify one.
+     *
+     * @return an entry, or null if none is cached.
+     */
+    synchronized Entry get(BlobId blobId) {
+        Entry entry = entries.get(blobId);
+        if (entry == null) {
+            misses.incrementAndGet();
+        } else {
+            hits.incrementAndGet();
+        }
+        return entry;
+    }
+
+    /**
+     * Records the Ionic Key id of a blob generation. keyId is null for unprotected blobs.
+     */
+    void put(BlobId blobId, long generation, String keyId) {
+        put(blobId, generation, keyId, null);
+    }
+
+    /**
+     * Records the Ionic Key id and key derivation salt of a blob generation. salt is null for
+     * blobs protected directly with the Ionic Key.
+     */
+    synchronized void put(BlobId blobId, long generation, String keyId, String salt) {
+        Entry entry = new Entry(generation, keyId, salt);
+        entries.put(BlobId.of(blobId.getBucket(), blobId.getName(), generation), entry);
+        BlobId latest = BlobId.of(blobId.getBucket(), blobId.getName());
+        Entry current = entries.get(latest);
+        if (current == null || current.generation <= generation) {
+            entries.put(latest, entry);
+        }
+    }
+
+    static final class Entry {
+        private final long generation;
+        private final String keyId;
+        private final String salt;
+
+        private Entry(long generation, String keyId, String salt) {
+            this.generation = generation;
+            this.keyId = keyId;
+            this.salt = salt;
+        }
+
+        long getGeneration() {
+            return generation;
+        }
+
+        String getKeyId() {
+            return keyId;
+        }
+
+        String getSalt() {
+            return salt;
+        }
+    }
+}
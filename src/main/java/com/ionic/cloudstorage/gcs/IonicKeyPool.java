@@ -0,0 +1,329 @@
+/*
+ * (c) 2017-2021 Ionic Security Inc. By using this code, I agree to the Terms & Conditions
+ * (https://dev.ionic.com/use) and the Privacy Policy (https://www.ionic.com/privacy-notice/).
+ */
+
+package com.ionic.cloudstorage.gcs;
+
+import com.ionic.sdk.agent.key.KeyAttributesMap;
+import com.ionic.sdk.agent.request.createkey.CreateKeysRequest;
+import com.ionic.sdk.agent.request.createkey.CreateKeysResponse;
+import com.ionic.sdk.error.IonicException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+/**
+ * A pool of pre-created Ionic Keys used by {@link GoogleIonicStorage} upload methods. Keys are
+ * pooled per set of attributes and mutable attributes. A pool is only refilled once its attribute
+ * set has been requested a second time, so attribute sets that are used once do not cause keys to
+ * be created in advance. From then on, when the number of pooled keys for a set drops to the low
+ * watermark a background thread refills it up to the high watermark with a single multi-key
+ * {@link com.ionic.sdk.agent.request.createkey.CreateKeysRequest}. When a pool is empty callers
+ * fall back to creating a key synchronously.
+ *
+ * <p>At most maxPools attribute sets are pooled; the least recently used pool and its keys are
+ * discarded once the limit is reached. Pooled keys older than the maximum age are discarded
+ * instead of being served.
+ *
+ * <p>Instances are created with
+ * {@link GoogleIonicStorage#enableKeyPool(int, int, int, long, TimeUnit)}.
+ */
+public class IonicKeyPool {
+
+    static final int DEFAULT_MAX_POOLS = 16;
+    static final long DEFAULT_MAX_AGE_MINUTES = 10;
+
+    private final GoogleIonicStorage storage;
+    private final int lowWatermark;
+    private final int highWatermark;
+    private final int maxPools;
+    private final long maxAgeNanos;
+    private final LongSupplier nanoClock;
+    private final LinkedHashMap<KeyAttributeSet, Entry> pools;
+    private final ExecutorService refillExecutor;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong expired = new AtomicLong();
+    private final AtomicLong refillFailures = new AtomicLong();
+
+    IonicKeyPool(GoogleIonicStorage storage, int lowWatermark, int highWatermark,
+            int maxRequestSize, int maxPools, long maxAge, TimeUnit unit) {
+        this(storage, lowWatermark, highWatermark, maxRequestSize, maxPools, maxAge, unit,
+                System::nanoTime);
+    }
+
+    /**
+     * Creates a pool that reads the time in nanoseconds from nanoClock instead of
+     * {@link System#nanoTime()}.
+     */
+    IonicKeyPool(GoogleIonicStorage storage, int lowWatermark, int highWatermark,
+            int maxRequestSize, int maxPools, long maxAge, TimeUnit unit,
+            LongSupplier nanoClock) {
+        if (lowWatermark < 0 || highWatermark <= lowWatermark) {
+            throw new IllegalArgumentException(
+                    "highWatermark must be greater than lowWatermark and lowWatermark >= 0");
+        }
+        if (highWatermark > maxRequestSize) {
+            // A refill creates up to highWatermark keys with a single request.
+            throw new IllegalArgumentException(
+                    "highWatermark must be at most " + maxRequestSize);
+        }
+        if (maxPools <= 0 || maxAge <= 0) {
+            throw new IllegalArgumentException("maxPools and maxAge must be positive");
+        }
+        this.storage = storage;
+        this.lowWatermark = lowWatermark;
+        this.highWatermark = highWatermark;
+        this.maxPools = maxPools;
+        this.maxAgeNanos = unit.toNanos(maxAge);
+        this.nanoClock = nanoClock;
+        this.pools = new LinkedHashMap<KeyAttributeSet, Entry>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<KeyAttributeSet, Entry> eldest) {
+                if (size() > IonicKeyPool.this.maxPools) {
+                    eldest.getValue().discarded = true;
+                    return true;
+                }
+                return false;
+            }
+        };
+        this.refillExecutor = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "ionic-key-pool-refill");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * getLowWatermark() returns the pooled key count at or below which a refill is scheduled.
+     *
+     * @return an int.
+     */
+    public int getLowWatermark() {
+        return this.lowWatermark;
+    }
+
+    /**
+     * getHighWatermark() returns the pooled key count a refill tops each pool up to.
+     *
+     * @return an int.
+     */
+    public int getHighWatermark() {
+        return this.highWatermark;
+    }
+
+    /**
+     * getMaxPools() returns the maximum number of attribute sets for which keys are pooled.
+     *
+     * @return an int.
+     */
+    public int getMaxPools() {
+        return this.maxPools;
+    }
+
+    /**
+     * getMaxAge() returns how long a pooled key may be served after it was created.
+     *
+     * @param unit the {@link java.util.concurrent.TimeUnit} of the returned value.
+     * @return a long.
+     */
+    public long getMaxAge(TimeUnit unit) {
+        return unit.convert(this.maxAgeNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * getHitCount() returns the number of keys served from the pool.
+     *
+     * @return a long.
+     */
+    public long getHitCount() {
+        return this.hits.get();
+    }
+
+    /**
+     * getMissCount() returns the number of requests that found the pool empty and fell back to
+     * synchronous key creation.
+     *
+     * @return a long.
+     */
+    public long getMissCount() {
+        return this.misses.get();
+    }
+
+    /**
+     * getExpiredCount() returns the number of pooled keys discarded because they exceeded the
+     * maximum age.
+     *
+     * @return a long.
+     */
+    public long getExpiredCount() {
+        return this.expired.get();
+    }
+
+    /**
+     * getRefillFailureCount() returns the number of background refills that failed.
+     *
+     * @return a long.
+     */
+    public long getRefillFailureCount() {
+        return this.refillFailures.get();
+    }
+
+    /**
+     * size() returns the total number of keys currently pooled across all attribute sets.
+     *
+     * @return an int.
+     */
+    public synchronized int size() {
+        int size = 0;
+        for (Entry entry : pools.values()) {
+            size += entry.count.get();
+        }
+        return size;
+    }
+
+    /**
+     * getPoolCount() returns the number of attribute sets currently tracked by the pool.
+     *
+     * @return an int.
+     */
+    public synchronized int getPoolCount() {
+        return pools.size();
+    }
+
+    /**
+     * clear() discards all pooled keys. Pools are refilled once their attribute set is requested
+     * twice again.
+     */
+    public synchronized void clear() {
+        for (Entry entry : pools.values()) {
+            entry.discarded = true;
+        }
+        pools.clear();
+    }
+
+    /**
+     * Takes a pooled key created with the given attributes. The first request for an attribute
+     * set only registers it; later requests schedule a refill when the pool reaches its low
+     * watermark.
+     *
+     * @return a key, or null if no pooled key is available.
+     */
+    CreateKeysResponse.Key take(KeyAttributesMap attributes, KeyAttributesMap mutableAttributes) {
+        KeyAttributeSet poolKey = new KeyAttributeSet(attributes, mutableAttributes);
+        Entry entry;
+        synchronized (this) {
+            entry = pools.get(poolKey);
+            if (entry == null) {
+                pools.put(poolKey, new Entry(poolKey));
+                misses.incrementAndGet();
+                return null;
+            }
+        }
+        CreateKeysResponse.Key key = null;
+        for (Pooled pooled = entry.keys.poll(); pooled != null; pooled = entry.keys.poll()) {
+            entry.count.decrementAndGet();
+            if (nanoClock.getAsLong() - pooled.created < maxAgeNanos) {
+                key = pooled.key;
+                break;
+            }
+            expired.incrementAndGet();
+        }
+        if (key != null) {
+            hits.incrementAndGet();
+        } else {
+            misses.incrementAndGet();
+        }
+        if (entry.count.get() <= lowWatermark) {
+            scheduleRefill(entry);
+        }
+        return key;
+    }
+
+    /**
+     * Waits until the refills scheduled so far have finished.
+     */
+    void awaitRefills() throws InterruptedException {
+        try {
+            refillExecutor.submit(() -> { }).get();
+        } catch (ExecutionException | RejectedExecutionException e) {
+            // Nothing is left to wait for once the refill thread has stopped.
+        }
+    }
+
+    /**
+     * Stops the refill thread and discards all pooled keys.
+     */
+    void shutdown() {
+        refillExecutor.shutdownNow();
+        clear();
+    }
+
+    private void scheduleRefill(Entry entry) {
+        if (!entry.refilling.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            refillExecutor.execute(() -> refill(entry));
+        } catch (RejectedExecutionException e) {
+            entry.refilling.set(false);
+        }
+    }
+
+    private void refill(Entry entry) {
+        try {
+            int quantity = highWatermark - entry.count.get();
+            if (quantity <= 0) {
+                return;
+            }
+            long created = nanoClock.getAsLong();
+            CreateKeysRequest request = new CreateKeysRequest();
+            request.add(new CreateKeysRequest.Key("", quantity, entry.poolKey.getAttributes(),
+                    entry.poolKey.getMutableAttributes()));
+            CreateKeysResponse response = storage.createIonicKeys(request);
+            if (entry.discarded) {
+                return; // Pool was cleared or evicted while the request was in flight.
+            }
+            for (CreateKeysResponse.Key key : response.getKeys()) {
+                entry.keys.add(new Pooled(key, created));
+                entry.count.incrementAndGet();
+            }
+        } catch (IonicException | RuntimeException e) {
+            refillFailures.incrementAndGet();
+        } finally {
+            entry.refilling.set(false);
+        }
+    }
+
+    private static final class Pooled {
+        private final CreateKeysResponse.Key key;
+        private final long created;
+
+        private Pooled(CreateKeysResponse.Key key, long created) {
+            this.key = key;
+            this.created = created;
+        }
+    }
+
+    private static final class Entry {
+        private final KeyAttributeSet poolKey;
+        private final ConcurrentLinkedQueue<Pooled> keys = new ConcurrentLinkedQueue<Pooled>();
+        private final AtomicInteger count = new AtomicInteger();
+        private final AtomicBoolean refilling = new AtomicBoolean();
+        private volatile boolean discarded = false;
+
+        private Entry(KeyAttributeSet poolKey) {
+            this.poolKey = poolKey;
+        }
+    }
+}
@@ -0,0 +1,96 @@
+/*
+ * (c) 2017-2021 Ionic Security Inc. By using this code, I agree to the Terms & Conditions
+ * (https://dev.ionic.com/use) and the Privacy Policy (https://www.ionic.com/privacy-notice/).
+ */
+
+package com.ionic.cloudstorage.gcs;
+
+import com.ionic.sdk.agent.key.KeyAttributesMap;
+import com.ionic.sdk.agent.request.createkey.CreateKeysResponse;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * A policy under which {@link GoogleIonicStorage} upload methods protect several blobs with the
+ * same Ionic Key. A key is shared by the blobs of one bucket and prefix that are uploaded with the
+ * same attributes and mutable attributes, and is replaced once it has protected maxUses blobs or
+ * ttl after it was created, whichever comes first. Concurrent uploads that need a replacement wait
+ * for a single key to be created. Blobs are stored exactly as with a key of their own.
+ *
+ * <p>The prefix of a blob is its name up to and including the last '/', so that the blobs of one
+ * "directory" share keys.
+ *
+ * <p>Instances are created with {@link GoogleIonicStorage#enableKeyReuse(int, long, TimeUnit)}.
+ */
+public class IonicKeyReuse {
+
+    private final IonicKeyWindows windows;
+
+    IonicKeyReuse(int maxUses, long ttl, TimeUnit unit) {
+        this.windows = new IonicKeyWindows(maxUses, unit.toNanos(ttl));
+    }
+
+    /**
+     * getMaxUses() returns the maximum number of blobs protected with one Ionic Key.
+     *
+     * @return an int.
+     */
+    public int getMaxUses() {
+        return windows.getMaxUses();
+    }
+
+    /**
+     * getTimeToLive() returns how long an Ionic Key is reused after it was created.
+     *
+     * @param unit the {@link java.util.concurrent.TimeUnit} of the returned value.
+     * @return a long.
+     */
+    public long getTimeToLive(TimeUnit unit) {
+        return unit.convert(windows.getTtlNanos(), TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * getCreatedKeyCount() returns the number of Ionic Keys created for uploads.
+     *
+     * @return a long.
+     */
+    public long getCreatedKeyCount() {
+        return windows.getCreatedCount();
+    }
+
+    /**
+     * getReusedKeyCount() returns the number of uploads protected with a previously created key.
+     *
+     * @return a long.
+     */
+    public long getReusedKeyCount() {
+        return windows.getTakenCount() - windows.getCreatedCount();
+    }
+
+    /**
+     * size() returns the number of Ionic Keys currently held for reuse.
+     *
+     * @return an int.
+     */
+    public int size() {
+        return windows.size();
+    }
+
+    /**
+     * clear() discards the current Ionic Keys, so that the next upload of each prefix and
+     * attribute set creates a new one.
+     */
+    public void clear() {
+        windows.clear();
+    }
+
+    /**
+     * Returns the current Ionic Key for blobs under bucket and name's prefix with the given
+     * attributes, replacing it with one from create when it is used up or expired.
+     */
+    CreateKeysResponse.Key take(String bucket, String name, KeyAttributesMap attributes,
+            KeyAttributesMap mutableAttributes, Supplier<CreateKeysResponse.Key> create) {
+        String prefix = name == null ? "" : name.substring(0, name.lastIndexOf('/') + 1);
+        return windows.take(bucket + "/" + prefix, attributes, mutableAttributes, create);
+    }
+}
@@ -0,0 +1,131 @@
+/*
+ * (c) 2017-2021 Ionic Security Inc. By using this code, I agree to the Terms & Conditions
+ * (https://dev.ionic.com/use) and the Privacy Policy (https://www.ionic.com/privacy-notice/).
+ */
+
+package com.ionic.cloudstorage.gcs;
+
+import com.google.cloud.storage.Blob;
+import com.google.cloud.storage.BlobInfo;
+import com.google.cloud.storage.Storage.BlobTargetOption;
+import com.google.cloud.storage.Storage.CopyRequest;
+import com.google.cloud.storage.StorageException;
+import com.ionic.cloudstorage.gcs.GoogleIonicStorage.KeyInfoPair;
+import com.ionic.sdk.agent.request.getkey.GetKeysResponse;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Rotates the Ionic Keys of every Ionic protected blob under a prefix. Each blob is rewritten in
+ * place by the server, decrypted with its current Ionic Key and encrypted with a new one, so the
+ * content never passes through this process. Blobs are processed in batches: the current keys of
+ * a batch are fetched and its new keys created with multi-key IDC requests, then its rewrites run
+ * with bounded concurrency.
+ *
+ * <p>When a checkpoint file is set, the name of the last blob of each completed batch is recorded
+ * in it, and a run that finds the file resumes after that blob. Blobs that fail are recorded in
+ * the file as well and retried by the next run. The file is deleted once a run completes without
+ * failures. A blob that is replaced while it is being rotated is left as is and reported as a
+ * failure.
+ *
+ * <p>Example of rotating the keys under a prefix.
+ *
+ * <pre>
+ * {
+ *     IonicKeyRotation rotation = new IonicKeyRotation(ionicStorage, "bucket", "backups/");
+ *     rotation.setParallelism(64);
+ *     rotation.setCheckpoint(Paths.get("rotation.checkpoint"));
+ *     rotation.run();
+ *     System.out.println(rotation.getRotatedCount() + " rotated, "
+ *             + rotation.getFailures().size() + " failed");
+ * }
+ * </pre>
+ */
+public class IonicKeyRotation extends PrefixRewriteJob {
+
+    /**
+     * IonicKeyRotation() constructor for a rotation of the blobs in bucket whose names start with
+     * prefix.
+     *
+     * @param ionicStorage the {@link GoogleIonicStorage} used to fetch, create and apply keys.
+     * @param bucket the name of the bucket.
+     * @param prefix the prefix of the blob names to rotate, or null for the whole bucket.
+     */
+    public IonicKeyRotation(GoogleIonicStorage ionicStorage, String bucket, String prefix) {
+        super(ionicStorage, bucket, prefix);
+    }
+
+    /**
+     * getRotatedCount() returns the number of blobs rotated so far.
+     *
+     * @return a long.
+     */
+    public long getRotatedCount() {
+        return rewrittenCount();
+    }
+
+    /**
+     * getSkippedCount() returns the number of blobs skipped because they are not Ionic protected.
+     *
+     * @return a long.
+     */
+    public long getSkippedCount() {
+        return skippedCount();
+    }
+
+    @Override
+    void processBatch(List<Blob> batch) throws IOException {
+        Set<String> keyIds = new HashSet<String>();
+        for (Blob blob : batch) {
+            String keyId = keyId(blob);
+            if (keyId != null) {
+                keyIds.add(keyId);
+            }
+        }
+        Map<String, StorageException> keyErrors = new HashMap<String, StorageException>();
+        Map<String, GetKeysResponse.Key> sourceKeys = getIonicStorage().resolveIonicKeys(keyIds,
+                keyErrors);
+
+        List<Blob> sources = new ArrayList<Blob>(batch.size());
+        List<BlobInfo> targets = new ArrayList<BlobInfo>(batch.size());
+        for (Blob blob : batch) {
+            String keyId = keyId(blob);
+            if (keyId == null) {
+                skip();
+            } else if (sourceKeys.containsKey(keyId)) {
+                sources.add(blob);
+                // The target's generation makes the rewrite conditional on the blob not changing.
+                targets.add(GoogleIonicStorage.copyTargetInfo(blob, blob.getBlobId()));
+            } else {
+                fail(blob.getBlobId(), keyErrors.get(keyId));
+            }
+        }
+        List<KeyInfoPair> pairs = getIonicStorage().createIonicKeys(getKey(), targets);
+        rewriteAll(sources, (source, index) -> rewrite(source,
+                IonicKeyDerivation.blobKey(sourceKeys.get(keyId(source)),
+                        GoogleIonicStorage.metadataValue(source.getMetadata(),
+                                GoogleIonicStorage.IONICSALTCONSTANT)), pairs.get(index)));
+    }
+
+    /**
+     * Rewrites source to a blob of the same name protected by pair.key, provided source is still
+     * the latest generation.
+     */
+    void rewrite(Blob source, GetKeysResponse.Key sourceKey, KeyInfoPair pair) {
+        CopyRequest copyRequest = CopyRequest.newBuilder()
+                .setSource(source.getBlobId())
+                .setTarget(pair.info, BlobTargetOption.generationMatch())
+                .build();
+        getIonicStorage().copyEncrypted(copyRequest, source, sourceKey, pair).getResult();
+    }
+
+    private static String keyId(Blob blob) {
+        Map<String, String> metadata = blob.getMetadata();
+        return metadata == null ? null : metadata.get(GoogleIonicStorage.IONICMETACONSTANT);
+    }
+}
@@ -0,0 +1,167 @@
+/*
+ * (c) 2017-2021 Ionic Security Inc. By using this code, I agree to the Terms & Conditions
+ * (https://dev.ionic.com/use) and the Privacy Policy (https://www.ionic.com/privacy-notice/).
+ */
+
+package com.ionic.cloudstorage.gcs;
+
+import com.ionic.sdk.agent.key.KeyAttributesMap;
+import com.ionic.sdk.agent.request.createkey.CreateKeysResponse;
+import java.util.AbstractMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+
+/**
+ * Ionic Keys that are each used for a bounded number of blobs and a bounded time, one per scope
+ * and set of attributes and mutable attributes. A key is replaced once it has been taken maxUses
+ * times or ttl after it was created. Replacement is single flighted: concurrent callers for the
+ * same scope and attributes wait for the one caller creating the replacement.
+ *
+ * <p>A window is removed as soon as its key is used up or found expired, and expired windows of
+ * other scopes are swept whenever a key is created, so neither windows nor key material outlive
+ * their ttl by much.
+ */
+final class IonicKeyWindows {
+
+    private final int maxUses;
+    private final long ttlNanos;
+    private final LongSupplier nanoClock;
+    private final Map<Map.Entry<Object, KeyAttributeSet>, Window> windows =
+            new ConcurrentHashMap<Map.Entry<Object, KeyAttributeSet>, Window>();
+    private final AtomicLong created = new AtomicLong();
+    private final AtomicLong taken = new AtomicLong();
+
+    IonicKeyWindows(int maxUses, long ttlNanos) {
+        this(maxUses, ttlNanos, System::nanoTime);
+    }
+
+    /**
+     * Creates windows that read the time in nanoseconds from nanoClock instead of
+     * {@link System#nanoTime()}.
+     */
+    IonicKeyWindows(int maxUses, long ttlNanos, LongSupplier nanoClock) {
+        if (maxUses <= 0 || ttlNanos <= 0) {
+            throw new IllegalArgumentException("maxUses and ttl must be positive");
+        }
+        this.maxUses = maxUses;
+        this.ttlNanos = ttlNanos;
+        this.nanoClock = nanoClock;
+    }
+
+    int getMaxUses() {
+        return maxUses;
+    }
+
+    long getTtlNanos() {
+        return ttlNanos;
+    }
+
+    /**
+     * Returns the number of keys created.
+     */
+    long getCreatedCount() {
+        return created.get();
+    }
+
+    /**
+     * Returns the number of keys taken, including those taken from a new key.
+     */
+    long getTakenCount() {
+        return taken.get();
+    }
+
+    /**
+     * Returns the number of windows currently held.
+     */
+    int size() {
+        return windows.size();
+    }
+
+    void clear() {
+        windows.clear();
+    }
+
+    /**
+     * Returns the current key for scope and the given attributes, replacing it with one from create
+     * when it is used up or expired. Failures of create propagate to the caller and leave no
+     * current key.
+     */
+    CreateKeysResponse.Key take(Object scope, KeyAttributesMap attributes,
+            KeyAttributesMap mutableAttributes, Supplier<CreateKeysResponse.Key> create) {
+        Map.Entry<Object, KeyAttributeSet> windowKey = new AbstractMap.SimpleImmutableEntry<
+                Object, KeyAttributeSet>(scope, new KeyAttributeSet(attributes, mutableAttributes));
+        while (true) {
+            Window window = windows.computeIfAbsent(windowKey, unused -> new Window());
+            CreateKeysResponse.Key key;
+            try {
+                key = window.take(create);
+            } finally {
+                if (window.retired) {
+                    windows.remove(windowKey, window);
+                }
+            }
+            if (key != null) {
+                taken.incrementAndGet();
+                return key;
+            }
+        }
+    }
+
+    /**
+     * Removes the windows whose key has expired.
+     */
+    private void sweep() {
+        long now = nanoClock.getAsLong();
+        for (Map.Entry<Map.Entry<Object, KeyAttributeSet>, Window> entry : windows.entrySet()) {
+            Window window = entry.getValue();
+            if (window.hasKey && now - window.createdNanos >= ttlNanos) {
+                windows.remove(entry.getKey(), window);
+            }
+        }
+    }
+
+    /**
+     * A single key and its uses. Once retired a window returns no key and is replaced.
+     */
+    private final class Window {
+        private CreateKeysResponse.Key key;
+        private int uses;
+        private volatile long createdNanos;
+        private volatile boolean hasKey;
+        private volatile boolean retired;
+
+        synchronized CreateKeysResponse.Key take(Supplier<CreateKeysResponse.Key> create) {
+            if (retired) {
+                return null;
+            }
+            if (key == null) {
+                try {
+                    key = create.get();
+                } catch (RuntimeException e) {
+                    retired = true; // Not reused if create fails.
+                    throw e;
+                }
+                created.incrementAndGet();
+                createdNanos = nanoClock.getAsLong();
+                hasKey = true;
+                sweep();
+            } else if (nanoClock.getAsLong() - createdNanos >= ttlNanos) {
+                retire();
+                return null;
+            }
+            CreateKeysResponse.Key current = key;
+            if (++uses >= maxUses) {
+                retire();
+            }
+            return current;
+        }
+
+        private void retire() {
+            retired = true;
+            key = null;
+        }
+    }
+}
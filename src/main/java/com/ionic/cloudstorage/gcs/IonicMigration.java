@@ -0,0 +1,141 @@
+/*
+ * (c) 2017-2021 Ionic Security Inc. By using this code, I agree to the Terms & Conditions
+ * (https://dev.ionic.com/use) and the Privacy Policy (https://www.ionic.com/privacy-notice/).
+ */
+
+package com.ionic.cloudstorage.gcs;
+
+import com.google.cloud.storage.Blob;
+import com.google.cloud.storage.BlobInfo;
+import com.google.cloud.storage.Storage.BlobSourceOption;
+import com.google.cloud.storage.Storage.BlobTargetOption;
+import com.google.cloud.storage.Storage.CopyRequest;
+import com.ionic.cloudstorage.gcs.GoogleIonicStorage.KeyInfoPair;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Protects every blob under a prefix that is not yet Ionic protected. Each blob is rewritten in
+ * place by the server and encrypted with a new Ionic Key, so the content never passes through this
+ * process. Blobs that are already Ionic protected, and blobs encrypted with a customer-supplied
+ * key that is not an Ionic Key, are skipped. Blobs are processed in batches: the new keys of a
+ * batch are created with multi-key IDC requests, then its rewrites run with bounded concurrency.
+ *
+ * <p>When a checkpoint file is set, the name of the last blob of each completed batch is recorded
+ * in it, and a run that finds the file resumes after that blob. Blobs that fail are recorded in
+ * the file as well and retried by the next run. The file is deleted once a run completes without
+ * failures. A blob that is replaced while it is being migrated is left as is and reported as a
+ * failure.
+ *
+ * <p>The rewrite creates a new generation of each blob. In a bucket with Object Versioning enabled,
+ * the unprotected original is kept as a noncurrent generation and stays readable until it is
+ * deleted. Set {@link #setDeleteSource(boolean)} to delete the original generation once its
+ * rewrite has succeeded.
+ *
+ * <p>Example of protecting the blobs under a prefix.
+ *
+ * <pre>
+ * {
+ *     IonicMigration migration = new IonicMigration(ionicStorage, "bucket", "legacy/");
+ *     migration.setParallelism(64);
+ *     migration.setCheckpoint(Paths.get("migration.checkpoint"));
+ *     migration.run();
+ *     System.out.println(migration.getMigratedCount() + " migrated, "
+ *             + migration.getFailures().size() + " failed");
+ * }
+ * </pre>
+ */
+public class IonicMigration extends PrefixRewriteJob {
+
+    private boolean deleteSource = false;
+
+    /**
+     * IonicMigration() constructor for a migration of the blobs in bucket whose names start with
+     * prefix.
+     *
+     * @param ionicStorage the {@link GoogleIonicStorage} used to create and apply keys.
+     * @param bucket the name of the bucket.
+     * @param prefix the prefix of the blob names to migrate, or null for the whole bucket.
+     */
+    public IonicMigration(GoogleIonicStorage ionicStorage, String bucket, String prefix) {
+        super(ionicStorage, bucket, prefix);
+    }
+
+    /**
+     * setDeleteSource() sets whether the unprotected generation of each blob is deleted after it
+     * has been rewritten, so that a versioned bucket does not keep it as a noncurrent generation.
+     * A blob whose source generation cannot be deleted is reported as a failure. Defaults to false.
+     *
+     * @param deleteSource a boolean.
+     */
+    public void setDeleteSource(boolean deleteSource) {
+        this.deleteSource = deleteSource;
+    }
+
+    /**
+     * isDeleteSource() returns whether the unprotected generation of each blob is deleted after it
+     * has been rewritten.
+     *
+     * @return a boolean.
+     */
+    public boolean isDeleteSource() {
+        return this.deleteSource;
+    }
+
+    /**
+     * getMigratedCount() returns the number of blobs protected so far.
+     *
+     * @return a long.
+     */
+    public long getMigratedCount() {
+        return rewrittenCount();
+    }
+
+    /**
+     * getSkippedCount() returns the number of blobs skipped because they are already Ionic
+     * protected or encrypted with another customer-supplied key.
+     *
+     * @return a long.
+     */
+    public long getSkippedCount() {
+        return skippedCount();
+    }
+
+    @Override
+    void processBatch(List<Blob> batch) throws IOException {
+        List<Blob> sources = new ArrayList<Blob>(batch.size());
+        List<BlobInfo> targets = new ArrayList<BlobInfo>(batch.size());
+        for (Blob blob : batch) {
+            if (GoogleIonicStorage.isIonicProtected(blob) || blob.getCustomerEncryption() != null) {
+                skip();
+            } else {
+                sources.add(blob);
+                // The target's generation makes the rewrite conditional on the blob not changing.
+                targets.add(GoogleIonicStorage.copyTargetInfo(blob, blob.getBlobId()));
+            }
+        }
+        if (!sources.isEmpty()) {
+            List<KeyInfoPair> pairs = getIonicStorage().createIonicKeys(getKey(), targets);
+            rewriteAll(sources, (source, index) -> rewrite(source, pairs.get(index)));
+        }
+    }
+
+    /**
+     * Rewrites source to a blob of the same name protected by pair.key, provided source is still
+     * the latest generation, then deletes the source generation if deleteSource is set. The delete
+     * names the source generation, so it never removes the rewritten blob, and finds nothing to
+     * delete in a bucket without versioning.
+     */
+    void rewrite(Blob source, KeyInfoPair pair) {
+        CopyRequest copyRequest = CopyRequest.newBuilder()
+                .setSource(source.getBlobId())
+                .setTarget(pair.info, BlobTargetOption.generationMatch())
+                .build();
+        getIonicStorage().copyEncrypted(copyRequest, source, null, pair).getResult();
+        if (deleteSource) {
+            getIonicStorage().getGoogleStorage().delete(source.getBlobId(),
+                    BlobSourceOption.generationMatch());
+        }
+    }
+}
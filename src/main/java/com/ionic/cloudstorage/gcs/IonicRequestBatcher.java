@@ -0,0 +1,210 @@
+/*
+ * (c) 2017-2021 Ionic Security Inc. By using this code, I agree to the Terms & Conditions
+ * (https://dev.ionic.com/use) and the Privacy Policy (https://www.ionic.com/privacy-notice/).
+ */
+
+package com.ionic.cloudstorage.gcs;
+
+import com.google.cloud.storage.StorageException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Coalesces concurrent single-key IDC requests made by a {@link GoogleIonicStorage} into multi-key
+ * requests. The first request to arrive opens a batch and waits up to the batch window for others
+ * to join it; the batch is sent when the window closes or as soon as it holds the maximum number
+ * of requests. Each caller receives its own result, or the failure of its request.
+ *
+ * <p>Batches are sent on the thread of one of their callers, so no background threads are used.
+ *
+ * <p>Instances are created with
+ * {@link GoogleIonicStorage#enableKeyCreationBatching(long, TimeUnit, int)} and
+ * {@link GoogleIonicStorage#enableKeyFetchBatching(long, TimeUnit, int)}.
+ *
+ * @param <Q> the type of a single request.
+ * @param <R> the type of the result of a single request.
+ */
+public class IonicRequestBatcher<Q, R> {
+
+    private final long windowNanos;
+    private final int maxBatchSize;
+    private final Sender<Q, R> sender;
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong batches = new AtomicLong();
+    private List<Pending<Q, R>> open = null;
+
+    IonicRequestBatcher(long window, TimeUnit unit, int maxBatchSize, int maxRequestSize,
+            Sender<Q, R> sender) {
+        if (window < 0 || maxBatchSize <= 0 || maxBatchSize > maxRequestSize) {
+            throw new IllegalArgumentException("window must not be negative and maxBatchSize must"
+                    + " be between 1 and " + maxRequestSize);
+        }
+        this.windowNanos = unit.toNanos(window);
+        this.maxBatchSize = maxBatchSize;
+        this.sender = sender;
+    }
+
+    /**
+     * getWindow() returns how long a batch waits for requests to join it.
+     *
+     * @param unit the {@link java.util.concurrent.TimeUnit} of the returned value.
+     * @return a long.
+     */
+    public long getWindow(TimeUnit unit) {
+        return unit.convert(this.windowNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * getMaxBatchSize() returns the maximum number of requests sent in one batch.
+     *
+     * @return an int.
+     */
+    public int getMaxBatchSize() {
+        return this.maxBatchSize;
+    }
+
+    /**
+     * getRequestCount() returns the number of requests submitted.
+     *
+     * @return a long.
+     */
+    public long getRequestCount() {
+        return this.requests.get();
+    }
+
+    /**
+     * getBatchCount() returns the number of batches sent.
+     *
+     * @return a long.
+     */
+    public long getBatchCount() {
+        return this.batches.get();
+    }
+
+    /**
+     * Submits request and waits for its result.
+     *
+     * @throws StorageException if the request failed.
+     */
+    R submit(Q request) {
+        requests.incrementAndGet();
+        Pending<Q, R> pending = new Pending<Q, R>(request);
+        List<Pending<Q, R>> batch;
+        List<Pending<Q, R>> full = null;
+        boolean leader = false;
+        synchronized (this) {
+            if (open == null) {
+                open = new ArrayList<Pending<Q, R>>();
+                leader = true;
+            }
+            batch = open;
+            batch.add(pending);
+            if (batch.size() >= maxBatchSize) {
+                full = batch;
+                open = null;
+                notifyAll();
+            }
+        }
+        if (full != null) {
+            send(full);
+        } else if (leader) {
+            send(awaitWindow(batch));
+        }
+        return await(pending);
+    }
+
+    /**
+     * Waits for the window of batch to close, returning it if it still needs to be sent or null if
+     * it was sent because it filled up.
+     */
+    private synchronized List<Pending<Q, R>> awaitWindow(List<Pending<Q, R>> batch) {
+        long deadline = System.nanoTime() + windowNanos;
+        boolean interrupted = false;
+        long remaining;
+        while (open == batch && (remaining = deadline - System.nanoTime()) > 0) {
+            try {
+                TimeUnit.NANOSECONDS.timedWait(this, remaining);
+            } catch (InterruptedException e) {
+                interrupted = true; // Other callers depend on this batch being sent.
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        if (open != batch) {
+            return null;
+        }
+        open = null;
+        return batch;
+    }
+
+    private void send(List<Pending<Q, R>> batch) {
+        if (batch == null) {
+            return;
+        }
+        batches.incrementAndGet();
+        try {
+            sender.send(batch);
+        } catch (RuntimeException e) {
+            failAll(batch, e instanceof StorageException ? (StorageException) e
+                    : new StorageException(0, e.getLocalizedMessage(), e));
+        } catch (Error e) {
+            failAll(batch, new StorageException(0, e.getLocalizedMessage(), e));
+            throw e;
+        } finally {
+            // Callers wait until their request completes, so none may be left pending.
+            failAll(batch, new StorageException(0, "No result for batched request"));
+        }
+    }
+
+    private static <Q, R> void failAll(List<Pending<Q, R>> batch, StorageException exception) {
+        for (Pending<Q, R> pending : batch) {
+            pending.fail(exception);
+        }
+    }
+
+    private R await(Pending<Q, R> pending) {
+        try {
+            return pending.result.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new StorageException(0, "Interrupted while waiting for batched request", e);
+        } catch (ExecutionException e) {
+            StorageException cause = (StorageException) e.getCause();
+            // A fresh exception so that each caller gets its own stack trace.
+            throw new StorageException(cause.getCode(), cause.getMessage(), cause);
+        }
+    }
+
+    /**
+     * Sends a batch of requests, completing or failing each of them.
+     */
+    interface Sender<Q, R> {
+        void send(List<Pending<Q, R>> batch);
+    }
+
+    static final class Pending<Q, R> {
+        private final Q request;
+        private final CompletableFuture<R> result = new CompletableFuture<R>();
+
+        private Pending(Q request) {
+            this.request = request;
+        }
+
+        Q getRequest() {
+            return request;
+        }
+
+        void complete(R value) {
+            result.complete(value);
+        }
+
+        void fail(StorageException exception) {
+            result.completeExceptionally(exception);
+        }
+    }
+}
@@ -0,0 +1,442 @@
+/*
+ * (c) 2017-2021 Ionic Security Inc. By using this code, I agree to the Terms & Conditions
+ * (https://dev.ionic.com/use) and the Privacy Policy (https://www.ionic.com/privacy-notice/).
+ */
+
+package com.ionic.cloudstorage.gcs;
+
+import com.google.cloud.BatchResult;
+import com.google.cloud.storage.Blob;
+import com.google.cloud.storage.BlobId;
+import com.google.cloud.storage.BlobInfo;
+import com.google.cloud.storage.Storage.BlobField;
+import com.google.cloud.storage.Storage.BlobGetOption;
+import com.google.cloud.storage.Storage.BlobSourceOption;
+import com.google.cloud.storage.Storage.BlobTargetOption;
+import com.google.cloud.storage.StorageBatch;
+import com.google.cloud.storage.StorageException;
+import com.ionic.sdk.agent.request.getkey.GetKeysResponse;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * An Ionic aware counterpart of {@link com.google.cloud.storage.StorageBatch} that groups blob
+ * gets, updates and deletes into batch requests.
+ *
+ * <p>Updates preserve each blob's 'ionic-key-id' metadata entry. The key id of a blob being
+ * updated is looked up with a batched metadata request, or from the key id cache when enabled,
+ * and the update is made conditional on the blob's generation so that a replaced blob is not
+ * stamped with the wrong key id. An update whose cached generation turns out to be stale is
+ * retried once the blob has been looked up again. Updates that set the 'ionic-key-id' entry
+ * themselves are sent as is. Clearing all of a blob's metadata is not supported; remove
+ * individual entries by setting them to null instead.
+ *
+ * <p>The Ionic Keys of blobs fetched with {@link #getAndKey(BlobId, BlobGetOption...)} are
+ * fetched after the batch with a single multi-key IDC request.
+ *
+ * <p>Results are available once {@link #submit()} returns. Instances are created with
+ * {@link GoogleIonicStorage#ionicBatch()} and are not thread safe.
+ */
+public class IonicStorageBatch {
+
+    private final GoogleIonicStorage ionicStorage;
+    private final List<Runnable> operations = new ArrayList<Runnable>();
+    private final List<PendingUpdate> updates = new ArrayList<PendingUpdate>();
+    private final List<Result<Blob>> keyedGets = new ArrayList<Result<Blob>>();
+    private final List<PendingUpdate> staleUpdates = new ArrayList<PendingUpdate>();
+    private StorageBatch batch;
+    private boolean submitted = false;
+
+    IonicStorageBatch(GoogleIonicStorage ionicStorage) {
+        this.ionicStorage = ionicStorage;
+    }
+
+    /**
+     * The result of an operation in an {@link IonicStorageBatch}.
+     *
+     * @param <T> the type of the operation's value.
+     */
+    public static class Result<T> {
+        private boolean done = false;
+        private T value;
+        private GetKeysResponse.Key ionicKey;
+        private StorageException exception;
+
+        Result() {
+        }
+
+        /**
+         * isDone() returns whether the operation has completed.
+         *
+         * @return a boolean.
+         */
+        public boolean isDone() {
+            return done;
+        }
+
+        /**
+         * isSuccessful() returns whether the operation completed successfully.
+         *
+         * @return a boolean.
+         */
+        public boolean isSuccessful() {
+            return done && exception == null;
+        }
+
+        /**
+         * get() returns the value of a successful operation.
+         *
+         * @return the value, which is null for a get of a blob that does not exist.
+         * @throws IllegalStateException if the batch has not been submitted.
+         * @throws StorageException if the operation failed.
+         */
+        public T get() {
+            if (!done) {
+                throw new IllegalStateException("Batch has not been submitted");
+            }
+            if (exception != null) {
+                throw exception;
+            }
+            return value;
+        }
+
+        /**
+         * getIonicKey() returns the Ionic Key of a blob fetched with
+         * {@link IonicStorageBatch#getAndKey(BlobId, BlobGetOption...)}.
+         *
+         * @return a {@link com.ionic.sdk.agent.request.getkey.GetKeysResponse.Key}, or null if
+         *         the blob is not Ionic protected.
+         */
+        public GetKeysResponse.Key getIonicKey() {
+            return ionicKey;
+        }
+
+        /**
+         * getException() returns the failure of an unsuccessful operation.
+         *
+         * @return a {@link com.google.cloud.storage.StorageException}, or null.
+         */
+        public StorageException getException() {
+            return exception;
+        }
+
+        void success(T value) {
+            this.value = value;
+            this.done = true;
+        }
+
+        void error(StorageException exception) {
+            this.exception = exception;
+            this.done = true;
+        }
+
+        BatchResult.Callback<T, StorageException> callback() {
+            return new BatchResult.Callback<T, StorageException>() {
+                @Override
+                public void success(T value) {
+                    Result.this.success(value);
+                }
+
+                @Override
+                public void error(StorageException exception) {
+                    Result.this.error(exception);
+                }
+            };
+        }
+    }
+
+    private static class PendingUpdate {
+        private final BlobInfo blobInfo;
+        private final BlobTargetOption[] options;
+        private final Result<Blob> result;
+        private Long generation;
+        private String keyId;
+        private String salt;
+        private boolean cached;
+        private StorageException exception;
+
+        PendingUpdate(BlobInfo blobInfo, BlobTargetOption[] options, Result<Blob> result) {
+            this.blobInfo = blobInfo;
+            this.options = options;
+            this.result = result;
+        }
+    }
+
+    /**
+     * Adds a request to get a blob to the batch.
+     *
+     * @param blobId a {@link com.google.cloud.storage.BlobId}
+     * @param options an optional array of
+     *        {@link com.google.cloud.storage.Storage.BlobGetOption}s
+     * @return a Result holding the {@link com.google.cloud.storage.Blob}, or null if it does not
+     *         exist
+     */
+    public Result<Blob> get(BlobId blobId, BlobGetOption... options) {
+        final Result<Blob> result = add(new Result<Blob>());
+        operations.add(() -> batch().get(blobId, options).notify(result.callback()));
+        return result;
+    }
+
+    /**
+     * Adds a request to get a blob and its Ionic Key to the batch. The blob's metadata must not
+     * be excluded with {@link com.google.cloud.storage.Storage.BlobGetOption#fields}.
+     *
+     * @param blobId a {@link com.google.cloud.storage.BlobId}
+     * @param options an optional array of
+     *        {@link com.google.cloud.storage.Storage.BlobGetOption}s
+     * @return a Result holding the {@link com.google.cloud.storage.Blob} and its Ionic Key
+     */
+    public Result<Blob> getAndKey(BlobId blobId, BlobGetOption... options) {
+        Result<Blob> result = get(blobId, options);
+        keyedGets.add(result);
+        return result;
+    }
+
+    /**
+     * Adds a request to update a blob to the batch, preserving its 'ionic-key-id' metadata
+     * entry.
+     *
+     * @param blobInfo a {@link com.google.cloud.storage.BlobInfo}
+     * @param options an optional array of
+     *        {@link com.google.cloud.storage.Storage.BlobTargetOption}s
+     * @return a Result holding the updated {@link com.google.cloud.storage.Blob}
+     */
+    public Result<Blob> update(BlobInfo blobInfo, BlobTargetOption... options) {
+        final Result<Blob> result = add(new Result<Blob>());
+        Map<String, String> metadata = blobInfo.getMetadata();
+        if (metadata != null && metadata.get(GoogleIonicStorage.IONICMETACONSTANT) != null) {
+            operations.add(() -> batch().update(blobInfo, options).notify(result.callback()));
+        } else {
+            PendingUpdate update = new PendingUpdate(blobInfo, options, result);
+            updates.add(update);
+            operations.add(() -> addUpdate(update));
+        }
+        return result;
+    }
+
+    /**
+     * Adds a request to delete a blob to the batch.
+     *
+     * @param blobId a {@link com.google.cloud.storage.BlobId}
+     * @param options an optional array of
+     *        {@link com.google.cloud.storage.Storage.BlobSourceOption}s
+     * @return a Result holding true if the blob was deleted or false if it was not found
+     */
+    public Result<Boolean> delete(BlobId blobId, BlobSourceOption... options) {
+        final Result<Boolean> result = add(new Result<Boolean>());
+        operations.add(() -> {
+            IonicKeyIdCache cache = ionicStorage.getKeyIdCache();
+            if (cache != null) {
+                cache.invalidate(blobId);
+            }
+            batch().delete(blobId, options).notify(result.callback());
+        });
+        return result;
+    }
+
+    /**
+     * submit() submits the batch. The key ids of updated blobs are fetched first when they are
+     * not cached, and the Ionic Keys of blobs fetched with getAndKey() are fetched afterwards.
+     * Updates that failed because a cached generation was stale are resubmitted in a second
+     * batch.
+     */
+    public void submit() {
+        if (submitted) {
+            throw new IllegalStateException("Batch has already been submitted");
+        }
+        submitted = true;
+        resolveUpdateKeyIds(updates, true);
+        for (Runnable operation : operations) {
+            operation.run();
+        }
+        if (batch != null) {
+            ionicStorage.submitBatch(batch);
+        }
+        retryStaleUpdates();
+        resolveKeys();
+    }
+
+    private <T> Result<T> add(Result<T> result) {
+        if (submitted) {
+            throw new IllegalStateException("Batch has already been submitted");
+        }
+        return result;
+    }
+
+    private StorageBatch batch() {
+        if (batch == null) {
+            batch = ionicStorage.getGoogleStorage().batch();
+        }
+        return batch;
+    }
+
+    private void resolveUpdateKeyIds(List<PendingUpdate> pending, boolean useCache) {
+        IonicKeyIdCache cache = ionicStorage.getKeyIdCache();
+        StorageBatch metadataBatch = null;
+        for (final PendingUpdate update : pending) {
+            BlobId blobId = update.blobInfo.getBlobId();
+            IonicKeyIdCache.Entry entry = cache == null || !useCache ? null
+                    : ionicStorage.cachedKeyId(cache, blobId);
+            update.cached = entry != null;
+            if (entry != null) {
+                update.generation = entry.getGeneration();
+                update.keyId = entry.getKeyId();
+                update.salt = entry.getSalt();
+                continue;
+            }
+            if (metadataBatch == null) {
+                metadataBatch = ionicStorage.getGoogleStorage().batch();
+            }
+            metadataBatch.get(blobId, BlobGetOption.fields(BlobField.METADATA, BlobField.GENERATION))
+                    .notify(new BatchResult.Callback<Blob, StorageException>() {
+                        @Override
+                        public void success(Blob blob) {
+                            if (blob == null) {
+                                update.exception = new StorageException(404, "404 Not Found");
+                                return;
+                            }
+                            update.generation = blob.getGeneration();
+                            update.keyId = GoogleIonicStorage.metadataValue(blob.getMetadata(),
+                                    GoogleIonicStorage.IONICMETACONSTANT);
+                            update.salt = GoogleIonicStorage.metadataValue(blob.getMetadata(),
+                                    GoogleIonicStorage.IONICSALTCONSTANT);
+                            if (cache != null && update.generation != null) {
+                                cache.put(blobId, update.generation, update.keyId, update.salt);
+                            }
+                        }
+
+                        @Override
+                        public void error(StorageException exception) {
+                            update.exception = exception;
+                        }
+                    });
+        }
+        if (metadataBatch != null) {
+            ionicStorage.submitBatch(metadataBatch);
+        }
+    }
+
+    private void addUpdate(final PendingUpdate update) {
+        if (update.exception != null) {
+            update.result.error(update.exception);
+            return;
+        }
+        BlobInfo blobInfo = update.blobInfo;
+        BlobTargetOption[] options = update.options;
+        if (update.keyId != null) {
+            Map<String, String> metadata = blobInfo.getMetadata() == null
+                    ? new HashMap<String, String>()
+                    : new HashMap<String, String>(blobInfo.getMetadata());
+            metadata.put(GoogleIonicStorage.IONICMETACONSTANT, update.keyId);
+            if (update.salt != null) {
+                metadata.put(GoogleIonicStorage.IONICSALTCONSTANT, update.salt);
+            }
+            blobInfo = blobInfo.toBuilder().setMetadata(metadata).build();
+        }
+        if (update.generation != null) {
+            // Also guards unprotected blobs, which may have been replaced by protected ones.
+            BlobId blobId = blobInfo.getBlobId();
+            blobInfo = blobInfo.toBuilder()
+                    .setBlobId(BlobId.of(blobId.getBucket(), blobId.getName(), update.generation))
+                    .build();
+            if (!Arrays.asList(options).contains(BlobTargetOption.generationMatch())) {
+                options = Arrays.copyOf(options, options.length + 1);
+                options[options.length - 1] = BlobTargetOption.generationMatch();
+            }
+        }
+        batch().update(blobInfo, options).notify(updateCallback(update));
+    }
+
+    /**
+     * Returns a callback that completes the result of update, or sets update aside for a retry
+     * when it failed because its cached generation was stale.
+     */
+    private BatchResult.Callback<Blob, StorageException> updateCallback(
+            final PendingUpdate update) {
+        return new BatchResult.Callback<Blob, StorageException>() {
+            @Override
+            public void success(Blob blob) {
+                update.result.success(blob);
+            }
+
+            @Override
+            public void error(StorageException exception) {
+                if (exception.getCode() == 412 && update.cached) {
+                    staleUpdates.add(update);
+                } else {
+                    update.result.error(exception);
+                }
+            }
+        };
+    }
+
+    /**
+     * Looks up the blobs of updates whose cached generation was stale again, bypassing the cache,
+     * and resubmits their updates.
+     */
+    private void retryStaleUpdates() {
+        if (staleUpdates.isEmpty()) {
+            return;
+        }
+        IonicKeyIdCache cache = ionicStorage.getKeyIdCache();
+        List<PendingUpdate> retries = new ArrayList<PendingUpdate>(staleUpdates);
+        staleUpdates.clear();
+        for (PendingUpdate update : retries) {
+            if (cache != null) {
+                cache.invalidate(update.blobInfo.getBlobId());
+            }
+        }
+        resolveUpdateKeyIds(retries, false);
+        batch = null;
+        for (PendingUpdate update : retries) {
+            addUpdate(update);
+        }
+        if (batch != null) {
+            ionicStorage.submitBatch(batch);
+        }
+    }
+
+    private void resolveKeys() {
+        Set<String> keyIds = new HashSet<String>();
+        for (Result<Blob> result : keyedGets) {
+            String keyId = keyId(result);
+            if (keyId != null) {
+                keyIds.add(keyId);
+            }
+        }
+        if (keyIds.isEmpty()) {
+            return;
+        }
+        Map<String, StorageException> errors = new HashMap<String, StorageException>();
+        Map<String, GetKeysResponse.Key> keys = ionicStorage.resolveIonicKeys(keyIds, errors);
+        for (Result<Blob> result : keyedGets) {
+            String keyId = keyId(result);
+            if (keyId == null) {
+                continue;
+            }
+            if (keys.containsKey(keyId)) {
+                try {
+                    result.ionicKey = IonicKeyDerivation.blobKey(keys.get(keyId),
+                            result.value.getMetadata().get(GoogleIonicStorage.IONICSALTCONSTANT));
+                } catch (StorageException e) {
+                    result.error(e);
+                }
+            } else {
+                result.error(errors.get(keyId));
+            }
+        }
+    }
+
+    private static String keyId(Result<Blob> result) {
+        if (!result.isSuccessful() || result.value == null
+                || result.value.getMetadata() == null) {
+            return null;
+        }
+        return result.value.getMetadata().get(GoogleIonicStorage.IONICMETACONSTANT);
+    }
+}
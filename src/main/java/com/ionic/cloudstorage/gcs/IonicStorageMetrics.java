@@ -0,0 +1,96 @@
+/*
+ * (c) 2017-2021 Ionic Security Inc. By using this code, I agree to the Terms & Conditions
+ * (https://dev.ionic.com/use) and the Privacy Policy (https://www.ionic.com/privacy-notice/).
+ */
+
+package com.ionic.cloudstorage.gcs;
+
+/**
+ * Receives measurements of the IDC and Google Cloud Storage requests made by a
+ * {@link GoogleIonicStorage}, and of its key cache, key pool and Agent pool lookups. Enabled with
+ * {@link GoogleIonicStorage#enableMetrics(IonicStorageMetrics)}.
+ *
+ * <p>Every method has an empty default so implementations only override what they record.
+ * Methods are called on the thread making the request, so implementations must be thread safe
+ * and should return quickly.
+ *
+ * <p>Error codes are 0 for a successful request. A failed Google Cloud Storage request reports
+ * the code of its {@link com.google.cloud.storage.StorageException}, usually an HTTP status, and
+ * a failed IDC request reports the return code of its {@link com.ionic.sdk.error.IonicException}.
+ * Failures without a code are reported as {@link #UNKNOWN_ERROR}.
+ */
+public interface IonicStorageMetrics {
+
+    /**
+     * The error code reported for failures that carry no code of their own.
+     */
+    int UNKNOWN_ERROR = -1;
+
+    /**
+     * The IDC operation creating Ionic Keys.
+     */
+    String CREATE_KEYS = "createKeys";
+
+    /**
+     * The IDC operation fetching Ionic Keys.
+     */
+    String GET_KEYS = "getKeys";
+
+    /**
+     * The cache of Ionic Keys by key id, see {@link GoogleIonicStorage#enableKeyCache(int, long,
+     * java.util.concurrent.TimeUnit)}.
+     */
+    String KEY_CACHE = "keyCache";
+
+    /**
+     * The cache of key ids by blob, see {@link GoogleIonicStorage#enableKeyIdCache(int)}.
+     */
+    String KEY_ID_CACHE = "keyIdCache";
+
+    /**
+     * The pool of pre-created Ionic Keys, see {@link GoogleIonicStorage#enableKeyPool(int, int)}.
+     */
+    String KEY_POOL = "keyPool";
+
+    /**
+     * The pool of cloned Agents, see {@link GoogleIonicStorage#enableAgentPool(int)}.
+     */
+    String AGENT_POOL = "agentPool";
+
+    /**
+     * idcRequest() records a request to IDC.
+     *
+     * @param operation {@link #CREATE_KEYS} or {@link #GET_KEYS}.
+     * @param keyCount the number of keys requested.
+     * @param nanos the duration of the request in nanoseconds.
+     * @param errorCode 0, or the error code of a failed request.
+     */
+    default void idcRequest(String operation, int keyCount, long nanos, int errorCode) {
+    }
+
+    /**
+     * storageRequest() records a call to the underlying {@link com.google.cloud.storage.Storage}.
+     * The operation is the name of the Storage method called, for example "create", "get" or
+     * "readAllBytes". Reads and writes through a channel are recorded once the channel is
+     * closed, with the time it was open and the bytes transferred through it. Batch requests
+     * submitted by {@link GoogleIonicStorage} and {@link IonicStorageBatch} are recorded as
+     * "batch"; batches submitted directly through the underlying Storage are not recorded.
+     *
+     * @param operation the name of the Storage method.
+     * @param nanos the duration of the call in nanoseconds.
+     * @param bytes the content bytes uploaded or downloaded, or 0 when not known.
+     * @param errorCode 0, or the error code of a failed call.
+     */
+    default void storageRequest(String operation, long nanos, long bytes, int errorCode) {
+    }
+
+    /**
+     * cacheLookup() records a lookup in a key cache or the key pool.
+     *
+     * @param cache {@link #KEY_CACHE}, {@link #KEY_ID_CACHE}, {@link #KEY_POOL} or
+     *     {@link #AGENT_POOL}.
+     * @param hit whether the lookup was served from the cache or pool.
+     */
+    default void cacheLookup(String cache, boolean hit) {
+    }
+}
@@ -0,0 +1,126 @@
+/*
+ * (c) 2017-2021 Ionic Security Inc. By using this code, I agree to the Terms & Conditions
+ * (https://dev.ionic.com/use) and the Privacy Policy (https://www.ionic.com/privacy-notice/).
+ */
+
+package com.ionic.cloudstorage.gcs;
+
+import com.google.cloud.storage.StorageException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A policy under which {@link GoogleIonicStorage} upload methods retry uploads that fail with a
+ * retryable {@link com.google.cloud.storage.StorageException}, reusing the Ionic Key created for
+ * the first attempt. Attempts are separated by an exponentially growing, jittered backoff, and
+ * no attempt is started once the deadline measured from the first attempt would have passed.
+ *
+ * <p>Instances are created with
+ * {@link GoogleIonicStorage#enableUploadRetries(int, long, long, long, TimeUnit)}.
+ */
+public class IonicUploadRetries {
+
+    private final int maxAttempts;
+    private final long initialBackoffNanos;
+    private final long maxBackoffNanos;
+    private final long deadlineNanos;
+    private final AtomicLong retries = new AtomicLong();
+
+    IonicUploadRetries(int maxAttempts, long initialBackoff, long maxBackoff, long deadline,
+            TimeUnit unit) {
+        if (maxAttempts <= 0 || initialBackoff < 0 || maxBackoff < initialBackoff
+                || deadline <= 0) {
+            throw new IllegalArgumentException("maxAttempts and deadline must be positive and"
+                    + " initialBackoff must be between 0 and maxBackoff");
+        }
+        this.maxAttempts = maxAttempts;
+        this.initialBackoffNanos = unit.toNanos(initialBackoff);
+        this.maxBackoffNanos = unit.toNanos(maxBackoff);
+        this.deadlineNanos = unit.toNanos(deadline);
+    }
+
+    /**
+     * getMaxAttempts() returns the maximum number of attempts made for one upload.
+     *
+     * @return an int.
+     */
+    public int getMaxAttempts() {
+        return this.maxAttempts;
+    }
+
+    /**
+     * getInitialBackoff() returns the backoff before the first retry.
+     *
+     * @param unit the {@link java.util.concurrent.TimeUnit} of the returned value.
+     * @return a long.
+     */
+    public long getInitialBackoff(TimeUnit unit) {
+        return unit.convert(this.initialBackoffNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * getMaxBackoff() returns the largest backoff between two attempts.
+     *
+     * @param unit the {@link java.util.concurrent.TimeUnit} of the returned value.
+     * @return a long.
+     */
+    public long getMaxBackoff(TimeUnit unit) {
+        return unit.convert(this.maxBackoffNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * getDeadline() returns how long after its first attempt an upload may be retried.
+     *
+     * @param unit the {@link java.util.concurrent.TimeUnit} of the returned value.
+     * @return a long.
+     */
+    public long getDeadline(TimeUnit unit) {
+        return unit.convert(this.deadlineNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * getRetryCount() returns the number of attempts made after a failed attempt.
+     *
+     * @return a long.
+     */
+    public long getRetryCount() {
+        return this.retries.get();
+    }
+
+    /**
+     * Runs attempt until it succeeds, fails with an error that is not retryable, or runs out of
+     * attempts or time. The last failure is thrown.
+     */
+    <T, E extends Exception> T run(Attempt<T, E> attempt) throws E {
+        long deadline = System.nanoTime() + deadlineNanos;
+        long backoff = initialBackoffNanos;
+        for (int attempts = 1; ; attempts++) {
+            try {
+                return attempt.run();
+            } catch (StorageException e) {
+                // Equal jitter, so that uploads failing together do not retry together.
+                long delay = backoff / 2 + ThreadLocalRandom.current().nextLong(backoff / 2 + 1);
+                if (!e.isRetryable() || attempts >= maxAttempts
+                        || System.nanoTime() + delay - deadline >= 0) {
+                    throw e;
+                }
+                try {
+                    TimeUnit.NANOSECONDS.sleep(delay);
+                } catch (InterruptedException interrupted) {
+                    Thread.currentThread().interrupt();
+                    throw e;
+                }
+                retries.incrementAndGet();
+                backoff = Math.min(backoff * 2, maxBackoffNanos);
+            }
+        }
+    }
+
+    /**
+     * A single attempt at an upload.
+     */
+    interface Attempt<T, E extends Exception> {
+        T run() throws E;
+    }
+}
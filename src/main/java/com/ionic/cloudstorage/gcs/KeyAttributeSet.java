@@ -0,0 +1,56 @@
+/*
+ * (c) 2017-2021 Ionic Security Inc. By using this code, I agree to the Terms & Conditions
+ * (https://dev.ionic.com/use) and the Privacy Policy (https://www.ionic.com/privacy-notice/).
+ */
+
+package com.ionic.cloudstorage.gcs;
+
+import com.ionic.sdk.agent.key.KeyAttributesMap;
+
+/**
+ * The attributes and mutable attributes of an Ionic Key creation, usable as a map key. Both maps
+ * are copied, and a null map is treated as empty.
+ */
+final class KeyAttributeSet {
+
+    private final KeyAttributesMap attributes;
+    private final KeyAttributesMap mutableAttributes;
+    private final int hash;
+
+    KeyAttributeSet(KeyAttributesMap attributes, KeyAttributesMap mutableAttributes) {
+        this.attributes = attributes == null
+                ? new KeyAttributesMap() : new KeyAttributesMap(attributes);
+        this.mutableAttributes = mutableAttributes == null
+                ? new KeyAttributesMap() : new KeyAttributesMap(mutableAttributes);
+        this.hash = 31 * this.attributes.hashCode() + this.mutableAttributes.hashCode();
+    }
+
+    /**
+     * getAttributes() returns a copy of the attributes.
+     */
+    KeyAttributesMap getAttributes() {
+        return new KeyAttributesMap(attributes);
+    }
+
+    /**
+     * getMutableAttributes() returns a copy of the mutable attributes.
+     */
+    KeyAttributesMap getMutableAttributes() {
+        return new KeyAttributesMap(mutableAttributes);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (!(obj instanceof KeyAttributeSet)) {
+            return false;
+        }
+        KeyAttributeSet other = (KeyAttributeSet) obj;
+        return attributes.equals(other.attributes)
+                && mutableAttributes.equals(other.mutableAttributes);
+    }
+
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+}
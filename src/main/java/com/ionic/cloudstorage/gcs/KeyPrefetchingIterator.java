@@ -0,0 +1,111 @@
+/*
+ * (c) 2017-2021 Ionic Security Inc. By using this code, I agree to the Terms & Conditions
+ * (https://dev.ionic.com/use) and the Privacy Policy (https://www.ionic.com/privacy-notice/).
+ */
+
+package com.ionic.cloudstorage.gcs;
+
+import com.google.api.gax.paging.Page;
+import com.google.cloud.storage.Blob;
+import com.google.cloud.storage.StorageException;
+import com.ionic.cloudstorage.gcs.GoogleIonicStorage.IonicBlobKeyResult;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.function.Supplier;
+
+/**
+ * Iterates over the blobs of a listing together with their keys. The keys of each page are
+ * resolved with multi-key requests before its first blob is returned. When an executor is given,
+ * the next page is listed and its keys resolved on it while the current page is consumed.
+ */
+final class KeyPrefetchingIterator implements Iterator<IonicBlobKeyResult> {
+
+    private final GoogleIonicStorage ionicStorage;
+    private final Supplier<Page<Blob>> firstPage;
+    private final Executor executor;
+    private Page<Blob> page = null;
+    private Iterator<IonicBlobKeyResult> results = Collections.emptyIterator();
+    private CompletableFuture<KeyedPage> prefetched = null;
+
+    KeyPrefetchingIterator(GoogleIonicStorage ionicStorage, Supplier<Page<Blob>> firstPage,
+            Executor executor) {
+        this.ionicStorage = ionicStorage;
+        this.firstPage = firstPage;
+        this.executor = executor;
+    }
+
+    @Override
+    public boolean hasNext() {
+        while (!results.hasNext()) {
+            KeyedPage next = nextPage();
+            if (next == null) {
+                return false;
+            }
+            page = next.page;
+            results = next.results.iterator();
+            if (executor != null && page.hasNextPage()) {
+                Page<Blob> current = page;
+                prefetched = CompletableFuture.supplyAsync(
+                        () -> keyed(current.getNextPage()), executor);
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public IonicBlobKeyResult next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        return results.next();
+    }
+
+    private KeyedPage nextPage() {
+        if (prefetched != null) {
+            CompletableFuture<KeyedPage> next = prefetched;
+            prefetched = null;
+            try {
+                return next.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new StorageException(0, "Interrupted while listing blobs", e);
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof StorageException) {
+                    StorageException storageException = (StorageException) cause;
+                    throw new StorageException(storageException.getCode(),
+                            storageException.getMessage(), storageException);
+                }
+                throw new StorageException(0, cause.getLocalizedMessage(), cause);
+            }
+        }
+        if (page == null) {
+            return keyed(firstPage.get());
+        }
+        return page.hasNextPage() ? keyed(page.getNextPage()) : null;
+    }
+
+    private KeyedPage keyed(Page<Blob> page) {
+        List<Blob> blobs = new ArrayList<Blob>();
+        for (Blob blob : page.getValues()) {
+            blobs.add(blob);
+        }
+        return new KeyedPage(page, ionicStorage.keyedBlobs(blobs));
+    }
+
+    private static final class KeyedPage {
+        private final Page<Blob> page;
+        private final List<IonicBlobKeyResult> results;
+
+        private KeyedPage(Page<Blob> page, List<IonicBlobKeyResult> results) {
+            this.page = page;
+            this.results = results;
+        }
+    }
+}
@@ -0,0 +1,155 @@
+/*
+ * (c) 2017-2021 Ionic Security Inc. By using this code, I agree to the Terms & Conditions
+ * (https://dev.ionic.com/use) and the Privacy Policy (https://www.ionic.com/privacy-notice/).
+ */
+
+package com.ionic.cloudstorage.gcs;
+
+import com.google.cloud.RestorableState;
+import com.google.cloud.WriteChannel;
+import com.google.cloud.storage.StorageException;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.function.Supplier;
+
+/**
+ * A WriteChannel whose underlying channel is opened asynchronously. Opening starts with the first
+ * write, or on close if nothing was written, so an abandoned channel opens nothing. Writes are
+ * buffered, up to the chunk size, until the underlying channel is open; a write that would exceed
+ * the chunk size waits for it. If writing the buffered bytes to the underlying channel fails, the
+ * channel is left unusable and every later call fails, since its content can no longer be known.
+ */
+final class LazyWriteChannel implements WriteChannel {
+
+    // The chunk size of Google Cloud Storage write channels.
+    private static final int DEFAULT_CHUNK_SIZE = 60 * 256 * 1024;
+
+    private final Executor executor;
+    private final Supplier<WriteChannel> opener;
+    private CompletableFuture<WriteChannel> opening = null;
+    private WriteChannel channel = null;
+    private ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+    private int chunkSize = DEFAULT_CHUNK_SIZE;
+    private boolean chunkSizeSet = false;
+    private boolean open = true;
+    private Exception failure = null;
+
+    LazyWriteChannel(Executor executor, Supplier<WriteChannel> opener) {
+        this.executor = executor;
+        this.opener = opener;
+    }
+
+    @Override
+    public synchronized int write(ByteBuffer src) throws IOException {
+        if (!open) {
+            throw new ClosedChannelException();
+        }
+        if (channel == null) {
+            if (opening == null) {
+                opening = CompletableFuture.supplyAsync(opener, executor);
+            }
+            if (!opening.isDone() && buffer.size() + src.remaining() <= chunkSize) {
+                int count = src.remaining();
+                if (src.hasArray()) {
+                    buffer.write(src.array(), src.arrayOffset() + src.position(), count);
+                    src.position(src.limit());
+                } else {
+                    byte[] bytes = new byte[count];
+                    src.get(bytes);
+                    buffer.write(bytes, 0, count);
+                }
+                return count;
+            }
+        }
+        return channel().write(src);
+    }
+
+    @Override
+    public synchronized boolean isOpen() {
+        return open;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (!open) {
+            return;
+        }
+        open = false;
+        channel().close();
+    }
+
+    @Override
+    public synchronized void setChunkSize(int chunkSize) {
+        if (channel != null) {
+            channel.setChunkSize(chunkSize);
+        } else if (chunkSize > 0) {
+            this.chunkSize = chunkSize;
+            this.chunkSizeSet = true;
+        }
+    }
+
+    /**
+     * Waits for the underlying channel to open, so that its state can be captured.
+     */
+    @Override
+    public synchronized RestorableState<WriteChannel> capture() {
+        try {
+            return channel().capture();
+        } catch (IOException e) {
+            throw new StorageException(e);
+        }
+    }
+
+    /**
+     * Returns the underlying channel, waiting for it to open and writing the buffered bytes to it
+     * the first time.
+     */
+    private WriteChannel channel() throws IOException {
+        if (channel != null) {
+            return channel;
+        }
+        if (failure != null) {
+            throw new IOException("Writing the buffered bytes failed", failure);
+        }
+        if (opening == null) {
+            opening = CompletableFuture.supplyAsync(opener, executor);
+        }
+        WriteChannel opened;
+        try {
+            opened = opening.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while opening write channel");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof StorageException) {
+                // A fresh exception so that each failed write gets its own stack trace.
+                StorageException storageException = (StorageException) cause;
+                throw new StorageException(storageException.getCode(),
+                        storageException.getMessage(), storageException);
+            }
+            throw new StorageException(0, cause.getMessage(), cause);
+        }
+        if (chunkSizeSet) {
+            opened.setChunkSize(chunkSize);
+        }
+        ByteBuffer buffered = ByteBuffer.wrap(buffer.toByteArray());
+        buffer = null;
+        try {
+            while (buffered.hasRemaining()) {
+                opened.write(buffered);
+            }
+        } catch (IOException | RuntimeException e) {
+            failure = e;
+            throw e;
+        }
+        channel = opened;
+        return channel;
+    }
+}
@@ -0,0 +1,337 @@
+/*
+ * (c) 2017-2021 Ionic Security Inc. By using this code, I agree to the Terms & Conditions
+ * (https://dev.ionic.com/use) and the Privacy Policy (https://www.ionic.com/privacy-notice/).
+ */
+
+package com.ionic.cloudstorage.gcs;
+
+import com.google.cloud.storage.Blob;
+import com.google.cloud.storage.BlobId;
+import com.google.cloud.storage.Storage.BlobListOption;
+import com.google.cloud.storage.StorageException;
+import com.ionic.sdk.agent.request.createkey.CreateKeysRequest;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.ObjIntConsumer;
+
+/**
+ * A job that rewrites blobs under a prefix in place with new Ionic Keys, in batches. The blobs
+ * are listed in name order and handed to {@link #processBatch(List)} batchSize at a time; the
+ * rewrites of a batch run with bounded concurrency through {@link #rewriteAll(List,
+ * ObjIntConsumer)}.
+ *
+ * <p>When a checkpoint file is set, the name of the last blob of each completed batch is recorded
+ * in it, and a run that finds the file resumes after that blob. The names of the blobs that failed
+ * are recorded on the following lines, and a run that finds them retries those blobs first. The
+ * file is deleted once a run completes without failures; otherwise it is kept with the names of
+ * the blobs that still failed.
+ */
+abstract class PrefixRewriteJob {
+
+    private static final int DEFAULT_PARALLELISM = 16;
+    private static final int DEFAULT_BATCH_SIZE = 1000;
+
+    private final GoogleIonicStorage ionicStorage;
+    private final String bucket;
+    private final String prefix;
+    private CreateKeysRequest.Key key = new CreateKeysRequest.Key("");
+    private int parallelism = DEFAULT_PARALLELISM;
+    private int batchSize = DEFAULT_BATCH_SIZE;
+    private Path checkpoint = null;
+    private ExecutorService executor = null;
+    private String cursor = null;
+    private final Set<String> pendingRetries = new LinkedHashSet<String>();
+    private final AtomicLong rewritten = new AtomicLong();
+    private final AtomicLong skipped = new AtomicLong();
+    private final Map<BlobId, StorageException> failures =
+            new ConcurrentHashMap<BlobId, StorageException>();
+
+    PrefixRewriteJob(GoogleIonicStorage ionicStorage, String bucket, String prefix) {
+        if (ionicStorage == null || bucket == null) {
+            throw new NullPointerException("ionicStorage and bucket must not be null");
+        }
+        this.ionicStorage = ionicStorage;
+        this.bucket = bucket;
+        this.prefix = prefix;
+    }
+
+    /**
+     * getIonicStorage() returns the GoogleIonicStorage used to request and apply keys.
+     *
+     * @return a {@link GoogleIonicStorage} object.
+     */
+    public GoogleIonicStorage getIonicStorage() {
+        return this.ionicStorage;
+    }
+
+    /**
+     * setKey() sets the CreateKeysRequest.Key whose Attributes are applied to the new Ionic Keys.
+     *
+     * @param key a {@link com.ionic.sdk.agent.request.createkey.CreateKeysRequest.Key}.
+     */
+    public void setKey(CreateKeysRequest.Key key) {
+        this.key = key;
+    }
+
+    /**
+     * getKey() returns the CreateKeysRequest.Key whose Attributes are applied to the new Ionic
+     * Keys.
+     *
+     * @return a {@link com.ionic.sdk.agent.request.createkey.CreateKeysRequest.Key}.
+     */
+    public CreateKeysRequest.Key getKey() {
+        return this.key;
+    }
+
+    /**
+     * setParallelism() sets the maximum number of concurrent rewrites. Defaults to 16.
+     *
+     * @param parallelism an int.
+     */
+    public void setParallelism(int parallelism) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("parallelism must be at least 1");
+        }
+        this.parallelism = parallelism;
+    }
+
+    /**
+     * getParallelism() returns the maximum number of concurrent rewrites.
+     *
+     * @return an int.
+     */
+    public int getParallelism() {
+        return this.parallelism;
+    }
+
+    /**
+     * setBatchSize() sets the number of blobs whose keys are requested together, which is also
+     * the interval at which the checkpoint is updated. Defaults to 1000.
+     *
+     * @param batchSize an int.
+     */
+    public void setBatchSize(int batchSize) {
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("batchSize must be at least 1");
+        }
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * getBatchSize() returns the number of blobs whose keys are requested together.
+     *
+     * @return an int.
+     */
+    public int getBatchSize() {
+        return this.batchSize;
+    }
+
+    /**
+     * setCheckpoint() sets the file in which progress is recorded, or null for no checkpoint.
+     *
+     * @param checkpoint a {@link java.nio.file.Path}.
+     */
+    public void setCheckpoint(Path checkpoint) {
+        this.checkpoint = checkpoint;
+    }
+
+    /**
+     * getCheckpoint() returns the file in which progress is recorded.
+     *
+     * @return a {@link java.nio.file.Path}, or null.
+     */
+    public Path getCheckpoint() {
+        return this.checkpoint;
+    }
+
+    /**
+     * getFailures() returns the blobs that could not be rewritten and the reason for each.
+     *
+     * @return an unmodifiable Map of {@link com.google.cloud.storage.BlobId} to
+     *         {@link com.google.cloud.storage.StorageException}.
+     */
+    public Map<BlobId, StorageException> getFailures() {
+        return Collections.unmodifiableMap(this.failures);
+    }
+
+    /**
+     * run() rewrites the blobs under the prefix, resuming from the checkpoint if one exists and
+     * first retrying the blobs that failed in earlier runs. Failures to rewrite individual blobs
+     * are recorded in {@link #getFailures()} and in the checkpoint; a failure to list blobs or
+     * request keys stops the run, which can then be resumed.
+     *
+     * @throws StorageException upon failure, may wrap an {@link com.ionic.sdk.error.IonicException}
+     * @throws IOException if the checkpoint cannot be read or written
+     */
+    public void run() throws IOException {
+        String resumeAfter = readCheckpoint();
+        cursor = resumeAfter;
+        List<BlobListOption> options = new ArrayList<BlobListOption>();
+        if (prefix != null) {
+            options.add(BlobListOption.prefix(prefix));
+        }
+        if (resumeAfter != null) {
+            options.add(BlobListOption.startOffset(resumeAfter));
+        }
+        executor = Executors.newFixedThreadPool(parallelism);
+        try {
+            retryFailed();
+            List<Blob> batch = new ArrayList<Blob>(batchSize);
+            for (Blob blob : ionicStorage.getGoogleStorage()
+                    .list(bucket, options.toArray(new BlobListOption[0])).iterateAll()) {
+                if (blob.getName().equals(resumeAfter)) {
+                    continue;
+                }
+                batch.add(blob);
+                if (batch.size() == batchSize) {
+                    completeBatch(batch);
+                    batch.clear();
+                }
+            }
+            if (!batch.isEmpty()) {
+                completeBatch(batch);
+            }
+        } finally {
+            executor.shutdownNow();
+            executor = null;
+        }
+        if (failures.isEmpty()) {
+            if (checkpoint != null) {
+                Files.deleteIfExists(checkpoint);
+            }
+        } else {
+            writeCheckpoint(); // Keeps the failed blobs for the next run to retry.
+        }
+    }
+
+    /**
+     * Rewrites the blobs of a batch that need rewriting, counting the others as skipped.
+     */
+    abstract void processBatch(List<Blob> batch) throws IOException;
+
+    long rewrittenCount() {
+        return rewritten.get();
+    }
+
+    long skippedCount() {
+        return skipped.get();
+    }
+
+    void skip() {
+        skipped.incrementAndGet();
+    }
+
+    void fail(BlobId blobId, StorageException e) {
+        failures.put(blobId, e);
+    }
+
+    /**
+     * Runs rewrite for each source and its index with bounded concurrency, counting each that
+     * completes as rewritten and recording each that fails with a StorageException as a failure.
+     */
+    void rewriteAll(List<Blob> sources, ObjIntConsumer<Blob> rewrite) throws IOException {
+        List<Future<Void>> rewrites = new ArrayList<Future<Void>>(sources.size());
+        for (int i = 0; i < sources.size(); i++) {
+            final Blob source = sources.get(i);
+            final int index = i;
+            rewrites.add(executor.submit(() -> {
+                try {
+                    rewrite.accept(source, index);
+                    rewritten.incrementAndGet();
+                } catch (StorageException e) {
+                    failures.put(source.getBlobId(), e);
+                }
+                return null;
+            }));
+        }
+        GoogleIonicStorage.awaitAll(rewrites);
+    }
+
+    private void completeBatch(List<Blob> batch) throws IOException {
+        processBatch(batch);
+        cursor = batch.get(batch.size() - 1).getName();
+        writeCheckpoint();
+    }
+
+    /**
+     * Processes the blobs that failed in earlier runs, in batches. Blobs deleted since are
+     * dropped.
+     */
+    private void retryFailed() throws IOException {
+        List<Blob> batch = new ArrayList<Blob>(batchSize);
+        List<String> names = new ArrayList<String>(pendingRetries);
+        for (int i = 0; i < names.size(); i++) {
+            BlobId blobId = BlobId.of(bucket, names.get(i));
+            try {
+                Blob blob = ionicStorage.getGoogleStorage().get(blobId);
+                if (blob != null) {
+                    batch.add(blob);
+                }
+            } catch (StorageException e) {
+                failures.put(blobId, e);
+            }
+            if (batch.size() == batchSize || i == names.size() - 1) {
+                if (!batch.isEmpty()) {
+                    processBatch(batch);
+                    batch.clear();
+                }
+                pendingRetries.removeAll(names.subList(0, i + 1));
+                writeCheckpoint();
+            }
+        }
+    }
+
+    /**
+     * Reads the checkpoint, returning the name of the blob to resume after and adding the names
+     * of the blobs to retry to pendingRetries.
+     */
+    private String readCheckpoint() throws IOException {
+        pendingRetries.clear();
+        if (checkpoint == null || !Files.exists(checkpoint)) {
+            return null;
+        }
+        // Object names cannot contain line breaks.
+        List<String> lines = Arrays.asList(
+                new String(Files.readAllBytes(checkpoint), StandardCharsets.UTF_8).split("\n"));
+        for (String name : lines.subList(1, lines.size())) {
+            if (!name.isEmpty()) {
+                pendingRetries.add(name);
+            }
+        }
+        return lines.get(0).isEmpty() ? null : lines.get(0);
+    }
+
+    private void writeCheckpoint() throws IOException {
+        if (checkpoint == null) {
+            return;
+        }
+        StringBuilder contents = new StringBuilder(cursor == null ? "" : cursor);
+        Set<String> failed = new TreeSet<String>(pendingRetries);
+        for (BlobId blobId : failures.keySet()) {
+            failed.add(blobId.getName());
+        }
+        for (String name : failed) {
+            contents.append('\n').append(name);
+        }
+        Path temporary = checkpoint.resolveSibling(checkpoint.getFileName() + ".tmp");
+        Files.write(temporary, contents.toString().getBytes(StandardCharsets.UTF_8));
+        Files.move(temporary, checkpoint, StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+    }
+}
@@ -0,0 +1,20 @@
+/*
+ * (c) 2017-2021 Ionic Security Inc. By using this code, I agree to the Terms & Conditions
+ * (https://dev.ionic.com/use) and the Privacy Policy (https://www.ionic.com/privacy-notice/).
+ */
+
+package com.google.cloud.storage;
+
+/**
+ * Creates {@link Blob}s for test {@link Storage} implementations, whose constructor is package
+ * private.
+ */
+public final class TestBlobs {
+
+    private TestBlobs() {
+    }
+
+    public static Blob blob(Storage storage, BlobInfo info) {
+        return new Blob(storage, new BlobInfo.BuilderImpl(info));
+    }
+}
@@ -0,0 +1,46 @@
+/*
+ * (c) 2017-2021 Ionic Security Inc. By using this code, I agree to the Terms & Conditions
+ * (https://dev.ionic.com/use) and the Privacy Policy (https://www.ionic.com/privacy-notice/).
+ */
+
+package com.google.cloud.storage;
+
+import com.google.cloud.NoCredentials;
+import com.google.cloud.storage.spi.StorageRpcFactory;
+import com.google.cloud.storage.spi.v1.RpcBatch;
+import com.google.cloud.storage.spi.v1.StorageRpc;
+import java.lang.reflect.Proxy;
+
+/**
+ * Creates {@link StorageBatch}es backed by a test {@link RpcBatch}, since StorageBatch's
+ * constructor is package private.
+ */
+public final class TestStorageBatches {
+
+    private TestStorageBatches() {
+    }
+
+    public static StorageBatch create(RpcBatch rpcBatch) {
+        StorageRpc rpc = (StorageRpc) Proxy.newProxyInstance(StorageRpc.class.getClassLoader(),
+                new Class<?>[] {StorageRpc.class}, (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "createBatch":
+                            return rpcBatch;
+                        case "hashCode":
+                            return System.identityHashCode(proxy);
+                        case "equals":
+                            return proxy == args[0];
+                        case "toString":
+                            return "TestStorageRpc";
+                        default:
+                            throw new UnsupportedOperationException(method.getName());
+                    }
+                });
+        StorageOptions options = StorageOptions.newBuilder()
+                .setProjectId("test")
+                .setCredentials(NoCredentials.getInstance())
+                .setServiceRpcFactory((StorageRpcFactory) storageOptions -> rpc)
+                .build();
+        return new StorageBatch(options);
+    }
+}
@@ -0,0 +1,196 @@
+/*
+ * (c) 2017-2021 Ionic Security Inc. By using this code, I agree to the Terms & Conditions
+ * (https://dev.ionic.com/use) and the Privacy Policy (https://www.ionic.com/privacy-notice/).
+ */
+
+package com.ionic.cloudstorage.gcs;
+
+import com.ionic.sdk.agent.data.MetadataMap;
+import com.ionic.sdk.agent.key.KeyAttributesMap;
+import com.ionic.sdk.agent.key.KeyObligationsMap;
+import com.ionic.sdk.agent.request.createkey.CreateKeysRequest;
+import com.ionic.sdk.agent.request.createkey.CreateKeysResponse;
+import com.ionic.sdk.agent.request.getkey.GetKeysRequest;
+import com.ionic.sdk.agent.request.getkey.GetKeysResponse;
+import com.ionic.sdk.agent.request.updatekey.UpdateKeysRequest;
+import com.ionic.sdk.agent.request.updatekey.UpdateKeysResponse;
+import com.ionic.sdk.device.profile.DeviceProfile;
+import com.ionic.sdk.error.AgentErrorModuleConstants;
+import com.ionic.sdk.error.IonicException;
+import com.ionic.sdk.key.KeyServices;
+import java.security.SecureRandom;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * An in-process stand in for IDC. Keys are random AES-256 keys held in memory; fetching a key
+ * that was never created, or one that has been denied with {@link #deny(String)}, returns a per
+ * key error as IDC does. A latency can be added to every request to approximate a remote IDC.
+ * Thread safe, so a single instance can serve every request of a {@link GoogleIonicStorage}.
+ */
+public class FakeKeyServices implements KeyServices {
+
+    private static final String DEVICE_ID = "fake.device";
+
+    private final SecureRandom random = new SecureRandom();
+    private final Map<String, GetKeysResponse.Key> keys =
+            new ConcurrentHashMap<String, GetKeysResponse.Key>();
+    private final Set<String> denied = ConcurrentHashMap.newKeySet();
+    private final AtomicLong keyIds = new AtomicLong();
+    private final AtomicInteger createRequests = new AtomicInteger();
+    private final AtomicInteger getRequests = new AtomicInteger();
+    private volatile long latencyNanos = 0;
+
+    /**
+     * Adds latency to every create and get request.
+     */
+    public void setLatency(long latency, TimeUnit unit) {
+        this.latencyNanos = unit.toNanos(latency);
+    }
+
+    /**
+     * Makes subsequent requests for keyId fail with ISAGENT_KEY_DENIED.
+     */
+    public void deny(String keyId) {
+        denied.add(keyId);
+    }
+
+    public int getCreateRequestCount() {
+        return createRequests.get();
+    }
+
+    public int getGetRequestCount() {
+        return getRequests.get();
+    }
+
+    public int getKeyCount() {
+        return keys.size();
+    }
+
+    @Override
+    public DeviceProfile getActiveProfile() {
+        return null;
+    }
+
+    @Override
+    public boolean hasActiveProfile() {
+        return true;
+    }
+
+    @Override
+    public CreateKeysResponse createKeys(CreateKeysRequest request) throws IonicException {
+        createRequests.incrementAndGet();
+        pause();
+        CreateKeysResponse response = new CreateKeysResponse();
+        for (CreateKeysRequest.Key requested : request.getKeys()) {
+            for (int i = 0; i < requested.getQuantity(); i++) {
+                byte[] bytes = new byte[32];
+                random.nextBytes(bytes);
+                String keyId = "fake" + keyIds.incrementAndGet();
+                KeyAttributesMap attributes = new KeyAttributesMap(requested.getAttributesMap());
+                KeyAttributesMap mutableAttributes =
+                        new KeyAttributesMap(requested.getMutableAttributesMap());
+                keys.put(keyId, new GetKeysResponse.Key(keyId, bytes, DEVICE_ID, attributes,
+                        mutableAttributes, new KeyObligationsMap(), ""));
+                response.add(new CreateKeysResponse.Key(requested.getRefId(), keyId,
+                        bytes.clone(), DEVICE_ID, attributes, mutableAttributes,
+                        new KeyObligationsMap(), ""));
+            }
+        }
+        return response;
+    }
+
+    @Override
+    public CreateKeysResponse createKey(KeyAttributesMap attributes,
+            KeyAttributesMap mutableAttributes, MetadataMap metadata) throws IonicException {
+        CreateKeysRequest request = new CreateKeysRequest();
+        request.add(new CreateKeysRequest.Key("", 1,
+                attributes == null ? new KeyAttributesMap() : attributes,
+                mutableAttributes == null ? new KeyAttributesMap() : mutableAttributes));
+        return createKeys(request);
+    }
+
+    @Override
+    public CreateKeysResponse createKey(KeyAttributesMap attributes,
+            KeyAttributesMap mutableAttributes) throws IonicException {
+        return createKey(attributes, mutableAttributes, null);
+    }
+
+    @Override
+    public CreateKeysResponse createKey(KeyAttributesMap attributes, MetadataMap metadata)
+            throws IonicException {
+        return createKey(attributes, null, metadata);
+    }
+
+    @Override
+    public CreateKeysResponse createKey(KeyAttributesMap attributes) throws IonicException {
+        return createKey(attributes, null, null);
+    }
+
+    @Override
+    public CreateKeysResponse createKey(MetadataMap metadata) throws IonicException {
+        return createKey(null, null, metadata);
+    }
+
+    @Override
+    public CreateKeysResponse createKey() throws IonicException {
+        return createKey(null, null, null);
+    }
+
+    @Override
+    public GetKeysResponse getKeys(GetKeysRequest request) throws IonicException {
+        getRequests.incrementAndGet();
+        pause();
+        GetKeysResponse response = new GetKeysResponse();
+        for (String keyId : request.getKeyIds()) {
+            GetKeysResponse.Key key = keys.get(keyId);
+            if (key == null || denied.contains(keyId)) {
+                response.add(new GetKeysResponse.IonicError(keyId,
+                        AgentErrorModuleConstants.ISAGENT_KEY_DENIED, 0, "Key denied"));
+            } else {
+                response.add(new GetKeysResponse.Key(key));
+            }
+        }
+        return response;
+    }
+
+    @Override
+    public GetKeysResponse getKey(String keyId, MetadataMap metadata) throws IonicException {
+        GetKeysRequest request = new GetKeysRequest();
+        request.add(keyId);
+        return getKeys(request);
+    }
+
+    @Override
+    public GetKeysResponse getKey(String keyId) throws IonicException {
+        return getKey(keyId, null);
+    }
+
+    @Override
+    public UpdateKeysResponse updateKeys(UpdateKeysRequest request) throws IonicException {
+        throw new IonicException(AgentErrorModuleConstants.ISAGENT_NOTIMPLEMENTED);
+    }
+
+    @Override
+    public UpdateKeysResponse updateKey(UpdateKeysRequest.Key key, MetadataMap metadata)
+            throws IonicException {
+        throw new IonicException(AgentErrorModuleConstants.ISAGENT_NOTIMPLEMENTED);
+    }
+
+    private void pause() throws IonicException {
+        long latency = latencyNanos;
+        if (latency <= 0) {
+            return;
+        }
+        try {
+            TimeUnit.NANOSECONDS.sleep(latency);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IonicException(AgentErrorModuleConstants.ISAGENT_ERROR, e);
+        }
+    }
+}
@@ -0,0 +1,63 @@
+/*
+ * (c) 2017-2021 Ionic Security Inc. By using this code, I agree to the Terms & Conditions
+ * (https://dev.ionic.com/use) and the Privacy Policy (https://www.ionic.com/privacy-notice/).
+ */
+
+package com.ionic.cloudstorage.gcs;
+
+import com.google.cloud.storage.BlobId;
+import com.google.cloud.storage.BlobInfo;
+import com.google.cloud.storage.Storage.BlobTargetOption;
+import com.google.cloud.storage.Storage.ComposeRequest;
+import com.ionic.sdk.agent.request.createkey.CreateKeysResponse;
+import com.ionic.sdk.key.KeyServices;
+import java.util.List;
+
+/**
+ * A GoogleIonicStorage backed by an {@link InMemoryStorageRpc} and a {@link FakeKeyServices}, for
+ * exercising the library end to end without GCS or IDC.
+ */
+public class InMemoryIonicStorage extends GoogleIonicStorage {
+
+    private final InMemoryStorageRpc rpc;
+    private final FakeKeyServices keyServices;
+
+    public InMemoryIonicStorage() {
+        this(new InMemoryStorageRpc(), new FakeKeyServices());
+    }
+
+    public InMemoryIonicStorage(InMemoryStorageRpc rpc, FakeKeyServices keyServices) {
+        super(rpc.getStorage());
+        this.rpc = rpc;
+        this.keyServices = keyServices;
+    }
+
+    public InMemoryStorageRpc getRpc() {
+        return rpc;
+    }
+
+    public FakeKeyServices getKeyServices() {
+        return keyServices;
+    }
+
+    @Override
+    protected KeyServices keyServices() {
+        return keyServices;
+    }
+
+    /**
+     * The client library's compose sends the target's customer-supplied key, which the in-memory
+     * rpc honours, so the JSON API workaround is not needed.
+     */
+    @Override
+    protected long composeEncrypted(BlobInfo target, List<BlobId> sources,
+            CreateKeysResponse.Key ionicKey) {
+        ComposeRequest.Builder request = ComposeRequest.newBuilder()
+                .setTarget(target)
+                .setTargetOptions(BlobTargetOption.encryptionKey(ionicKey.getSecretKey()));
+        for (BlobId source : sources) {
+            request.addSource(source.getName());
+        }
+        return getGoogleStorage().compose(request.build()).getGeneration();
+    }
+}
@@ -0,0 +1,852 @@
+/*
+ * (c) 2017-2021 Ionic Security Inc. By using this code, I agree to the Terms & Conditions
+ * (https://dev.ionic.com/use) and the Privacy Policy (https://www.ionic.com/privacy-notice/).
+ */
+
+package com.ionic.cloudstorage.gcs;
+
+import com.google.api.client.googleapis.json.GoogleJsonError;
+import com.google.api.client.util.Data;
+import com.google.api.client.util.DateTime;
+import com.google.api.services.storage.model.Bucket;
+import com.google.api.services.storage.model.BucketAccessControl;
+import com.google.api.services.storage.model.HmacKey;
+import com.google.api.services.storage.model.HmacKeyMetadata;
+import com.google.api.services.storage.model.Notification;
+import com.google.api.services.storage.model.ObjectAccessControl;
+import com.google.api.services.storage.model.Policy;
+import com.google.api.services.storage.model.ServiceAccount;
+import com.google.api.services.storage.model.StorageObject;
+import com.google.api.services.storage.model.TestIamPermissionsResponse;
+import com.google.cloud.NoCredentials;
+import com.google.cloud.ServiceOptions;
+import com.google.cloud.Tuple;
+import com.google.cloud.storage.Storage;
+import com.google.cloud.storage.StorageException;
+import com.google.cloud.storage.StorageOptions;
+import com.google.cloud.storage.spi.StorageRpcFactory;
+import com.google.cloud.storage.spi.v1.RpcBatch;
+import com.google.cloud.storage.spi.v1.StorageRpc;
+import com.google.common.hash.Hashing;
+import com.google.common.io.BaseEncoding;
+import com.google.common.primitives.Ints;
+import com.google.common.io.ByteStreams;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.math.BigInteger;
+import java.security.Key;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * An in-memory {@link StorageRpc} for running the library offline. {@link #getStorage()} returns
+ * a regular {@link Storage} backed by it, so requests pass through the client library's own
+ * option handling, read and write channels, rewrites and batches.
+ *
+ * <p>Objects keep their metadata, generation and metageneration, and the preconditions of
+ * requests are enforced. Customer-supplied encryption keys behave as they do on GCS: an object
+ * written with a key can only be read, composed or rewritten with the same key, its hashes are
+ * only returned when the key is supplied, and supplying a wrong key fails with a 400. Content is
+ * held as written rather than encrypted. Buckets exist implicitly and versioning is not modelled.
+ * A latency can be added to every request to approximate a remote endpoint.
+ */
+public class InMemoryStorageRpc implements StorageRpc {
+
+    private static class StoredObject {
+        private final StorageObject object;
+        private final byte[] content;
+        private final String keySha256;
+
+        StoredObject(StorageObject object, byte[] content, String keySha256) {
+            this.object = object;
+            this.content = content;
+            this.keySha256 = keySha256;
+        }
+    }
+
+    private static class Upload {
+        private final StorageObject object;
+        private final Map<Option, ?> options;
+        private byte[] content = new byte[0];
+        private int size = 0;
+
+        Upload(StorageObject object, Map<Option, ?> options) {
+            this.object = object;
+            this.options = options;
+        }
+    }
+
+    private final NavigableMap<String, StoredObject> objects = new TreeMap<String, StoredObject>();
+    private final Map<String, Upload> uploads = new ConcurrentHashMap<String, Upload>();
+    private final AtomicInteger requests = new AtomicInteger();
+    private long generations = 0;
+    private volatile long latencyNanos = 0;
+    private final AtomicInteger failures = new AtomicInteger();
+    private volatile int failureCode = 0;
+    private volatile Storage storage;
+
+    /**
+     * Returns a Storage whose requests are served by this instance. Retries are disabled so that
+     * failures surface immediately.
+     */
+    public Storage getStorage() {
+        Storage result = storage;
+        if (result == null) {
+            synchronized (this) {
+                if (storage == null) {
+                    storage = StorageOptions.newBuilder()
+                            .setProjectId("in-memory")
+                            .setCredentials(NoCredentials.getInstance())
+                            .setRetrySettings(ServiceOptions.getNoRetrySettings())
+                            .setServiceRpcFactory((StorageRpcFactory) options -> this)
+                            .build()
+                            .getService();
+                }
+                result = storage;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Adds latency to every request.
+     */
+    public void setLatency(long latency, TimeUnit unit) {
+        this.latencyNanos = unit.toNanos(latency);
+    }
+
+    /**
+     * Makes the next count requests fail with a StorageException with the given code.
+     */
+    public void failNext(int count, int code) {
+        this.failureCode = code;
+        this.failures.set(count);
+    }
+
+    /**
+     * Returns the number of requests served, counting each operation of a batch.
+     */
+    public int getRequestCount() {
+        return requests.get();
+    }
+
+    /**
+     * Returns the content of an object as stored, or null if it does not exist.
+     */
+    public synchronized byte[] getContent(String bucket, String name) {
+        StoredObject stored = objects.get(path(bucket, name));
+        return stored == null ? null : stored.content.clone();
+    }
+
+    /**
+     * Returns the names of the objects in bucket.
+     */
+    public synchronized List<String> getNames(String bucket) {
+        List<String> names = new ArrayList<String>();
+        for (StoredObject stored : objects.subMap(path(bucket, ""), true, path(bucket, "\uffff"),
+                true).values()) {
+            names.add(stored.object.getName());
+        }
+        return names;
+    }
+
+    // Objects
+
+    @Override
+    public StorageObject create(StorageObject object, InputStream content, Map<Option, ?> options) {
+        request();
+        byte[] bytes;
+        try {
+            bytes = ByteStreams.toByteArray(content);
+        } catch (IOException e) {
+            throw new StorageException(e);
+        }
+        checkHashes(object, bytes);
+        return store(object, bytes, options);
+    }
+
+    @Override
+    public StorageObject get(StorageObject object, Map<Option, ?> options) {
+        request();
+        synchronized (this) {
+            StoredObject stored = find(object);
+            if (stored == null) {
+                return null;
+            }
+            checkPreconditions(stored, options);
+            String keySha256 = keySha256(options);
+            if (keySha256 != null && stored.keySha256 != null
+                    && !keySha256.equals(stored.keySha256)) {
+                throw wrongKey();
+            }
+            return view(stored, keySha256);
+        }
+    }
+
+    @Override
+    public Tuple<String, Iterable<StorageObject>> list(String bucket, Map<Option, ?> options) {
+        request();
+        String prefix = (String) options.get(Option.PREFIX);
+        String delimiter = (String) options.get(Option.DELIMITER);
+        String startOffset = (String) options.get(Option.START_OFF_SET);
+        String endOffset = (String) options.get(Option.END_OFF_SET);
+        String pageToken = (String) options.get(Option.PAGE_TOKEN);
+        Long maxResults = (Long) options.get(Option.MAX_RESULTS);
+        String keySha256 = keySha256(options);
+        List<StorageObject> results = new ArrayList<StorageObject>();
+        TreeSet<String> prefixes = new TreeSet<String>();
+        String cursor = null;
+        String last = null;
+        synchronized (this) {
+            for (StoredObject stored : objects.tailMap(path(bucket, ""), true).values()) {
+                String name = stored.object.getName();
+                if (!stored.object.getBucket().equals(bucket)) {
+                    break;
+                }
+                if ((prefix != null && !name.startsWith(prefix))
+                        || (startOffset != null && name.compareTo(startOffset) < 0)
+                        || (endOffset != null && name.compareTo(endOffset) >= 0)
+                        || (pageToken != null && name.compareTo(pageToken) <= 0)) {
+                    continue;
+                }
+                if (maxResults != null && results.size() + prefixes.size() >= maxResults) {
+                    cursor = last;
+                    break;
+                }
+                last = name;
+                int start = prefix == null ? 0 : prefix.length();
+                int index = delimiter == null ? -1 : name.indexOf(delimiter, start);
+                if (index >= 0) {
+                    prefixes.add(name.substring(0, index + delimiter.length()));
+                } else {
+                    results.add(view(stored, keySha256));
+                }
+            }
+        }
+        for (String directory : prefixes) {
+            StorageObject object = new StorageObject().setBucket(bucket).setName(directory)
+                    .setSize(BigInteger.ZERO);
+            object.set("isDirectory", true);
+            results.add(object);
+        }
+        return Tuple.<String, Iterable<StorageObject>>of(cursor, results);
+    }
+
+    @Override
+    public StorageObject patch(StorageObject object, Map<Option, ?> options) {
+        request();
+        synchronized (this) {
+            StoredObject stored = find(object);
+            if (stored == null) {
+                throw notFound(object);
+            }
+            checkPreconditions(stored, options);
+            StorageObject patched = stored.object.clone();
+            for (Map.Entry<String, Object> entry : object.entrySet()) {
+                String field = entry.getKey();
+                Object value = entry.getValue();
+                if (field.equals("bucket") || field.equals("name") || field.equals("generation")
+                        || field.equals("metageneration")) {
+                    continue;
+                }
+                if (field.equals("metadata") && !Data.isNull(value)) {
+                    patched.setMetadata(patchMetadata(patched.getMetadata(),
+                            object.getMetadata()));
+                } else if (Data.isNull(value)) {
+                    patched.remove(field);
+                } else {
+                    patched.set(field, value);
+                }
+            }
+            patched.setMetageneration(stored.object.getMetageneration() + 1);
+            patched.setUpdated(new DateTime(System.currentTimeMillis()));
+            StoredObject updated = new StoredObject(patched, stored.content, stored.keySha256);
+            objects.put(path(patched.getBucket(), patched.getName()), updated);
+            return view(updated, stored.keySha256);
+        }
+    }
+
+    @Override
+    public boolean delete(StorageObject object, Map<Option, ?> options) {
+        request();
+        synchronized (this) {
+            StoredObject stored = find(object);
+            if (stored == null) {
+                return false;
+            }
+            checkPreconditions(stored, options);
+            objects.remove(path(object.getBucket(), object.getName()));
+            return true;
+        }
+    }
+
+    @Override
+    public StorageObject compose(Iterable<StorageObject> sources, StorageObject target,
+            Map<Option, ?> targetOptions) {
+        request();
+        String keySha256 = keySha256(targetOptions);
+        ByteArrayOutputStream content = new ByteArrayOutputStream();
+        synchronized (this) {
+            for (StorageObject source : sources) {
+                StoredObject stored = find(source);
+                if (stored == null) {
+                    throw notFound(source);
+                }
+                checkKey(stored, keySha256);
+                content.write(stored.content, 0, stored.content.length);
+            }
+            return store(target, content.toByteArray(), targetOptions);
+        }
+    }
+
+    @Override
+    public byte[] load(StorageObject object, Map<Option, ?> options) {
+        request();
+        synchronized (this) {
+            return readable(object, options).content.clone();
+        }
+    }
+
+    @Override
+    public Tuple<String, byte[]> read(StorageObject from, Map<Option, ?> options, long position,
+            int bytes) {
+        request();
+        synchronized (this) {
+            StoredObject stored = readable(from, options);
+            int start = (int) Math.min(position, stored.content.length);
+            int end = (int) Math.min((long) start + bytes, stored.content.length);
+            return Tuple.of(stored.object.getEtag(),
+                    Arrays.copyOfRange(stored.content, start, end));
+        }
+    }
+
+    @Override
+    public long read(StorageObject from, Map<Option, ?> options, long position,
+            OutputStream outputStream) {
+        request();
+        byte[] content;
+        synchronized (this) {
+            content = readable(from, options).content;
+        }
+        int start = (int) Math.min(position, content.length);
+        try {
+            outputStream.write(content, start, content.length - start);
+        } catch (IOException e) {
+            throw new StorageException(e);
+        }
+        return content.length - start;
+    }
+
+    @Override
+    public String open(StorageObject object, Map<Option, ?> options) {
+        request();
+        synchronized (this) {
+            StoredObject stored = objects.get(path(object.getBucket(), object.getName()));
+            checkPreconditions(stored, options);
+        }
+        String uploadId = UUID.randomUUID().toString();
+        uploads.put(uploadId, new Upload(object, options));
+        return uploadId;
+    }
+
+    @Override
+    public String open(String signedURL) {
+        throw new UnsupportedOperationException("open(signedURL)");
+    }
+
+    @Override
+    public void write(String uploadId, byte[] toWrite, int toWriteOffset, long destOffset,
+            int length, boolean last) {
+        writeWithResponse(uploadId, toWrite, toWriteOffset, destOffset, length, last);
+    }
+
+    @Override
+    public long getCurrentUploadOffset(String uploadId) {
+        request();
+        Upload upload = upload(uploadId);
+        synchronized (upload) {
+            return upload.size;
+        }
+    }
+
+    @Override
+    public StorageObject writeWithResponse(String uploadId, byte[] toWrite, int toWriteOffset,
+            long destOffset, int length, boolean last) {
+        request();
+        Upload upload = upload(uploadId);
+        synchronized (upload) {
+            if (destOffset > upload.size) {
+                throw new StorageException(400, "Upload offset " + destOffset + " is beyond "
+                        + upload.size);
+            }
+            int size = (int) destOffset + length;
+            if (size > upload.content.length) {
+                upload.content = Arrays.copyOf(upload.content,
+                        Math.max(size, upload.content.length * 2));
+            }
+            System.arraycopy(toWrite, toWriteOffset, upload.content, (int) destOffset, length);
+            upload.size = size;
+            if (!last) {
+                return null;
+            }
+            uploads.remove(uploadId);
+            byte[] content = Arrays.copyOf(upload.content, upload.size);
+            checkHashes(upload.object, content);
+            return store(upload.object, content, upload.options);
+        }
+    }
+
+    @Override
+    public RewriteResponse openRewrite(RewriteRequest rewriteRequest) {
+        request();
+        synchronized (this) {
+            StoredObject source = readable(rewriteRequest.source, rewriteRequest.sourceOptions);
+            StorageObject target = rewriteRequest.overrideInfo ? rewriteRequest.target
+                    : metadataOf(source.object, rewriteRequest.target);
+            StorageObject result = store(target, source.content, rewriteRequest.targetOptions);
+            long size = source.content.length;
+            return new RewriteResponse(rewriteRequest, result, size, true, null, size);
+        }
+    }
+
+    @Override
+    public RewriteResponse continueRewrite(RewriteResponse previousResponse) {
+        return previousResponse;
+    }
+
+    @Override
+    public RpcBatch createBatch() {
+        return new RpcBatch() {
+            private final List<Runnable> operations = new ArrayList<Runnable>();
+
+            @Override
+            public void addDelete(StorageObject object, Callback<Void> callback,
+                    Map<Option, ?> options) {
+                operations.add(() -> {
+                    try {
+                        if (delete(object, options)) {
+                            callback.onSuccess(null);
+                        } else {
+                            callback.onFailure(jsonError(notFound(object)));
+                        }
+                    } catch (StorageException e) {
+                        callback.onFailure(jsonError(e));
+                    }
+                });
+            }
+
+            @Override
+            public void addPatch(StorageObject object, Callback<StorageObject> callback,
+                    Map<Option, ?> options) {
+                operations.add(() -> {
+                    try {
+                        callback.onSuccess(patch(object, options));
+                    } catch (StorageException e) {
+                        callback.onFailure(jsonError(e));
+                    }
+                });
+            }
+
+            @Override
+            public void addGet(StorageObject object, Callback<StorageObject> callback,
+                    Map<Option, ?> options) {
+                operations.add(() -> {
+                    try {
+                        StorageObject result = get(object, options);
+                        if (result == null) {
+                            callback.onFailure(jsonError(notFound(object)));
+                        } else {
+                            callback.onSuccess(result);
+                        }
+                    } catch (StorageException e) {
+                        callback.onFailure(jsonError(e));
+                    }
+                });
+            }
+
+            @Override
+            public void submit() {
+                for (Runnable operation : operations) {
+                    operation.run();
+                }
+                operations.clear();
+            }
+        };
+    }
+
+    // Internal methods
+
+    private void request() {
+        requests.incrementAndGet();
+        if (failures.getAndUpdate(count -> Math.max(0, count - 1)) > 0) {
+            throw new StorageException(failureCode, "Injected failure");
+        }
+        long latency = latencyNanos;
+        if (latency <= 0) {
+            return;
+        }
+        try {
+            TimeUnit.NANOSECONDS.sleep(latency);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new StorageException(0, "Interrupted", e);
+        }
+    }
+
+    private synchronized StorageObject store(StorageObject object, byte[] content,
+            Map<Option, ?> options) {
+        String path = path(object.getBucket(), object.getName());
+        checkPreconditions(objects.get(path), options);
+        long generation = ++generations;
+        StorageObject stored = object.clone()
+                .setGeneration(generation)
+                .setMetageneration(1L)
+                .setSize(BigInteger.valueOf(content.length))
+                .setCrc32c(crc32c(content))
+                .setMd5Hash(md5(content))
+                .setEtag(Long.toString(generation))
+                .setUpdated(new DateTime(System.currentTimeMillis()));
+        String keySha256 = keySha256(options);
+        if (keySha256 != null) {
+            stored.setCustomerEncryption(new StorageObject.CustomerEncryption()
+                    .setEncryptionAlgorithm("AES256").setKeySha256(keySha256));
+        }
+        StoredObject entry = new StoredObject(stored, content, keySha256);
+        objects.put(path, entry);
+        return view(entry, keySha256);
+    }
+
+    /**
+     * Fails an upload whose client supplied hashes do not match its content. Writers send null
+     * hashes, which are ignored.
+     */
+    private static void checkHashes(StorageObject object, byte[] content) {
+        String crc32c = object.getCrc32c();
+        String md5 = object.getMd5Hash();
+        if ((crc32c != null && !Data.isNull(crc32c) && !crc32c.equals(crc32c(content)))
+                || (md5 != null && !Data.isNull(md5) && !md5.equals(md5(content)))) {
+            throw new StorageException(400, "Provided hash does not match the content");
+        }
+    }
+
+    private static String crc32c(byte[] content) {
+        return BaseEncoding.base64().encode(
+                Ints.toByteArray(Hashing.crc32c().hashBytes(content).asInt()));
+    }
+
+    @SuppressWarnings("deprecation")
+    private static String md5(byte[] content) {
+        return BaseEncoding.base64().encode(Hashing.md5().hashBytes(content).asBytes());
+    }
+
+    private StoredObject find(StorageObject object) {
+        StoredObject stored = objects.get(path(object.getBucket(), object.getName()));
+        if (stored == null || (object.getGeneration() != null
+                && !object.getGeneration().equals(stored.object.getGeneration()))) {
+            return null;
+        }
+        return stored;
+    }
+
+    private StoredObject readable(StorageObject object, Map<Option, ?> options) {
+        StoredObject stored = find(object);
+        if (stored == null) {
+            throw notFound(object);
+        }
+        checkPreconditions(stored, options);
+        checkKey(stored, keySha256(options));
+        return stored;
+    }
+
+    private static void checkKey(StoredObject stored, String keySha256) {
+        if (stored.keySha256 == null && keySha256 != null) {
+            throw new StorageException(400,
+                    "The target object is not encrypted by a customer-supplied encryption key.");
+        }
+        if (stored.keySha256 != null && keySha256 == null) {
+            throw new StorageException(400,
+                    "The target object is encrypted by a customer-supplied encryption key.");
+        }
+        if (stored.keySha256 != null && !stored.keySha256.equals(keySha256)) {
+            throw wrongKey();
+        }
+    }
+
+    private static void checkPreconditions(StoredObject stored, Map<Option, ?> options) {
+        Long generation = stored == null ? 0L : stored.object.getGeneration();
+        Long metageneration = stored == null ? null : stored.object.getMetageneration();
+        Long generationMatch = (Long) options.get(Option.IF_GENERATION_MATCH);
+        Long generationNotMatch = (Long) options.get(Option.IF_GENERATION_NOT_MATCH);
+        Long metagenerationMatch = (Long) options.get(Option.IF_METAGENERATION_MATCH);
+        Long metagenerationNotMatch = (Long) options.get(Option.IF_METAGENERATION_NOT_MATCH);
+        if ((generationMatch != null && !generationMatch.equals(generation))
+                || (generationNotMatch != null && generationNotMatch.equals(generation))
+                || (metagenerationMatch != null && !metagenerationMatch.equals(metageneration))
+                || (metagenerationNotMatch != null
+                        && metagenerationNotMatch.equals(metageneration))) {
+            throw new StorageException(412, "Precondition Failed");
+        }
+    }
+
+    /**
+     * Returns the object as seen by a request made with the key whose hash is keySha256. The
+     * hashes of an encrypted object are withheld unless its key is supplied.
+     */
+    private static StorageObject view(StoredObject stored, String keySha256) {
+        StorageObject view = stored.object.clone();
+        if (stored.keySha256 != null && !stored.keySha256.equals(keySha256)) {
+            view.setCrc32c(null);
+            view.setMd5Hash(null);
+        }
+        return view;
+    }
+
+    private static StorageObject metadataOf(StorageObject source, StorageObject target) {
+        StorageObject object = source.clone()
+                .setBucket(target.getBucket())
+                .setName(target.getName());
+        object.setCustomerEncryption(null);
+        return object;
+    }
+
+    private static Map<String, String> patchMetadata(Map<String, String> current,
+            Map<String, String> patch) {
+        Map<String, String> metadata = current == null ? new HashMap<String, String>()
+                : new HashMap<String, String>(current);
+        for (Map.Entry<String, String> entry : patch.entrySet()) {
+            if (Data.isNull(entry.getValue())) {
+                metadata.remove(entry.getKey());
+            } else {
+                metadata.put(entry.getKey(), entry.getValue());
+            }
+        }
+        return metadata;
+    }
+
+    private static String keySha256(Map<Option, ?> options) {
+        Object key = options.get(Option.CUSTOMER_SUPPLIED_KEY);
+        if (key == null) {
+            return null;
+        }
+        byte[] bytes = key instanceof Key ? ((Key) key).getEncoded()
+                : BaseEncoding.base64().decode((String) key);
+        if (bytes.length != 32) {
+            throw new StorageException(400, "Customer-supplied keys must be 256 bits");
+        }
+        return BaseEncoding.base64().encode(Hashing.sha256().hashBytes(bytes).asBytes());
+    }
+
+    private Upload upload(String uploadId) {
+        Upload upload = uploads.get(uploadId);
+        if (upload == null) {
+            throw new StorageException(404, "No such upload: " + uploadId);
+        }
+        return upload;
+    }
+
+    private static String path(String bucket, String name) {
+        return bucket + "\u0000" + name;
+    }
+
+    private static StorageException notFound(StorageObject object) {
+        return new StorageException(404, "No such object: " + object.getBucket() + "/"
+                + object.getName());
+    }
+
+    private static StorageException wrongKey() {
+        return new StorageException(400, "The provided encryption key is incorrect.");
+    }
+
+    private static GoogleJsonError jsonError(StorageException e) {
+        GoogleJsonError error = new GoogleJsonError();
+        error.setCode(e.getCode());
+        error.setMessage(e.getMessage());
+        return error;
+    }
+
+    // Unsupported methods
+
+    private static UnsupportedOperationException unsupported() {
+        return new UnsupportedOperationException("Not supported by InMemoryStorageRpc");
+    }
+
+    @Override
+    public Bucket create(Bucket bucket, Map<Option, ?> options) {
+        throw unsupported();
+    }
+
+    @Override
+    public Tuple<String, Iterable<Bucket>> list(Map<Option, ?> options) {
+        throw unsupported();
+    }
+
+    @Override
+    public Bucket get(Bucket bucket, Map<Option, ?> options) {
+        throw unsupported();
+    }
+
+    @Override
+    public Bucket patch(Bucket bucket, Map<Option, ?> options) {
+        throw unsupported();
+    }
+
+    @Override
+    public boolean delete(Bucket bucket, Map<Option, ?> options) {
+        throw unsupported();
+    }
+
+    @Override
+    public BucketAccessControl getAcl(String bucket, String entity, Map<Option, ?> options) {
+        throw unsupported();
+    }
+
+    @Override
+    public boolean deleteAcl(String bucket, String entity, Map<Option, ?> options) {
+        throw unsupported();
+    }
+
+    @Override
+    public BucketAccessControl createAcl(BucketAccessControl acl, Map<Option, ?> options) {
+        throw unsupported();
+    }
+
+    @Override
+    public BucketAccessControl patchAcl(BucketAccessControl acl, Map<Option, ?> options) {
+        throw unsupported();
+    }
+
+    @Override
+    public List<BucketAccessControl> listAcls(String bucket, Map<Option, ?> options) {
+        throw unsupported();
+    }
+
+    @Override
+    public ObjectAccessControl getDefaultAcl(String bucket, String entity) {
+        throw unsupported();
+    }
+
+    @Override
+    public boolean deleteDefaultAcl(String bucket, String entity) {
+        throw unsupported();
+    }
+
+    @Override
+    public ObjectAccessControl createDefaultAcl(ObjectAccessControl acl) {
+        throw unsupported();
+    }
+
+    @Override
+    public ObjectAccessControl patchDefaultAcl(ObjectAccessControl acl) {
+        throw unsupported();
+    }
+
+    @Override
+    public List<ObjectAccessControl> listDefaultAcls(String bucket) {
+        throw unsupported();
+    }
+
+    @Override
+    public ObjectAccessControl getAcl(String bucket, String object, Long generation,
+            String entity) {
+        throw unsupported();
+    }
+
+    @Override
+    public boolean deleteAcl(String bucket, String object, Long generation, String entity) {
+        throw unsupported();
+    }
+
+    @Override
+    public ObjectAccessControl createAcl(ObjectAccessControl acl) {
+        throw unsupported();
+    }
+
+    @Override
+    public ObjectAccessControl patchAcl(ObjectAccessControl acl) {
+        throw unsupported();
+    }
+
+    @Override
+    public List<ObjectAccessControl> listAcls(String bucket, String object, Long generation) {
+        throw unsupported();
+    }
+
+    @Override
+    public HmacKey createHmacKey(String serviceAccountEmail, Map<Option, ?> options) {
+        throw unsupported();
+    }
+
+    @Override
+    public Tuple<String, Iterable<HmacKeyMetadata>> listHmacKeys(Map<Option, ?> options) {
+        throw unsupported();
+    }
+
+    @Override
+    public HmacKeyMetadata updateHmacKey(HmacKeyMetadata hmacKeyMetadata,
+            Map<Option, ?> options) {
+        throw unsupported();
+    }
+
+    @Override
+    public HmacKeyMetadata getHmacKey(String accessId, Map<Option, ?> options) {
+        throw unsupported();
+    }
+
+    @Override
+    public void deleteHmacKey(HmacKeyMetadata hmacKeyMetadata, Map<Option, ?> options) {
+        throw unsupported();
+    }
+
+    @Override
+    public Policy getIamPolicy(String bucket, Map<Option, ?> options) {
+        throw unsupported();
+    }
+
+    @Override
+    public Policy setIamPolicy(String bucket, Policy policy, Map<Option, ?> options) {
+        throw unsupported();
+    }
+
+    @Override
+    public TestIamPermissionsResponse testIamPermissions(String bucket, List<String> permissions,
+            Map<Option, ?> options) {
+        throw unsupported();
+    }
+
+    @Override
+    public boolean deleteNotification(String bucket, String notification) {
+        throw unsupported();
+    }
+
+    @Override
+    public List<Notification> listNotifications(String bucket) {
+        throw unsupported();
+    }
+
+    @Override
+    public Notification createNotification(String bucket, Notification notification) {
+        throw unsupported();
+    }
+
+    @Override
+    public Bucket lockRetentionPolicy(Bucket bucket, Map<Option, ?> options) {
+        throw unsupported();
+    }
+
+    @Override
+    public ServiceAccount getServiceAccount(String projectId) {
+        throw unsupported();
+    }
+}
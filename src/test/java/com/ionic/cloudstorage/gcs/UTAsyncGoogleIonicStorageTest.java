@@ -0,0 +1,163 @@
+/*
+ * (c) 2017-2021 Ionic Security Inc. By using this code, I agree to the Terms & Conditions
+ * (https://dev.ionic.com/use) and the Privacy Policy (https://www.ionic.com/privacy-notice/).
+ */
+
+package com.ionic.cloudstorage.gcs;
+
+import static org.junit.Assert.*;
+
+import com.google.cloud.WriteChannel;
+import com.google.cloud.storage.Blob;
+import com.google.cloud.storage.BlobId;
+import com.google.cloud.storage.BlobInfo;
+import com.google.cloud.storage.StorageException;
+import com.ionic.sdk.agent.request.createkey.CreateKeysRequest;
+import com.ionic.sdk.agent.request.createkey.CreateKeysResponse;
+import com.ionic.sdk.error.IonicException;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Test;
+
+public class UTAsyncGoogleIonicStorageTest {
+
+    private final Queue<Runnable> tasks = new ArrayDeque<Runnable>();
+    private final Executor manualExecutor = tasks::add;
+    private final AtomicInteger keyRequests = new AtomicInteger();
+    private final AtomicInteger uploads = new AtomicInteger();
+
+    private GoogleIonicStorage ionicStorage = new GoogleIonicStorage(new StorageStub() {
+        @Override
+        public Blob create(BlobInfo blobInfo, byte[] content, BlobTargetOption... options) {
+            uploads.incrementAndGet();
+            return null;
+        }
+    }) {
+        @Override
+        protected CreateKeysResponse createIonicKeys(CreateKeysRequest request)
+                throws IonicException {
+            if (keyRequests.incrementAndGet() > 1) {
+                throw new IonicException(40024, "Denied");
+            }
+            return new CreateKeysResponse(
+                    new CreateKeysResponse.Key("key", "", new byte[32], ""));
+        }
+    };
+
+    private void runTasks() {
+        Runnable task;
+        while ((task = tasks.poll()) != null) {
+            task.run();
+        }
+    }
+
+    @Test
+    public void stagesRunAsSeparateTasks() throws Exception {
+        AsyncGoogleIonicStorage async = new AsyncGoogleIonicStorage(ionicStorage, manualExecutor);
+        BlobInfo info = BlobInfo.newBuilder(BlobId.of("bucket", "blob")).build();
+        CompletableFuture<Blob> future = async.create(info, new byte[] {1});
+
+        assertEquals(1, tasks.size());
+        tasks.poll().run();
+        assertEquals("Key creation did not run in its own stage.", 1, keyRequests.get());
+        assertEquals("Upload ran in the key creation stage.", 0, uploads.get());
+        assertFalse(future.isDone());
+
+        runTasks();
+        assertEquals(1, uploads.get());
+        assertTrue(future.isDone());
+        assertNull(future.get());
+    }
+
+    @Test
+    public void cancelSkipsPendingStages() {
+        AsyncGoogleIonicStorage async = new AsyncGoogleIonicStorage(ionicStorage, manualExecutor);
+        BlobInfo info = BlobInfo.newBuilder(BlobId.of("bucket", "blob")).build();
+        CompletableFuture<Blob> future = async.create(info, new byte[] {1});
+
+        tasks.poll().run();
+        assertTrue(future.cancel(false));
+        runTasks();
+        assertEquals("Upload ran after the future was cancelled.", 0, uploads.get());
+    }
+
+    @Test
+    public void failuresCompleteExceptionally() throws InterruptedException {
+        keyRequests.set(1);
+        AsyncGoogleIonicStorage async = new AsyncGoogleIonicStorage(ionicStorage, manualExecutor);
+        BlobInfo info = BlobInfo.newBuilder(BlobId.of("bucket", "blob")).build();
+        CompletableFuture<Blob> future = async.create(info, new byte[] {1});
+        runTasks();
+        try {
+            future.get();
+            fail("Expected the key creation failure to propagate.");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof StorageException);
+            assertEquals(40024, ((StorageException) e.getCause()).getCode());
+        }
+        assertEquals(0, uploads.get());
+    }
+
+    @Test
+    public void uploadsShareStorageBehavior() throws Exception {
+        InMemoryIonicStorage memoryStorage = new InMemoryIonicStorage();
+        memoryStorage.enableUploadRetries(3, 1, 10, 60000, TimeUnit.MILLISECONDS);
+        AsyncGoogleIonicStorage async = new AsyncGoogleIonicStorage(memoryStorage, manualExecutor);
+        BlobId blobId = BlobId.of("bucket", "blob");
+        BlobInfo info = BlobInfo.newBuilder(blobId).build();
+
+        memoryStorage.getRpc().failNext(1, 503);
+        CompletableFuture<Blob> created = async.create(info, new byte[] {1});
+        runTasks();
+        assertNotNull(created.get());
+        assertEquals("Async upload was not retried.", 1,
+                memoryStorage.getUploadRetries().getRetryCount());
+        assertArrayEquals(new byte[] {1}, memoryStorage.readAllBytes(blobId));
+
+        memoryStorage.enableLazyWriters(Runnable::run);
+        int createRequests = memoryStorage.getKeyServices().getCreateRequestCount();
+        CompletableFuture<WriteChannel> writer =
+                async.writer(info, new CreateKeysRequest.Key(""));
+        runTasks();
+        assertEquals("Async writer waited for its key.", createRequests,
+                memoryStorage.getKeyServices().getCreateRequestCount());
+        try (WriteChannel channel = writer.get()) {
+            channel.write(ByteBuffer.wrap(new byte[] {2}));
+        }
+        assertArrayEquals(new byte[] {2}, memoryStorage.readAllBytes(blobId));
+    }
+
+    @Test
+    public void readsShareKeyIdCache() throws Exception {
+        InMemoryIonicStorage memoryStorage = new InMemoryIonicStorage();
+        memoryStorage.enableKeyIdCache(10);
+        AsyncGoogleIonicStorage async = new AsyncGoogleIonicStorage(memoryStorage, manualExecutor);
+        BlobId blobId = BlobId.of("bucket", "blob");
+        memoryStorage.create(BlobInfo.newBuilder(blobId).build(), new byte[] {1});
+
+        int requests = memoryStorage.getRpc().getRequestCount();
+        CompletableFuture<byte[]> read = async.readAllBytes(blobId);
+        runTasks();
+        assertArrayEquals(new byte[] {1}, read.get());
+        assertEquals("Cached read made a metadata request.", requests + 1,
+                memoryStorage.getRpc().getRequestCount());
+
+        // A stale latest generation: the guarded read fails and the key is re-resolved.
+        String keyId = memoryStorage.getGoogleStorage().get(blobId).getMetadata()
+                .get(GoogleIonicStorage.IONICMETACONSTANT);
+        memoryStorage.getKeyIdCache().invalidate(blobId);
+        memoryStorage.getKeyIdCache().put(blobId, 0L, keyId);
+        requests = memoryStorage.getRpc().getRequestCount();
+        read = async.readAllBytes(blobId);
+        runTasks();
+        assertArrayEquals(new byte[] {1}, read.get());
+        assertEquals("Stale read was not retried after a metadata request.", requests + 3,
+                memoryStorage.getRpc().getRequestCount());
+    }
+}
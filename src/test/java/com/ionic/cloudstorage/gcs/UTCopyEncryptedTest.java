@@ -0,0 +1,118 @@
+/*
+ * (c) 2017-2021 Ionic Security Inc. By using this code, I agree to the Terms & Conditions
+ * (https://dev.ionic.com/use) and the Privacy Policy (https://www.ionic.com/privacy-notice/).
+ */
+
+package com.ionic.cloudstorage.gcs;
+
+import static org.junit.Assert.*;
+
+import com.google.cloud.storage.Blob;
+import com.google.cloud.storage.BlobId;
+import com.google.cloud.storage.BlobInfo;
+import com.google.cloud.storage.CopyWriter;
+import com.google.cloud.storage.Storage.BlobSourceOption;
+import com.google.cloud.storage.Storage.BlobTargetOption;
+import com.google.cloud.storage.Storage.CopyRequest;
+import com.google.cloud.storage.StorageException;
+import com.google.cloud.storage.TestBlobs;
+import com.ionic.sdk.agent.request.createkey.CreateKeysRequest;
+import com.ionic.sdk.agent.request.createkey.CreateKeysResponse;
+import com.ionic.sdk.agent.request.getkey.GetKeysResponse;
+import com.ionic.sdk.error.IonicException;
+import java.util.Collections;
+import org.junit.Test;
+
+public class UTCopyEncryptedTest {
+
+    private final byte[] sourceKeyBytes = new byte[32];
+    private final byte[] targetKeyBytes = new byte[32];
+    private BlobInfo sourceInfo = BlobInfo.newBuilder(BlobId.of("source", "blob", 7L))
+            .setContentType("text/plain")
+            .setMetadata(Collections.singletonMap(GoogleIonicStorage.IONICMETACONSTANT, "srcid"))
+            .build();
+    private CopyRequest lastRequest;
+
+    {
+        targetKeyBytes[0] = 1;
+    }
+
+    private GoogleIonicStorage ionicStorage = new GoogleIonicStorage(new StorageStub() {
+        @Override
+        public Blob get(BlobId blob) {
+            return sourceInfo == null ? null : TestBlobs.blob(this, sourceInfo);
+        }
+
+        @Override
+        public CopyWriter copy(CopyRequest copyRequest) {
+            lastRequest = copyRequest;
+            return null;
+        }
+    }) {
+        @Override
+        protected GetKeysResponse.Key getIonicKey(String keyid) {
+            assertEquals("srcid", keyid);
+            return new GetKeysResponse.Key(keyid, sourceKeyBytes, "");
+        }
+
+        @Override
+        protected CreateKeysResponse createIonicKeys(CreateKeysRequest request)
+                throws IonicException {
+            return new CreateKeysResponse(
+                    new CreateKeysResponse.Key("", "newid", targetKeyBytes, ""));
+        }
+    };
+
+    private GetKeysResponse.Key sourceKey() {
+        return new GetKeysResponse.Key("srcid", sourceKeyBytes, "");
+    }
+
+    @Test
+    public void copyKeepsSourceKey() {
+        ionicStorage.copyEncrypted(CopyRequest.of(BlobId.of("source", "blob"),
+                BlobInfo.newBuilder("target", "copy").build()));
+
+        assertEquals("Source generation was not pinned.", Long.valueOf(7L),
+                lastRequest.getSource().getGeneration());
+        assertTrue(lastRequest.getSourceOptions().contains(
+                BlobSourceOption.decryptionKey(sourceKey().getSecretKey())));
+        assertTrue(lastRequest.getTargetOptions().contains(
+                BlobTargetOption.encryptionKey(sourceKey().getSecretKey())));
+        assertEquals("srcid",
+                lastRequest.getTarget().getMetadata().get(GoogleIonicStorage.IONICMETACONSTANT));
+    }
+
+    @Test
+    public void copyWithNewKey() {
+        ionicStorage.copyEncrypted(CopyRequest.of(BlobId.of("source", "blob"),
+                BlobId.of("target", "copy")), new CreateKeysRequest.Key(""));
+
+        assertTrue(lastRequest.overrideInfo());
+        assertEquals("text/plain", lastRequest.getTarget().getContentType());
+        assertEquals("newid",
+                lastRequest.getTarget().getMetadata().get(GoogleIonicStorage.IONICMETACONSTANT));
+        assertTrue(lastRequest.getSourceOptions().contains(
+                BlobSourceOption.decryptionKey(sourceKey().getSecretKey())));
+        assertEquals(BlobTargetOption.encryptionKey(
+                new CreateKeysResponse.Key("", "newid", targetKeyBytes, "").getSecretKey()),
+                lastRequest.getTargetOptions().get(0));
+    }
+
+    @Test
+    public void unprotectedSourceCopiedAsIs() {
+        sourceInfo = sourceInfo.toBuilder().setMetadata(null).build();
+        ionicStorage.copyEncrypted(CopyRequest.of(BlobId.of("source", "blob"),
+                BlobId.of("target", "copy")));
+
+        assertFalse(lastRequest.overrideInfo());
+        assertTrue(lastRequest.getSourceOptions().isEmpty());
+        assertTrue(lastRequest.getTargetOptions().isEmpty());
+    }
+
+    @Test(expected = StorageException.class)
+    public void missingSource() {
+        sourceInfo = null;
+        ionicStorage.copyEncrypted(CopyRequest.of(BlobId.of("source", "blob"),
+                BlobId.of("target", "copy")));
+    }
+}
@@ -0,0 +1,43 @@
+/*
+ * (c) 2017-2021 Ionic Security Inc. By using this code, I agree to the Terms & Conditions
+ * (https://dev.ionic.com/use) and the Privacy Policy (https://www.ionic.com/privacy-notice/).
+ */
+
+package com.ionic.cloudstorage.gcs;
+
+import static org.junit.Assert.*;
+
+import com.google.common.hash.Hashing;
+import com.google.common.primitives.Ints;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Random;
+import org.junit.Test;
+
+public class UTCrc32cTest {
+
+    @Test
+    public void combinedPartsMatchWholeContent() {
+        byte[] content = new byte[10007];
+        new Random(7).nextBytes(content);
+        int expected = Hashing.crc32c().hashBytes(content).asInt();
+
+        for (int partSize : new int[] {1, 1000, 4096, 10007, 20000}) {
+            int crc = 0;
+            for (int offset = 0; offset < content.length; offset += partSize) {
+                int end = Math.min(content.length, offset + partSize);
+                int partCrc = Hashing.crc32c()
+                        .hashBytes(Arrays.copyOfRange(content, offset, end)).asInt();
+                crc = Crc32c.combine(crc, partCrc, end - offset);
+            }
+            assertEquals("Part size " + partSize, expected, crc);
+        }
+    }
+
+    @Test
+    public void fromBase64IsBigEndian() {
+        int crc = Hashing.crc32c().hashBytes(new byte[] {1, 2, 3}).asInt();
+        String encoded = Base64.getEncoder().encodeToString(Ints.toByteArray(crc));
+        assertEquals(crc, Crc32c.fromBase64(encoded));
+    }
+}
@@ -0,0 +1,175 @@
+/*
+ * (c) 2017-2021 Ionic Security Inc. By using this code, I agree to the Terms & Conditions
+ * (https://dev.ionic.com/use) and the Privacy Policy (https://www.ionic.com/privacy-notice/).
+ */
+
+package com.ionic.cloudstorage.gcs;
+
+import static org.junit.Assert.*;
+
+import com.google.cloud.RestorableState;
+import com.google.cloud.WriteChannel;
+import com.google.cloud.storage.BlobId;
+import com.google.cloud.storage.BlobInfo;
+import com.google.cloud.storage.StorageException;
+import com.ionic.sdk.agent.request.createkey.CreateKeysRequest;
+import com.ionic.sdk.agent.request.createkey.CreateKeysResponse;
+import com.ionic.sdk.error.IonicException;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class UTCreateFromParallelTest {
+
+    private final Map<String, byte[]> objects = new ConcurrentHashMap<String, byte[]>();
+    private final Map<String, Map<String, String>> metadata =
+            new ConcurrentHashMap<String, Map<String, String>>();
+    private final List<BlobId> deleted = new ArrayList<BlobId>();
+    private final AtomicInteger keyRequests = new AtomicInteger();
+    private final AtomicInteger composes = new AtomicInteger();
+    private boolean failCompose = false;
+    private Path path;
+
+    private class BytesWriteChannel implements WriteChannel {
+        private final BlobInfo info;
+        private final ByteArrayOutputStream content = new ByteArrayOutputStream();
+
+        BytesWriteChannel(BlobInfo info) {
+            this.info = info;
+        }
+
+        public int write(ByteBuffer src) {
+            int count = src.remaining();
+            byte[] bytes = new byte[count];
+            src.get(bytes);
+            content.write(bytes, 0, count);
+            return count;
+        }
+
+        public boolean isOpen() { return true; }
+
+        public void close() {
+            objects.put(info.getName(), content.toByteArray());
+            metadata.put(info.getName(), info.getMetadata());
+        }
+
+        public void setChunkSize(int chunkSize) {}
+
+        public RestorableState<WriteChannel> capture() { return null; }
+    }
+
+    private GoogleIonicStorage ionicStorage = new GoogleIonicStorage(new StorageStub() {
+        @Override
+        public WriteChannel writer(BlobInfo blobInfo, BlobWriteOption... options) {
+            return new BytesWriteChannel(blobInfo);
+        }
+
+        @Override
+        public synchronized List<Boolean> delete(Iterable<BlobId> blobIds) {
+            for (BlobId blobId : blobIds) {
+                deleted.add(blobId);
+                objects.remove(blobId.getName());
+            }
+            return null;
+        }
+    }) {
+        @Override
+        protected CreateKeysResponse createIonicKeys(CreateKeysRequest request)
+                throws IonicException {
+            keyRequests.incrementAndGet();
+            return new CreateKeysResponse(
+                    new CreateKeysResponse.Key("", "keyid", new byte[32], ""));
+        }
+
+        @Override
+        protected long composeEncrypted(BlobInfo target, List<BlobId> sources,
+                CreateKeysResponse.Key ionicKey) {
+            composes.incrementAndGet();
+            if (failCompose) {
+                throw new StorageException(400, "Bad Request");
+            }
+            assertTrue(sources.size() <= 32);
+            ByteArrayOutputStream content = new ByteArrayOutputStream();
+            for (BlobId source : sources) {
+                byte[] bytes = objects.get(source.getName());
+                content.write(bytes, 0, bytes.length);
+            }
+            objects.put(target.getName(), content.toByteArray());
+            metadata.put(target.getName(), target.getMetadata());
+            return 1L;
+        }
+    };
+
+    @Before
+    public void setUp() throws IOException {
+        path = Files.createTempFile("ionic-parallel", ".bin");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(path);
+    }
+
+    @Test
+    public void multiLevelCompose() throws IOException {
+        byte[] content = new byte[1000];
+        new Random(3).nextBytes(content);
+        Files.write(path, content);
+
+        ionicStorage.createFromParallel(BlobInfo.newBuilder("bucket", "blob").build(), path, 4, 10);
+
+        assertArrayEquals(content, objects.get("blob"));
+        assertEquals("keyid", metadata.get("blob").get(GoogleIonicStorage.IONICMETACONSTANT));
+        assertEquals("One Ionic Key protects every part.", 1, keyRequests.get());
+        // 100 parts are composed into 4 intermediate objects, then into the blob.
+        assertEquals(5, composes.get());
+        assertEquals(104, deleted.size());
+        assertEquals("Temporary objects were left behind.", 1, objects.size());
+    }
+
+    @Test
+    public void temporariesDeletedOnFailure() throws IOException {
+        Files.write(path, new byte[100]);
+        failCompose = true;
+        try {
+            ionicStorage.createFromParallel(
+                    BlobInfo.newBuilder("bucket", "blob").build(), path, 2, 30);
+            fail("Expected the compose failure to propagate.");
+        } catch (StorageException e) {
+            assertEquals(400, e.getCode());
+        }
+        assertEquals(4, deleted.size());
+        assertTrue(objects.isEmpty());
+        for (Map<String, String> partMetadata : metadata.values()) {
+            assertEquals("keyid", partMetadata.get(GoogleIonicStorage.IONICMETACONSTANT));
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void invalidParallelism() throws IOException {
+        ionicStorage.createFromParallel(BlobInfo.newBuilder("bucket", "blob").build(), path, 0, 10);
+    }
+
+    @Test
+    public void partCountBounded() throws IOException {
+        Files.write(path, new byte[10001]);
+        try {
+            ionicStorage.createFromParallel(
+                    BlobInfo.newBuilder("bucket", "blob").build(), path, 4, 1);
+            fail("Uploaded a file as more than 10000 parts.");
+        } catch (IllegalArgumentException e) {
+            assertEquals("Key was created for a rejected upload.", 0, keyRequests.get());
+        }
+    }
+}
@@ -7,6 +7,8 @@ package com.ionic.cloudstorage.gcs;
 
 import static org.junit.Assert.*;
 
+import com.google.cloud.storage.BlobId;
+import com.google.cloud.storage.BlobInfo;
 import com.google.cloud.storage.Storage;
 import com.google.cloud.storage.StorageException;
 import com.google.cloud.storage.Storage.BlobSourceOption;
@@ -16,14 +18,24 @@ import com.ionic.sdk.agent.Agent;
 import com.ionic.sdk.agent.data.MetadataMap;
 import com.ionic.sdk.agent.key.KeyAttributesMap;
 import com.ionic.sdk.agent.request.createkey.CreateKeysResponse;
+import com.ionic.sdk.agent.request.getkey.GetKeysRequest;
 import com.ionic.sdk.agent.request.getkey.GetKeysResponse;
 import com.ionic.sdk.device.profile.DeviceProfile;
 import com.ionic.sdk.device.profile.persistor.DeviceProfilePersistorPlainText;
 import com.ionic.sdk.error.IonicException;
+import java.io.IOException;
 import java.net.URL;
+import java.nio.ByteBuffer;
 import java.net.MalformedURLException;
+import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Base64;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import org.junit.Rule;
 import org.junit.rules.ExpectedException;
 import org.junit.Test;
@@ -196,6 +208,110 @@ public class UTGoogleIonicStorageTest {
             optionsArray[0].equals(BlobSourceOption.decryptionKey(encoder.encodeToString(getKeyStub.getKey()))));
     }
 
+    @Test
+    public void resolveIonicKeys() {
+        final AtomicInteger requests = new AtomicInteger();
+        GoogleIonicStorage ionicStorage = new GoogleIonicStorage(new StorageStub()) {
+            @Override
+            protected GetKeysResponse getIonicKeys(GetKeysRequest request) {
+                requests.incrementAndGet();
+                GetKeysResponse response = new GetKeysResponse();
+                for (String keyId : request.getKeyIds()) {
+                    if (keyId.startsWith("denied")) {
+                        response.add(new GetKeysResponse.IonicError(keyId, 40024, 0, "Denied"));
+                    } else if (!keyId.startsWith("missing")) {
+                        response.add(new GetKeysResponse.Key(keyId, keyBytes, ""));
+                    }
+                }
+                return response;
+            }
+        };
+        ionicStorage.enableKeyCache(10, 1, TimeUnit.MINUTES);
+        Map<String, StorageException> errors = new HashMap<String, StorageException>();
+        Map<String, GetKeysResponse.Key> keys = ionicStorage.resolveIonicKeys(
+                Arrays.asList("key1", "key2", "denied1", "missing1"), errors);
+        assertEquals("Keys were not fetched with a single request", 1, requests.get());
+        assertEquals(2, keys.size());
+        assertEquals(2, errors.size());
+        assertEquals(40024, errors.get("denied1").getCode());
+        assertTrue(errors.containsKey("missing1"));
+
+        errors.clear();
+        keys = ionicStorage.resolveIonicKeys(Arrays.asList("key1", "key2"), errors);
+        assertEquals("Cached keys were fetched again", 1, requests.get());
+        assertEquals(2, keys.size());
+    }
+
+    @Test
+    public void bulkReadInvalidParallelism() {
+        GoogleIonicStorage ionicStorage = new GoogleIonicStorage(new StorageStub());
+        List<BlobId> blobIds = Arrays.asList(BlobId.of("bucket", "blob"));
+        thrown.expect(IllegalArgumentException.class);
+        ionicStorage.readAllBytes(blobIds, 0);
+    }
+
+    @Test
+    public void downloadToInvalidPartSize() throws IOException {
+        GoogleIonicStorage ionicStorage = new GoogleIonicStorage(new StorageStub());
+        thrown.expect(IllegalArgumentException.class);
+        ionicStorage.downloadTo(BlobId.of("bucket", "blob"), Paths.get("blob"), 4, 0);
+    }
+
+    private GoogleIonicStorage readerStorage(final byte[] content) {
+        return new GoogleIonicStorage(new StorageStub() {
+            @Override
+            public byte[] readAllBytes(BlobId blob, BlobSourceOption... options) {
+                return content;
+            }
+        }) {
+            @Override
+            protected GetKeysResponse.Key ionicKeyFromBlob(BlobId blobId) {
+                return getKeyStub;
+            }
+        };
+    }
+
+    @Test
+    public void readInto() throws IOException {
+        InMemoryIonicStorage ionicStorage = new InMemoryIonicStorage();
+        byte[] content = new byte[] {1, 2, 3, 4, 5, 6, 7, 8, 9, 10};
+        ionicStorage.create(BlobInfo.newBuilder("bucket", "blob").build(), content);
+        ByteBuffer buffer = ByteBuffer.allocateDirect(16);
+        long read = ionicStorage.readInto(BlobId.of("bucket", "blob"), buffer);
+        assertEquals(10, read);
+        buffer.flip();
+        byte[] result = new byte[buffer.remaining()];
+        buffer.get(result);
+        assertArrayEquals(content, result);
+    }
+
+    @Test
+    public void readIntoSmallBuffer() throws IOException {
+        InMemoryIonicStorage ionicStorage = new InMemoryIonicStorage();
+        ionicStorage.create(BlobInfo.newBuilder("bucket", "blob").build(), new byte[10]);
+        ByteBuffer small = ByteBuffer.allocate(4);
+        try {
+            ionicStorage.readInto(BlobId.of("bucket", "blob"), small);
+            fail("Blob was truncated to fit the buffer.");
+        } catch (IllegalArgumentException e) {
+            assertEquals("Buffer was written to.", 0, small.position());
+        }
+        assertEquals("Key was fetched for a blob that does not fit.", 0,
+            ionicStorage.getKeyServices().getGetRequestCount());
+    }
+
+    @Test
+    public void readOnlyByteBufferView() {
+        byte[] content = new byte[] {1, 2, 3};
+        GoogleIonicStorage ionicStorage = readerStorage(content);
+        ByteBuffer view =
+            ionicStorage.readAllBytesAndKey(BlobId.of("bucket", "blob")).getByteBuffer();
+        assertTrue("Byte buffer view was writable", view.isReadOnly());
+        assertEquals(3, view.remaining());
+        assertSame("readAllBytes copied the content",
+            content, ionicStorage.readAllBytes(BlobId.of("bucket", "blob")));
+    }
+
     @Test
     public void testNoOp() throws MalformedURLException {
         Storage googleStorage = new StorageStub();
@@ -0,0 +1,195 @@
+/*
+ * (c) 2017-2021 Ionic Security Inc. By using this code, I agree to the Terms & Conditions
+ * (https://dev.ionic.com/use) and the Privacy Policy (https://www.ionic.com/privacy-notice/).
+ */
+
+package com.ionic.cloudstorage.gcs;
+
+import static org.junit.Assert.*;
+
+import com.google.cloud.storage.Blob;
+import com.google.cloud.storage.BlobId;
+import com.google.cloud.storage.BlobInfo;
+import com.google.cloud.storage.Storage.BlobSourceOption;
+import com.google.cloud.storage.Storage.BlobTargetOption;
+import com.google.cloud.storage.Storage.CopyRequest;
+import com.google.cloud.storage.StorageException;
+import com.ionic.sdk.agent.request.createkey.CreateKeysRequest;
+import com.ionic.sdk.agent.request.getkey.GetKeysResponse;
+import com.ionic.sdk.error.AgentErrorModuleConstants;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import javax.crypto.spec.SecretKeySpec;
+import org.junit.Test;
+
+public class UTInMemoryIonicStorageTest {
+
+    private final InMemoryIonicStorage ionicStorage = new InMemoryIonicStorage();
+    private final BlobId blobId = BlobId.of("bucket", "blob");
+
+    private static byte[] content(int size) {
+        byte[] content = new byte[size];
+        new Random(size).nextBytes(content);
+        return content;
+    }
+
+    private String keyId(BlobId blob) {
+        return ionicStorage.getGoogleStorage().get(blob).getMetadata()
+                .get(GoogleIonicStorage.IONICMETACONSTANT);
+    }
+
+    @Test
+    public void roundTripRequiresKey() {
+        byte[] content = content(1000);
+        ionicStorage.create(BlobInfo.newBuilder(blobId).build(), content);
+
+        assertArrayEquals(content, ionicStorage.readAllBytes(blobId));
+        assertEquals(1, ionicStorage.getKeyServices().getCreateRequestCount());
+        try {
+            ionicStorage.getGoogleStorage().readAllBytes(blobId);
+            fail("Read an encrypted blob without its key.");
+        } catch (StorageException e) {
+            assertEquals(400, e.getCode());
+        }
+        try {
+            ionicStorage.getGoogleStorage().readAllBytes(blobId, BlobSourceOption.decryptionKey(
+                    new SecretKeySpec(new byte[32], "AES")));
+            fail("Read an encrypted blob with the wrong key.");
+        } catch (StorageException e) {
+            assertEquals(400, e.getCode());
+        }
+        assertNull("Hashes were returned without the key.",
+                ionicStorage.getGoogleStorage().get(blobId).getCrc32c());
+    }
+
+    @Test
+    public void deniedKey() {
+        ionicStorage.create(BlobInfo.newBuilder(blobId).build(), content(10));
+        ionicStorage.getKeyServices().deny(keyId(blobId));
+        try {
+            ionicStorage.readAllBytes(blobId);
+            fail("Read a blob whose key is denied.");
+        } catch (StorageException e) {
+            assertEquals(AgentErrorModuleConstants.ISAGENT_KEY_DENIED, e.getCode());
+        }
+    }
+
+    @Test
+    public void generationPreconditions() {
+        BlobInfo info = BlobInfo.newBuilder(blobId).build();
+        Blob first = ionicStorage.create(info, content(10), BlobTargetOption.doesNotExist());
+        try {
+            ionicStorage.create(info, content(10), BlobTargetOption.doesNotExist());
+            fail("Replaced a blob that exists.");
+        } catch (StorageException e) {
+            assertEquals(412, e.getCode());
+        }
+        Blob second = ionicStorage.create(info, content(10));
+        assertTrue(second.getGeneration() > first.getGeneration());
+        assertNull(ionicStorage.getGoogleStorage().get(first.getBlobId()));
+    }
+
+    @Test
+    public void parallelUploadAndDownload() throws IOException {
+        byte[] content = content(300000);
+        Path source = Files.createTempFile("ionic-in-memory", ".bin");
+        Path target = Files.createTempFile("ionic-in-memory", ".bin");
+        try {
+            Files.write(source, content);
+            ionicStorage.createFromParallel(BlobInfo.newBuilder(blobId).build(), source, 4,
+                    70000);
+            GetKeysResponse.Key key = ionicStorage.downloadTo(blobId, target, 3, 64000);
+
+            assertArrayEquals(content, Files.readAllBytes(target));
+            assertEquals(keyId(blobId), key.getId());
+            assertEquals("Temporary parts were left behind.", 1,
+                    ionicStorage.getRpc().getNames("bucket").size());
+        } finally {
+            Files.deleteIfExists(source);
+            Files.deleteIfExists(target);
+        }
+    }
+
+    @Test
+    public void downloadToBoundsPartCount() throws IOException {
+        BlobId blobId = BlobId.of("bucket", "blob");
+        ionicStorage.create(BlobInfo.newBuilder(blobId).build(), new byte[10001]);
+        Path target = Files.createTempFile("ionic-download", ".bin");
+        int getRequests = ionicStorage.getKeyServices().getGetRequestCount();
+        try {
+            ionicStorage.downloadTo(blobId, target, 2, 1);
+            fail("Downloaded a blob as more than 10000 parts.");
+        } catch (IllegalArgumentException e) {
+            assertEquals("Key was fetched for a rejected download.", getRequests,
+                    ionicStorage.getKeyServices().getGetRequestCount());
+        } finally {
+            Files.deleteIfExists(target);
+        }
+    }
+
+    @Test
+    public void copyEncryptedRekeys() {
+        byte[] content = content(1000);
+        ionicStorage.create(BlobInfo.newBuilder(blobId).build(), content);
+        BlobId copy = BlobId.of("bucket", "copy");
+        ionicStorage.copyEncrypted(CopyRequest.of(blobId, copy), new CreateKeysRequest.Key(""))
+                .getResult();
+
+        assertArrayEquals(content, ionicStorage.readAllBytes(copy));
+        assertNotEquals(keyId(blobId), keyId(copy));
+    }
+
+    @Test
+    public void rotation() throws IOException {
+        byte[] content = content(100);
+        for (int i = 0; i < 5; i++) {
+            ionicStorage.create(BlobInfo.newBuilder("bucket", "prefix/" + i).build(), content);
+        }
+        ionicStorage.create(BlobInfo.newBuilder("bucket", "other").build(), content);
+        String before = keyId(BlobId.of("bucket", "prefix/0"));
+        IonicKeyRotation rotation = new IonicKeyRotation(ionicStorage, "bucket", "prefix/");
+        rotation.setBatchSize(2);
+        rotation.run();
+
+        assertEquals(5, rotation.getRotatedCount());
+        assertTrue(rotation.getFailures().isEmpty());
+        assertNotEquals(before, keyId(BlobId.of("bucket", "prefix/0")));
+        assertArrayEquals(content, ionicStorage.readAllBytes(BlobId.of("bucket", "prefix/0")));
+    }
+
+    @Test
+    public void latency() {
+        ionicStorage.getRpc().setLatency(20, TimeUnit.MILLISECONDS);
+        long start = System.nanoTime();
+        ionicStorage.getGoogleStorage().get(blobId);
+        assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(20));
+    }
+
+    @Test
+    public void bulkReadPinsResolvedGeneration() {
+        BlobId other = BlobId.of("bucket", "other");
+        ionicStorage.create(BlobInfo.newBuilder(blobId).build(), content(10));
+        ionicStorage.create(BlobInfo.newBuilder(other).build(), content(20));
+        GoogleIonicStorage replacing = new InMemoryIonicStorage(ionicStorage.getRpc(),
+                ionicStorage.getKeyServices()) {
+            @Override
+            protected void ionicKeyIdsFromBlobs(List<BlobId> blobIds, String[] keyIds,
+                    String[] salts, Long[] generations, StorageException[] errors) {
+                super.ionicKeyIdsFromBlobs(blobIds, keyIds, salts, generations, errors);
+                // Replaced with a new key after its key id was resolved.
+                create(BlobInfo.newBuilder(blobId).build(), content(30));
+            }
+        };
+        List<GoogleIonicStorage.IonicKeyBytesResult> results =
+                replacing.readAllBytes(Arrays.asList(blobId, other), Runnable::run);
+
+        assertEquals("Replaced blob was read with the key of its old generation.", 404,
+                results.get(0).getException().getCode());
+        assertArrayEquals(content(20), results.get(1).getKeyBytesPair().byteArray());
+    }
+}
@@ -0,0 +1,75 @@
+/*
+ * (c) 2017-2021 Ionic Security Inc. By using this code, I agree to the Terms & Conditions
+ * (https://dev.ionic.com/use) and the Privacy Policy (https://www.ionic.com/privacy-notice/).
+ */
+
+package com.ionic.cloudstorage.gcs;
+
+import static org.junit.Assert.*;
+
+import com.ionic.sdk.agent.Agent;
+import com.ionic.sdk.agent.data.MetadataMap;
+import org.junit.Test;
+
+public class UTIonicAgentPoolTest {
+
+    @Test
+    public void disabledByDefault() {
+        GoogleIonicStorage ionicStorage = new GoogleIonicStorage(new StorageStub());
+        assertNull("Agent pool was enabled by default.", ionicStorage.getAgentPool());
+        ionicStorage.enableAgentPool(4);
+        assertEquals(4, ionicStorage.getAgentPool().getMaxSize());
+        ionicStorage.disableAgentPool();
+        assertNull(ionicStorage.getAgentPool());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void invalidSize() {
+        new IonicAgentPool(new Agent(), 0);
+    }
+
+    @Test
+    public void reusesReleasedAgents() {
+        Agent agent = new Agent();
+        IonicAgentPool pool = new IonicAgentPool(agent, 1);
+        Agent first = pool.borrow();
+        Agent second = pool.borrow();
+        assertNotSame(agent, first);
+        assertNotSame(first, second);
+        assertEquals(2, pool.getCreatedCount());
+
+        pool.release(first);
+        pool.release(second);
+        assertEquals(1, pool.getIdleCount());
+        assertEquals(1, pool.getDiscardedCount());
+        assertSame(first, pool.borrow());
+        assertNull(pool.take());
+        assertEquals(2, pool.getCreatedCount());
+    }
+
+    @Test
+    public void discardsStaleAgents() {
+        Agent agent = new Agent();
+        IonicAgentPool pool = new IonicAgentPool(agent, 2);
+        Agent borrowed = pool.borrow();
+        pool.release(pool.borrow());
+        MetadataMap metadata = new MetadataMap();
+        metadata.set("ionic-application-name", "test");
+        agent.setMetadata(metadata);
+
+        pool.release(borrowed);
+        assertNull(pool.take());
+        assertEquals(2, pool.getDiscardedCount());
+        assertEquals("test", pool.borrow().getMetadata("ionic-application-name"));
+    }
+
+    @Test
+    public void setAgentReplacesPool() {
+        GoogleIonicStorage ionicStorage = new GoogleIonicStorage(new StorageStub());
+        ionicStorage.enableAgentPool(2);
+        IonicAgentPool pool = ionicStorage.getAgentPool();
+        ionicStorage.setAgent(new Agent());
+        assertNotSame(pool, ionicStorage.getAgentPool());
+        assertEquals(2, ionicStorage.getAgentPool().getMaxSize());
+    }
+}
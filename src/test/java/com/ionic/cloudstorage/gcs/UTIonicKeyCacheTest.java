@@ -0,0 +1,101 @@
+/*
+ * (c) 2017-2021 Ionic Security Inc. By using this code, I agree to the Terms & Conditions
+ * (https://dev.ionic.com/use) and the Privacy Policy (https://www.ionic.com/privacy-notice/).
+ */
+
+package com.ionic.cloudstorage.gcs;
+
+import static org.junit.Assert.*;
+
+import com.google.cloud.storage.Storage;
+import com.ionic.sdk.agent.Agent;
+import com.ionic.sdk.agent.request.getkey.GetKeysResponse;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+
+public class UTIonicKeyCacheTest {
+
+    private GetKeysResponse.Key key(String id) {
+        return new GetKeysResponse.Key(id, new byte[32], "");
+    }
+
+    @Test
+    public void disabledByDefault() {
+        GoogleIonicStorage ionicStorage = new GoogleIonicStorage(new StorageStub());
+        assertNull("Key cache was enabled by default.", ionicStorage.getKeyCache());
+        ionicStorage.enableKeyCache(10, 1, TimeUnit.MINUTES);
+        assertEquals(10, ionicStorage.getKeyCache().getMaxSize());
+        ionicStorage.disableKeyCache();
+        assertNull(ionicStorage.getKeyCache());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void invalidSize() {
+        new IonicKeyCache(0, 1, TimeUnit.MINUTES);
+    }
+
+    @Test
+    public void hitsAndMisses() {
+        IonicKeyCache cache = new IonicKeyCache(10, 1, TimeUnit.MINUTES);
+        assertNull(cache.get("a"));
+        cache.put(key("a"));
+        assertEquals("a", cache.get("a").getId());
+        assertEquals(1, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+    }
+
+    @Test
+    public void evictsLeastRecentlyUsed() {
+        IonicKeyCache cache = new IonicKeyCache(2, 1, TimeUnit.MINUTES);
+        cache.put(key("a"));
+        cache.put(key("b"));
+        cache.get("a");
+        cache.put(key("c"));
+        assertEquals(2, cache.size());
+        assertEquals(1, cache.getEvictionCount());
+        assertNull("Least recently used key was not evicted.", cache.get("b"));
+        assertNotNull(cache.get("a"));
+    }
+
+    @Test
+    public void expiresAfterTtl() throws InterruptedException {
+        IonicKeyCache cache = new IonicKeyCache(10, 20, TimeUnit.MILLISECONDS);
+        cache.put(key("a"));
+        Thread.sleep(40);
+        assertNull("Expired key was returned.", cache.get("a"));
+        assertEquals(1, cache.getEvictionCount());
+    }
+
+    @Test
+    public void invalidation() {
+        GoogleIonicStorage ionicStorage = new GoogleIonicStorage(new StorageStub());
+        ionicStorage.enableKeyCache(10, 1, TimeUnit.MINUTES);
+        IonicKeyCache cache = ionicStorage.getKeyCache();
+        cache.put(key("a"));
+        cache.put(key("b"));
+        cache.invalidate("a");
+        assertNull(cache.get("a"));
+        assertNotNull(cache.get("b"));
+
+        ionicStorage.setAgent(new Agent());
+        assertEquals("Cached keys survived an Agent change.", 0, cache.size());
+    }
+
+    @Test
+    public void preparedOptionsHeldNextToKey() {
+        GoogleIonicStorage ionicStorage = new GoogleIonicStorage(new StorageStub());
+        GetKeysResponse.Key cached = key("a");
+        assertNotSame(ionicStorage.csekOptions(cached), ionicStorage.csekOptions(cached));
+
+        ionicStorage.enableKeyCache(10, 1, TimeUnit.MINUTES);
+        ionicStorage.getKeyCache().put(cached);
+        assertSame(ionicStorage.sourceOptionsWithDecryption(cached),
+                ionicStorage.sourceOptionsWithDecryption(cached));
+        assertEquals(2, ionicStorage.sourceOptionsWithDecryption(cached,
+                Storage.BlobSourceOption.generationMatch()).length);
+        assertNotSame("Options of an uncached key with a cached id were reused.",
+                ionicStorage.csekOptions(cached), ionicStorage.csekOptions(key("a")));
+        assertEquals(Storage.BlobSourceOption.decryptionKey(cached.getSecretKey()),
+                ionicStorage.sourceOptionsWithDecryption(cached)[0]);
+    }
+}
@@ -0,0 +1,105 @@
+/*
+ * (c) 2017-2021 Ionic Security Inc. By using this code, I agree to the Terms & Conditions
+ * (https://dev.ionic.com/use) and the Privacy Policy (https://www.ionic.com/privacy-notice/).
+ */
+
+package com.ionic.cloudstorage.gcs;
+
+import static org.junit.Assert.*;
+
+import com.google.cloud.storage.BlobId;
+import com.google.cloud.storage.BlobInfo;
+import com.google.cloud.storage.Storage.CopyRequest;
+import com.google.common.io.BaseEncoding;
+import com.ionic.sdk.agent.request.getkey.GetKeysResponse;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+
+public class UTIonicKeyDerivationTest {
+
+    private final InMemoryIonicStorage ionicStorage = new InMemoryIonicStorage();
+
+    private Map<String, String> metadata(BlobId blobId) {
+        return ionicStorage.getGoogleStorage().get(blobId).getMetadata();
+    }
+
+    @Test
+    public void rfc5869TestCase1() {
+        BaseEncoding hex = BaseEncoding.base16().lowerCase();
+        byte[] okm = Hkdf.derive(hex.decode("0b0b0b0b0b0b0b0b0b0b0b0b0b0b0b0b0b0b0b0b0b0b"),
+                hex.decode("000102030405060708090a0b0c"), hex.decode("f0f1f2f3f4f5f6f7f8f9"), 42);
+        assertEquals("3cb25f25faacd57a90434f64d0362f2a2d2d0a90cf1a5a4c5db02d56ecc4c5bf"
+                + "34007208d5b887185865", hex.encode(okm));
+    }
+
+    @Test
+    public void disabledByDefault() {
+        assertNull("Key derivation was enabled by default.", ionicStorage.getKeyDerivation());
+        ionicStorage.enableKeyDerivation(10, 1, TimeUnit.MINUTES);
+        assertEquals(10, ionicStorage.getKeyDerivation().getMaxUses());
+        ionicStorage.disableKeyDerivation();
+        assertNull(ionicStorage.getKeyDerivation());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void invalidMaxUses() {
+        new IonicKeyDerivation(0, 1, TimeUnit.MINUTES);
+    }
+
+    @Test
+    public void sharedIonicKeyDistinctBlobKeys() {
+        ionicStorage.enableKeyDerivation(3, 1, TimeUnit.MINUTES);
+        for (int i = 0; i < 5; i++) {
+            ionicStorage.create(BlobInfo.newBuilder("bucket", "blob" + i).build(), new byte[] {
+                    (byte) i});
+        }
+        assertEquals(2, ionicStorage.getKeyServices().getCreateRequestCount());
+        assertEquals(2, ionicStorage.getKeyDerivation().getParentKeyCount());
+        assertEquals(5, ionicStorage.getKeyDerivation().getDerivedKeyCount());
+
+        Map<String, String> first = metadata(BlobId.of("bucket", "blob0"));
+        Map<String, String> second = metadata(BlobId.of("bucket", "blob1"));
+        assertEquals(first.get(GoogleIonicStorage.IONICMETACONSTANT),
+                second.get(GoogleIonicStorage.IONICMETACONSTANT));
+        assertNotEquals(first.get(GoogleIonicStorage.IONICSALTCONSTANT),
+                second.get(GoogleIonicStorage.IONICSALTCONSTANT));
+
+        // Readable without derivation enabled, with one key fetch for the shared key.
+        ionicStorage.disableKeyDerivation();
+        ionicStorage.enableKeyCache(10, 1, TimeUnit.MINUTES);
+        GetKeysResponse.Key firstKey = ionicStorage.readAllBytesAndKey(
+                BlobId.of("bucket", "blob0")).getKey();
+        GetKeysResponse.Key secondKey = ionicStorage.readAllBytesAndKey(
+                BlobId.of("bucket", "blob1")).getKey();
+        assertFalse(Arrays.equals(firstKey.getKey(), secondKey.getKey()));
+        assertEquals(1, ionicStorage.getKeyServices().getGetRequestCount());
+        for (int i = 0; i < 5; i++) {
+            assertArrayEquals(new byte[] {(byte) i},
+                    ionicStorage.readAllBytes(BlobId.of("bucket", "blob" + i)));
+        }
+    }
+
+    @Test
+    public void bulkReadAndCopy() {
+        ionicStorage.enableKeyDerivation(10, 1, TimeUnit.MINUTES);
+        ionicStorage.enableKeyIdCache(10);
+        BlobId source = BlobId.of("bucket", "source");
+        ionicStorage.create(BlobInfo.newBuilder(source).build(), new byte[] {1});
+        ionicStorage.create(BlobInfo.newBuilder("bucket", "other").build(), new byte[] {2});
+
+        List<GoogleIonicStorage.IonicKeyBytesResult> results = ionicStorage.readAllBytes(
+                Arrays.asList(source, BlobId.of("bucket", "other")));
+        assertArrayEquals(new byte[] {1}, results.get(0).getKeyBytesPair().getByteArray());
+        assertArrayEquals(new byte[] {2}, results.get(1).getKeyBytesPair().getByteArray());
+
+        BlobId target = BlobId.of("bucket", "target");
+        ionicStorage.copyEncrypted(CopyRequest.newBuilder().setSource(source)
+                .setTarget(BlobInfo.newBuilder(target).build()).build()).getResult();
+        assertEquals(metadata(source).get(GoogleIonicStorage.IONICSALTCONSTANT),
+                metadata(target).get(GoogleIonicStorage.IONICSALTCONSTANT));
+        assertArrayEquals(new byte[] {1}, ionicStorage.readAllBytes(target));
+    }
+}
@@ -0,0 +1,128 @@
+/*
+ * (c) 2017-2021 Ionic Security Inc. By using this code, I agree to the Terms & Conditions
+ * (https://dev.ionic.com/use) and the Privacy Policy (https://www.ionic.com/privacy-notice/).
+ */
+
+package com.ionic.cloudstorage.gcs;
+
+import static org.junit.Assert.*;
+
+import com.google.cloud.storage.BlobId;
+import com.google.cloud.storage.BlobInfo;
+import com.google.cloud.storage.StorageException;
+import com.ionic.sdk.error.AgentErrorModuleConstants;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class UTIonicKeyFetchTest {
+
+    private static final int READERS = 8;
+
+    private final InMemoryIonicStorage ionicStorage = new InMemoryIonicStorage();
+    private final BlobId blobId = BlobId.of("bucket", "blob");
+    private final ExecutorService executor = Executors.newFixedThreadPool(READERS);
+
+    @Before
+    public void setUp() {
+        ionicStorage.create(BlobInfo.newBuilder(blobId).build(), new byte[] {1, 2, 3});
+        ionicStorage.getKeyServices().setLatency(200, TimeUnit.MILLISECONDS);
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    private List<Future<byte[]>> readConcurrently() {
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<byte[]>> reads = new ArrayList<Future<byte[]>>();
+        for (int i = 0; i < READERS; i++) {
+            reads.add(executor.submit(() -> {
+                start.await();
+                return ionicStorage.readAllBytes(blobId);
+            }));
+        }
+        start.countDown();
+        return reads;
+    }
+
+    @Test
+    public void concurrentFetchesCoalesced() throws Exception {
+        for (Future<byte[]> read : readConcurrently()) {
+            assertArrayEquals(new byte[] {1, 2, 3}, read.get());
+        }
+        assertEquals(1, ionicStorage.getKeyServices().getGetRequestCount());
+
+        // Completed fetches are not reused without a key cache.
+        ionicStorage.readAllBytes(blobId);
+        assertEquals(2, ionicStorage.getKeyServices().getGetRequestCount());
+    }
+
+    @Test
+    public void failuresPropagateToEveryWaiter() throws Exception {
+        ionicStorage.getKeyServices().deny(ionicStorage.getGoogleStorage().get(blobId)
+                .getMetadata().get(GoogleIonicStorage.IONICMETACONSTANT));
+        for (Future<byte[]> read : readConcurrently()) {
+            try {
+                read.get();
+                fail("Read a blob whose key is denied.");
+            } catch (ExecutionException e) {
+                assertTrue(e.getCause() instanceof StorageException);
+                assertEquals(AgentErrorModuleConstants.ISAGENT_KEY_DENIED,
+                        ((StorageException) e.getCause()).getCode());
+            }
+        }
+        assertEquals(1, ionicStorage.getKeyServices().getGetRequestCount());
+    }
+
+    @Test
+    public void distinctKeysBatched() throws Exception {
+        ionicStorage.getKeyServices().setLatency(0, TimeUnit.MILLISECONDS);
+        List<BlobId> blobIds = new ArrayList<BlobId>();
+        for (int i = 0; i < READERS; i++) {
+            BlobId id = BlobId.of("bucket", "batched" + i);
+            ionicStorage.create(BlobInfo.newBuilder(id).build(), new byte[] {(byte) i});
+            blobIds.add(id);
+        }
+        String denied = ionicStorage.getGoogleStorage().get(blobIds.get(0)).getMetadata()
+                .get(GoogleIonicStorage.IONICMETACONSTANT);
+        ionicStorage.getKeyServices().deny(denied);
+        ionicStorage.enableKeyFetchBatching(200, TimeUnit.MILLISECONDS, 100);
+
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<byte[]>> reads = new ArrayList<Future<byte[]>>();
+        for (BlobId id : blobIds) {
+            reads.add(executor.submit(() -> {
+                start.await();
+                return ionicStorage.readAllBytes(id);
+            }));
+        }
+        start.countDown();
+        try {
+            reads.get(0).get();
+            fail("Read a blob whose key is denied.");
+        } catch (ExecutionException e) {
+            assertEquals(AgentErrorModuleConstants.ISAGENT_KEY_DENIED,
+                    ((StorageException) e.getCause()).getCode());
+        }
+        for (int i = 1; i < READERS; i++) {
+            assertArrayEquals(new byte[] {(byte) i}, reads.get(i).get());
+        }
+        assertEquals(1, ionicStorage.getKeyServices().getGetRequestCount());
+        assertEquals(1, ionicStorage.getKeyFetchBatcher().getBatchCount());
+
+        ionicStorage.disableKeyFetchBatching();
+        assertNull(ionicStorage.getKeyFetchBatcher());
+        ionicStorage.readAllBytes(blobIds.get(1));
+        assertEquals(2, ionicStorage.getKeyServices().getGetRequestCount());
+    }
+}
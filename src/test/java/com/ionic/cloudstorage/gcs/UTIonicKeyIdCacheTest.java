@@ -0,0 +1,108 @@
+/*
+ * (c) 2017-2021 Ionic Security Inc. By using this code, I agree to the Terms & Conditions
+ * (https://dev.ionic.com/use) and the Privacy Policy (https://www.ionic.com/privacy-notice/).
+ */
+
+package com.ionic.cloudstorage.gcs;
+
+import static org.junit.Assert.*;
+
+import com.google.cloud.storage.Blob;
+import com.google.cloud.storage.BlobId;
+import com.google.cloud.storage.StorageException;
+import com.google.cloud.storage.Storage.BlobGetOption;
+import com.google.cloud.storage.Storage.BlobSourceOption;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+public class UTIonicKeyIdCacheTest {
+
+    @Rule
+    public ExpectedException thrown = ExpectedException.none();
+
+    private final AtomicInteger metadataRequests = new AtomicInteger();
+    private BlobSourceOption[] lastReadOptions;
+    private boolean replaced = false;
+
+    private GoogleIonicStorage ionicStorage = new GoogleIonicStorage(new StorageStub() {
+        @Override
+        public Blob get(BlobId blob, BlobGetOption... options) {
+            metadataRequests.incrementAndGet();
+            return null;
+        }
+
+        @Override
+        public byte[] readAllBytes(BlobId blob, BlobSourceOption... options) {
+            lastReadOptions = options;
+            if (replaced) {
+                throw new StorageException(412, "Precondition Failed");
+            }
+            return new byte[] {1};
+        }
+    });
+
+    @Test
+    public void latestAndExactGenerations() {
+        IonicKeyIdCache cache = new IonicKeyIdCache(10);
+        cache.put(BlobId.of("bucket", "blob"), 2L, "key2");
+        cache.put(BlobId.of("bucket", "blob"), 1L, "key1");
+        assertEquals("key1", cache.get(BlobId.of("bucket", "blob", 1L)).getKeyId());
+        assertEquals("An older generation replaced the latest one.",
+                2L, cache.get(BlobId.of("bucket", "blob")).getGeneration());
+        assertNull(cache.get(BlobId.of("bucket", "blob", 3L)));
+        assertEquals(2, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+
+        cache.invalidate(BlobId.of("bucket", "blob"));
+        assertNull(cache.get(BlobId.of("bucket", "blob")));
+        assertNotNull(cache.get(BlobId.of("bucket", "blob", 2L)));
+    }
+
+    @Test
+    public void boundedSize() {
+        IonicKeyIdCache cache = new IonicKeyIdCache(3);
+        for (long generation = 1; generation <= 5; generation++) {
+            cache.put(BlobId.of("bucket", "blob" + generation), generation, null);
+        }
+        assertEquals(3, cache.size());
+    }
+
+    @Test
+    public void cachedReadUsesGenerationPrecondition() {
+        ionicStorage.enableKeyIdCache(10);
+        ionicStorage.getKeyIdCache().put(BlobId.of("bucket", "blob"), 5L, null);
+
+        ionicStorage.readAllBytesAndKey(BlobId.of("bucket", "blob"));
+        assertEquals("Cached read requested metadata.", 0, metadataRequests.get());
+        assertTrue("Read was not guarded by the cached generation.",
+                Arrays.asList(lastReadOptions).contains(BlobSourceOption.generationMatch(5L)));
+    }
+
+    @Test
+    public void replacedBlobIsReResolved() {
+        ionicStorage.enableKeyIdCache(10);
+        ionicStorage.getKeyIdCache().put(BlobId.of("bucket", "blob"), 5L, null);
+        replaced = true;
+
+        thrown.expect(StorageException.class);
+        thrown.expectMessage("404");
+        try {
+            ionicStorage.readAllBytesAndKey(BlobId.of("bucket", "blob"));
+        } finally {
+            assertEquals("Replaced blob was not re-resolved.", 1, metadataRequests.get());
+            assertNull(ionicStorage.getKeyIdCache().get(BlobId.of("bucket", "blob")));
+        }
+    }
+
+    @Test
+    public void exactGenerationSkipsMetadataRequest() {
+        ionicStorage.enableKeyIdCache(10);
+        ionicStorage.getKeyIdCache().put(BlobId.of("bucket", "blob"), 5L, null);
+
+        ionicStorage.readerAndKey(BlobId.of("bucket", "blob", 5L));
+        assertEquals(0, metadataRequests.get());
+    }
+}
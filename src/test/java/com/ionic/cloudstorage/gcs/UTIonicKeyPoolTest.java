@@ -0,0 +1,180 @@
+/*
+ * (c) 2017-2021 Ionic Security Inc. By using this code, I agree to the Terms & Conditions
+ * (https://dev.ionic.com/use) and the Privacy Policy (https://www.ionic.com/privacy-notice/).
+ */
+
+package com.ionic.cloudstorage.gcs;
+
+import static org.junit.Assert.*;
+
+import com.google.cloud.storage.BlobId;
+import com.google.cloud.storage.BlobInfo;
+import com.ionic.sdk.agent.Agent;
+import com.ionic.sdk.agent.key.KeyAttributesMap;
+import com.ionic.sdk.agent.request.createkey.CreateKeysRequest;
+import com.ionic.sdk.agent.request.createkey.CreateKeysResponse;
+import com.ionic.sdk.error.IonicException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import org.junit.After;
+import org.junit.Test;
+
+public class UTIonicKeyPoolTest {
+
+    private CountingStorage ionicStorage = new CountingStorage();
+
+    static class CountingStorage extends GoogleIonicStorage {
+        final AtomicInteger requests = new AtomicInteger();
+        final AtomicInteger keys = new AtomicInteger();
+
+        CountingStorage() {
+            super(new StorageStub());
+        }
+
+        @Override
+        protected CreateKeysResponse createIonicKeys(CreateKeysRequest request) {
+            requests.incrementAndGet();
+            CreateKeysResponse response = new CreateKeysResponse();
+            for (CreateKeysRequest.Key reqKey : request.getKeys()) {
+                for (int i = 0; i < reqKey.getQuantity(); i++) {
+                    String id = "key" + keys.incrementAndGet();
+                    response.add(new CreateKeysResponse.Key(id, reqKey.getRefId(),
+                            new byte[32], ""));
+                }
+            }
+            return response;
+        }
+    }
+
+    @After
+    public void tearDown() {
+        ionicStorage.disableKeyPool();
+    }
+
+    @Test
+    public void disabledByDefault() {
+        assertNull("Key pool was enabled by default.", ionicStorage.getKeyPool());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void invalidWatermarks() {
+        ionicStorage.enableKeyPool(5, 5);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void refillsFitOneRequest() {
+        ionicStorage.enableKeyPool(5, 1001);
+    }
+
+    @Test
+    public void emptyPoolFallsBackAndRefills() throws InterruptedException {
+        ionicStorage.enableKeyPool(2, 10);
+        IonicKeyPool pool = ionicStorage.getKeyPool();
+        BlobInfo info = BlobInfo.newBuilder(BlobId.of("bucket", "blob")).build();
+
+        GoogleIonicStorage.KeyInfoPair pair =
+                ionicStorage.createIonicKey(new CreateKeysRequest.Key(""), info);
+        assertNotNull("No key was returned while the pool was empty.", pair.key);
+        assertEquals("Blob metadata was not stamped with the key id.", pair.key.getId(),
+                pair.info.getMetadata().get(GoogleIonicStorage.IONICMETACONSTANT));
+        assertEquals(1, pool.getMissCount());
+        pool.awaitRefills();
+        assertEquals("An attribute set used once was refilled.", 0, pool.size());
+
+        ionicStorage.createIonicKey(new CreateKeysRequest.Key(""), info);
+        assertEquals(2, pool.getMissCount());
+        pool.awaitRefills();
+        assertEquals("Pool was not refilled to the high watermark.", 10, pool.size());
+        int requests = ionicStorage.requests.get();
+
+        for (int i = 0; i < 8; i++) {
+            ionicStorage.createIonicKey(new CreateKeysRequest.Key(""), info);
+        }
+        assertEquals(8, pool.getHitCount());
+        pool.awaitRefills();
+        assertEquals("Refill did not use a single multi-key request.",
+                requests + 1, ionicStorage.requests.get());
+    }
+
+    @Test
+    public void poolsAreKeyedByAttributes() throws InterruptedException {
+        ionicStorage.enableKeyPool(0, 4);
+        IonicKeyPool pool = ionicStorage.getKeyPool();
+        BlobInfo info = BlobInfo.newBuilder(BlobId.of("bucket", "blob")).build();
+        KeyAttributesMap attributes = new KeyAttributesMap();
+        attributes.put("classification", Arrays.asList("restricted"));
+
+        ionicStorage.createIonicKey(new CreateKeysRequest.Key(""), info);
+        ionicStorage.createIonicKey(new CreateKeysRequest.Key(""), info);
+        pool.awaitRefills();
+        ionicStorage.createIonicKey(new CreateKeysRequest.Key("", 1, attributes), info);
+        assertEquals("A key pooled for other attributes was served.", 3, pool.getMissCount());
+    }
+
+    @Test
+    public void setAgentClearsPool() throws InterruptedException, IonicException {
+        ionicStorage.enableKeyPool(2, 6);
+        IonicKeyPool pool = ionicStorage.getKeyPool();
+        BlobInfo info = BlobInfo.newBuilder(BlobId.of("bucket", "blob")).build();
+        ionicStorage.createIonicKey(new CreateKeysRequest.Key(""), info);
+        ionicStorage.createIonicKey(new CreateKeysRequest.Key(""), info);
+        pool.awaitRefills();
+
+        ionicStorage.setAgent(new Agent());
+        assertEquals("Pooled keys survived an Agent change.", 0, pool.size());
+    }
+
+    @Test
+    public void poolsAreBounded() throws InterruptedException {
+        ionicStorage.enableKeyPool(0, 2, 2, 10, TimeUnit.MINUTES);
+        IonicKeyPool pool = ionicStorage.getKeyPool();
+        BlobInfo info = BlobInfo.newBuilder(BlobId.of("bucket", "blob")).build();
+        for (int i = 0; i < 5; i++) {
+            KeyAttributesMap attributes = new KeyAttributesMap();
+            attributes.put("index", Collections.singletonList(Integer.toString(i)));
+            ionicStorage.createIonicKey(new CreateKeysRequest.Key("", 1, attributes), info);
+        }
+        assertEquals("Pools were not bounded.", 2, pool.getPoolCount());
+        pool.awaitRefills();
+        assertEquals("Attribute sets used once were refilled.", 0, pool.size());
+        assertEquals(5, ionicStorage.requests.get());
+    }
+
+    @Test
+    public void expiredKeysDiscarded() throws InterruptedException {
+        AtomicLong now = new AtomicLong();
+        IonicKeyPool pool = new IonicKeyPool(ionicStorage, 0, 3, 1000, 4, 50,
+                TimeUnit.NANOSECONDS, now::get);
+        try {
+            assertNull(pool.take(null, null));
+            assertNull(pool.take(null, null));
+            pool.awaitRefills();
+            assertEquals(3, pool.size());
+            now.addAndGet(50);
+
+            assertNull("An expired key was served.", pool.take(null, null));
+            assertEquals(0, pool.getHitCount());
+            assertEquals(3, pool.getExpiredCount());
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void metadataCaptureBypassesPool() throws InterruptedException {
+        ionicStorage.enableKeyPool(2, 6);
+        ionicStorage.setEnabledMetadataCapture(true);
+        IonicKeyPool pool = ionicStorage.getKeyPool();
+        BlobInfo info = BlobInfo.newBuilder(BlobId.of("bucket", "blob")).build();
+        for (int i = 0; i < 3; i++) {
+            ionicStorage.createIonicKey(new CreateKeysRequest.Key(""), info);
+        }
+        pool.awaitRefills();
+        assertEquals(0, pool.getMissCount());
+        assertEquals("Keys were pooled with metadata capture enabled.", 0, pool.getPoolCount());
+        assertEquals(3, ionicStorage.requests.get());
+    }
+}
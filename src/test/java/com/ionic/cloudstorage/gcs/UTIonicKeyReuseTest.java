@@ -0,0 +1,118 @@
+/*
+ * (c) 2017-2021 Ionic Security Inc. By using this code, I agree to the Terms & Conditions
+ * (https://dev.ionic.com/use) and the Privacy Policy (https://www.ionic.com/privacy-notice/).
+ */
+
+package com.ionic.cloudstorage.gcs;
+
+import static org.junit.Assert.*;
+
+import com.google.cloud.storage.BlobId;
+import com.google.cloud.storage.BlobInfo;
+import com.ionic.sdk.agent.key.KeyAttributesMap;
+import com.ionic.sdk.agent.request.createkey.CreateKeysRequest;
+import com.ionic.sdk.agent.request.createkey.CreateKeysResponse;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+import org.junit.Test;
+
+public class UTIonicKeyReuseTest {
+
+    private final InMemoryIonicStorage ionicStorage = new InMemoryIonicStorage();
+    private final AtomicLong now = new AtomicLong();
+    private final AtomicInteger keyCount = new AtomicInteger();
+    private final Supplier<CreateKeysResponse.Key> createKey = () -> new CreateKeysResponse.Key(
+            "key" + keyCount.incrementAndGet(), "", new byte[32], "");
+
+    private String create(String name) {
+        return create(name, new CreateKeysRequest.Key(""));
+    }
+
+    private String create(String name, CreateKeysRequest.Key key) {
+        return ionicStorage.create(BlobInfo.newBuilder("bucket", name).build(), new byte[1], key)
+                .getMetadata().get(GoogleIonicStorage.IONICMETACONSTANT);
+    }
+
+    @Test
+    public void disabledByDefault() {
+        assertNull("Key reuse was enabled by default.", ionicStorage.getKeyReuse());
+        ionicStorage.enableKeyReuse(10, 1, TimeUnit.MINUTES);
+        assertEquals(10, ionicStorage.getKeyReuse().getMaxUses());
+        ionicStorage.disableKeyReuse();
+        assertNull(ionicStorage.getKeyReuse());
+        assertNotEquals(create("a"), create("b"));
+    }
+
+    @Test
+    public void scopedByPrefixAndAttributes() {
+        ionicStorage.enableKeyReuse(2, 1, TimeUnit.MINUTES);
+        String first = create("logs/a");
+        assertEquals(first, create("logs/b"));
+        assertNotEquals("Key was used more than maxUses times.", first, create("logs/c"));
+        assertNotEquals("Key was shared across prefixes.", create("data/a"), create("a"));
+
+        KeyAttributesMap attributes = new KeyAttributesMap();
+        attributes.put("classification", Arrays.asList("restricted"));
+        assertNotEquals("Key was shared across attributes.", create("data/b"),
+                create("data/c", new CreateKeysRequest.Key("", 1, attributes)));
+        assertEquals(5, ionicStorage.getKeyReuse().getCreatedKeyCount());
+        assertEquals(2, ionicStorage.getKeyReuse().getReusedKeyCount());
+        assertArrayEquals(new byte[1], ionicStorage.readAllBytes(BlobId.of("bucket", "logs/b")));
+    }
+
+    @Test
+    public void expiredKeysReplaced() {
+        IonicKeyWindows windows = new IonicKeyWindows(10, 50, now::get);
+        CreateKeysResponse.Key first = windows.take("", null, null, createKey);
+        now.addAndGet(49);
+        assertSame(first, windows.take("", null, null, createKey));
+        now.addAndGet(1);
+        assertNotSame("An expired key was reused.", first,
+                windows.take("", null, null, createKey));
+    }
+
+    @Test
+    public void spentKeysReleased() {
+        ionicStorage.enableKeyReuse(2, 1, TimeUnit.MINUTES);
+        create("used/a");
+        create("used/b");
+        assertEquals("A used up key was kept.", 0, ionicStorage.getKeyReuse().size());
+
+        IonicKeyWindows windows = new IonicKeyWindows(2, 50, now::get);
+        for (int i = 0; i < 10; i++) {
+            windows.take("dir" + i + "/", null, null, createKey);
+        }
+        assertEquals(10, windows.size());
+        now.addAndGet(50);
+        windows.take("fresh/", null, null, createKey);
+        assertEquals("Expired keys of other scopes were kept.", 1, windows.size());
+    }
+
+    @Test
+    public void concurrentUploadsSingleFlighted() throws Exception {
+        ionicStorage.enableKeyReuse(100, 1, TimeUnit.MINUTES);
+        ionicStorage.getKeyServices().setLatency(50, TimeUnit.MILLISECONDS);
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<String>> keyIds = new ArrayList<Future<String>>();
+            for (int i = 0; i < 8; i++) {
+                final String name = "blob" + i;
+                keyIds.add(executor.submit(() -> create(name)));
+            }
+            for (Future<String> keyId : keyIds) {
+                assertEquals(keyIds.get(0).get(), keyId.get());
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        assertEquals(1, ionicStorage.getKeyServices().getCreateRequestCount());
+    }
+}
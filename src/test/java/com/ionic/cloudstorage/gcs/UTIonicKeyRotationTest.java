@@ -0,0 +1,212 @@
+/*
+ * (c) 2017-2021 Ionic Security Inc. By using this code, I agree to the Terms & Conditions
+ * (https://dev.ionic.com/use) and the Privacy Policy (https://www.ionic.com/privacy-notice/).
+ */
+
+package com.ionic.cloudstorage.gcs;
+
+import static org.junit.Assert.*;
+
+import com.google.api.gax.paging.Page;
+import com.google.cloud.storage.Blob;
+import com.google.cloud.storage.BlobId;
+import com.google.cloud.storage.BlobInfo;
+import com.google.cloud.storage.StorageException;
+import com.google.cloud.storage.TestBlobs;
+import com.ionic.cloudstorage.gcs.GoogleIonicStorage.KeyInfoPair;
+import com.ionic.sdk.agent.request.createkey.CreateKeysRequest;
+import com.ionic.sdk.agent.request.createkey.CreateKeysResponse;
+import com.ionic.sdk.agent.request.getkey.GetKeysResponse;
+import com.ionic.sdk.error.IonicException;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class UTIonicKeyRotationTest {
+
+    private final List<Blob> blobs = new ArrayList<Blob>();
+    private final Map<String, String> rotatedTo = new HashMap<String, String>();
+    private final AtomicInteger createRequests = new AtomicInteger();
+    private final AtomicInteger getRequests = new AtomicInteger();
+    private Path checkpoint;
+
+    private GoogleIonicStorage ionicStorage = new GoogleIonicStorage(new StorageStub() {
+        @Override
+        public Page<Blob> list(String bucket, BlobListOption... options) {
+            return new Page<Blob>() {
+                public boolean hasNextPage() { return false; }
+
+                public String getNextPageToken() { return null; }
+
+                public Page<Blob> getNextPage() { return null; }
+
+                public Iterable<Blob> iterateAll() { return blobs; }
+
+                public Iterable<Blob> getValues() { return blobs; }
+            };
+        }
+
+        @Override
+        public Blob get(BlobId blobId) {
+            for (Blob blob : blobs) {
+                if (blob.getName().equals(blobId.getName())) {
+                    return blob;
+                }
+            }
+            return null;
+        }
+    }) {
+        @Override
+        protected CreateKeysResponse createIonicKeys(CreateKeysRequest request)
+                throws IonicException {
+            createRequests.incrementAndGet();
+            CreateKeysResponse response = new CreateKeysResponse();
+            for (CreateKeysRequest.Key key : request.getKeys()) {
+                response.add(new CreateKeysResponse.Key(key.getRefId(),
+                        "new" + key.getRefId(), new byte[32], ""));
+            }
+            return response;
+        }
+
+        @Override
+        protected Map<String, GetKeysResponse.Key> resolveIonicKeys(Collection<String> keyIds,
+                Map<String, StorageException> errors) {
+            getRequests.incrementAndGet();
+            Map<String, GetKeysResponse.Key> keys = new HashMap<String, GetKeysResponse.Key>();
+            for (String keyId : keyIds) {
+                if (keyId.equals("denied")) {
+                    errors.put(keyId, new StorageException(40024, "Denied"));
+                } else {
+                    keys.put(keyId, new GetKeysResponse.Key(keyId, new byte[32], ""));
+                }
+            }
+            return keys;
+        }
+    };
+
+    private class RecordingRotation extends IonicKeyRotation {
+        private String failOn;
+
+        RecordingRotation() {
+            super(ionicStorage, "bucket", "prefix/");
+        }
+
+        @Override
+        void rewrite(Blob source, GetKeysResponse.Key sourceKey, KeyInfoPair pair) {
+            assertEquals(source.getMetadata().get(GoogleIonicStorage.IONICMETACONSTANT),
+                    sourceKey.getId());
+            assertEquals(source.getGeneration(), pair.info.getGeneration());
+            if (source.getName().equals(failOn)) {
+                throw new IllegalStateException("Stopped");
+            }
+            if (source.getName().endsWith("replaced")) {
+                throw new StorageException(412, "Precondition Failed");
+            }
+            synchronized (rotatedTo) {
+                rotatedTo.put(source.getName(), pair.key.getId());
+            }
+        }
+    }
+
+    private void addBlob(String name, String keyId) {
+        Map<String, String> metadata = keyId == null ? null
+                : Collections.singletonMap(GoogleIonicStorage.IONICMETACONSTANT, keyId);
+        blobs.add(TestBlobs.blob(ionicStorage, BlobInfo.newBuilder(
+                BlobId.of("bucket", name, 1L)).setMetadata(metadata).build()));
+    }
+
+    @Before
+    public void setUp() throws IOException {
+        checkpoint = Files.createTempFile("ionic-rotation", ".checkpoint");
+        Files.delete(checkpoint);
+        for (int i = 0; i < 10; i++) {
+            addBlob("prefix/" + i, "old" + i);
+        }
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(checkpoint);
+    }
+
+    @Test
+    public void rotatesInBatches() throws IOException {
+        addBlob("prefix/plain", null);
+        addBlob("prefix/denied", "denied");
+        addBlob("prefix/replaced", "old");
+        RecordingRotation rotation = new RecordingRotation();
+        rotation.setBatchSize(5);
+        rotation.setParallelism(3);
+        rotation.setCheckpoint(checkpoint);
+        rotation.run();
+
+        assertEquals(10, rotation.getRotatedCount());
+        assertEquals(1, rotation.getSkippedCount());
+        assertEquals(2, rotation.getFailures().size());
+        assertEquals(412, rotation.getFailures().get(BlobId.of("bucket", "prefix/replaced", 1L))
+                .getCode());
+        assertEquals("Keys were not fetched and created per batch.", 3, getRequests.get());
+        assertEquals(3, createRequests.get());
+        assertEquals(10, rotatedTo.size());
+        assertEquals("Failed blobs were not kept for the next run.",
+                "prefix/replaced\nprefix/denied\nprefix/replaced",
+                new String(Files.readAllBytes(checkpoint), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void failuresRetriedOnNextRun() throws IOException {
+        addBlob("prefix/deleted", "denied");
+        addBlob("prefix/denied", "denied");
+        RecordingRotation rotation = new RecordingRotation();
+        rotation.setCheckpoint(checkpoint);
+        rotation.run();
+        assertEquals(2, rotation.getFailures().size());
+
+        // Access to the key was granted and one blob was deleted since; nothing was added.
+        blobs.clear();
+        addBlob("prefix/denied", "granted");
+        rotatedTo.clear();
+        RecordingRotation retry = new RecordingRotation();
+        retry.setCheckpoint(checkpoint);
+        retry.run();
+        assertEquals(Collections.singleton("prefix/denied"), rotatedTo.keySet());
+        assertEquals(1, retry.getRotatedCount());
+        assertTrue(retry.getFailures().isEmpty());
+        assertFalse("Completed run left its checkpoint.", Files.exists(checkpoint));
+    }
+
+    @Test
+    public void resumesFromCheckpoint() throws IOException {
+        RecordingRotation rotation = new RecordingRotation();
+        rotation.setBatchSize(4);
+        rotation.setCheckpoint(checkpoint);
+        rotation.failOn = "prefix/6";
+        try {
+            rotation.run();
+            fail("Expected the run to stop.");
+        } catch (StorageException e) {
+            assertEquals("Stopped", e.getMessage());
+        }
+        assertEquals("prefix/3",
+                new String(Files.readAllBytes(checkpoint), StandardCharsets.UTF_8));
+
+        // The listing resumes at the checkpointed blob, which is not rotated again.
+        blobs.subList(0, 3).clear();
+        rotatedTo.clear();
+        rotation.failOn = null;
+        rotation.run();
+        assertEquals(6, rotatedTo.size());
+        assertFalse(rotatedTo.containsKey("prefix/3"));
+    }
+}
@@ -0,0 +1,145 @@
+/*
+ * (c) 2017-2021 Ionic Security Inc. By using this code, I agree to the Terms & Conditions
+ * (https://dev.ionic.com/use) and the Privacy Policy (https://www.ionic.com/privacy-notice/).
+ */
+
+package com.ionic.cloudstorage.gcs;
+
+import static org.junit.Assert.*;
+
+import com.google.cloud.storage.Blob;
+import com.google.cloud.storage.BlobId;
+import com.google.cloud.storage.BlobInfo;
+import com.google.cloud.storage.StorageException;
+import com.ionic.cloudstorage.gcs.GoogleIonicStorage.KeyInfoPair;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class UTIonicMigrationTest {
+
+    private final InMemoryIonicStorage ionicStorage = new InMemoryIonicStorage();
+    private Path checkpoint;
+
+    private void createPlain(String name) {
+        ionicStorage.getGoogleStorage().create(BlobInfo.newBuilder("bucket", name).build(),
+                name.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private String keyId(String name) {
+        Blob blob = ionicStorage.getGoogleStorage().get(BlobId.of("bucket", name));
+        return GoogleIonicStorage.metadataValue(blob.getMetadata(),
+                GoogleIonicStorage.IONICMETACONSTANT);
+    }
+
+    @Before
+    public void setUp() throws IOException {
+        checkpoint = Files.createTempFile("ionic-migration", ".checkpoint");
+        Files.delete(checkpoint);
+        for (int i = 0; i < 5; i++) {
+            createPlain("legacy/" + i);
+        }
+        createPlain("other/0");
+        ionicStorage.create(BlobInfo.newBuilder("bucket", "legacy/protected").build(),
+                new byte[] {1});
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(checkpoint);
+    }
+
+    @Test
+    public void protectsUnprotectedBlobsInBatches() throws IOException {
+        String protectedKeyId = keyId("legacy/protected");
+        int createRequests = ionicStorage.getKeyServices().getCreateRequestCount();
+        IonicMigration migration = new IonicMigration(ionicStorage, "bucket", "legacy/");
+        migration.setBatchSize(3);
+        migration.setParallelism(2);
+        migration.setCheckpoint(checkpoint);
+        migration.run();
+
+        assertEquals(5, migration.getMigratedCount());
+        assertEquals(1, migration.getSkippedCount());
+        assertTrue(migration.getFailures().isEmpty());
+        assertEquals("Keys were not created per batch.", createRequests + 2,
+                ionicStorage.getKeyServices().getCreateRequestCount());
+        assertEquals(protectedKeyId, keyId("legacy/protected"));
+        assertNull("Blob outside the prefix was migrated.", keyId("other/0"));
+        for (int i = 0; i < 5; i++) {
+            assertNotNull(keyId("legacy/" + i));
+            assertEquals("legacy/" + i, new String(ionicStorage.readAllBytes(
+                    BlobId.of("bucket", "legacy/" + i)), StandardCharsets.UTF_8));
+            try {
+                ionicStorage.getGoogleStorage().readAllBytes(BlobId.of("bucket", "legacy/" + i));
+                fail("Migrated blob was readable without its key.");
+            } catch (StorageException e) {
+                assertEquals(400, e.getCode());
+            }
+        }
+        assertFalse("Checkpoint survived a completed run.", Files.exists(checkpoint));
+    }
+
+    @Test
+    public void resumesFromCheckpoint() throws IOException {
+        IonicMigration migration = new IonicMigration(ionicStorage, "bucket", "legacy/") {
+            @Override
+            void rewrite(Blob source, KeyInfoPair pair) {
+                if (source.getName().equals("legacy/3")) {
+                    throw new IllegalStateException("Stopped");
+                }
+                super.rewrite(source, pair);
+            }
+        };
+        migration.setBatchSize(2);
+        migration.setCheckpoint(checkpoint);
+        try {
+            migration.run();
+            fail("Migration was not stopped.");
+        } catch (StorageException e) {
+            assertTrue(e.getCause() instanceof IllegalStateException);
+            assertEquals("legacy/1",
+                    new String(Files.readAllBytes(checkpoint), StandardCharsets.UTF_8));
+        }
+
+        IonicMigration resumed = new IonicMigration(ionicStorage, "bucket", "legacy/");
+        resumed.setCheckpoint(checkpoint);
+        resumed.run();
+        assertEquals("Resumed run revisited completed batches.", 4,
+                resumed.getMigratedCount() + resumed.getSkippedCount());
+        for (int i = 0; i < 5; i++) {
+            assertTrue(GoogleIonicStorage.isIonicProtected(
+                    ionicStorage.getGoogleStorage().get(BlobId.of("bucket", "legacy/" + i))));
+        }
+    }
+
+    @Test
+    public void deleteSourceKeepsRewrittenBlobs() throws IOException {
+        IonicMigration migration = new IonicMigration(ionicStorage, "bucket", "legacy/");
+        migration.setDeleteSource(true);
+        assertTrue(migration.isDeleteSource());
+        int requests = ionicStorage.getRpc().getRequestCount();
+        migration.run();
+
+        assertEquals(5, migration.getMigratedCount());
+        assertTrue(migration.getFailures().isEmpty());
+        // One list, then a rewrite and a delete of the source generation per migrated blob.
+        assertEquals(requests + 1 + 5 * 2, ionicStorage.getRpc().getRequestCount());
+        for (int i = 0; i < 5; i++) {
+            assertEquals("Deleting the source generation removed the rewritten blob.",
+                    "legacy/" + i, new String(ionicStorage.readAllBytes(
+                            BlobId.of("bucket", "legacy/" + i)), StandardCharsets.UTF_8));
+        }
+    }
+
+    @Test
+    public void unprotectedReadsFetchNoKey() {
+        assertArrayEquals("other/0".getBytes(StandardCharsets.UTF_8),
+                ionicStorage.readAllBytes(BlobId.of("bucket", "other/0")));
+        assertEquals(0, ionicStorage.getKeyServices().getGetRequestCount());
+    }
+}
@@ -0,0 +1,156 @@
+/*
+ * (c) 2017-2021 Ionic Security Inc. By using this code, I agree to the Terms & Conditions
+ * (https://dev.ionic.com/use) and the Privacy Policy (https://www.ionic.com/privacy-notice/).
+ */
+
+package com.ionic.cloudstorage.gcs;
+
+import static org.junit.Assert.*;
+
+import com.google.cloud.storage.BlobId;
+import com.google.cloud.storage.BlobInfo;
+import com.google.cloud.storage.StorageException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Test;
+
+public class UTIonicRequestBatcherTest {
+
+    private static final int UPLOADERS = 8;
+
+    private final InMemoryIonicStorage ionicStorage = new InMemoryIonicStorage();
+    private final ExecutorService executor = Executors.newFixedThreadPool(UPLOADERS);
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    private List<Future<String>> uploadConcurrently() {
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<String>> keyIds = new ArrayList<Future<String>>();
+        for (int i = 0; i < UPLOADERS; i++) {
+            final String name = "blob" + i;
+            keyIds.add(executor.submit(() -> {
+                start.await();
+                return ionicStorage.create(BlobInfo.newBuilder("bucket", name).build(),
+                        name.getBytes()).getMetadata().get(GoogleIonicStorage.IONICMETACONSTANT);
+            }));
+        }
+        start.countDown();
+        return keyIds;
+    }
+
+    @Test
+    public void disabledByDefault() {
+        assertNull("Key creation batching was enabled by default.",
+                ionicStorage.getKeyCreationBatcher());
+        ionicStorage.enableKeyCreationBatching(10, TimeUnit.MILLISECONDS, 100);
+        assertEquals(100, ionicStorage.getKeyCreationBatcher().getMaxBatchSize());
+        assertEquals(10, ionicStorage.getKeyCreationBatcher().getWindow(TimeUnit.MILLISECONDS));
+        ionicStorage.disableKeyCreationBatching();
+        assertNull(ionicStorage.getKeyCreationBatcher());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void maxKeysBounded() {
+        ionicStorage.enableKeyCreationBatching(10, TimeUnit.MILLISECONDS, 1001);
+    }
+
+    @Test
+    public void concurrentCreationsBatched() throws Exception {
+        ionicStorage.enableKeyCreationBatching(200, TimeUnit.MILLISECONDS, 100);
+        Set<String> distinct = new HashSet<String>();
+        for (Future<String> keyId : uploadConcurrently()) {
+            distinct.add(keyId.get());
+        }
+        assertEquals("Uploads shared a key.", UPLOADERS, distinct.size());
+        assertEquals(1, ionicStorage.getKeyServices().getCreateRequestCount());
+        assertEquals(UPLOADERS, ionicStorage.getKeyCreationBatcher().getRequestCount());
+        for (int i = 0; i < UPLOADERS; i++) {
+            assertEquals("blob" + i,
+                    new String(ionicStorage.readAllBytes(BlobId.of("bucket", "blob" + i))));
+        }
+    }
+
+    @Test
+    public void fullBatchesSentImmediately() throws Exception {
+        ionicStorage.enableKeyCreationBatching(1, TimeUnit.MINUTES, 2);
+        long start = System.nanoTime();
+        for (Future<String> keyId : uploadConcurrently()) {
+            assertNotNull(keyId.get());
+        }
+        assertTrue("Full batches waited for the window.",
+                System.nanoTime() - start < TimeUnit.SECONDS.toNanos(30));
+        assertEquals(UPLOADERS / 2, ionicStorage.getKeyServices().getCreateRequestCount());
+    }
+
+    @Test
+    public void failuresPropagateToEveryCaller() throws Exception {
+        IonicRequestBatcher<String, String> batcher = new IonicRequestBatcher<String, String>(
+                100, TimeUnit.MILLISECONDS, 10, 10, batch -> {
+                    throw new StorageException(403, "denied");
+                });
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<String>> results = new ArrayList<Future<String>>();
+        for (int i = 0; i < 4; i++) {
+            final String request = "request" + i;
+            results.add(executor.submit(() -> {
+                start.await();
+                return batcher.submit(request);
+            }));
+        }
+        start.countDown();
+        for (Future<String> result : results) {
+            try {
+                result.get();
+                fail("Batched request succeeded.");
+            } catch (ExecutionException e) {
+                assertEquals(403, ((StorageException) e.getCause()).getCode());
+            }
+        }
+        assertEquals(1, batcher.getBatchCount());
+    }
+
+    @Test
+    public void errorsReleaseEveryCaller() throws Exception {
+        IonicRequestBatcher<String, String> batcher = new IonicRequestBatcher<String, String>(
+                100, TimeUnit.MILLISECONDS, 10, 10, batch -> {
+                    throw new LinkageError("broken");
+                });
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<String>> results = new ArrayList<Future<String>>();
+        for (int i = 0; i < 4; i++) {
+            final String request = "request" + i;
+            results.add(executor.submit(() -> {
+                start.await();
+                return batcher.submit(request);
+            }));
+        }
+        start.countDown();
+        int errors = 0;
+        for (Future<String> result : results) {
+            try {
+                result.get(30, TimeUnit.SECONDS);
+                fail("Batched request succeeded.");
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof LinkageError) {
+                    errors++;
+                } else {
+                    assertTrue(e.getCause() instanceof StorageException);
+                    assertTrue(e.getCause().getCause().getCause() instanceof LinkageError);
+                }
+            }
+        }
+        assertEquals("The Error was not rethrown to the sending caller.", 1, errors);
+    }
+}
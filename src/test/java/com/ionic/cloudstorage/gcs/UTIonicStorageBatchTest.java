@@ -0,0 +1,212 @@
+/*
+ * (c) 2017-2021 Ionic Security Inc. By using this code, I agree to the Terms & Conditions
+ * (https://dev.ionic.com/use) and the Privacy Policy (https://www.ionic.com/privacy-notice/).
+ */
+
+package com.ionic.cloudstorage.gcs;
+
+import static org.junit.Assert.*;
+
+import com.google.api.client.googleapis.json.GoogleJsonError;
+import com.google.api.services.storage.model.StorageObject;
+import com.google.cloud.storage.Blob;
+import com.google.cloud.storage.BlobId;
+import com.google.cloud.storage.BlobInfo;
+import com.google.cloud.storage.StorageBatch;
+import com.google.cloud.storage.StorageException;
+import com.google.cloud.storage.TestStorageBatches;
+import com.google.cloud.storage.spi.v1.RpcBatch;
+import com.google.cloud.storage.spi.v1.StorageRpc;
+import com.ionic.sdk.agent.request.getkey.GetKeysResponse;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.junit.Test;
+
+public class UTIonicStorageBatchTest {
+
+    private final Map<String, StorageObject> objects = new HashMap<String, StorageObject>();
+    private final List<StorageObject> patches = new ArrayList<StorageObject>();
+    private final List<Map<StorageRpc.Option, ?>> patchOptions =
+            new ArrayList<Map<StorageRpc.Option, ?>>();
+    private final List<String> deletes = new ArrayList<String>();
+    private int submits = 0;
+    private int keyRequests = 0;
+
+    private class FakeRpcBatch implements RpcBatch {
+        private final List<Runnable> operations = new ArrayList<Runnable>();
+
+        public void addDelete(StorageObject object, Callback<Void> callback,
+                Map<StorageRpc.Option, ?> options) {
+            operations.add(() -> {
+                deletes.add(object.getName());
+                callback.onSuccess(null);
+            });
+        }
+
+        public void addPatch(StorageObject object, Callback<StorageObject> callback,
+                Map<StorageRpc.Option, ?> options) {
+            operations.add(() -> {
+                patches.add(object);
+                patchOptions.add(options);
+                StorageObject stored = objects.get(object.getName());
+                Object generationMatch = options.get(StorageRpc.Option.IF_GENERATION_MATCH);
+                if (stored != null && generationMatch != null
+                        && !generationMatch.equals(stored.getGeneration())) {
+                    GoogleJsonError error = new GoogleJsonError();
+                    error.setCode(412);
+                    callback.onFailure(error);
+                } else {
+                    callback.onSuccess(object);
+                }
+            });
+        }
+
+        public void addGet(StorageObject object, Callback<StorageObject> callback,
+                Map<StorageRpc.Option, ?> options) {
+            operations.add(() -> {
+                StorageObject stored = objects.get(object.getName());
+                if (stored == null) {
+                    GoogleJsonError error = new GoogleJsonError();
+                    error.setCode(404);
+                    callback.onFailure(error);
+                } else {
+                    callback.onSuccess(stored);
+                }
+            });
+        }
+
+        public void submit() {
+            submits++;
+            for (Runnable operation : operations) {
+                operation.run();
+            }
+        }
+    }
+
+    private GoogleIonicStorage ionicStorage = new GoogleIonicStorage(new StorageStub() {
+        @Override
+        public StorageBatch batch() {
+            return TestStorageBatches.create(new FakeRpcBatch());
+        }
+    }) {
+        @Override
+        protected Map<String, GetKeysResponse.Key> resolveIonicKeys(Collection<String> keyIds,
+                Map<String, StorageException> errors) {
+            keyRequests++;
+            Map<String, GetKeysResponse.Key> keys = new HashMap<String, GetKeysResponse.Key>();
+            for (String keyId : keyIds) {
+                keys.put(keyId, new GetKeysResponse.Key(keyId, new byte[32], ""));
+            }
+            return keys;
+        }
+    };
+
+    private void addObject(String name, long generation, String keyId) {
+        objects.put(name, new StorageObject().setBucket("bucket").setName(name)
+                .setGeneration(generation)
+                .setMetadata(keyId == null ? null
+                        : Collections.singletonMap(GoogleIonicStorage.IONICMETACONSTANT, keyId)));
+    }
+
+    @Test
+    public void updatePreservesKeyId() {
+        addObject("protected", 5L, "key1");
+        addObject("plain", 2L, null);
+        IonicStorageBatch batch = ionicStorage.ionicBatch();
+        IonicStorageBatch.Result<Blob> updated = batch.update(
+                BlobInfo.newBuilder("bucket", "protected").setContentType("text/plain").build());
+        IonicStorageBatch.Result<Blob> plain = batch.update(
+                BlobInfo.newBuilder("bucket", "plain").setContentType("text/plain").build());
+        IonicStorageBatch.Result<Blob> missing = batch.update(
+                BlobInfo.newBuilder("bucket", "missing").build());
+        batch.submit();
+
+        assertEquals("Key ids were not fetched with one batch.", 2, submits);
+        assertTrue(updated.isSuccessful());
+        assertEquals("key1", updated.get().getMetadata().get(GoogleIonicStorage.IONICMETACONSTANT));
+        assertEquals(5L, patchOptions.get(0).get(StorageRpc.Option.IF_GENERATION_MATCH));
+        assertNull(patches.get(1).getMetadata());
+        assertEquals("Update of an unprotected blob was not conditional.", 2L,
+                patchOptions.get(1).get(StorageRpc.Option.IF_GENERATION_MATCH));
+        assertTrue(plain.isSuccessful());
+        assertEquals(404, missing.getException().getCode());
+        assertEquals(2, patches.size());
+    }
+
+    @Test
+    public void cachedKeyIdSkipsMetadataBatch() {
+        ionicStorage.enableKeyIdCache(10);
+        ionicStorage.getKeyIdCache().put(BlobId.of("bucket", "protected"), 5L, "key1");
+        IonicStorageBatch batch = ionicStorage.ionicBatch();
+        IonicStorageBatch.Result<Blob> updated = batch.update(
+                BlobInfo.newBuilder("bucket", "protected").build());
+        batch.submit();
+
+        assertEquals(1, submits);
+        assertEquals("key1", updated.get().getMetadata().get(GoogleIonicStorage.IONICMETACONSTANT));
+        assertEquals(5L, patchOptions.get(0).get(StorageRpc.Option.IF_GENERATION_MATCH));
+    }
+
+    @Test
+    public void staleCachedKeyIdRetried() {
+        ionicStorage.enableKeyIdCache(10);
+        // Cached as unprotected, since replaced by a protected generation.
+        ionicStorage.getKeyIdCache().put(BlobId.of("bucket", "replaced"), 5L, null);
+        addObject("replaced", 6L, "key2");
+        IonicStorageBatch batch = ionicStorage.ionicBatch();
+        IonicStorageBatch.Result<Blob> updated = batch.update(
+                BlobInfo.newBuilder("bucket", "replaced").setContentType("text/plain").build());
+        batch.submit();
+
+        assertEquals("Stale update was not retried after one metadata batch.", 3, submits);
+        assertEquals(5L, patchOptions.get(0).get(StorageRpc.Option.IF_GENERATION_MATCH));
+        assertEquals(6L, patchOptions.get(1).get(StorageRpc.Option.IF_GENERATION_MATCH));
+        assertTrue(updated.isSuccessful());
+        assertEquals("key2", updated.get().getMetadata().get(GoogleIonicStorage.IONICMETACONSTANT));
+        assertEquals("key2",
+                ionicStorage.getKeyIdCache().get(BlobId.of("bucket", "replaced")).getKeyId());
+    }
+
+    @Test
+    public void getAndKeyResolvesKeysTogether() {
+        addObject("a", 1L, "key1");
+        addObject("b", 1L, "key2");
+        addObject("plain", 1L, null);
+        IonicStorageBatch batch = ionicStorage.ionicBatch();
+        IonicStorageBatch.Result<Blob> a = batch.getAndKey(BlobId.of("bucket", "a"));
+        IonicStorageBatch.Result<Blob> b = batch.getAndKey(BlobId.of("bucket", "b"));
+        IonicStorageBatch.Result<Blob> plain = batch.getAndKey(BlobId.of("bucket", "plain"));
+        IonicStorageBatch.Result<Blob> missing = batch.getAndKey(BlobId.of("bucket", "missing"));
+        batch.submit();
+
+        assertEquals(1, submits);
+        assertEquals(1, keyRequests);
+        assertEquals("key1", a.getIonicKey().getId());
+        assertEquals("key2", b.getIonicKey().getId());
+        assertNull(plain.getIonicKey());
+        assertTrue(missing.isSuccessful());
+        assertNull(missing.get());
+    }
+
+    @Test
+    public void deleteInvalidatesKeyIdCache() {
+        ionicStorage.enableKeyIdCache(10);
+        ionicStorage.getKeyIdCache().put(BlobId.of("bucket", "blob"), 5L, "key1");
+        IonicStorageBatch batch = ionicStorage.ionicBatch();
+        IonicStorageBatch.Result<Boolean> deleted = batch.delete(BlobId.of("bucket", "blob"));
+        batch.submit();
+
+        assertTrue(deleted.get());
+        assertEquals(Collections.singletonList("blob"), deletes);
+        assertNull(ionicStorage.getKeyIdCache().get(BlobId.of("bucket", "blob")));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void resultsRequireSubmit() {
+        ionicStorage.ionicBatch().delete(BlobId.of("bucket", "blob")).get();
+    }
+}
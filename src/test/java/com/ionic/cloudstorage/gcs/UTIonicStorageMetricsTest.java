@@ -0,0 +1,142 @@
+/*
+ * (c) 2017-2021 Ionic Security Inc. By using this code, I agree to the Terms & Conditions
+ * (https://dev.ionic.com/use) and the Privacy Policy (https://www.ionic.com/privacy-notice/).
+ */
+
+package com.ionic.cloudstorage.gcs;
+
+import static org.junit.Assert.*;
+
+import com.google.cloud.ReadChannel;
+import com.google.cloud.storage.BlobId;
+import com.google.cloud.storage.BlobInfo;
+import com.google.cloud.storage.StorageException;
+import com.ionic.sdk.agent.request.createkey.CreateKeysRequest;
+import com.ionic.sdk.agent.request.createkey.CreateKeysResponse;
+import com.ionic.sdk.error.AgentErrorModuleConstants;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.junit.Before;
+import org.junit.Test;
+
+public class UTIonicStorageMetricsTest {
+
+    private final List<String> events = Collections.synchronizedList(new ArrayList<String>());
+    private final InMemoryIonicStorage ionicStorage = new InMemoryIonicStorage();
+    private final BlobId blobId = BlobId.of("bucket", "blob");
+
+    private final IonicStorageMetrics metrics = new IonicStorageMetrics() {
+        @Override
+        public void idcRequest(String operation, int keyCount, long nanos, int errorCode) {
+            assertTrue(nanos >= 0);
+            events.add(operation + " " + keyCount + " " + errorCode);
+        }
+
+        @Override
+        public void storageRequest(String operation, long nanos, long bytes, int errorCode) {
+            assertTrue(nanos >= 0);
+            events.add(operation + " " + bytes + " " + errorCode);
+        }
+
+        @Override
+        public void cacheLookup(String cache, boolean hit) {
+            events.add(cache + " " + (hit ? "hit" : "miss"));
+        }
+    };
+
+    @Before
+    public void setUp() {
+        ionicStorage.enableMetrics(metrics);
+    }
+
+    @Test
+    public void createAndRead() {
+        ionicStorage.enableKeyCache(10, 1, TimeUnit.MINUTES);
+        ionicStorage.create(BlobInfo.newBuilder(blobId).build(), new byte[1000]);
+        ionicStorage.readAllBytes(blobId);
+        ionicStorage.readAllBytes(blobId);
+
+        assertEquals(Arrays.asList(
+                "createKeys 1 0", "create 1000 0",
+                "get 0 0", "keyCache miss", "getKeys 1 0", "readAllBytes 1000 0",
+                "get 0 0", "keyCache hit", "readAllBytes 1000 0"), events);
+    }
+
+    @Test
+    public void readerRecordedOnClose() throws IOException {
+        ionicStorage.create(BlobInfo.newBuilder(blobId).build(), new byte[300]);
+        events.clear();
+        try (ReadChannel reader = ionicStorage.reader(blobId)) {
+            ByteBuffer buffer = ByteBuffer.allocate(100);
+            while (reader.read(buffer) > 0) {
+                buffer.clear();
+            }
+            assertFalse(events.contains("reader 300 0"));
+        }
+        assertTrue(events.contains("reader 300 0"));
+    }
+
+    @Test
+    public void errorCodes() {
+        try {
+            ionicStorage.getGoogleStorage().readAllBytes(blobId);
+            fail("Read a blob that does not exist.");
+        } catch (StorageException e) {
+            assertEquals("readAllBytes 0 404", events.get(events.size() - 1));
+        }
+        ionicStorage.create(BlobInfo.newBuilder(blobId).build(), new byte[10]);
+        ionicStorage.getKeyServices().deny(ionicStorage.getGoogleStorage().get(blobId)
+                .getMetadata().get(GoogleIonicStorage.IONICMETACONSTANT));
+        try {
+            ionicStorage.readAllBytes(blobId);
+            fail("Read a blob whose key is denied.");
+        } catch (StorageException e) {
+            assertEquals("getKeys 1 " + AgentErrorModuleConstants.ISAGENT_KEY_DENIED,
+                    events.get(events.size() - 1));
+        }
+    }
+
+    @Test
+    public void batchesRecorded() {
+        ionicStorage.getGoogleStorage().create(BlobInfo.newBuilder(blobId).build(), new byte[1]);
+        events.clear();
+        IonicStorageBatch batch = ionicStorage.ionicBatch();
+        batch.update(BlobInfo.newBuilder(blobId).setContentType("text/plain").build());
+        batch.submit();
+
+        // The key id lookup, then the update itself.
+        assertEquals(Arrays.asList("batch 0 0", "batch 0 0"), events);
+    }
+
+    @Test
+    public void runtimeFailuresRecorded() {
+        GoogleIonicStorage failing = new InMemoryIonicStorage(new InMemoryStorageRpc(),
+                new FakeKeyServices() {
+                    @Override
+                    public CreateKeysResponse createKeys(CreateKeysRequest request) {
+                        throw new IllegalStateException("Agent failure");
+                    }
+                });
+        failing.enableMetrics(metrics);
+        try {
+            failing.create(BlobInfo.newBuilder(blobId).build(), new byte[10]);
+            fail("Upload succeeded without a key.");
+        } catch (IllegalStateException e) {
+            assertEquals(Arrays.asList("createKeys 1 " + IonicStorageMetrics.UNKNOWN_ERROR),
+                    events);
+        }
+    }
+
+    @Test
+    public void disable() {
+        ionicStorage.disableMetrics();
+        ionicStorage.create(BlobInfo.newBuilder(blobId).build(), new byte[10]);
+        assertNull(ionicStorage.getMetrics());
+        assertTrue(events.isEmpty());
+    }
+}
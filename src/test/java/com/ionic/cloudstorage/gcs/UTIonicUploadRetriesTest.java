@@ -0,0 +1,114 @@
+/*
+ * (c) 2017-2021 Ionic Security Inc. By using this code, I agree to the Terms & Conditions
+ * (https://dev.ionic.com/use) and the Privacy Policy (https://www.ionic.com/privacy-notice/).
+ */
+
+package com.ionic.cloudstorage.gcs;
+
+import static org.junit.Assert.*;
+
+import com.google.cloud.WriteChannel;
+import com.google.cloud.storage.BlobId;
+import com.google.cloud.storage.BlobInfo;
+import com.google.cloud.storage.StorageException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+
+public class UTIonicUploadRetriesTest {
+
+    private final InMemoryIonicStorage ionicStorage = new InMemoryIonicStorage();
+    private final BlobId blobId = BlobId.of("bucket", "blob");
+    private final BlobInfo blobInfo = BlobInfo.newBuilder(blobId).build();
+
+    @Test
+    public void disabledByDefault() {
+        assertNull("Upload retries were enabled by default.", ionicStorage.getUploadRetries());
+        ionicStorage.enableUploadRetries(3, 10, 100, 1000, TimeUnit.MILLISECONDS);
+        assertEquals(3, ionicStorage.getUploadRetries().getMaxAttempts());
+        assertEquals(100, ionicStorage.getUploadRetries().getMaxBackoff(TimeUnit.MILLISECONDS));
+        ionicStorage.disableUploadRetries();
+        assertNull(ionicStorage.getUploadRetries());
+
+        ionicStorage.getRpc().failNext(1, 503);
+        try {
+            ionicStorage.create(blobInfo, new byte[1]);
+            fail("Upload was retried without retries enabled.");
+        } catch (StorageException e) {
+            assertEquals(503, e.getCode());
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void backoffsBounded() {
+        ionicStorage.enableUploadRetries(3, 100, 10, 1000, TimeUnit.MILLISECONDS);
+    }
+
+    @Test
+    public void retriesReuseKey() throws IOException {
+        ionicStorage.enableUploadRetries(3, 1, 10, 60000, TimeUnit.MILLISECONDS);
+        ionicStorage.getRpc().failNext(2, 503);
+        ionicStorage.create(blobInfo, new byte[] {1, 2, 3});
+        assertArrayEquals(new byte[] {1, 2, 3}, ionicStorage.readAllBytes(blobId));
+        assertEquals(1, ionicStorage.getKeyServices().getCreateRequestCount());
+        assertEquals(2, ionicStorage.getUploadRetries().getRetryCount());
+
+        Path path = Files.createTempFile("ionic-retries", ".bin");
+        try {
+            Files.write(path, new byte[] {4, 5});
+            ionicStorage.getRpc().failNext(1, 503);
+            ionicStorage.createFrom(blobInfo, path);
+        } finally {
+            Files.deleteIfExists(path);
+        }
+        assertArrayEquals(new byte[] {4, 5}, ionicStorage.readAllBytes(blobId));
+
+        ionicStorage.getRpc().failNext(1, 503);
+        try (WriteChannel writer = ionicStorage.writer(blobInfo)) {
+            writer.write(ByteBuffer.wrap(new byte[] {6}));
+        }
+        assertArrayEquals(new byte[] {6}, ionicStorage.readAllBytes(blobId));
+        assertEquals(3, ionicStorage.getKeyServices().getCreateRequestCount());
+        assertEquals(4, ionicStorage.getUploadRetries().getRetryCount());
+    }
+
+    @Test
+    public void permanentFailuresNotRetried() {
+        ionicStorage.enableUploadRetries(3, 1, 10, 60000, TimeUnit.MILLISECONDS);
+        ionicStorage.getRpc().failNext(1, 403);
+        try {
+            ionicStorage.create(blobInfo, new byte[1]);
+            fail("Upload of a forbidden blob succeeded.");
+        } catch (StorageException e) {
+            assertEquals(403, e.getCode());
+        }
+        assertEquals(0, ionicStorage.getUploadRetries().getRetryCount());
+    }
+
+    @Test
+    public void attemptsAndDeadlineBounded() {
+        ionicStorage.enableUploadRetries(3, 1, 10, 60000, TimeUnit.MILLISECONDS);
+        ionicStorage.getRpc().failNext(5, 503);
+        try {
+            ionicStorage.create(blobInfo, new byte[1]);
+            fail("Upload succeeded despite failing every attempt.");
+        } catch (StorageException e) {
+            assertEquals(503, e.getCode());
+        }
+        assertEquals(2, ionicStorage.getUploadRetries().getRetryCount());
+
+        ionicStorage.enableUploadRetries(10, 50, 50, 60, TimeUnit.MILLISECONDS);
+        ionicStorage.getRpc().failNext(5, 503);
+        try {
+            ionicStorage.create(blobInfo, new byte[1]);
+            fail("Upload succeeded despite failing every attempt.");
+        } catch (StorageException e) {
+            assertEquals(503, e.getCode());
+        }
+        assertTrue("Upload was retried past its deadline.",
+                ionicStorage.getUploadRetries().getRetryCount() <= 1);
+    }
+}
@@ -0,0 +1,167 @@
+/*
+ * (c) 2017-2021 Ionic Security Inc. By using this code, I agree to the Terms & Conditions
+ * (https://dev.ionic.com/use) and the Privacy Policy (https://www.ionic.com/privacy-notice/).
+ */
+
+package com.ionic.cloudstorage.gcs;
+
+import static org.junit.Assert.*;
+
+import com.google.cloud.RestorableState;
+import com.google.cloud.WriteChannel;
+import com.google.cloud.storage.BlobId;
+import com.google.cloud.storage.BlobInfo;
+import com.google.cloud.storage.StorageException;
+import com.ionic.sdk.agent.request.createkey.CreateKeysRequest;
+import com.ionic.sdk.agent.request.createkey.CreateKeysResponse;
+import com.ionic.sdk.error.AgentErrorModuleConstants;
+import com.ionic.sdk.error.IonicException;
+import java.io.IOException;
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class UTLazyWriteChannelTest {
+
+    private final ExecutorService executor = Executors.newSingleThreadExecutor();
+    private final InMemoryIonicStorage ionicStorage = new InMemoryIonicStorage();
+    private final BlobId blobId = BlobId.of("bucket", "blob");
+
+    @Before
+    public void setUp() {
+        ionicStorage.enableLazyWriters(executor);
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void disabledByDefault() {
+        InMemoryIonicStorage storage = new InMemoryIonicStorage();
+        assertNull("Lazy writers were enabled by default.", storage.getLazyWriterExecutor());
+        storage.enableLazyWriters(executor);
+        assertSame(executor, storage.getLazyWriterExecutor());
+        storage.disableLazyWriters();
+        assertNull(storage.getLazyWriterExecutor());
+    }
+
+    @Test
+    public void firstChunkBufferedWhileKeyCreated() throws IOException {
+        ionicStorage.getKeyServices().setLatency(500, TimeUnit.MILLISECONDS);
+        long start = System.nanoTime();
+        WriteChannel writer = ionicStorage.writer(BlobInfo.newBuilder(blobId).build());
+        writer.write(ByteBuffer.wrap(new byte[] {1, 2, 3}));
+        assertTrue("Write waited for the Ionic Key.",
+                System.nanoTime() - start < TimeUnit.MILLISECONDS.toNanos(400));
+        writer.write(ByteBuffer.wrap(new byte[] {4, 5}));
+        writer.close();
+        assertFalse(writer.isOpen());
+
+        assertEquals(1, ionicStorage.getKeyServices().getCreateRequestCount());
+        assertNotNull(ionicStorage.getGoogleStorage().get(blobId).getMetadata()
+                .get(GoogleIonicStorage.IONICMETACONSTANT));
+        assertArrayEquals(new byte[] {1, 2, 3, 4, 5}, ionicStorage.readAllBytes(blobId));
+    }
+
+    @Test
+    public void writesBeyondChunkWaitForKey() throws IOException {
+        byte[] content = new byte[1000];
+        for (int i = 0; i < content.length; i++) {
+            content[i] = (byte) i;
+        }
+        try (WriteChannel writer = ionicStorage.writer(BlobInfo.newBuilder(blobId).build())) {
+            writer.setChunkSize(4);
+            writer.write(ByteBuffer.wrap(content, 0, 10));
+            writer.write(ByteBuffer.wrap(content, 10, 990));
+        }
+        assertArrayEquals(content, ionicStorage.readAllBytes(blobId));
+    }
+
+    @Test
+    public void abandonedWriterCreatesNoKey() throws IOException {
+        ionicStorage.writer(BlobInfo.newBuilder(blobId).build());
+        assertEquals(0, ionicStorage.getKeyServices().getCreateRequestCount());
+
+        ionicStorage.writer(BlobInfo.newBuilder(blobId).build()).close();
+        assertEquals("Closing an unwritten writer did not create the blob.", 0,
+                ionicStorage.readAllBytes(blobId).length);
+    }
+
+    @Test
+    public void keyFailuresThrownFromWrite() throws IOException {
+        GoogleIonicStorage denied = new InMemoryIonicStorage() {
+            @Override
+            protected CreateKeysResponse createIonicKeys(CreateKeysRequest request)
+                    throws IonicException {
+                throw new IonicException(AgentErrorModuleConstants.ISAGENT_KEY_DENIED);
+            }
+        };
+        denied.enableLazyWriters(executor);
+        WriteChannel writer = denied.writer(BlobInfo.newBuilder(blobId).build());
+        try {
+            // The failure surfaces from write() if the key request has already failed.
+            writer.write(ByteBuffer.wrap(new byte[1]));
+            writer.close();
+            fail("Closed a writer whose key was denied.");
+        } catch (StorageException e) {
+            assertEquals(AgentErrorModuleConstants.ISAGENT_KEY_DENIED, e.getCode());
+        }
+    }
+
+    @Test
+    public void failedFlushNotRepeated() throws IOException {
+        ByteArrayOutputStream written = new ByteArrayOutputStream();
+        boolean[] closed = new boolean[1];
+        WriteChannel failsOnce = new WriteChannel() {
+            private boolean failed = false;
+
+            public int write(ByteBuffer src) throws IOException {
+                int count = src.remaining();
+                byte[] bytes = new byte[count];
+                src.get(bytes);
+                written.write(bytes, 0, count);
+                if (!failed) {
+                    failed = true; // Fails after taking the bytes, as a chunk upload would.
+                    throw new StorageException(503, "Unavailable");
+                }
+                return count;
+            }
+
+            public boolean isOpen() { return !closed[0]; }
+
+            public void close() { closed[0] = true; }
+
+            public void setChunkSize(int chunkSize) {}
+
+            public RestorableState<WriteChannel> capture() { return null; }
+        };
+        Queue<Runnable> tasks = new ArrayDeque<Runnable>();
+        LazyWriteChannel writer = new LazyWriteChannel(tasks::add, () -> failsOnce);
+        writer.write(ByteBuffer.wrap(new byte[] {1, 2, 3}));
+        tasks.poll().run();
+        try {
+            writer.write(ByteBuffer.wrap(new byte[] {4}));
+            fail("Write succeeded although the buffered bytes were not written.");
+        } catch (StorageException e) {
+            assertEquals(503, e.getCode());
+        }
+        try {
+            writer.close();
+            fail("Closed a writer whose buffered bytes were not written.");
+        } catch (IOException e) {
+            assertTrue(e.getCause() instanceof StorageException);
+        }
+        assertArrayEquals("Buffered bytes were written twice.", new byte[] {1, 2, 3},
+                written.toByteArray());
+        assertFalse("Underlying channel was closed after a failed write.", closed[0]);
+    }
+}
@@ -0,0 +1,114 @@
+/*
+ * (c) 2017-2021 Ionic Security Inc. By using this code, I agree to the Terms & Conditions
+ * (https://dev.ionic.com/use) and the Privacy Policy (https://www.ionic.com/privacy-notice/).
+ */
+
+package com.ionic.cloudstorage.gcs;
+
+import static org.junit.Assert.*;
+
+import com.google.cloud.storage.BlobId;
+import com.google.cloud.storage.BlobInfo;
+import com.google.cloud.storage.Storage.BlobListOption;
+import com.google.cloud.storage.StorageException;
+import com.ionic.cloudstorage.gcs.GoogleIonicStorage.IonicBlobKeyResult;
+import com.ionic.sdk.error.AgentErrorModuleConstants;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class UTListWithKeysTest {
+
+    private final InMemoryIonicStorage ionicStorage = new InMemoryIonicStorage();
+    private final ExecutorService executor = Executors.newSingleThreadExecutor();
+
+    @Before
+    public void setUp() {
+        for (int i = 0; i < 5; i++) {
+            ionicStorage.create(BlobInfo.newBuilder("bucket", "dir/" + i).build(),
+                    ("blob" + i).getBytes(StandardCharsets.UTF_8));
+        }
+        ionicStorage.getGoogleStorage().create(BlobInfo.newBuilder("bucket", "dir/plain").build(),
+                "plain".getBytes(StandardCharsets.UTF_8));
+        ionicStorage.create(BlobInfo.newBuilder("bucket", "other").build(), new byte[1]);
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    private List<IonicBlobKeyResult> listAll(Iterator<IonicBlobKeyResult> iterator) {
+        List<IonicBlobKeyResult> results = new ArrayList<IonicBlobKeyResult>();
+        while (iterator.hasNext()) {
+            results.add(iterator.next());
+        }
+        return results;
+    }
+
+    private void assertReadable(List<IonicBlobKeyResult> results) {
+        assertEquals(6, results.size());
+        for (int i = 0; i < 5; i++) {
+            assertEquals("dir/" + i, results.get(i).getBlob().getName());
+            assertNotNull(results.get(i).getKey());
+            assertEquals("blob" + i,
+                    new String(results.get(i).readAllBytes(), StandardCharsets.UTF_8));
+        }
+        assertNull(results.get(5).getKey());
+        assertEquals("plain", new String(results.get(5).readAllBytes(), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void keysResolvedPerPage() {
+        int requests = ionicStorage.getRpc().getRequestCount();
+        Iterator<IonicBlobKeyResult> iterator = ionicStorage.listWithKeys("bucket",
+                BlobListOption.prefix("dir/"), BlobListOption.pageSize(3));
+        List<IonicBlobKeyResult> results = listAll(iterator);
+        assertEquals("Keys were not fetched once per page.", 2,
+                ionicStorage.getKeyServices().getGetRequestCount());
+        assertEquals("Blob metadata was fetched one blob at a time.", 2,
+                ionicStorage.getRpc().getRequestCount() - requests);
+        assertReadable(results);
+        try {
+            iterator.next();
+            fail("Iterator returned more than the listed blobs.");
+        } catch (NoSuchElementException e) {
+            // Expected.
+        }
+    }
+
+    @Test
+    public void nextPagePrefetched() {
+        List<IonicBlobKeyResult> results = listAll(ionicStorage.listWithKeys("bucket", executor,
+                BlobListOption.prefix("dir/"), BlobListOption.pageSize(2)));
+        assertEquals(3, ionicStorage.getKeyServices().getGetRequestCount());
+        assertReadable(results);
+    }
+
+    @Test
+    public void keyFailuresReportedPerBlob() {
+        String denied = ionicStorage.getGoogleStorage().get(BlobId.of("bucket", "dir/1"))
+                .getMetadata().get(GoogleIonicStorage.IONICMETACONSTANT);
+        ionicStorage.getKeyServices().deny(denied);
+        List<IonicBlobKeyResult> results =
+                listAll(ionicStorage.listWithKeys("bucket", BlobListOption.prefix("dir/")));
+        assertFalse(results.get(1).isSuccessful());
+        assertEquals(AgentErrorModuleConstants.ISAGENT_KEY_DENIED,
+                results.get(1).getException().getCode());
+        try {
+            results.get(1).readAllBytes();
+            fail("Read a blob whose key is denied.");
+        } catch (StorageException e) {
+            assertEquals(AgentErrorModuleConstants.ISAGENT_KEY_DENIED, e.getCode());
+        }
+        assertTrue(results.get(2).isSuccessful());
+        assertEquals("blob2", new String(results.get(2).readAllBytes(), StandardCharsets.UTF_8));
+    }
+}